@@ -4,7 +4,7 @@
  * 
  * REQUIREMENTS:
  * -------------
- * 1. Users should be able to search for movies and shows
+ * 1. Users should be able to search for movies and shows (indexed, paginated - see ShowIndex)
  * 2. Users should be able to book seats for a show
  * 3. Multiple users should be able to book different seats concurrently
  * 4. The system should handle race conditions when multiple users try to book the same seat
@@ -27,7 +27,8 @@
  * 
  * KEY DESIGN PATTERNS USED:
  * -------------------------
- * 1. Repository Pattern - For data access (MovieRepository, TheaterRepository, etc.)
+ * 1. Repository Pattern - For data access (MovieRepository, TheaterRepository, etc.);
+ *    repositories are ConcurrentHashMap-backed and booking IDs come from a lock-free IdGenerator
  * 2. Service Pattern - Business logic layer (MovieService, TheaterService, etc.)
  * 3. Strategy Pattern - Payment processing (PaymentStrategy interface)
  * 4. Factory Pattern - Creating payment strategies (PaymentStrategyFactory)
@@ -39,7 +40,12 @@
  * - TTL-based lock expiration to prevent indefinite seat blocking
  * - ConcurrentHashMap for thread-safe lock storage
  * - Atomic operations using compute() for lock acquisition
- * - Background sweeper thread to clean up expired locks
+ * - All-or-nothing batch locking (tryLockAll) with sorted acquisition and rollback
+ * - Background sweeper thread drives a hierarchical timing wheel, so each tick only
+ *   touches the locks that expire in it; LockExpiryListener gets every expired lock
+ * - Per-show seat inventory (ShowSeatInventory) with CAS on packed seat-state words;
+ *   it is local to one app node, so with several nodes a confirmed seat keeps a booked
+ *   marker in the shared LockProvider (markBookedAll) that no other node can lock over
  * 
  * BOOKING FLOW:
  * -------------
@@ -49,32 +55,103 @@
  *    - If successful, booking is created in CREATED state
  * 3. User completes payment (confirmBooking)
  *    - System validates locks are still held by the user
+ *    - Locks are turned into booked markers
  *    - Payment is processed
- *    - Locks are released
  *    - Booking status changes to CONFIRMED
  * 4. If user doesn't complete payment within TTL, locks expire and seats become available
+ * 5. Users who found their seats taken can join the show's waitlist (SeatWaitlistService);
+ *    seats given up by an expired hold or a cancelled booking go straight to a waiter,
+ *    without becoming AVAILABLE to direct bookings in between
  */
 
 package BookMyShowConcurrency;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
 
 class SeatNotAvailableException extends RuntimeException {
     public SeatNotAvailableException(String message) {
         super(message);
     }
 }
+class WaitlistFullException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public WaitlistFullException(String message) {
+        super(message);
+    }
+}
+
+/**
+ * SEAT RELEASE - Seats a user is giving up, while that user still owns them
+ * -------------------------------------------------------------------------
+ * - status: HELD for a cancelled or expired hold, BOOKED for a cancelled booking
+ * - heldBefore: a HELD seat belongs to the release only if its hold ends before this
+ *   time, so a newer hold the same user placed on the seat is never taken with it
+ * 
+ * Until the release is handed over (BookingService.createBookingFrom) or freed
+ * (BookingService.freeSeats), its seats stay owned by userId, so no other booking
+ * can take them first.
+ */
+class SeatRelease{
+    final int showId;
+    final List<Integer> seatIds;
+    final String userId;
+    final SeatStatus status;
+    final long heldBefore;
+    SeatRelease(int showId, List<Integer> seatIds, String userId, SeatStatus status, long heldBefore){
+        this.showId = showId;
+        this.seatIds = seatIds;
+        this.userId = userId;
+        this.status = status;
+        this.heldBefore = heldBefore;
+    }
+}
+/**
+ * SEAT RELEASE LISTENER - Offered booked or held seats before they are given back
+ */
+interface SeatReleaseListener{
+    /**
+     * Returning true takes the release over: the listener must hand the seats on or
+     * free them itself. Returning false leaves freeing them to the caller.
+     */
+    boolean onSeatsReleased(SeatRelease release);
+}
 class BookingService{
     LockProvider lockProvider;
     BookingRepository bookingRepository;
-    public BookingService(LockProvider lockProvider, BookingRepository bookingRepository){
+    ShowRepository showRepository;
+    List<SeatReleaseListener> releaseListeners=new CopyOnWriteArrayList<>();
+    static final long HOLD_TTL_MS=5000;
+    /**
+     * The seat inventory hold outlives the seat lock by this much. When a lock expires
+     * its seats stay unavailable to direct bookings for this long, which gives the
+     * expiry listener (e.g. the waitlist) time to hand them over or free them.
+     */
+    static final long HANDOFF_GRACE_MS=500;
+    static final int HANDOFF_LOCK_ATTEMPTS=3;
+    public BookingService(LockProvider lockProvider, BookingRepository bookingRepository, ShowRepository showRepository){
         this.lockProvider = lockProvider;
         this.bookingRepository = bookingRepository;
+        this.showRepository = showRepository;
+    }
+    public void addSeatReleaseListener(SeatReleaseListener listener){
+        releaseListeners.add(listener);
     }
     
     /**
@@ -83,18 +160,21 @@ class BookingService{
      * This method initiates a seat booking for a user.
      * 
      * WORKFLOW:
-     * 1. Iterate through all requested seat IDs
-     * 2. For each seat, create a unique lock key: "showId:seatId"
-     * 3. Attempt to acquire a lock on the seat with TTL (5000ms = 5 seconds)
+     * 1. Build a unique lock key for every requested seat: "showId:seatId" (duplicates dropped)
+     * 2. Acquire all seat locks in ONE batch call with TTL (HOLD_TTL_MS = 5 seconds)
+     *    - All-or-nothing: if any seat is taken, none of the seats stay locked
      *    - If lock acquisition fails, throw SeatNotAvailableException
      *    - This prevents race conditions when multiple users try to book the same seat
+     * 3. Hold the seats in the show's seat inventory (for HANDOFF_GRACE_MS longer than the locks)
+     *    - Fails if a seat is already BOOKED; the batch locks are then released again
      * 4. Calculate total price by iterating through all seats in the screen
      * 5. Create a Booking object with status = CREATED
      * 6. Store booking in repository
      * 
      * CONCURRENCY HANDLING:
-     * - Each seat is locked individually to allow concurrent bookings of different seats
+     * - Seats are locked individually to allow concurrent bookings of different seats
      * - Lock key format ensures uniqueness across shows and seats
+     * - Batch locking means one round trip per booking, whether it has 1 seat or 10
      * - TTL ensures that if user abandons booking, seats become available again
      * 
      * @param userId - The ID of the user making the booking
@@ -104,19 +184,95 @@ class BookingService{
      * @throws SeatNotAvailableException if any seat cannot be locked
      */
     public Booking createBooking(String userId,Show show,List<Integer>seatId){
-        for(Integer id:seatId){
-            String key=show.getId()+":"+id;
-            if(!lockProvider.tryLock(key,userId,5000)){
-                throw new SeatNotAvailableException("Seat "+id+" is not available for booking");
-            }
+        // A seat listed twice is one seat; the inventory would reject the second hold
+        seatId=new ArrayList<>(new LinkedHashSet<>(seatId));
+        List<String> keys=lockKeys(show.getId(),seatId);
+        if(!lockProvider.tryLockAll(keys,userId,HOLD_TTL_MS)){
+            throw new SeatNotAvailableException("Seats "+seatId+" are not available for booking");
+        }
+        long heldUntil=System.currentTimeMillis()+HOLD_TTL_MS+HANDOFF_GRACE_MS;
+        ShowSeatInventory.Owner owner=show.getSeatInventory().hold(seatId,userId,heldUntil);
+        if(owner==null){
+            lockProvider.unlockAll(keys,userId);
+            throw new SeatNotAvailableException("Seats "+seatId+" are not available for booking");
+        }
+        return newBooking(userId,show,seatId,owner,heldUntil);
+    }
+
+    /**
+     * CREATE BOOKING FROM A RELEASE - Hand seats another user gave up to userId
+     * -------------------------------------------------------------------------
+     * Same as createBooking, except that seats of the release its user still owns are
+     * taken over directly instead of being freed first, so a concurrent createBooking
+     * cannot win them. The other seats must be AVAILABLE. release may be null.
+     * 
+     * A direct createBooking can briefly hold the lock of a released seat before its
+     * inventory hold fails, so the locks are retried a few times.
+     * 
+     * @return Booking object in CREATED state, or null if a seat could not be taken
+     */
+    public Booking createBookingFrom(SeatRelease release,String userId,Show show,List<Integer>seatId){
+        seatId=new ArrayList<>(new LinkedHashSet<>(seatId));
+        List<String> keys=lockKeys(show.getId(),seatId);
+        boolean locked=lockProvider.tryLockAll(keys,userId,HOLD_TTL_MS);
+        for(int attempt=1;!locked&&attempt<HANDOFF_LOCK_ATTEMPTS;attempt++){
+            Thread.yield();
+            locked=lockProvider.tryLockAll(keys,userId,HOLD_TTL_MS);
         }
+        if(!locked){
+            return null;
+        }
+        ShowSeatInventory inventory=show.getSeatInventory();
+        long heldUntil=System.currentTimeMillis()+HOLD_TTL_MS+HANDOFF_GRACE_MS;
+        ShowSeatInventory.Owner owner=release==null
+                ?inventory.hold(seatId,userId,heldUntil)
+                :inventory.handOver(seatId,release.userId,release.status,release.heldBefore,userId,heldUntil);
+        if(owner==null){
+            lockProvider.unlockAll(keys,userId);
+            return null;
+        }
+        return newBooking(userId,show,seatId,owner,heldUntil);
+    }
+
+    /**
+     * Frees the seats of a release that its user still owns.
+     */
+    public void freeSeats(SeatRelease release){
+        Show show=showRepository.getShow(release.showId);
+        if(show==null){
+            return;
+        }
+        if(release.status==SeatStatus.BOOKED){
+            show.getSeatInventory().cancel(release.seatIds,release.userId);
+        }else{
+            show.getSeatInventory().release(release.seatIds,release.userId,release.heldBefore);
+        }
+    }
+
+    /**
+     * The seat of an expired lock as a release. Its inventory hold was placed right
+     * after the lock with HANDOFF_GRACE_MS more TTL, so it ends before
+     * expiryTime + HOLD_TTL_MS + HANDOFF_GRACE_MS. A newer hold by the same user can
+     * only start once that one has ended, so it ends after this bound.
+     */
+    static SeatRelease expiredLockRelease(String key,String userId,long expiryTime){
+        int separator=key.indexOf(':');
+        int showId=Integer.parseInt(key.substring(0,separator));
+        int seatId=Integer.parseInt(key.substring(separator+1));
+        return new SeatRelease(showId,Collections.singletonList(seatId),userId,SeatStatus.HELD,
+                expiryTime+HOLD_TTL_MS+HANDOFF_GRACE_MS);
+    }
+
+    private Booking newBooking(String userId,Show show,List<Integer>seatId,ShowSeatInventory.Owner owner,long heldUntil){
         double totalPrice=0.0;
         for(Seat seat:show.getScreen().getSeats()){
             if(seatId.contains(seat.id)){
                 totalPrice+=seat.price;
             }
         }
-        Booking booking=new Booking(new Random().nextInt(1000),userId,totalPrice,seatId,show.getId(),null);
+        Booking booking=new Booking(bookingRepository.nextId(),userId,totalPrice,seatId,show.getId(),null);
+        booking.seatOwner=owner;
+        booking.heldUntil=heldUntil;
         bookingRepository.addBooking(booking);
         System.out.println("Booking created: "+booking);
         return booking;
@@ -130,13 +286,15 @@ class BookingService{
      * WORKFLOW:
      * 1. Validate booking is in CREATED state (not already confirmed/cancelled)
      * 2. Verify all seat locks are still valid and held by the requesting user
-     *    - Check if lock hasn't expired (within TTL)
-     *    - Check if lock is still owned by the same user
+     *    - One batch ownership check (isLockedByAll): every lock unexpired and owned by the user
      *    - If validation fails, throw SeatNotAvailableException
-     * 3. Set payment type for the booking
-     * 4. Process payment using appropriate PaymentStrategy
-     * 5. Release all seat locks (as booking is now confirmed)
-     * 6. Update booking status to CONFIRMED
+     * 3. Mark the held seats as BOOKED in the show's seat inventory
+     * 4. Replace the seat locks with booked markers in one batch (markBookedAll)
+     *    - If a lock was lost meanwhile, the seats are freed again and
+     *      SeatNotAvailableException is thrown before any payment is taken
+     * 5. Set payment type for the booking
+     * 6. Process payment using appropriate PaymentStrategy
+     * 7. Update booking status to CONFIRMED
      * 
      * SECURITY & VALIDATION:
      * - Prevents users from confirming bookings they don't own
@@ -144,8 +302,8 @@ class BookingService{
      * - Atomic operation: either all seats are confirmed or none
      * 
      * LOCK RELEASE:
-     * - Locks are released after payment to allow others to book
-     * - Seat status is implicitly managed through booking records
+     * - The seat inventory is per app node. The booked markers keep other nodes sharing
+     *   the lock provider from locking the seats; a single-node provider just unlocks
      * 
      * @param booking - The booking to confirm
      * @param type - Payment method (CARD, UPI, WALLET)
@@ -156,23 +314,220 @@ class BookingService{
         if(!booking.getStatus().equals(BookingStatus.CREATED)){
            throw new IllegalStateException("Booking is not in CREATED state");
         }
-        for(int seatId:booking.getSelectedSeats()){
-            String key=booking.showId+":"+seatId;
-            if(lockProvider.isLockExpired(key)||!lockProvider.isLockedBy(key,booking.getUserId())){
-                throw new SeatNotAvailableException("Seat "+seatId+" is not locked by user "+booking.userId+" or lock expired");
-            }
+        if(!lockProvider.isLockedByAll(lockKeys(booking.showId,booking.getSelectedSeats()),booking.getUserId())){
+            throw new SeatNotAvailableException("Seats "+booking.getSelectedSeats()+" are not locked by user "+booking.userId+" or lock expired");
+        }
+        Show show=showRepository.getShow(booking.showId);
+        if(!show.getSeatInventory().confirm(booking.getSelectedSeats(),booking.seatOwner,booking.heldUntil)){
+            throw new SeatNotAvailableException("Seats "+booking.getSelectedSeats()+" are no longer held by user "+booking.userId);
+        }
+        //Locks become booked markers in one batch, so other nodes cannot lock the seats
+        if(!lockProvider.markBookedAll(lockKeys(booking.showId,booking.getSelectedSeats()),booking.getUserId())){
+            show.getSeatInventory().cancel(booking.getSelectedSeats(),booking.getUserId());
+            throw new SeatNotAvailableException("Seats "+booking.getSelectedSeats()+" are not locked by user "+booking.userId+" or lock expired");
         }
         booking.setPaymentType(type);
         PaymentStrategy paymentStrategy=PaymentStrategyFactory.getPaymentStrategy(type);
         paymentStrategy.pay(booking);
-        //Unlock locked seat
-        for(int seatId:booking.getSelectedSeats()){
-            String key=booking.showId+":"+seatId;
-            lockProvider.unlock(key);
-        }
         booking.status=BookingStatus.CONFIRMED;
         System.out.println("Booking confirmed: "+booking);
     }
+
+    /**
+     * CANCEL BOOKING - Give the seats of a booking back
+     * -------------------------------------------------
+     * - CREATED booking: the locks still owned by the user are released, then its seat holds
+     * - CONFIRMED booking: the booked markers are removed, then the BOOKED seats are given back
+     * 
+     * The seats are first offered to the seat release listeners (e.g. the waitlist) as a
+     * SeatRelease. A listener that takes it hands the seats straight to waiting users;
+     * otherwise they become AVAILABLE here.
+     * 
+     * @throws IllegalStateException if the booking is already cancelled
+     */
+    public void cancelBooking(Booking booking){
+        List<Integer> seats=booking.getSelectedSeats();
+        SeatRelease release;
+        if(booking.getStatus().equals(BookingStatus.CREATED)){
+            // The holds of this booking were placed before now, so they end before this bound
+            release=new SeatRelease(booking.showId,seats,booking.getUserId(),SeatStatus.HELD,
+                    System.currentTimeMillis()+HOLD_TTL_MS+HANDOFF_GRACE_MS+1);
+            // Locks that expired and went to another user are left alone by the owner check
+            lockProvider.unlockAll(lockKeys(booking.showId,seats),booking.getUserId());
+        }else if(booking.getStatus().equals(BookingStatus.CONFIRMED)){
+            release=new SeatRelease(booking.showId,seats,booking.getUserId(),SeatStatus.BOOKED,Long.MAX_VALUE);
+            lockProvider.clearBookedAll(lockKeys(booking.showId,seats),booking.getUserId());
+        }else{
+            throw new IllegalStateException("Booking is already cancelled");
+        }
+        booking.status=BookingStatus.CANCELLED;
+        System.out.println("Booking cancelled: "+booking);
+        for(SeatReleaseListener listener:releaseListeners){
+            if(listener.onSeatsReleased(release)){
+                return;
+            }
+        }
+        freeSeats(release);
+    }
+
+    private static List<String> lockKeys(int showId,List<Integer> seatIds){
+        List<String> keys=new ArrayList<>(seatIds.size());
+        for(Integer id:seatIds){
+            keys.add(showId+":"+id);
+        }
+        return keys;
+    }
+}
+
+/**
+ * SEAT WAITLIST SERVICE - Fair handoff of freed seats
+ * ===================================================
+ * 
+ * Without a waitlist, a seat freed by an expired hold or a cancellation is only found
+ * by users polling createBooking; at on-sale time that retry storm is the bottleneck.
+ * Here users register once for a seat set and are handed the seats when they free up.
+ * 
+ * HOW IT WORKS:
+ * - join(): the request goes to the show's bounded FIFO queue
+ *   - If the queue is full, WaitlistFullException is thrown (backpressure: the client
+ *     should back off instead of hammering the booking path)
+ * - Seats are given up by a lock expiring (LockExpiryListener) or a booking being
+ *   cancelled (SeatReleaseListener). Both arrive as a SeatRelease whose seats are still
+ *   owned by the old user (an expired lock's hold lasts HANDOFF_GRACE_MS longer), so
+ *   direct createBooking calls cannot take them while the handoff runs
+ * - handoff: waiters are visited in arrival order, and every waiter whose whole seat set
+ *   is released or AVAILABLE gets a booking created on their behalf, taking released
+ *   seats over directly (BookingService.createBookingFrom). It is removed from the queue
+ *   and called back with the Booking to confirm and pay. A waiter whose seats are still
+ *   taken does not hold up the waiters behind it
+ * - Released seats no waiter took are freed at the end of the handoff
+ * - An expired hold is only taken or freed if it is the hold of that lock, never a
+ *   newer hold the same user has placed on the seat since
+ * 
+ * THREADING:
+ * - All handoffs run on one handoff thread, so a freed seat is offered to exactly one
+ *   waiter and events never run on the lock sweeper or the cancelling user's thread
+ * - onSeatsAssigned callbacks run on the handoff thread and must not block
+ */
+class SeatWaitlistService implements LockExpiryListener, SeatReleaseListener{
+    static class WaitRequest{
+        final String userId;
+        final List<Integer> seatIds;
+        final Consumer<Booking> onSeatsAssigned;
+        WaitRequest(String userId, List<Integer> seatIds, Consumer<Booking> onSeatsAssigned){
+            this.userId = userId;
+            this.seatIds = seatIds;
+            this.onSeatsAssigned = onSeatsAssigned;
+        }
+    }
+    BookingService bookingService;
+    ShowRepository showRepository;
+    int capacityPerShow;
+    ConcurrentHashMap<Integer,BlockingQueue<WaitRequest>> waitlists=new ConcurrentHashMap<>();
+    ExecutorService handoffExecutor=Executors.newSingleThreadExecutor(r -> {
+        Thread t=new Thread(r,"seat-handoff");
+        t.setDaemon(true);
+        return t;
+    });
+
+    SeatWaitlistService(BookingService bookingService, ShowRepository showRepository, int capacityPerShow){
+        this.bookingService = bookingService;
+        this.showRepository = showRepository;
+        this.capacityPerShow = capacityPerShow;
+        bookingService.addSeatReleaseListener(this);
+    }
+
+    /**
+     * Queues userId for the given seats of a show.
+     * 
+     * @throws WaitlistFullException if the show's waitlist is at capacity
+     */
+    public WaitRequest join(String userId, Show show, List<Integer> seatIds, Consumer<Booking> onSeatsAssigned){
+        WaitRequest request=new WaitRequest(userId,new ArrayList<>(seatIds),onSeatsAssigned);
+        BlockingQueue<WaitRequest> queue=waitlists.computeIfAbsent(show.getId(),k->new LinkedBlockingQueue<>(capacityPerShow));
+        if(!queue.offer(request)){
+            throw new WaitlistFullException("Waitlist for show "+show.getId()+" is full");
+        }
+        // The seats may have been freed before the request was queued
+        scheduleHandoff(show.getId());
+        return request;
+    }
+    public boolean leave(Show show, WaitRequest request){
+        BlockingQueue<WaitRequest> queue=waitlists.get(show.getId());
+        return queue!=null&&queue.remove(request);
+    }
+    public int waitingCount(Show show){
+        BlockingQueue<WaitRequest> queue=waitlists.get(show.getId());
+        return queue==null?0:queue.size();
+    }
+
+    /**
+     * The expired lock's seat is still held for the grace period; free it now even
+     * without waiters, rather than when that hold ends.
+     */
+    public void onLockExpired(String key, String userId, long expiryTime){
+        SeatRelease release=BookingService.expiredLockRelease(key,userId,expiryTime);
+        handoffExecutor.submit(()->handoff(release.showId,release));
+    }
+    public boolean onSeatsReleased(SeatRelease release){
+        BlockingQueue<WaitRequest> queue=waitlists.get(release.showId);
+        if(queue==null||queue.isEmpty()){
+            return false;
+        }
+        handoffExecutor.submit(()->handoff(release.showId,release));
+        return true;
+    }
+
+    private void scheduleHandoff(int showId){
+        if(waitlists.containsKey(showId)){
+            handoffExecutor.submit(()->handoff(showId,null));
+        }
+    }
+    private void handoff(int showId, SeatRelease release){
+        BlockingQueue<WaitRequest> queue=waitlists.get(showId);
+        Show show=showRepository.getShow(showId);
+        if(queue!=null&&show!=null){
+            for(WaitRequest request:queue){
+                if(!claimable(show,request.seatIds,release)){
+                    continue;
+                }
+                Booking booking=bookingService.createBookingFrom(release,request.userId,show,request.seatIds);
+                if(booking!=null){
+                    queue.remove(request);
+                    notifyWaiter(request,booking);
+                }
+            }
+        }
+        // Whatever no waiter took becomes available to everyone
+        if(release!=null){
+            bookingService.freeSeats(release);
+        }
+    }
+    private static void notifyWaiter(WaitRequest request, Booking booking){
+        try{
+            request.onSeatsAssigned.accept(booking);
+        }catch(RuntimeException e){
+            // The hold simply expires if the waiter fails to take it over
+            System.err.println("Waitlist callback for "+request.userId+" failed: "+e.getMessage());
+        }
+    }
+    /**
+     * Every seat is AVAILABLE or still owned through the release. A seat of another
+     * lock of the same expired booking counts too, since its hold ends within the
+     * same bound; createBookingFrom then takes it over as well.
+     */
+    private static boolean claimable(Show show, List<Integer> seatIds, SeatRelease release){
+        ShowSeatInventory inventory=show.getSeatInventory();
+        for(int seatId:seatIds){
+            if(inventory.getStatus(seatId)==SeatStatus.AVAILABLE){
+                continue;
+            }
+            if(release==null||!inventory.isOwnedBy(seatId,release.userId,release.status,release.heldBefore)){
+                return false;
+            }
+        }
+        return true;
+    }
 }
 
 /**
@@ -190,7 +545,7 @@ class BookingService{
  * 
  * IMPLEMENTATIONS:
  * 1. InMemoryLockProvider - Uses ConcurrentHashMap for single-instance applications
- * 2. RedisLockProvider - Uses Redis for distributed/multi-instance applications
+ * 2. ReddisLockProvider - Uses Redis for distributed/multi-instance applications
  * 
  * USE CASE IN BOOKING:
  * - When user initiates booking, locks are acquired on selected seats
@@ -235,9 +590,14 @@ interface LockProvider{
      * - When user cancels the booking
      * - To manually release locks before TTL expiry
      * 
+     * OWNERSHIP:
+     * - Only a lock still held by userId is removed; a lock that expired and was
+     *   re-acquired by another user is left untouched
+     * 
      * @param key - Unique identifier for the resource to unlock
+     * @param userId - ID of the user releasing its lock
      */
-    void unlock(String key);
+    void unlock(String key, String userId);
     
     /**
      * IS LOCK EXPIRED - Check if a lock has expired
@@ -267,41 +627,229 @@ interface LockProvider{
      * @return true if the user holds a valid lock, false otherwise
      */
     boolean isLockedBy(String key, String userId);
+
+    /**
+     * TRY LOCK ALL - Acquire locks on several resources as one unit
+     * -------------------------------------------------------------
+     * All-or-nothing variant of tryLock used for multi-seat bookings.
+     * 
+     * BEHAVIOR:
+     * - If every key can be locked: all keys are locked for userId and true is returned
+     * - If any key is held by someone else: no key is left locked by this call, false is returned
+     * 
+     * DEFAULT IMPLEMENTATION:
+     * - Locks keys one by one in sorted order and rolls back on the first failure
+     * - Sorted order means two overlapping batches never wait on each other in a cycle
+     * - Implementations should override this to do the whole batch in a single round trip
+     * 
+     * @param keys - Resource identifiers to lock (e.g., every "showId:seatId" of a booking)
+     * @param userId - ID of the user acquiring the locks
+     * @param TTL - Time to live in milliseconds for every lock in the batch
+     * @return true if all locks were acquired, false otherwise
+     */
+    default boolean tryLockAll(Collection<String> keys, String userId, long TTL){
+        List<String> ordered=new ArrayList<>(new TreeSet<>(keys));
+        for(int i=0;i<ordered.size();i++){
+            if(!tryLock(ordered.get(i),userId,TTL)){
+                for(int j=0;j<i;j++){
+                    unlock(ordered.get(j),userId);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * IS LOCKED BY ALL - Batch ownership check
+     * ----------------------------------------
+     * True only if every key holds an unexpired lock owned by userId. Used by
+     * confirmBooking, so confirming costs one round trip like locking does.
+     * 
+     * DEFAULT IMPLEMENTATION:
+     * - Checks the keys one by one; implementations should override this to check
+     *   the whole batch in a single round trip
+     * 
+     * @param keys - Resource identifiers to check
+     * @param userId - ID of the user expected to own every lock
+     * @return true if userId holds a valid lock on every key
+     */
+    default boolean isLockedByAll(Collection<String> keys, String userId){
+        for(String key:keys){
+            if(isLockExpired(key)||!isLockedBy(key,userId)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * UNLOCK ALL - Release locks on several resources
+     * -----------------------------------------------
+     * Batch variant of unlock, e.g. for all seats of a confirmed booking.
+     * Keys no longer locked by userId are skipped.
+     * 
+     * @param keys - Resource identifiers to unlock
+     * @param userId - ID of the user releasing its locks
+     */
+    default void unlockAll(Collection<String> keys, String userId){
+        for(String key:keys){
+            unlock(key,userId);
+        }
+    }
+
+    /**
+     * MARK BOOKED ALL - Turn the locks of a confirmed booking into booked markers
+     * ---------------------------------------------------------------------------
+     * Called by confirmBooking once the seats are BOOKED in the seat inventory.
+     * 
+     * BEHAVIOR:
+     * - Every lock must still be held by userId; it is replaced by a marker that never
+     *   expires, so tryLock of that key fails until clearBookedAll
+     * - All-or-nothing: if any lock was lost, no marker is left and false is returned
+     * 
+     * DEFAULT IMPLEMENTATION:
+     * - Unlocks the keys and returns true. With a single app node the seat inventory
+     *   already keeps BOOKED seats from being held again; a provider shared by several
+     *   nodes must override this, since each node's inventory only sees its own bookings
+     * 
+     * @param keys - Resource identifiers of the booking
+     * @param userId - ID of the user holding the locks
+     * @return true if every lock was turned into a booked marker
+     */
+    default boolean markBookedAll(Collection<String> keys, String userId){
+        unlockAll(keys,userId);
+        return true;
+    }
+
+    /**
+     * CLEAR BOOKED ALL - Remove the booked markers of a cancelled booking
+     * -------------------------------------------------------------------
+     * Markers of other users are left untouched. The default has none to remove.
+     * 
+     * @param keys - Resource identifiers of the booking
+     * @param userId - ID of the user the seats were booked for
+     */
+    default void clearBookedAll(Collection<String> keys, String userId){
+    }
+}
+/**
+ * LOCK EXPIRY LISTENER - Push notification for expired locks
+ * ----------------------------------------------------------
+ * Called by the lock provider's sweeper when a lock reaches its TTL without being
+ * unlocked, e.g. a user abandoned payment. Used to hand freed seats to waiting users.
+ * 
+ * expiryTime identifies the lock: a later lock on the same key by the same user
+ * expires later.
+ * 
+ * Runs on the sweeper thread: implementations must return quickly and hand any
+ * real work off to their own executor.
+ */
+interface LockExpiryListener{
+    void onLockExpired(String key, String userId, long expiryTime);
 }
 class InMemoryLockProvider implements LockProvider{
     static class Expiry{
+        String key;
         String userId;
         long expiryTime;
-        Expiry(String userId, long expiryTime){
+        Expiry(String key, String userId, long expiryTime){
+            this.key = key;
             this.userId = userId;
             this.expiryTime = expiryTime;
         }
     }
+    static final long TICK_MS=10;
     ConcurrentHashMap<String, Expiry> lockMap=new ConcurrentHashMap<>();
+    HierarchicalTimingWheel<Expiry> expiryWheel=new HierarchicalTimingWheel<>(TICK_MS,System.currentTimeMillis());
+    List<LockExpiryListener> expiryListeners=new CopyOnWriteArrayList<>();
     ScheduledExecutorService sweeper=Executors.newSingleThreadScheduledExecutor();
     public InMemoryLockProvider(){
-        sweeper.scheduleAtFixedRate(this::sweep,100,100,TimeUnit.MILLISECONDS);
+        sweeper.scheduleAtFixedRate(this::sweep,TICK_MS,TICK_MS,TimeUnit.MILLISECONDS);
     }
+    public void addExpiryListener(LockExpiryListener listener){
+        expiryListeners.add(listener);
+    }
+    public void shutdown(){
+        sweeper.shutdownNow();
+    }
+    /**
+     * Advances the timing wheel to the current time. Only the wheel slots that
+     * became due are visited, so the cost is proportional to the locks expiring
+     * in this tick, not to the number of locks held.
+     * 
+     * A wheel entry is stale if its lock was unlocked or taken over since it was
+     * scheduled; remove(key, expiry) only matches the exact Expiry instance, so
+     * stale entries are dropped without touching newer locks on the same key.
+     */
     private void sweep(){
-        long currentTime=System.currentTimeMillis();
-        lockMap.entrySet().removeIf(
-                            e -> e.getValue().expiryTime < currentTime
-                        );
-
+        expiryWheel.advance(System.currentTimeMillis(),this::expire);
+    }
+    private void expire(Expiry expiry){
+        if(!lockMap.remove(expiry.key,expiry)){
+            return;
+        }
+        for(LockExpiryListener listener:expiryListeners){
+            try{
+                listener.onLockExpired(expiry.key,expiry.userId,expiry.expiryTime);
+            }catch(RuntimeException e){
+                // A failing listener must not cancel the scheduled sweeper
+                System.err.println("Lock expiry listener failed: "+e.getMessage());
+            }
+        }
     }
     public boolean tryLock(String key, String userId, long ttl) {
         long expiryTime = System.currentTimeMillis() + ttl;
-        Expiry newExpiry = new Expiry(userId, expiryTime);
+        Expiry newExpiry = new Expiry(key, userId, expiryTime);
     
-        return lockMap.compute(key, (k, existing) -> {
+        if (lockMap.compute(key, (k, existing) -> {
             if (existing == null || existing.expiryTime < System.currentTimeMillis()) {
                 return newExpiry;
             }
             return existing;
-        }) == newExpiry;
+        }) != newExpiry) {
+            return false;
+        }
+        expiryWheel.schedule(newExpiry, expiryTime);
+        return true;
+    }
+    /**
+     * Batch lock acquisition for multi-seat bookings.
+     * 
+     * Keys are de-duplicated and acquired in sorted order, so two bookings that
+     * overlap always contend on their lowest shared seat first and can never
+     * deadlock or livelock each other. Every key gets the same Expiry instance
+     * check as tryLock; if any key is already held, the keys taken so far are
+     * rolled back with remove(key, expiry), which only removes the entries this
+     * call created and never a lock another user acquired in the meantime.
+     */
+    public boolean tryLockAll(Collection<String> keys, String userId, long ttl) {
+        String[] ordered = new TreeSet<>(keys).toArray(new String[0]);
+        Expiry[] acquired = new Expiry[ordered.length];
+        long expiryTime = System.currentTimeMillis() + ttl;
+
+        for (int i = 0; i < ordered.length; i++) {
+            Expiry newExpiry = new Expiry(ordered[i], userId, expiryTime);
+            if (lockMap.compute(ordered[i], (k, existing) -> {
+                if (existing == null || existing.expiryTime < System.currentTimeMillis()) {
+                    return newExpiry;
+                }
+                return existing;
+            }) != newExpiry) {
+                for (int j = 0; j < i; j++) {
+                    lockMap.remove(ordered[j], acquired[j]);
+                }
+                return false;
+            }
+            acquired[i] = newExpiry;
+        }
+        for (Expiry expiry : acquired) {
+            expiryWheel.schedule(expiry, expiryTime);
+        }
+        return true;
     }
-    public void unlock(String key) {
-        lockMap.remove(key);
+    public void unlock(String key, String userId) {
+        lockMap.computeIfPresent(key, (k, expiry) -> expiry.userId.equals(userId) ? null : expiry);
     }
     public boolean isLockExpired(String key) {
         Expiry expiry = lockMap.get(key);
@@ -311,24 +859,306 @@ class InMemoryLockProvider implements LockProvider{
         Expiry expiry = lockMap.get(key);
         return expiry != null && expiry.userId.equals(userId);
     }
-    
+    public boolean isLockedByAll(Collection<String> keys, String userId) {
+        long now = System.currentTimeMillis();
+        for (String key : keys) {
+            Expiry expiry = lockMap.get(key);
+            if (expiry == null || expiry.expiryTime < now || !expiry.userId.equals(userId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
 }
+/**
+ * HIERARCHICAL TIMING WHEEL - Expiry index for TTL-based locks
+ * ============================================================
+ * 
+ * Replaces a full scan of all locks with buckets keyed by expiry tick, the same
+ * structure Kafka and Netty use for request timeouts.
+ * 
+ * STRUCTURE:
+ * - LEVELS wheels of WHEEL_SIZE slots each; a slot on level L spans WHEEL_SIZE^L ticks
+ * - An entry goes to the lowest level whose range covers its deadline
+ * - When a lower wheel completes a rotation, the next slot of the level above is
+ *   cascaded down, so entries move at most LEVELS times before they expire
+ * - Deadlines past the top level's range are parked in its farthest slot and
+ *   re-placed on every cascade until they fit
+ * 
+ * THREADING:
+ * - schedule() may be called from any thread; it only appends to a lock-free queue
+ * - advance() must be called from a single thread (the sweeper); it drains the queue
+ *   into the slots, so the slots themselves need no synchronization
+ */
+class HierarchicalTimingWheel<T>{
+    static final int WHEEL_BITS=6;
+    static final int WHEEL_SIZE=1<<WHEEL_BITS;
+    static final int LEVELS=4;
+
+    static class Timeout<T>{
+        final T item;
+        final long deadlineTick;
+        Timeout(T item, long deadlineTick){
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+    private final long tickMs;
+    private final long startTime;
+    private final ArrayDeque<Timeout<T>>[][] slots;
+    private final ConcurrentLinkedQueue<Timeout<T>> pending=new ConcurrentLinkedQueue<>();
+    private long currentTick;
+
+    @SuppressWarnings({"unchecked","rawtypes"})
+    HierarchicalTimingWheel(long tickMs, long startTime){
+        this.tickMs = tickMs;
+        this.startTime = startTime;
+        slots=new ArrayDeque[LEVELS][WHEEL_SIZE];
+        for(int level=0;level<LEVELS;level++){
+            for(int slot=0;slot<WHEEL_SIZE;slot++){
+                slots[level][slot]=new ArrayDeque<>();
+            }
+        }
+    }
+
+    /**
+     * Schedules item to be handed to advance()'s callback once deadlineMillis has passed.
+     * The deadline is rounded up to the next tick, so items never fire early.
+     */
+    public void schedule(T item, long deadlineMillis){
+        pending.offer(new Timeout<>(item,Math.max(0,deadlineMillis-startTime)/tickMs+1));
+    }
+
+    /**
+     * Processes every tick up to now and passes each due item to onExpire.
+     */
+    public void advance(long now, Consumer<T> onExpire){
+        Timeout<T> timeout;
+        while((timeout=pending.poll())!=null){
+            place(timeout);
+        }
+        long targetTick=(now-startTime)/tickMs;
+        while(currentTick<=targetTick){
+            long tick=currentTick;
+            cascade(tick);
+            ArrayDeque<Timeout<T>> due=swap(0,(int)(tick&(WHEEL_SIZE-1)));
+            currentTick=tick+1;
+            while((timeout=due.poll())!=null){
+                if(timeout.deadlineTick<=tick){
+                    onExpire.accept(timeout.item);
+                }else{
+                    place(timeout);
+                }
+            }
+        }
+    }
+
+    private void cascade(long tick){
+        // Higher levels first so their entries can land on the lower slots about to run
+        for(int level=LEVELS-1;level>=1;level--){
+            long levelTicks=1L<<(WHEEL_BITS*level);
+            if(tick%levelTicks!=0||tick==0){
+                continue;
+            }
+            ArrayDeque<Timeout<T>> bucket=swap(level,(int)((tick>>>(WHEEL_BITS*level))&(WHEEL_SIZE-1)));
+            Timeout<T> timeout;
+            while((timeout=bucket.poll())!=null){
+                place(timeout);
+            }
+        }
+    }
+    private void place(Timeout<T> timeout){
+        long deadline=Math.max(timeout.deadlineTick,currentTick);
+        long delta=deadline-currentTick;
+        for(int level=0;level<LEVELS;level++){
+            if(delta<(1L<<(WHEEL_BITS*(level+1)))){
+                slots[level][(int)((deadline>>>(WHEEL_BITS*level))&(WHEEL_SIZE-1))].add(timeout);
+                return;
+            }
+        }
+        int top=LEVELS-1;
+        long farthest=(currentTick>>>(WHEEL_BITS*top))+WHEEL_SIZE-1;
+        slots[top][(int)(farthest&(WHEEL_SIZE-1))].add(timeout);
+    }
+    private ArrayDeque<Timeout<T>> swap(int level, int slot){
+        ArrayDeque<Timeout<T>> bucket=slots[level][slot];
+        if(bucket.isEmpty()){
+            return bucket;
+        }
+        slots[level][slot]=new ArrayDeque<>();
+        return bucket;
+    }
+}
+/**
+ * REDIS LOCK PROVIDER - Distributed locking over the Redis protocol
+ * =================================================================
+ * 
+ * Every app node talks to the same Redis, so a seat locked on one node is locked for all.
+ * 
+ * REDIS COMMANDS USED:
+ * - tryLock:       SET key userId NX PX ttl   (atomic "set if absent" with expiry)
+ * - unlock(All):   EVAL UNLOCK_SCRIPT         (delete only if the value is still our userId;
+ *                                              also used to roll back a partial tryLockAll)
+ * - isLockExpired: PTTL key                   (-2 = key gone, i.e. expired or never locked)
+ * - isLockedBy:    GET key
+ * - isLockedByAll: MGET key [key ...]         (one command for all seats of a booking)
+ * - markBookedAll: EVAL BOOK_SCRIPT           (our lock becomes "booked:userId" with no
+ *                                              expiry, so SET NX of any node fails on it)
+ * - clearBookedAll: EVAL UNLOCK_SCRIPT        (compare-and-delete of "booked:userId")
+ * 
+ * BOOKED SEATS:
+ * - Each node's ShowSeatInventory only knows the bookings made on that node, so a seat
+ *   sold on node 1 looks AVAILABLE to node 2. The booked marker is what keeps node 2
+ *   from locking (and so holding) it; it lives until the booking is cancelled
+ * 
+ * PERFORMANCE:
+ * - Connections come from a RespConnectionPool and are reused across calls
+ * - tryLockAll and unlockAll pipeline one command per seat and send them in a single
+ *   write, so a 10-seat booking is still one network round trip
+ * - Redis expires keys itself, so no sweeper runs on the app nodes
+ * 
+ * EmbeddedRespServer provides an in-process stand-in for local runs and benchmarks.
+ */
 class ReddisLockProvider implements LockProvider{
+    static final String UNLOCK_SCRIPT=
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
+    static final String BOOK_SCRIPT=
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('set', KEYS[1], ARGV[2]) else return 0 end";
+    static final String BOOKED_PREFIX="booked:";
+
+    RespConnectionPool pool;
+    ReddisLockProvider(RespConnectionPool pool){
+        this.pool = pool;
+    }
     public boolean tryLock(String key, String userId, long ttl) {
-        // Simulate Redis SETNX with expiry
-        return true;
+        return "OK".equals(pool.execute(c -> c.call("SET", key, userId, "NX", "PX", Long.toString(ttl))));
+    }
+    /**
+     * Pipelined all-or-nothing lock. All SET NX commands go out in one flush; if any
+     * seat was taken, the seats this call did get are deleted again with the
+     * compare-and-delete script, also pipelined, so a lock that already expired and
+     * was re-acquired by another user is never removed.
+     */
+    public boolean tryLockAll(Collection<String> keys, String userId, long ttl) {
+        String[] ordered = new TreeSet<>(keys).toArray(new String[0]);
+        String px = Long.toString(ttl);
+        return pool.execute(c -> {
+            for (String key : ordered) {
+                c.write("SET", key, userId, "NX", "PX", px);
+            }
+            c.flush();
+            boolean[] acquired = new boolean[ordered.length];
+            boolean all = true;
+            for (int i = 0; i < ordered.length; i++) {
+                acquired[i] = "OK".equals(c.read());
+                all &= acquired[i];
+            }
+            if (all) {
+                return true;
+            }
+            int rollbacks = 0;
+            for (int i = 0; i < ordered.length; i++) {
+                if (acquired[i]) {
+                    c.write("EVAL", UNLOCK_SCRIPT, "1", ordered[i], userId);
+                    rollbacks++;
+                }
+            }
+            c.flush();
+            for (int i = 0; i < rollbacks; i++) {
+                c.read();
+            }
+            return false;
+        });
     }
-    public void unlock(String key) {
-        // Simulate Redis DEL
+    public void unlock(String key, String userId) {
+        pool.execute(c -> c.call("EVAL", UNLOCK_SCRIPT, "1", key, userId));
+    }
+    /**
+     * One compare-and-delete per key, pipelined into a single flush.
+     */
+    public void unlockAll(Collection<String> keys, String userId) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        pool.execute(c -> {
+            for (String key : keys) {
+                c.write("EVAL", UNLOCK_SCRIPT, "1", key, userId);
+            }
+            c.flush();
+            for (int i = 0; i < keys.size(); i++) {
+                c.read();
+            }
+            return null;
+        });
     }
     public boolean isLockExpired(String key) {
-        // Simulate checking expiry in Redis
-        return false;
+        Object pttl = pool.execute(c -> c.call("PTTL", key));
+        return ((Long) pttl) == -2;
     }
     public boolean isLockedBy(String key, String userId) {
-        // Simulate checking lock ownership in Redis
+        return userId.equals(pool.execute(c -> c.call("GET", key)));
+    }
+    /**
+     * One MGET for the whole batch. Redis hides expired keys, so a value equal
+     * to userId means the lock is both unexpired and ours.
+     */
+    public boolean isLockedByAll(Collection<String> keys, String userId) {
+        if (keys.isEmpty()) {
+            return true;
+        }
+        String[] command = new String[keys.size() + 1];
+        command[0] = "MGET";
+        int i = 1;
+        for (String key : keys) {
+            command[i++] = key;
+        }
+        List<?> values = (List<?>) pool.execute(c -> c.call(command));
+        for (Object value : values) {
+            if (!userId.equals(value)) {
+                return false;
+            }
+        }
         return true;
     }
+    /**
+     * One compare-and-set per key, pipelined into a single flush. If a lock was lost,
+     * the markers this call did set are deleted again, also pipelined.
+     */
+    public boolean markBookedAll(Collection<String> keys, String userId) {
+        String[] ordered = keys.toArray(new String[0]);
+        String booked = BOOKED_PREFIX + userId;
+        return pool.execute(c -> {
+            for (String key : ordered) {
+                c.write("EVAL", BOOK_SCRIPT, "1", key, userId, booked);
+            }
+            c.flush();
+            boolean[] marked = new boolean[ordered.length];
+            boolean all = true;
+            for (int i = 0; i < ordered.length; i++) {
+                marked[i] = "OK".equals(c.read());
+                all &= marked[i];
+            }
+            if (all) {
+                return true;
+            }
+            int rollbacks = 0;
+            for (int i = 0; i < ordered.length; i++) {
+                if (marked[i]) {
+                    c.write("EVAL", UNLOCK_SCRIPT, "1", ordered[i], booked);
+                    rollbacks++;
+                }
+            }
+            c.flush();
+            for (int i = 0; i < rollbacks; i++) {
+                c.read();
+            }
+            return false;
+        });
+    }
+    public void clearBookedAll(Collection<String> keys, String userId) {
+        unlockAll(keys, BOOKED_PREFIX + userId);
+    }
 }
 class PaymentStrategyFactory{
     public static PaymentStrategy getPaymentStrategy(PaymentType type){
@@ -375,12 +1205,15 @@ class MovieService{
 }
 class ShowService{
     ShowRepository showRepository;
+    ShowIndex showIndex;
     ShowService(ShowRepository showRepository){
         this.showRepository = showRepository;
+        this.showIndex = new ShowIndex();
     }
     public Show createShow(int id, Movie movie, Theater theater, Screen screen, Date startTime,int duration){
         Show show = new Show(id, movie, theater, screen, startTime);
         showRepository.addShow(show);
+        showIndex.addShow(show);
         return show;
     }
     public Show getShow(int id){
@@ -389,15 +1222,234 @@ class ShowService{
     public List<Show> getAllShows(){
         return showRepository.getAll();
     }
+    /**
+     * Writes the free seats of a show into the caller's bitmap (bit i = seat index i,
+     * see ShowSeatInventory.seatIdAt) and returns how many there are. Reusing the
+     * bitmap keeps availability polling allocation-free.
+     */
+    public int getAvailableSeats(Show show, long[] bitmap){
+        return show.getSeatInventory().availableSeats(bitmap);
+    }
     public List<Show> getShowsByTitle(String title){
-        List<Show> result = new ArrayList<>();
-        for(Show show : showRepository.getAll()){
-            if(show.getMovie().getName().equalsIgnoreCase(title)){
-                result.add(show);
+        return showIndex.byTitle(title, 0, Integer.MAX_VALUE);
+    }
+    /**
+     * Paginated variants of the show search. Every page is ordered by start time
+     * (then show id) and is read straight from the ShowIndex posting lists.
+     */
+    public List<Show> getShowsByTitle(String title, int offset, int limit){
+        return showIndex.byTitle(title, offset, limit);
+    }
+    public List<Show> searchShows(String query, int offset, int limit){
+        return showIndex.search(query, offset, limit);
+    }
+    public List<Show> getShowsByTheater(int theaterId, int offset, int limit){
+        return showIndex.byTheater(theaterId, offset, limit);
+    }
+    public List<Show> getShowsBetween(Date from, Date to, int offset, int limit){
+        return showIndex.between(from, to, offset, limit);
+    }
+    /**
+     * Keyset variants: the next page starts right after the last show of the
+     * previous one (null for the first page), so deep pages cost the same as
+     * the first instead of walking past every skipped show.
+     */
+    public List<Show> getShowsByTitle(String title, Show after, int limit){
+        return showIndex.byTitle(title, after, limit);
+    }
+    public List<Show> searchShows(String query, Show after, int limit){
+        return showIndex.search(query, after, limit);
+    }
+    public List<Show> getShowsByTheater(int theaterId, Show after, int limit){
+        return showIndex.byTheater(theaterId, after, limit);
+    }
+    public List<Show> getShowsBetween(Date from, Date to, Show after, int limit){
+        return showIndex.between(from, to, after, limit);
+    }
+}
+
+/**
+ * SHOW INDEX - Secondary indexes for show search
+ * ==============================================
+ * 
+ * Maintained by ShowService.createShow so browse queries never scan the whole catalog.
+ * 
+ * INDEXES (each one a posting list of shows):
+ * - Normalized title  -> shows   (exact title match, case and whitespace insensitive)
+ * - Title token       -> shows   (keyword search, e.g. "dark knight")
+ * - Theater id        -> shows
+ * - Start time        -> shows   (range queries)
+ * 
+ * Every posting list is a ConcurrentSkipListMap ordered by (startTime, showId):
+ * - Pages come out in a stable, time-sorted order without sorting per request
+ * - Time ranges are subMap views, so no copy of the catalog is ever made
+ * - Readers never block writers adding new shows
+ * 
+ * PAGINATION:
+ * - offset pages cost O(log n + offset + limit), fine for the first few pages
+ * - keyset pages (after = last show of the previous page) cost O(log n + limit)
+ *   at any depth, since the walk starts from a tailMap view at that show
+ * - Either way only the returned list is allocated
+ * 
+ * Token posting lists keep their own size, because ConcurrentSkipListMap.size()
+ * walks the whole list and search picks the rarest token by size.
+ */
+class ShowIndex{
+    static final class ShowKey implements Comparable<ShowKey>{
+        final long startTime;
+        final int showId;
+        ShowKey(long startTime, int showId){
+            this.startTime = startTime;
+            this.showId = showId;
+        }
+        public int compareTo(ShowKey other){
+            int byTime=Long.compare(startTime, other.startTime);
+            return byTime!=0?byTime:Integer.compare(showId, other.showId);
+        }
+    }
+    ConcurrentHashMap<String,ConcurrentSkipListMap<ShowKey,Show>> byTitle=new ConcurrentHashMap<>();
+    ConcurrentHashMap<String,ConcurrentSkipListMap<ShowKey,Show>> byToken=new ConcurrentHashMap<>();
+    ConcurrentHashMap<Integer,ConcurrentSkipListMap<ShowKey,Show>> byTheater=new ConcurrentHashMap<>();
+    ConcurrentHashMap<String,AtomicInteger> tokenSizes=new ConcurrentHashMap<>();
+    ConcurrentSkipListMap<ShowKey,Show> byStartTime=new ConcurrentSkipListMap<>();
+
+    public void addShow(Show show){
+        ShowKey key=keyOf(show);
+        String title=show.getMovie().getName();
+        postings(byTitle, normalize(title)).put(key, show);
+        for(String token:tokenize(title)){
+            // Counted before the show becomes visible, so a size is never below the list
+            AtomicInteger size=tokenSizes.computeIfAbsent(token, k->new AtomicInteger());
+            size.incrementAndGet();
+            if(postings(byToken, token).put(key, show)!=null){
+                size.decrementAndGet();
+            }
+        }
+        postings(byTheater, show.getTheater().getId()).put(key, show);
+        byStartTime.put(key, show);
+    }
+    public List<Show> byTitle(String title, int offset, int limit){
+        return page(byTitle.get(normalize(title)), offset, limit);
+    }
+    public List<Show> byTheater(int theaterId, int offset, int limit){
+        return page(byTheater.get(theaterId), offset, limit);
+    }
+    public List<Show> between(Date from, Date to, int offset, int limit){
+        return page(range(from, to), offset, limit);
+    }
+    public List<Show> byTitle(String title, Show after, int limit){
+        return page(byTitle.get(normalize(title)), after, limit);
+    }
+    public List<Show> byTheater(int theaterId, Show after, int limit){
+        return page(byTheater.get(theaterId), after, limit);
+    }
+    public List<Show> between(Date from, Date to, Show after, int limit){
+        return page(range(from, to), after, limit);
+    }
+    /**
+     * Shows whose title contains every token of the query. Walks the shortest
+     * posting list and probes the others, so cost tracks the rarest token.
+     */
+    public List<Show> search(String query, int offset, int limit){
+        return search(query, null, offset, limit);
+    }
+    public List<Show> search(String query, Show after, int limit){
+        return search(query, after, 0, limit);
+    }
+    private List<Show> search(String query, Show after, int offset, int limit){
+        Set<String> tokens=tokenize(query);
+        if(tokens.isEmpty()){
+            return new ArrayList<>();
+        }
+        List<ConcurrentSkipListMap<ShowKey,Show>> lists=new ArrayList<>(tokens.size());
+        int shortest=0;
+        int shortestSize=Integer.MAX_VALUE;
+        for(String token:tokens){
+            ConcurrentSkipListMap<ShowKey,Show> postings=byToken.get(token);
+            if(postings==null){
+                return new ArrayList<>();
+            }
+            int size=tokenSizes.get(token).get();
+            if(size<shortestSize){
+                shortest=lists.size();
+                shortestSize=size;
             }
+            lists.add(postings);
+        }
+        // Only the walked list has to be the rarest; the probe order does not matter
+        Collections.swap(lists, 0, shortest);
+        NavigableMap<ShowKey,Show> walked=after==null?lists.get(0):lists.get(0).tailMap(keyOf(after), false);
+        List<Show> result=new ArrayList<>(Math.min(limit, 64));
+        int skipped=0;
+        for(Map.Entry<ShowKey,Show> entry:walked.entrySet()){
+            if(!containsAll(lists, entry.getKey())){
+                continue;
+            }
+            if(skipped++<offset){
+                continue;
+            }
+            if(result.size()>=limit){
+                break;
+            }
+            result.add(entry.getValue());
         }
         return result;
     }
+
+    private static boolean containsAll(List<ConcurrentSkipListMap<ShowKey,Show>> lists, ShowKey key){
+        for(int i=1;i<lists.size();i++){
+            if(!lists.get(i).containsKey(key)){
+                return false;
+            }
+        }
+        return true;
+    }
+    private ConcurrentNavigableMap<ShowKey,Show> range(Date from, Date to){
+        return byStartTime.subMap(
+                new ShowKey(from.getTime(), Integer.MIN_VALUE), true,
+                new ShowKey(to.getTime(), Integer.MAX_VALUE), true);
+    }
+    private static List<Show> page(NavigableMap<ShowKey,Show> postings, Show after, int limit){
+        if(postings==null||after==null){
+            return page(postings, 0, limit);
+        }
+        return page(postings.tailMap(keyOf(after), false), 0, limit);
+    }
+    private static List<Show> page(Map<ShowKey,Show> postings, int offset, int limit){
+        List<Show> result=new ArrayList<>();
+        if(postings==null){
+            return result;
+        }
+        int skipped=0;
+        for(Show show:postings.values()){
+            if(skipped++<offset){
+                continue;
+            }
+            if(result.size()>=limit){
+                break;
+            }
+            result.add(show);
+        }
+        return result;
+    }
+    private static <K> ConcurrentSkipListMap<ShowKey,Show> postings(ConcurrentHashMap<K,ConcurrentSkipListMap<ShowKey,Show>> index, K key){
+        return index.computeIfAbsent(key, k->new ConcurrentSkipListMap<>());
+    }
+    private static ShowKey keyOf(Show show){
+        return new ShowKey(show.getStartTime().getTime(), show.getId());
+    }
+    static String normalize(String text){
+        return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+    static Set<String> tokenize(String text){
+        Set<String> tokens=new LinkedHashSet<>();
+        for(String token:text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")){
+            if(!token.isEmpty()){
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
 }
 class TheaterService{
     TheaterRepository theaterRepository;
@@ -420,7 +1472,7 @@ class TheaterService{
 class MovieRepository{
     Map<Integer,Movie> movies;
     MovieRepository(){
-        movies = new HashMap<>();
+        movies = new ConcurrentHashMap<>();
     }
     public void addMovie(Movie movie){
         movies.put(movie.getId(), movie);
@@ -432,7 +1484,7 @@ class MovieRepository{
 class TheaterRepository{
     Map<Integer,Theater> theaters;
     TheaterRepository(){
-        theaters = new HashMap<>();
+        theaters = new ConcurrentHashMap<>();
     }
     public void addTheater(Theater theater){
         theaters.put(theater.getId(), theater);
@@ -444,7 +1496,7 @@ class TheaterRepository{
 class ShowRepository{
     Map<Integer,Show> shows;
     ShowRepository(){
-        shows = new HashMap<>();
+        shows = new ConcurrentHashMap<>();
     }
     public void addShow(Show show){
         shows.put(show.getId(), show);
@@ -456,27 +1508,111 @@ class ShowRepository{
         return new ArrayList<>(shows.values());
     }
 }
+/**
+ * BOOKING REPOSITORY - Thread-safe booking storage
+ * ------------------------------------------------
+ * - Bookings by id in a ConcurrentHashMap
+ * - Per-user and per-show indexes as lock-free queues, appended on addBooking
+ * - Booking ids come from an IdGenerator (Snowflake-style by default), so ids are
+ *   unique across nodes and never collide under concurrent createBooking calls
+ */
 class BookingRepository{
-    Map<Integer,Booking> bookings;
+    Map<Long,Booking> bookings;
+    Map<String,Queue<Booking>> bookingsByUser;
+    Map<Integer,Queue<Booking>> bookingsByShow;
+    IdGenerator idGenerator;
     BookingRepository(){
-        bookings = new HashMap<>();
+        this(new SnowflakeIdGenerator(0));
+    }
+    BookingRepository(IdGenerator idGenerator){
+        this.bookings = new ConcurrentHashMap<>();
+        this.bookingsByUser = new ConcurrentHashMap<>();
+        this.bookingsByShow = new ConcurrentHashMap<>();
+        this.idGenerator = idGenerator;
+    }
+    public long nextId(){
+        return idGenerator.nextId();
     }
     public void addBooking(Booking booking){
         bookings.put(booking.id, booking);
+        bookingsByUser.computeIfAbsent(booking.userId, k -> new ConcurrentLinkedQueue<>()).add(booking);
+        bookingsByShow.computeIfAbsent(booking.showId, k -> new ConcurrentLinkedQueue<>()).add(booking);
     }
-    public Booking getBooking(int id){
+    public Booking getBooking(long id){
         return bookings.get(id);
     }
+    public List<Booking> getBookingsByUser(String userId){
+        Queue<Booking> userBookings = bookingsByUser.get(userId);
+        return userBookings == null ? new ArrayList<>() : new ArrayList<>(userBookings);
+    }
+    public List<Booking> getBookingsByShow(int showId){
+        Queue<Booking> showBookings = bookingsByShow.get(showId);
+        return showBookings == null ? new ArrayList<>() : new ArrayList<>(showBookings);
+    }
+}
+
+/**
+ * ID GENERATOR - Unique, monotonic ids for new records
+ */
+interface IdGenerator{
+    long nextId();
+}
+
+/**
+ * SNOWFLAKE ID GENERATOR - Lock-free, time-ordered 64-bit ids
+ * ===========================================================
+ * 
+ * ID LAYOUT (same split as Twitter Snowflake):
+ *   41 bits  milliseconds since EPOCH (~69 years)
+ *   10 bits  node id (up to 1024 app nodes)
+ *   12 bits  sequence within the millisecond (4096 ids/ms per node)
+ * 
+ * CONCURRENCY:
+ * - The last (timestamp, sequence) pair lives in one AtomicLong and is advanced with CAS
+ * - If the sequence of a millisecond is used up, or the clock moves backwards, the
+ *   generator keeps counting from the last issued value instead of spinning,
+ *   so ids stay unique and strictly increasing per node
+ */
+class SnowflakeIdGenerator implements IdGenerator{
+    static final long EPOCH=1704067200000L; // 2024-01-01T00:00:00Z
+    static final int NODE_BITS=10;
+    static final int SEQUENCE_BITS=12;
+    static final long MAX_NODE=(1L<<NODE_BITS)-1;
+    static final long SEQUENCE_MASK=(1L<<SEQUENCE_BITS)-1;
+
+    private final long nodeId;
+    private final AtomicLong last=new AtomicLong();
+
+    SnowflakeIdGenerator(long nodeId){
+        if(nodeId<0||nodeId>MAX_NODE){
+            throw new IllegalArgumentException("Node id must be between 0 and "+MAX_NODE);
+        }
+        this.nodeId = nodeId;
+    }
+    public long nextId(){
+        long now=(System.currentTimeMillis()-EPOCH)<<SEQUENCE_BITS;
+        while(true){
+            long previous=last.get();
+            long next=now>previous?now:previous+1;
+            if(last.compareAndSet(previous,next)){
+                long timestamp=next>>>SEQUENCE_BITS;
+                return (timestamp<<(NODE_BITS+SEQUENCE_BITS))|(nodeId<<SEQUENCE_BITS)|(next&SEQUENCE_MASK);
+            }
+        }
+    }
 }
 class Booking{
-    int id;
+    long id;
     String userId;
     double amount;
     List<Integer>selectedSeats;
     int showId;
     BookingStatus status;
     PaymentType paymentType;
-    Booking(int id, String userId, double amount, List<Integer> selectedSeats, int showId, PaymentType paymentType){
+    // the seat inventory hold of this booking, so confirming needs no owner lookup
+    ShowSeatInventory.Owner seatOwner;
+    long heldUntil;
+    Booking(long id, String userId, double amount, List<Integer> selectedSeats, int showId, PaymentType paymentType){
         this.id = id;
         this.userId = userId;
         this.amount = amount;
@@ -526,12 +1662,14 @@ class Show{
     Theater theater;
     Screen screen;
     Date startTime;
+    ShowSeatInventory seatInventory;
     Show(int id, Movie movie, Theater theater, Screen screen, Date startTime){
         this.id = id;
         this.movie = movie;
         this.theater = theater;
         this.screen = screen;
         this.startTime = startTime;
+        this.seatInventory = new ShowSeatInventory(screen.seats.keySet());
     }
     public int getId(){
         return id;
@@ -545,10 +1683,445 @@ class Show{
     public Screen getScreen(){
         return screen;
     }
+    public Date getStartTime(){
+        return startTime;
+    }
+    public ShowSeatInventory getSeatInventory(){
+        return seatInventory;
+    }
     public String toString(){
         return "Show ID: " + id + ", Movie: " + movie.getName() + ", Theater: " + theater.getName() + ", Screen ID: " + screen.getId() + ", Start Time: " + startTime;
     }   
 }
+/**
+ * SHOW SEAT INVENTORY - Per-show seat state engine
+ * ================================================
+ * 
+ * Holds the AVAILABLE / HELD / BOOKED state of every seat of one show in a single
+ * AtomicLongArray, one 64-bit word per seat. Seat ids are mapped to a dense index
+ * through a sorted int[] so no boxed keys or per-seat objects are needed.
+ * 
+ * WORD LAYOUT:
+ *   bits 63..62  SeatStatus ordinal (AVAILABLE, HELD, BOOKED)
+ *   bits 61..40  owner token of the user holding / owning the seat
+ *   bits 39..0   hold expiry in milliseconds since the inventory was created
+ * 
+ * CONCURRENCY:
+ * - Every seat transition is a compareAndSet on the seat word; no seat is ever locked
+ * - A HELD word whose expiry has passed counts as AVAILABLE; it is simply overwritten by
+ *   the next hold, so no sweeper is needed for the inventory
+ * - Multi-seat operations are all-or-nothing: words changed so far are CAS-ed back to
+ *   exactly what they were on failure
+ * 
+ * OWNER TOKENS:
+ * - A userId is mapped to a small int token (an Owner) while some seat word of this
+ *   show carries it
+ * - Each Owner counts the words that carry it; when the last one is freed or overwritten
+ *   the token goes back to a free list, so live tokens never exceed the seat count
+ *   (plus callers in flight) however many users pass through the show
+ * - hold() and handOver() look the user up in the synchronized registry once per call,
+ *   not per seat, and return the Owner. confirm() takes that Owner back and pins it with
+ *   a CAS on its count, so the booking path takes the registry lock once per booking
+ * - A call pins its Owner for its duration so the token cannot be recycled to another
+ *   user mid-call; an Owner whose count reached 0 can no longer be pinned
+ */
+class ShowSeatInventory{
+    private static final int STATE_SHIFT=62;
+    private static final int OWNER_SHIFT=40;
+    private static final long OWNER_MASK=(1L<<22)-1;
+    private static final long EXPIRY_MASK=(1L<<OWNER_SHIFT)-1;
+    private static final SeatStatus[] STATUSES=SeatStatus.values();
+
+    private final int[] seatIds;
+    private final AtomicLongArray seats;
+    private final long epoch;
+
+    static final class Owner{
+        final String userId;
+        final int token;
+        // seat words carrying the token, plus pins of calls in flight; -1 once retired
+        final AtomicInteger refs=new AtomicInteger();
+        Owner(String userId, int token){
+            this.userId = userId;
+            this.token = token;
+        }
+    }
+    // rollback words of handOver(), which may differ per seat
+    private static final ThreadLocal<long[]> SCRATCH=ThreadLocal.withInitial(()->new long[16]);
+
+    // guarded by owners
+    private final HashMap<String,Owner> owners=new HashMap<>();
+    private Owner[] ownersByToken=new Owner[64];
+    private int[] freeTokens=new int[64];
+    private int freeTokenCount;
+    private int nextOwnerToken=1;
+
+    ShowSeatInventory(Collection<Integer> seatIdList){
+        seatIds=new int[seatIdList.size()];
+        int i=0;
+        for(int seatId:seatIdList){
+            seatIds[i++]=seatId;
+        }
+        Arrays.sort(seatIds);
+        seats=new AtomicLongArray(seatIds.length);
+        epoch=System.currentTimeMillis();
+    }
+    public int capacity(){
+        return seatIds.length;
+    }
+    public int seatIdAt(int index){
+        return seatIds[index];
+    }
+
+    /**
+     * Holds every seat for userId until heldUntil, or none of them.
+     * Fails if a seat is unknown, BOOKED, or HELD by anyone with an unexpired hold;
+     * a seat id listed twice fails too, since its second hold finds the first.
+     *
+     * @return the Owner to confirm the hold with, or null if nothing was held
+     */
+    public Owner hold(List<Integer> seatIdList, String userId, long heldUntil){
+        long now=System.currentTimeMillis();
+        int count=seatIdList.size();
+        // One reference per seat up front; the ones not used are given back below
+        Owner owner=acquireOwner(userId,count);
+        long held=pack(SeatStatus.HELD,owner.token,heldUntil);
+        for(int i=0;i<count;i++){
+            int index=indexOf(seatIdList.get(i));
+            boolean acquired=false;
+            while(index>=0){
+                long current=seats.get(index);
+                if(statusOf(current,now)!=SeatStatus.AVAILABLE){
+                    break;
+                }
+                if(seats.compareAndSet(index,current,held)){
+                    // An expired hold we overwrote no longer references its owner
+                    releaseOwner(ownerOf(current),1);
+                    acquired=true;
+                    break;
+                }
+            }
+            if(!acquired){
+                int undone=0;
+                for(int j=0;j<i;j++){
+                    if(seats.compareAndSet(indexOf(seatIdList.get(j)),held,0L)){
+                        undone++;
+                    }
+                }
+                releaseOwner(owner,count-i+undone);
+                return null;
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * Turns the seats of a hold (owner and heldUntil as returned by and passed to hold()
+     * or handOver()) into BOOKED, or none of them. Fails if the hold has expired or a seat
+     * no longer carries it. On failure the seats already booked by this call get the
+     * hold back.
+     */
+    public boolean confirm(List<Integer> seatIdList, Owner owner, long heldUntil){
+        if(owner==null||!pin(owner)){
+            return false;
+        }
+        try{
+            long held=pack(SeatStatus.HELD,owner.token,heldUntil);
+            if(statusOf(held,System.currentTimeMillis())!=SeatStatus.HELD){
+                return false;
+            }
+            long booked=pack(SeatStatus.BOOKED,owner.token,0L);
+            for(int i=0;i<seatIdList.size();i++){
+                int index=indexOf(seatIdList.get(i));
+                if(index<0||!seats.compareAndSet(index,held,booked)){
+                    for(int j=0;j<i;j++){
+                        seats.compareAndSet(indexOf(seatIdList.get(j)),booked,held);
+                    }
+                    return false;
+                }
+            }
+            return true;
+        }finally{
+            releaseOwner(owner,1);
+        }
+    }
+
+    /**
+     * Holds every seat for toUserId until heldUntil, or none of them, like hold().
+     * A seat may also be one fromUserId still owns in fromStatus (a HELD one only if
+     * its hold ends before heldBefore); it goes straight from one owner to the other,
+     * so it is never AVAILABLE in between. On failure every seat gets its old word back.
+     *
+     * @return the Owner to confirm the hold with, or null if nothing was held
+     */
+    public Owner handOver(List<Integer> seatIdList, String fromUserId, SeatStatus fromStatus, long heldBefore,
+                          String toUserId, long heldUntil){
+        long now=System.currentTimeMillis();
+        int count=seatIdList.size();
+        Owner from=pinOwner(fromUserId);
+        int fromToken=from==null?0:from.token;
+        Owner owner=acquireOwner(toUserId,count);
+        long held=pack(SeatStatus.HELD,owner.token,heldUntil);
+        long[] original=SCRATCH.get();
+        if(original.length<count){
+            original=new long[Math.max(count,original.length*2)];
+            SCRATCH.set(original);
+        }
+        for(int i=0;i<count;i++){
+            int index=indexOf(seatIdList.get(i));
+            boolean acquired=false;
+            while(index>=0){
+                long current=seats.get(index);
+                if(statusOf(current,now)!=SeatStatus.AVAILABLE&&!isReleased(current,fromToken,fromStatus,heldBefore)){
+                    break;
+                }
+                if(seats.compareAndSet(index,current,held)){
+                    original[i]=current;
+                    acquired=true;
+                    break;
+                }
+            }
+            if(!acquired){
+                int undone=0;
+                for(int j=0;j<i;j++){
+                    if(seats.compareAndSet(indexOf(seatIdList.get(j)),held,original[j])){
+                        undone++;
+                    }
+                }
+                releaseOwner(owner,count-i+undone);
+                releaseOwner(from,1);
+                return null;
+            }
+        }
+        // The words we replaced no longer reference their owners
+        for(int i=0;i<count;i++){
+            releaseOwner(ownerOf(original[i]),1);
+        }
+        releaseOwner(from,1);
+        return owner;
+    }
+
+    /**
+     * Releases seats HELD by userId; seats held by others or BOOKED are left untouched.
+     */
+    public void release(List<Integer> seatIdList, String userId){
+        freeIf(seatIdList,userId,SeatStatus.HELD,Long.MAX_VALUE);
+    }
+
+    /**
+     * Releases seats HELD by userId whose hold ends before heldBefore, leaving any
+     * newer hold of the same user in place.
+     */
+    public void release(List<Integer> seatIdList, String userId, long heldBefore){
+        freeIf(seatIdList,userId,SeatStatus.HELD,heldBefore);
+    }
+
+    /**
+     * Frees seats BOOKED by userId, e.g. when a confirmed booking is cancelled.
+     */
+    public void cancel(List<Integer> seatIdList, String userId){
+        freeIf(seatIdList,userId,SeatStatus.BOOKED,Long.MAX_VALUE);
+    }
+
+    public SeatStatus getStatus(int seatId){
+        int index=indexOf(seatId);
+        if(index<0){
+            throw new IllegalArgumentException("Unknown seat "+seatId);
+        }
+        return statusOf(seats.get(index),System.currentTimeMillis());
+    }
+    public boolean isHeldBy(int seatId, String userId){
+        int index=indexOf(seatId);
+        if(index<0){
+            return false;
+        }
+        Owner owner=pinOwner(userId);
+        if(owner==null){
+            return false;
+        }
+        try{
+            long current=seats.get(index);
+            return statusOf(current,System.currentTimeMillis())==SeatStatus.HELD&&ownerOf(current)==owner.token;
+        }finally{
+            releaseOwner(owner,1);
+        }
+    }
+    /**
+     * True if the seat is in status and owned by userId; a HELD seat also needs its
+     * hold to end before heldBefore (expired or not).
+     */
+    public boolean isOwnedBy(int seatId, String userId, SeatStatus status, long heldBefore){
+        int index=indexOf(seatId);
+        if(index<0){
+            return false;
+        }
+        Owner owner=pinOwner(userId);
+        if(owner==null){
+            return false;
+        }
+        try{
+            return isReleased(seats.get(index),owner.token,status,heldBefore);
+        }finally{
+            releaseOwner(owner,1);
+        }
+    }
+
+    /**
+     * Writes an availability bitmap into the caller's array: bit (i % 64) of word (i / 64)
+     * is set when the seat at index i is AVAILABLE. The array must hold at least
+     * (capacity() + 63) / 64 words.
+     * 
+     * @return number of available seats
+     */
+    public int availableSeats(long[] bitmap){
+        long now=System.currentTimeMillis();
+        int count=0;
+        Arrays.fill(bitmap,0,(seatIds.length+63)>>>6,0L);
+        for(int i=0;i<seatIds.length;i++){
+            if(statusOf(seats.get(i),now)==SeatStatus.AVAILABLE){
+                bitmap[i>>>6]|=1L<<i;
+                count++;
+            }
+        }
+        return count;
+    }
+    public int availableCount(){
+        long now=System.currentTimeMillis();
+        int count=0;
+        for(int i=0;i<seatIds.length;i++){
+            if(statusOf(seats.get(i),now)==SeatStatus.AVAILABLE){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void freeIf(List<Integer> seatIdList, String userId, SeatStatus expected, long heldBefore){
+        Owner owner=pinOwner(userId);
+        if(owner==null){
+            return;
+        }
+        int freed=0;
+        for(int i=0;i<seatIdList.size();i++){
+            int index=indexOf(seatIdList.get(i));
+            if(index<0){
+                continue;
+            }
+            long current=seats.get(index);
+            if(isReleased(current,owner.token,expected,heldBefore)&&seats.compareAndSet(index,current,0L)){
+                freed++;
+            }
+        }
+        releaseOwner(owner,freed+1);
+    }
+    private boolean isReleased(long word, int owner, SeatStatus status, long heldBefore){
+        return owner!=0&&stateOf(word)==status&&ownerOf(word)==owner
+                &&(status!=SeatStatus.HELD||epoch+(word&EXPIRY_MASK)<heldBefore);
+    }
+    private int indexOf(int seatId){
+        int index=Arrays.binarySearch(seatIds,seatId);
+        return index<0?-1:index;
+    }
+    /**
+     * Owner of userId with refs more references, registering the user if needed.
+     */
+    private Owner acquireOwner(String userId, int refs){
+        synchronized(owners){
+            Owner owner=owners.get(userId);
+            if(owner==null){
+                int token=freeTokenCount>0?freeTokens[--freeTokenCount]:nextOwnerToken++;
+                if(token>OWNER_MASK){
+                    nextOwnerToken--;
+                    throw new IllegalStateException("Too many users holding seats of one show at once");
+                }
+                if(token>=ownersByToken.length){
+                    ownersByToken=Arrays.copyOf(ownersByToken,ownersByToken.length*2);
+                }
+                owner=new Owner(userId,token);
+                owners.put(userId,owner);
+                ownersByToken[token]=owner;
+            }
+            // A registered Owner is never retired: that takes the lock too
+            owner.refs.addAndGet(refs);
+            return owner;
+        }
+    }
+    /**
+     * Owner of a user that already has seat words, pinned for the caller; null if none.
+     */
+    private Owner pinOwner(String userId){
+        synchronized(owners){
+            Owner owner=owners.get(userId);
+            if(owner!=null){
+                owner.refs.incrementAndGet();
+            }
+            return owner;
+        }
+    }
+    /**
+     * Pins an Owner the caller got earlier, without the registry lock. Fails once no seat
+     * word carries it any more, since its token may then go to another user.
+     */
+    private static boolean pin(Owner owner){
+        while(true){
+            int refs=owner.refs.get();
+            if(refs<=0){
+                return false;
+            }
+            if(owner.refs.compareAndSet(refs,refs+1)){
+                return true;
+            }
+        }
+    }
+    /**
+     * Drops references to the Owner of a seat word. The word holds one, so the Owner is
+     * still registered.
+     */
+    private void releaseOwner(int token, int refs){
+        if(token==0||refs==0){
+            return;
+        }
+        Owner owner;
+        synchronized(owners){
+            owner=ownersByToken[token];
+        }
+        releaseOwner(owner,refs);
+    }
+    private void releaseOwner(Owner owner, int refs){
+        if(owner==null||refs==0||owner.refs.addAndGet(-refs)!=0){
+            return;
+        }
+        synchronized(owners){
+            // Registered again meanwhile, or retired by another release that also saw 0
+            if(!owner.refs.compareAndSet(0,-1)){
+                return;
+            }
+            owners.remove(owner.userId);
+            ownersByToken[owner.token]=null;
+            if(freeTokenCount==freeTokens.length){
+                freeTokens=Arrays.copyOf(freeTokens,freeTokenCount*2);
+            }
+            freeTokens[freeTokenCount++]=owner.token;
+        }
+    }
+    private long pack(SeatStatus status, int owner, long expiryTime){
+        long expiry=status==SeatStatus.HELD?Math.max(0L,expiryTime-epoch)&EXPIRY_MASK:0L;
+        return ((long)status.ordinal()<<STATE_SHIFT)|((long)owner<<OWNER_SHIFT)|expiry;
+    }
+    private static SeatStatus stateOf(long word){
+        return STATUSES[(int)(word>>>STATE_SHIFT)];
+    }
+    private static int ownerOf(long word){
+        return (int)((word>>>OWNER_SHIFT)&OWNER_MASK);
+    }
+    private SeatStatus statusOf(long word, long now){
+        SeatStatus status=stateOf(word);
+        if(status==SeatStatus.HELD&&epoch+(word&EXPIRY_MASK)<now){
+            return SeatStatus.AVAILABLE;
+        }
+        return status;
+    }
+}
 abstract class Seat{
     int id;
     double price;
@@ -624,77 +2197,129 @@ public class BookMyShowConcurrency {
         ShowRepository showRepository = new ShowRepository();
         BookingRepository bookingRepository = new BookingRepository();
         
-        LockProvider lockProvider = new InMemoryLockProvider();
-        //Services
-        TheaterService theaterService = new TheaterService(theaterRepository);
-        MovieService movieService = new MovieService(movieRepository);
-        ShowService showService = new ShowService(showRepository);
-        BookingService bookingService = new BookingService(lockProvider, bookingRepository);
-
-        //Create Theater and Screen
-        Theater pvr=theaterService.createTheater(1, "PVR Cinemas");
-        Screen screen1=new Screen(1);
-        pvr.addScreen(screen1);
-        theaterService.addSeatsToScreen(1, 1, Arrays.asList(
-            new RegularSeat(1, 10.0),
-            new RegularSeat(2, 10.0),
-            new ReclinerSeat(3, 20.0),
-            new ReclinerSeat(4, 20.0)
-        ));
-        Movie movie=movieService.createMovie(1, "Inception", 148);
-        Calendar cal=Calendar.getInstance();
-        cal.set(2025, Calendar.JANUARY, 1, 18, 0);
-        Date startTime=cal.getTime();
-        Show show1=showService.createShow(1, movie, pvr, screen1, startTime, movie.duration);
-
-        System.out.println("\nDemo 1: Search shows for a movie title");
-        List<Show> shows=showService.getShowsByTitle("Inception");
-        shows.forEach(System.out::println);
-        System.out.println("\nDemo 2: 1 User tries to book a seat");
-        Booking booking1=bookingService.createBooking("user1", show1, Arrays.asList(1,3));
-        bookingService.confirmBooking(booking1, PaymentType.CARD);
-        System.out.println("\nDemo 3: 2 Users try to book the same seat concurrently");
-        ExecutorService executor=Executors.newFixedThreadPool(2);
-        executor.submit(()->{
+        InMemoryLockProvider lockProvider = new InMemoryLockProvider();
+        // The sweeper thread is not a daemon; stop it even if a demo throws
+        try{
+            //Services
+            TheaterService theaterService = new TheaterService(theaterRepository);
+            MovieService movieService = new MovieService(movieRepository);
+            ShowService showService = new ShowService(showRepository);
+            BookingService bookingService = new BookingService(lockProvider, bookingRepository, showRepository);
+            SeatWaitlistService waitlistService = new SeatWaitlistService(bookingService, showRepository, 1000);
+            lockProvider.addExpiryListener(waitlistService);
+
+            //Create Theater and Screen
+            Theater pvr=theaterService.createTheater(1, "PVR Cinemas");
+            Screen screen1=new Screen(1);
+            pvr.addScreen(screen1);
+            theaterService.addSeatsToScreen(1, 1, Arrays.asList(
+                new RegularSeat(1, 10.0),
+                new RegularSeat(2, 10.0),
+                new ReclinerSeat(3, 20.0),
+                new ReclinerSeat(4, 20.0),
+                new RegularSeat(5, 10.0),
+                new RegularSeat(6, 10.0),
+                new RegularSeat(7, 10.0),
+                new ReclinerSeat(8, 20.0),
+                new ReclinerSeat(9, 20.0)
+            ));
+            Movie movie=movieService.createMovie(1, "Inception", 148);
+            Calendar cal=Calendar.getInstance();
+            cal.set(2025, Calendar.JANUARY, 1, 18, 0);
+            Date startTime=cal.getTime();
+            Show show1=showService.createShow(1, movie, pvr, screen1, startTime, movie.duration);
+
+            System.out.println("\nDemo 1: Search shows for a movie title");
+            List<Show> shows=showService.getShowsByTitle("Inception");
+            shows.forEach(System.out::println);
+            System.out.println("Keyword search 'inception': "+showService.searchShows("inception", 0, 10).size()+" show(s)");
+            System.out.println("Shows at PVR, first page: "+showService.getShowsByTheater(pvr.getId(), 0, 10).size());
+            System.out.println("\nDemo 2: 1 User tries to book a seat");
+            Booking booking1=bookingService.createBooking("user1", show1, Arrays.asList(1,3));
+            bookingService.confirmBooking(booking1, PaymentType.CARD);
+            long[] seatBitmap=new long[(show1.getSeatInventory().capacity()+63)/64];
+            System.out.println("Available seats: "+showService.getAvailableSeats(show1, seatBitmap)+"/"+show1.getSeatInventory().capacity());
+            System.out.println("\nDemo 3: 2 Users try to book the same seat concurrently");
+            ExecutorService executor=Executors.newFixedThreadPool(2);
+            executor.submit(()->{
+                try{
+                    Booking b=bookingService.createBooking("User2", show1, Arrays.asList(2,4));
+                    Thread.sleep(1000); // Simulate some delay
+                    bookingService.confirmBooking(b, PaymentType.UPI);
+                }catch(Exception e){
+                    System.out.println("User2 booking failed: "+e.getMessage());
+                }
+            });
+            executor.submit(()->{
+                try{
+                    Booking b=bookingService.createBooking("User1", show1, Arrays.asList(2,6));
+                    Thread.sleep(500); // Simulate some delay
+                    bookingService.confirmBooking(b, PaymentType.CARD);
+                }catch(Exception e){
+                    System.out.println("User1 booking failed: "+e.getMessage());
+                }
+            });
+            System.out.println("\nDemo 4: Booking expires after TTL");
+            Booking b=bookingService.createBooking("User3", show1, Arrays.asList(8,9));
+            System.out.println("User 3 created the booking but did not pay for it");
+            Thread.sleep(6000); // Wait for TTL to expire
+            System.out.println("User 4 trying to book the same seats after TTL expiry");
+            Booking b2=bookingService.createBooking("user4", show1, Arrays.asList(8,9));
+            System.out.println("User 4 booking created");
             try{
-                Booking b=bookingService.createBooking("User2", show1, Arrays.asList(2,4));
-                Thread.sleep(1000); // Simulate some delay
+                System.out.println("User 3 trying to pay post TTL expiry");
                 bookingService.confirmBooking(b, PaymentType.UPI);
             }catch(Exception e){
-                System.out.println("User2 booking failed: "+e.getMessage());
+                System.out.println("User3 booking failed: "+e.getMessage());
             }
-        });
-        executor.submit(()->{
+
             try{
-                Booking b=bookingService.createBooking("User1", show1, Arrays.asList(2,6));
-                Thread.sleep(500); // Simulate some delay
-                bookingService.confirmBooking(b, PaymentType.CARD);
+                System.out.println("User 4 trying to pay for the booking");
+                bookingService.confirmBooking(b2, PaymentType.CARD);
+                System.out.println("User 4 booking confirmed");
             }catch(Exception e){
-                System.out.println("User1 booking failed: "+e.getMessage());
+                System.out.println("User4 booking failed: "+e.getMessage());
             }
-        });
-        System.out.println("\nDemo 4: Booking expires after TTL");
-        Booking b=bookingService.createBooking("User3", show1, Arrays.asList(8,9));
-        System.out.println("User 3 created the booking but did not pay for it");
-        Thread.sleep(6000); // Wait for TTL to expire
-        System.out.println("User 4 trying to book the same seats after TTL expiry");
-        Booking b2=bookingService.createBooking("user4", show1, Arrays.asList(8,9));
-        System.out.println("User 4 booking created");
-        try{
-            System.out.println("User 3 trying to pay post TTL expiry");
-            bookingService.confirmBooking(b, PaymentType.UPI);
-        }catch(Exception e){
-            System.out.println("User3 booking failed: "+e.getMessage());
-        }
+            // Demo 3's bookings must be settled before later demos look at the same screen
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
 
-        try{
-            System.out.println("User 4 trying to pay for the booking");
-            bookingService.confirmBooking(b2, PaymentType.CARD);
-            System.out.println("User 4 booking confirmed");
-        }catch(Exception e){
-            System.out.println("User4 booking failed: "+e.getMessage());
+            System.out.println("\nDemo 5: Two app nodes share seat locks through a Redis-protocol server");
+            try(EmbeddedRespServer redis=new EmbeddedRespServer().start();
+                RespConnectionPool node1Pool=new RespConnectionPool("127.0.0.1", redis.getPort(), 8);
+                RespConnectionPool node2Pool=new RespConnectionPool("127.0.0.1", redis.getPort(), 8)){
+                LockProvider node1=new ReddisLockProvider(node1Pool);
+                LockProvider node2=new ReddisLockProvider(node2Pool);
+                List<String> seats=Arrays.asList("2:5","2:6","2:7");
+                System.out.println("Node 1 locks seats "+seats+": "+node1.tryLockAll(seats, "user5", 5000));
+                System.out.println("Node 2 locks seats [2:7, 2:8]: "+node2.tryLockAll(Arrays.asList("2:7","2:8"), "user6", 5000));
+                System.out.println("Seat 2:8 left unlocked after rollback: "+node2.isLockExpired("2:8"));
+                node1.unlockAll(seats,"user5");
+                System.out.println("Node 2 retries after node 1 unlocks: "+node2.tryLockAll(Arrays.asList("2:7","2:8"), "user6", 5000));
+            }catch(java.io.IOException e){
+                System.out.println("Embedded Redis server failed: "+e.getMessage());
+            }
+
+            System.out.println("\nDemo 6: Waitlisted user gets seats handed over on cancellation");
+            // Seats 5 and 7 are the only ones no earlier demo books
+            Booking user5Booking=bookingService.createBooking("user5", show1, Arrays.asList(5,7));
+            bookingService.confirmBooking(user5Booking, PaymentType.UPI);
+            try{
+                bookingService.createBooking("user6", show1, Arrays.asList(7));
+            }catch(SeatNotAvailableException e){
+                System.out.println("User6 booking failed: "+e.getMessage()+" - joining waitlist");
+            }
+            CountDownLatch handedOver=new CountDownLatch(1);
+            waitlistService.join("user6", show1, Arrays.asList(7), booking -> {
+                System.out.println("User6 got seats from waitlist: "+booking);
+                bookingService.confirmBooking(booking, PaymentType.CARD);
+                handedOver.countDown();
+            });
+            bookingService.cancelBooking(user5Booking);
+            handedOver.await(2, TimeUnit.SECONDS);
+        }finally{
+            lockProvider.shutdown();
         }
-        executor.shutdown();
     }   
 }
 enum SeatType{
@@ -708,6 +2333,7 @@ enum PaymentType{
 }
 enum SeatStatus{
     AVAILABLE,
+    HELD,
     BOOKED
 }
 enum BookingStatus{
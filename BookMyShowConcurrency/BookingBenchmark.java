@@ -0,0 +1,452 @@
+/*
+ * BOOKING BENCHMARK - Throughput and tail latency of the booking hot path
+ * ======================================================================
+ *
+ * Runs each scenario in a fixed thread pool with a warmup phase followed by a
+ * measurement phase (the same warmup/measure split JMH uses) and reports:
+ * - throughput in operations per second across all threads
+ * - p50 / p99 latency of a single operation
+ * - how many operations lost their seats to another thread; an operation that throws
+ *   counts as lost too, and the scenario reports how many threw and the first exception
+ *
+ * SCENARIOS:
+ * 1. tryLock       - LockProvider.tryLock + unlock of one seat
+ * 2. book-1 seat   - BookingService create + confirm + cancel of one seat
+ * 3. book-4 seats  - the same cycle for four adjacent seats (batch locking path)
+ * 4. sweep         - timing wheel ticks with N live locks, a quarter of which expire
+ *                    during the measured ticks, to show sweeper cost follows the
+ *                    locks expiring rather than the number of locks held
+ *
+ * PARAMETERS:
+ * - provider:   MEMORY (InMemoryLockProvider) or RESP (ReddisLockProvider talking to an
+ *               EmbeddedRespServer over loopback), for the tryLock and booking scenarios
+ * - threads:    1, 4, 16, 64
+ * - contention: HOT (everyone fights over 8 seats) or UNIFORM (2000-seat screen)
+ * - live locks: 0 or 100,000 unrelated locks held in the provider during the run
+ *               (tryLock and booking scenarios)
+ *
+ * Latencies go into a per-thread log-linear histogram (about 3% bucket width);
+ * the histograms are summed after the run, so every measured call counts once
+ * in the percentiles no matter which thread ran it.
+ *
+ * USAGE:
+ *   java BookMyShowConcurrency.BookingBenchmark           full run (a few minutes)
+ *   java BookMyShowConcurrency.BookingBenchmark --quick   short smoke run
+ *   --provider=memory or --provider=resp runs one provider only (default: both)
+ *
+ * BookingService and the payment strategies print on every call; stdout is
+ * swapped for a null stream while a scenario runs so console I/O is not measured.
+ */
+
+package BookMyShowConcurrency;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class BookingBenchmark {
+    static final int SCREEN_SEATS = 2000;
+    static final int HOT_SEATS = 8;
+
+    enum Contention { HOT, UNIFORM }
+
+    enum Provider { MEMORY, RESP }
+
+    /**
+     * One benchmarked operation. Returns false if the seats were taken by someone else.
+     */
+    interface Operation {
+        boolean run(int threadIndex);
+    }
+
+    static class Result {
+        long ops;
+        long failures;
+        long errors; // failures that threw, warmup included
+        RuntimeException firstError;
+        LatencyHistogram latencies = new LatencyHistogram();
+        double seconds;
+    }
+
+    /**
+     * Log-linear latency histogram: values below 2^SUB_BITS get their own bucket,
+     * larger ones share a bucket with values of the same magnitude that agree in
+     * the top SUB_BITS + 1 bits. Not thread-safe; one per thread, merged with add().
+     */
+    static class LatencyHistogram {
+        static final int SUB_BITS = 5;
+        static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        final long[] counts = new long[(64 - SUB_BITS) * SUB_BUCKETS];
+        long total;
+
+        void record(long value) {
+            counts[bucketOf(Math.max(0, value))]++;
+            total++;
+        }
+
+        void add(LatencyHistogram other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            total += other.total;
+        }
+
+        /**
+         * The midpoint of the bucket holding the value of rank ceil(p * total).
+         */
+        long percentile(double p) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return valueOf(i);
+                }
+            }
+            return valueOf(counts.length - 1);
+        }
+
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int shift = exponent - SUB_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+        }
+
+        static long valueOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lower + ((1L << shift) >> 1);
+        }
+    }
+
+    private final long warmupMillis;
+    private final long measureMillis;
+    private final PrintStream console = System.out;
+
+    // shared by every RESP scenario and flushed between them; null until first needed
+    private EmbeddedRespServer respServer;
+    private RespConnectionPool respPool;
+
+    BookingBenchmark(long warmupMillis, long measureMillis) {
+        this.warmupMillis = warmupMillis;
+        this.measureMillis = measureMillis;
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        boolean quick = false;
+        EnumSet<Provider> providers = EnumSet.allOf(Provider.class);
+        for (String arg : args) {
+            if (arg.equals("--quick")) {
+                quick = true;
+            } else if (arg.startsWith("--provider=")) {
+                providers = EnumSet.of(Provider.valueOf(arg.substring("--provider=".length()).toUpperCase(Locale.ROOT)));
+            } else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        BookingBenchmark benchmark = quick ? new BookingBenchmark(200, 500) : new BookingBenchmark(1000, 3000);
+        int[] threadCounts = quick ? new int[]{1, 16} : new int[]{1, 4, 16, 64};
+        int[] liveLockCounts = {0, 100_000};
+
+        benchmark.console.printf("%-14s %-8s %-8s %10s %8s %14s %10s %10s %9s%n",
+                "scenario", "provider", "contend", "liveLocks", "threads", "ops/s", "p50(us)", "p99(us)", "lost(%)");
+        try {
+            for (Provider provider : providers) {
+                for (Contention contention : Contention.values()) {
+                    for (int liveLocks : liveLockCounts) {
+                        for (int threads : threadCounts) {
+                            benchmark.runTryLock(provider, contention, liveLocks, threads);
+                        }
+                    }
+                    for (int seatsPerBooking : new int[]{1, 4}) {
+                        for (int liveLocks : liveLockCounts) {
+                            for (int threads : threadCounts) {
+                                benchmark.runBooking(provider, contention, seatsPerBooking, liveLocks, threads);
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            benchmark.closeResp();
+        }
+        benchmark.console.println();
+        benchmark.runSweep(new int[]{1_000, 100_000, quick ? 200_000 : 1_000_000});
+    }
+
+    void runTryLock(Provider kind, Contention contention, int liveLocks, int threads) throws InterruptedException, IOException {
+        LockProvider provider = providerWithLiveLocks(kind, liveLocks);
+        String[] keys = new String[SCREEN_SEATS];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "1:" + i;
+        }
+        String[] users = userIds(threads);
+        Result result = measure(threads, t -> {
+            String key = keys[pickSeat(contention, 1)];
+            if (!provider.tryLock(key, users[t], 5000)) {
+                return false;
+            }
+            provider.unlock(key, users[t]);
+            return true;
+        });
+        shutdown(provider);
+        report("tryLock", kind, contention, liveLocks, threads, result);
+    }
+
+    void runBooking(Provider kind, Contention contention, int seatsPerBooking, int liveLocks, int threads)
+            throws InterruptedException, IOException {
+        LockProvider provider = providerWithLiveLocks(kind, liveLocks);
+        ShowRepository showRepository = new ShowRepository();
+        BookingService bookingService = new BookingService(provider, new BookingRepository(), showRepository);
+        Show show = createShow(showRepository);
+        String[] users = userIds(threads);
+
+        Result result = measure(threads, t -> {
+            int first = pickSeat(contention, seatsPerBooking);
+            List<Integer> seats = new ArrayList<>(seatsPerBooking);
+            for (int i = 0; i < seatsPerBooking; i++) {
+                seats.add(first + i);
+            }
+            Booking booking;
+            try {
+                booking = bookingService.createBooking(users[t], show, seats);
+            } catch (SeatNotAvailableException e) {
+                return false;
+            }
+            bookingService.confirmBooking(booking, PaymentType.UPI);
+            bookingService.cancelBooking(booking);
+            return true;
+        });
+        shutdown(provider);
+        report("book-" + seatsPerBooking + " seat" + (seatsPerBooking > 1 ? "s" : ""), kind, contention, liveLocks, threads, result);
+    }
+
+    /**
+     * A provider of the given kind already holding liveLocks locks on another show.
+     * RESP providers share one embedded server, which is emptied first.
+     */
+    LockProvider providerWithLiveLocks(Provider kind, int liveLocks) throws IOException {
+        if (kind == Provider.MEMORY) {
+            return providerWithLiveLocks(liveLocks);
+        }
+        if (respServer == null) {
+            respServer = new EmbeddedRespServer().start();
+            respPool = new RespConnectionPool("127.0.0.1", respServer.getPort(), 64);
+        }
+        String ttl = Long.toString(TimeUnit.MINUTES.toMillis(10));
+        respPool.execute(c -> {
+            c.call("FLUSHALL");
+            // pipelined in chunks, so neither side's socket buffer fills up unread
+            for (int i = 0; i < liveLocks; i += 1000) {
+                int end = Math.min(liveLocks, i + 1000);
+                for (int j = i; j < end; j++) {
+                    c.write("SET", "999:" + j, "holder", "NX", "PX", ttl);
+                }
+                c.flush();
+                for (int j = i; j < end; j++) {
+                    c.read();
+                }
+            }
+            return null;
+        });
+        return new ReddisLockProvider(respPool);
+    }
+
+    static void shutdown(LockProvider provider) {
+        if (provider instanceof InMemoryLockProvider) {
+            ((InMemoryLockProvider) provider).shutdown();
+        }
+    }
+
+    void closeResp() {
+        if (respServer != null) {
+            respPool.close();
+            respServer.close();
+        }
+    }
+
+    /**
+     * A provider already holding liveLocks locks on another show, none of which
+     * expire during the run.
+     */
+    static InMemoryLockProvider providerWithLiveLocks(int liveLocks) {
+        InMemoryLockProvider provider = new InMemoryLockProvider();
+        for (int i = 0; i < liveLocks; i++) {
+            provider.tryLock("999:" + i, "holder", TimeUnit.MINUTES.toMillis(10));
+        }
+        return provider;
+    }
+
+    /**
+     * Sweeper cost: N lock deadlines are spread evenly over four times the measured
+     * span, so a quarter of them expire (and cascade down the wheel levels) while
+     * the wheel is advanced tick by tick. A full-scan sweeper would cost O(N) per
+     * tick; the wheel's cost per expired lock should stay flat as N grows.
+     */
+    void runSweep(int[] liveLockCounts) {
+        console.printf("%-14s %10s %10s %16s %16s%n", "sweep", "liveLocks", "expired", "ns per tick", "ns per expiry");
+        int ticks = 10_000;
+        long spanMillis = ticks * InMemoryLockProvider.TICK_MS;
+        for (int liveLocks : liveLockCounts) {
+            long start = 0;
+            HierarchicalTimingWheel<Integer> wheel = new HierarchicalTimingWheel<>(InMemoryLockProvider.TICK_MS, start);
+            Integer item = 1;
+            for (int i = 0; i < liveLocks; i++) {
+                wheel.schedule(item, start + InMemoryLockProvider.TICK_MS + (4 * spanMillis * i) / liveLocks);
+            }
+            long[] expired = new long[1];
+            wheel.advance(start, x -> expired[0]++);
+            expired[0] = 0;
+            long begin = System.nanoTime();
+            for (int tick = 1; tick <= ticks; tick++) {
+                wheel.advance(start + tick * InMemoryLockProvider.TICK_MS, x -> expired[0]++);
+            }
+            long elapsed = System.nanoTime() - begin;
+            console.printf("%-14s %10d %10d %16d %16d%n", "timing wheel", liveLocks, expired[0],
+                    elapsed / ticks, expired[0] == 0 ? 0 : elapsed / expired[0]);
+        }
+    }
+
+    /**
+     * Runs op on the given number of threads, first for the warmup period and then
+     * for the measurement period, recording the latency of every measured call.
+     */
+    Result measure(int threads, Operation op) throws InterruptedException {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicBoolean measuring = new AtomicBoolean(false);
+        AtomicBoolean running = new AtomicBoolean(true);
+        LatencyHistogram[] histograms = new LatencyHistogram[threads];
+        long[] ops = new long[threads];
+        long[] failures = new long[threads];
+        long[] errors = new long[threads];
+        RuntimeException[] firstErrors = new RuntimeException[threads];
+        CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            int threadIndex = t;
+            pool.submit(() -> {
+                LatencyHistogram myHistogram = new LatencyHistogram();
+                long myOps = 0;
+                long myFailures = 0;
+                long myErrors = 0;
+                RuntimeException myFirstError = null;
+                try {
+                    while (running.get()) {
+                        long begin = System.nanoTime();
+                        boolean ok;
+                        try {
+                            ok = op.run(threadIndex);
+                        } catch (RuntimeException e) {
+                            // keep the thread measuring; a silent exit would only lower ops/s
+                            ok = false;
+                            myErrors++;
+                            if (myFirstError == null) {
+                                myFirstError = e;
+                            }
+                        }
+                        long latency = System.nanoTime() - begin;
+                        if (measuring.get()) {
+                            myOps++;
+                            if (!ok) {
+                                myFailures++;
+                            }
+                            myHistogram.record(latency);
+                        }
+                    }
+                } finally {
+                    histograms[threadIndex] = myHistogram;
+                    ops[threadIndex] = myOps;
+                    failures[threadIndex] = myFailures;
+                    errors[threadIndex] = myErrors;
+                    firstErrors[threadIndex] = myFirstError;
+                    done.countDown();
+                }
+            });
+        }
+        Thread.sleep(warmupMillis);
+        measuring.set(true);
+        long begin = System.nanoTime();
+        Thread.sleep(measureMillis);
+        measuring.set(false);
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        running.set(false);
+        done.await();
+        pool.shutdown();
+        System.setOut(console);
+
+        Result result = new Result();
+        result.seconds = seconds;
+        for (int t = 0; t < threads; t++) {
+            result.ops += ops[t];
+            result.failures += failures[t];
+            result.errors += errors[t];
+            if (result.firstError == null) {
+                result.firstError = firstErrors[t];
+            }
+            result.latencies.add(histograms[t]);
+        }
+        return result;
+    }
+
+    void report(String scenario, Provider provider, Contention contention, int liveLocks, int threads, Result result) {
+        console.printf("%-14s %-8s %-8s %10d %8d %14.0f %10.1f %10.1f %9.1f%n",
+                scenario, provider, contention, liveLocks, threads,
+                result.ops / result.seconds,
+                result.latencies.percentile(0.50) / 1000.0,
+                result.latencies.percentile(0.99) / 1000.0,
+                result.ops == 0 ? 0.0 : 100.0 * result.failures / result.ops);
+        if (result.errors > 0) {
+            console.printf("  %d operations threw, first: %s%n", result.errors, result.firstError);
+        }
+    }
+
+    static int pickSeat(Contention contention, int seatsPerBooking) {
+        int range = contention == Contention.HOT ? HOT_SEATS : SCREEN_SEATS;
+        return ThreadLocalRandom.current().nextInt(range - seatsPerBooking + 1);
+    }
+
+    static String[] userIds(int threads) {
+        String[] users = new String[threads];
+        for (int t = 0; t < threads; t++) {
+            users[t] = "user" + t;
+        }
+        return users;
+    }
+
+    static Show createShow(ShowRepository showRepository) {
+        Theater theater = new Theater(1, "Benchmark Cinemas");
+        Screen screen = new Screen(1);
+        theater.addScreen(screen);
+        List<Seat> seats = new ArrayList<>(SCREEN_SEATS);
+        for (int i = 0; i < SCREEN_SEATS; i++) {
+            seats.add(new RegularSeat(i, 10.0));
+        }
+        theater.addSeatsToScreen(1, seats);
+        Calendar cal = Calendar.getInstance();
+        Show show = new Show(1, new Movie(1, "Benchmark", 120), theater, screen, cal.getTime());
+        showRepository.addShow(show);
+        return show;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * EMBEDDED RESP SERVER - In-process Redis stand-in for tests and benchmarks
+ * ========================================================================
+ *
+ * Speaks enough of the Redis protocol for ReddisLockProvider, so the distributed
+ * lock path can run on one box without an external Redis:
+ *   PING, GET, MGET key..., SET key value [NX|XX] [PX ms|EX s], DEL key..., EXISTS key...,
+ *   PTTL key, FLUSHALL, QUIT, and EVAL for the compare-and-delete unlock script and
+ *   the compare-and-set booking script
+ *
+ * Redis runs Lua scripts atomically; this server does not embed Lua and only
+ * accepts the exact ReddisLockProvider.UNLOCK_SCRIPT and BOOK_SCRIPT texts, each
+ * of which it executes as a single atomic compute() on the key.
+ *
+ * DESIGN:
+ * - Listens on 127.0.0.1 on an ephemeral port (see getPort())
+ * - One thread per client connection; pooled clients keep their connections open
+ * - Keys live in a ConcurrentHashMap; every command on a key is one atomic map operation
+ * - Expired keys are hidden on read and removed by a background sweep once per second
+ */
+
+package BookMyShowConcurrency;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+class EmbeddedRespServer implements Closeable {
+    static class Entry {
+        final String value;
+        final long expiresAt; // 0 = no expiry
+        Entry(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+        boolean isExpired(long now) {
+            return expiresAt != 0 && expiresAt <= now;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> store = new ConcurrentHashMap<>();
+    private final ServerSocket serverSocket;
+    private final ExecutorService clients = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "resp-client");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "resp-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    EmbeddedRespServer() throws IOException {
+        serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public EmbeddedRespServer start() {
+        clients.submit(this::acceptLoop);
+        sweeper.scheduleAtFixedRate(() -> {
+            long now = System.currentTimeMillis();
+            store.values().removeIf(e -> e.isExpired(now));
+        }, 1, 1, TimeUnit.SECONDS);
+        return this;
+    }
+
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        clients.shutdownNow();
+        sweeper.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                clients.submit(() -> serve(socket));
+            } catch (IOException e) {
+                return; // server closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            InputStream in = new BufferedInputStream(s.getInputStream(), 16 * 1024);
+            OutputStream out = new BufferedOutputStream(s.getOutputStream(), 16 * 1024);
+            while (true) {
+                Object request = RespConnection.readReply(in);
+                if (!(request instanceof List)) {
+                    writeError(out, "ERR protocol error");
+                } else {
+                    @SuppressWarnings("unchecked")
+                    List<Object> args = (List<Object>) request;
+                    try {
+                        if (!execute(args, out)) {
+                            out.flush();
+                            return;
+                        }
+                    } catch (RespException | NumberFormatException e) {
+                        writeError(out, e instanceof RespException ? e.getMessage() : "ERR value is not an integer");
+                    }
+                }
+                // Flush only when the client has no more pipelined commands in flight
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // client disconnected or sent garbage; drop the connection
+        }
+    }
+
+    /**
+     * Executes one command and writes its reply.
+     *
+     * @return false if the connection should be closed (QUIT)
+     */
+    private boolean execute(List<Object> args, OutputStream out) throws IOException {
+        String command = ((String) args.get(0)).toUpperCase(Locale.ROOT);
+        long now = System.currentTimeMillis();
+        switch (command) {
+            case "PING":
+                writeSimple(out, "PONG");
+                break;
+            case "GET": {
+                Entry entry = live(arg(args, 1), now);
+                writeBulk(out, entry == null ? null : entry.value);
+                break;
+            }
+            case "MGET": {
+                out.write(("*" + (args.size() - 1) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                for (int i = 1; i < args.size(); i++) {
+                    Entry entry = live(arg(args, i), now);
+                    writeBulk(out, entry == null ? null : entry.value);
+                }
+                break;
+            }
+            case "SET":
+                set(args, now, out);
+                break;
+            case "DEL": {
+                long removed = 0;
+                for (int i = 1; i < args.size(); i++) {
+                    Entry entry = store.remove(arg(args, i));
+                    if (entry != null && !entry.isExpired(now)) {
+                        removed++;
+                    }
+                }
+                writeInteger(out, removed);
+                break;
+            }
+            case "EXISTS": {
+                long count = 0;
+                for (int i = 1; i < args.size(); i++) {
+                    if (live(arg(args, i), now) != null) {
+                        count++;
+                    }
+                }
+                writeInteger(out, count);
+                break;
+            }
+            case "PTTL": {
+                Entry entry = live(arg(args, 1), now);
+                writeInteger(out, entry == null ? -2 : entry.expiresAt == 0 ? -1 : entry.expiresAt - now);
+                break;
+            }
+            case "EVAL":
+                eval(args, now, out);
+                break;
+            case "FLUSHALL":
+                store.clear();
+                writeSimple(out, "OK");
+                break;
+            case "QUIT":
+                writeSimple(out, "OK");
+                return false;
+            default:
+                writeError(out, "ERR unknown command '" + command + "'");
+        }
+        return true;
+    }
+
+    private void set(List<Object> args, long now, OutputStream out) throws IOException {
+        String key = arg(args, 1);
+        String value = arg(args, 2);
+        boolean nx = false;
+        boolean xx = false;
+        long expiresAt = 0;
+        for (int i = 3; i < args.size(); i++) {
+            String option = arg(args, i).toUpperCase(Locale.ROOT);
+            if (option.equals("NX")) {
+                nx = true;
+            } else if (option.equals("XX")) {
+                xx = true;
+            } else if (option.equals("PX") && i + 1 < args.size()) {
+                expiresAt = now + Long.parseLong(arg(args, ++i));
+            } else if (option.equals("EX") && i + 1 < args.size()) {
+                expiresAt = now + Long.parseLong(arg(args, ++i)) * 1000;
+            } else {
+                writeError(out, "ERR syntax error");
+                return;
+            }
+        }
+        boolean onlyIfAbsent = nx;
+        boolean onlyIfPresent = xx;
+        Entry newEntry = new Entry(value, expiresAt);
+        Entry result = store.compute(key, (k, existing) -> {
+            boolean present = existing != null && !existing.isExpired(now);
+            if ((onlyIfAbsent && present) || (onlyIfPresent && !present)) {
+                return existing;
+            }
+            return newEntry;
+        });
+        if (result == newEntry) {
+            writeSimple(out, "OK");
+        } else {
+            writeBulk(out, null);
+        }
+    }
+
+    private void eval(List<Object> args, long now, OutputStream out) throws IOException {
+        String script = arg(args, 1);
+        boolean unlock = ReddisLockProvider.UNLOCK_SCRIPT.equals(script);
+        if ((!unlock && !ReddisLockProvider.BOOK_SCRIPT.equals(script)) || !"1".equals(arg(args, 2))) {
+            writeError(out, "ERR only the ReddisLockProvider scripts are supported");
+            return;
+        }
+        String key = arg(args, 3);
+        String expected = arg(args, 4);
+        // BOOK_SCRIPT: plain SET, so the new value never expires
+        Entry replacement = unlock ? null : new Entry(arg(args, 5), 0);
+        boolean[] matched = new boolean[1];
+        store.computeIfPresent(key, (k, existing) -> {
+            if (!existing.isExpired(now) && existing.value.equals(expected)) {
+                matched[0] = true;
+                return replacement;
+            }
+            return existing;
+        });
+        if (unlock) {
+            writeInteger(out, matched[0] ? 1 : 0);
+        } else if (matched[0]) {
+            writeSimple(out, "OK");
+        } else {
+            writeInteger(out, 0);
+        }
+    }
+
+    private Entry live(String key, long now) {
+        Entry entry = store.get(key);
+        return entry == null || entry.isExpired(now) ? null : entry;
+    }
+
+    private static String arg(List<Object> args, int index) {
+        if (index >= args.size()) {
+            throw new RespException("ERR wrong number of arguments");
+        }
+        return (String) args.get(index);
+    }
+
+    private static void writeSimple(OutputStream out, String value) throws IOException {
+        out.write(('+' + value + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeError(OutputStream out, String message) throws IOException {
+        out.write(('-' + message + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeInteger(OutputStream out, long value) throws IOException {
+        out.write((":" + value + "\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void writeBulk(OutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.write("$-1\r\n".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.write(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+        out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * RESP CLIENT - Minimal Redis protocol client used by ReddisLockProvider
+ * =====================================================================
+ *
+ * RespConnection speaks RESP2 (the Redis wire protocol) over one socket:
+ * - Commands are written as arrays of bulk strings into a buffered stream
+ * - write() only buffers, so several commands can be pipelined and sent with one flush()
+ * - read() returns one reply: String (simple/bulk), Long (integer), null (nil) or List (array)
+ * - Error replies are thrown as RespException
+ *
+ * RespConnectionPool keeps connections open and hands them out per call, so lock
+ * operations reuse TCP connections instead of paying a handshake per seat.
+ */
+
+package BookMyShowConcurrency;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+class RespException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public RespException(String message) {
+        super(message);
+    }
+}
+
+class RespConnection implements Closeable {
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final InputStream in;
+
+    RespConnection(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+        in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+    }
+
+    /**
+     * Buffers one command. Nothing is sent until flush().
+     */
+    public void write(String... args) throws IOException {
+        writeHeader('*', args.length);
+        for (String arg : args) {
+            byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+            writeHeader('$', bytes.length);
+            out.write(bytes);
+            out.write(CRLF);
+        }
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public Object read() throws IOException {
+        return readReply(in);
+    }
+
+    /**
+     * Single command round trip.
+     */
+    public Object call(String... args) throws IOException {
+        write(args);
+        flush();
+        return read();
+    }
+
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void writeHeader(char type, int length) throws IOException {
+        out.write(type);
+        out.write(Integer.toString(length).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+    }
+
+    /**
+     * Parses one RESP value. Shared with EmbeddedRespServer, which reads the
+     * client's command arrays with the same grammar.
+     */
+    static Object readReply(InputStream in) throws IOException {
+        int type = in.read();
+        if (type == -1) {
+            throw new EOFException("Connection closed");
+        }
+        String line = readLine(in);
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                throw new RespException(line);
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int length = Integer.parseInt(line);
+                if (length < 0) {
+                    return null;
+                }
+                byte[] bytes = in.readNBytes(length);
+                if (bytes.length < length) {
+                    throw new EOFException("Connection closed");
+                }
+                readLine(in);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            case '*': {
+                int count = Integer.parseInt(line);
+                if (count < 0) {
+                    return null;
+                }
+                List<Object> items = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    items.add(readReply(in));
+                }
+                return items;
+            }
+            default:
+                throw new RespException("Unknown reply type: " + (char) type);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c == -1) {
+                throw new EOFException("Connection closed");
+            }
+            sb.append((char) c);
+        }
+        in.read(); // '\n'
+        return sb.toString();
+    }
+}
+
+class RespConnectionPool implements Closeable {
+    /**
+     * Work done on a borrowed connection.
+     */
+    interface RespCall<T> {
+        T apply(RespConnection connection) throws IOException;
+    }
+
+    private final String host;
+    private final int port;
+    private final BlockingQueue<RespConnection> idle;
+
+    RespConnectionPool(String host, int port, int maxIdle) {
+        this.host = host;
+        this.port = port;
+        this.idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    /**
+     * Runs call on an idle connection, opening a new one if none is free.
+     * The connection goes back to the pool afterwards. A connection that
+     * failed with an I/O error, an error reply or any other exception may
+     * still have unread pipelined replies, so it is closed instead.
+     */
+    public <T> T execute(RespCall<T> call) {
+        RespConnection connection = idle.poll();
+        try {
+            if (connection == null) {
+                connection = new RespConnection(host, port);
+            }
+            T result = call.apply(connection);
+            if (!idle.offer(connection)) {
+                connection.close();
+            }
+            return result;
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.close();
+            }
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            if (connection != null) {
+                connection.close();
+            }
+            throw e;
+        }
+    }
+
+    public void close() {
+        RespConnection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+}
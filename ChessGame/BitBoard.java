@@ -0,0 +1,797 @@
+/*
+===========================
+BITBOARD POSITION
+===========================
+
+Compact position used for legal move generation (and search),
+kept next to the Board / Cell grid the game and UI work with.
+
+State
+-----
+- one bitboard per (color, piece type) + one per color
+- a 64-byte mailbox: piece code on each square, NO_PIECE if empty
+- side to move, castling rights, en passant square, clocks
+
+Moves
+-----
+A move is an int, no objects:
+
+    bits  0- 5  from square
+    bits  6-11  to square
+    bits 12-15  flags: QUIET, DOUBLE_PUSH, KING_CASTLE, QUEEN_CASTLE,
+                CAPTURE, EN_PASSANT, PROMOTION (+ CAPTURE), with
+                the promoted piece in the low two flag bits
+
+generateMoves() writes the legal moves into a caller supplied
+int[] from a start index and returns the end index, so a search
+or perft reuses one buffer for every ply and allocates nothing.
+
+Legality is decided up front, not by make + test:
+- king moves: target not attacked with the king lifted off
+- double check: king moves only
+- single check: other pieces must capture the checker or block
+- pinned pieces stay on the line through king and pinner
+- en passant: re-checks the sliders with both pawns moved,
+  which catches the rank pin that removes two pieces at once
+
+make() / unmake() update the position in place. What a move
+cannot restore on its own (captured piece, castling rights,
+en passant square, halfmove clock) goes on an int stack.
+Both are O(1) and allocate nothing (the stacks only grow, by
+doubling, past 256 moves).
+
+Zobrist key
+-----------
+key is the XOR of one random number per (piece, square), plus
+castling rights, en passant file and side to move. make() updates
+it with a few XORs; the key before each move is kept on a long
+stack, so unmake() just restores it.
+
+The same key stack gives repetition detection: a position can
+only repeat since the last pawn move or capture, so only the
+last halfmoveClock keys (every second one) are compared.
+===========================
+*/
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+class BitBoard {
+
+    static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    static final int WHITE = 0;
+    static final int BLACK = 1;
+
+    static final int PAWN = 0;
+    static final int KNIGHT = 1;
+    static final int BISHOP = 2;
+    static final int ROOK = 3;
+    static final int QUEEN = 4;
+    static final int KING = 5;
+
+    static final int NO_PIECE = -1;
+
+    static final int WHITE_KING_SIDE = 1;
+    static final int WHITE_QUEEN_SIDE = 2;
+    static final int BLACK_KING_SIDE = 4;
+    static final int BLACK_QUEEN_SIDE = 8;
+
+    // upper bound on legal moves in any position
+    static final int MAX_MOVES = 256;
+
+    static final int QUIET = 0;
+    static final int DOUBLE_PUSH = 1;
+    static final int KING_CASTLE = 2;
+    static final int QUEEN_CASTLE = 3;
+    static final int CAPTURE = 4;
+    static final int EN_PASSANT = 5;
+    static final int PROMOTION = 8;
+
+    private static final String PIECE_CHARS = "PNBRQKpnbrqk";
+
+    // castling rights kept when a move touches the square
+    private static final int[] CASTLING_KEPT = new int[64];
+
+    // Zobrist keys
+    private static final long[] PIECE_KEYS = new long[12 * 64];
+    private static final long[] CASTLING_KEYS = new long[16];
+    private static final long[] EP_FILE_KEYS = new long[8];
+    private static final long SIDE_KEY;
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x2B992DDFA23249D6L);
+
+        for (int i = 0; i < PIECE_KEYS.length; i++)
+            PIECE_KEYS[i] = random.nextLong();
+
+        for (int i = 0; i < CASTLING_KEYS.length; i++)
+            CASTLING_KEYS[i] = random.nextLong();
+
+        for (int i = 0; i < EP_FILE_KEYS.length; i++)
+            EP_FILE_KEYS[i] = random.nextLong();
+
+        SIDE_KEY = random.nextLong();
+    }
+
+    static {
+        Arrays.fill(CASTLING_KEPT, 15);
+        CASTLING_KEPT[0] = 15 & ~WHITE_QUEEN_SIDE;
+        CASTLING_KEPT[4] = 15 & ~(WHITE_KING_SIDE | WHITE_QUEEN_SIDE);
+        CASTLING_KEPT[7] = 15 & ~WHITE_KING_SIDE;
+        CASTLING_KEPT[56] = 15 & ~BLACK_QUEEN_SIDE;
+        CASTLING_KEPT[60] = 15 & ~(BLACK_KING_SIDE | BLACK_QUEEN_SIDE);
+        CASTLING_KEPT[63] = 15 & ~BLACK_KING_SIDE;
+    }
+
+    // [color * 6 + type]
+    final long[] pieces = new long[12];
+    final long[] colors = new long[2];
+    long occupied;
+
+    final byte[] squares = new byte[64];
+
+    int side;
+    int castling;
+    int epSquare = -1;
+    int halfmoveClock;
+    int fullmoveNumber = 1;
+
+    long key;
+
+    // one entry per made move: restore state, and the key before the move
+    private int[] undo = new int[256];
+    private long[] keys = new long[256];
+    private int ply;
+
+    BitBoard() {
+        this(START_FEN);
+    }
+
+    BitBoard(String fen) {
+        setFen(fen);
+    }
+
+    // independent copy, e.g. one per search thread
+    BitBoard(BitBoard other) {
+
+        System.arraycopy(other.pieces, 0, pieces, 0, pieces.length);
+        System.arraycopy(other.colors, 0, colors, 0, colors.length);
+        System.arraycopy(other.squares, 0, squares, 0, squares.length);
+
+        occupied = other.occupied;
+        side = other.side;
+        castling = other.castling;
+        epSquare = other.epSquare;
+        halfmoveClock = other.halfmoveClock;
+        fullmoveNumber = other.fullmoveNumber;
+        key = other.key;
+
+        undo = other.undo.clone();
+        keys = other.keys.clone();
+        ply = other.ply;
+    }
+
+    // ---------------------------------------------------------
+    // Move encoding
+    // ---------------------------------------------------------
+
+    static int move(int from, int to, int flags) {
+        return from | to << 6 | flags << 12;
+    }
+
+    static int from(int move) {
+        return move & 63;
+    }
+
+    static int to(int move) {
+        return move >>> 6 & 63;
+    }
+
+    static int flags(int move) {
+        return move >>> 12 & 15;
+    }
+
+    static boolean isCapture(int move) {
+        return (flags(move) & CAPTURE) != 0;
+    }
+
+    static boolean isPromotion(int move) {
+        return (flags(move) & PROMOTION) != 0;
+    }
+
+    static boolean isCastle(int move) {
+        int f = flags(move);
+        return f == KING_CASTLE || f == QUEEN_CASTLE;
+    }
+
+    static int promotionType(int move) {
+        return KNIGHT + (flags(move) & 3);
+    }
+
+    // long algebraic, e.g. e2e4, e7e8q
+    static String toUci(int move) {
+
+        String s = squareName(from(move)) + squareName(to(move));
+
+        return isPromotion(move) ? s + "nbrq".charAt(promotionType(move) - KNIGHT) : s;
+    }
+
+    static String squareName(int sq) {
+        return "" + (char) ('a' + sq % 8) + (char) ('1' + sq / 8);
+    }
+
+    // ---------------------------------------------------------
+    // Queries
+    // ---------------------------------------------------------
+
+    int pieceAt(int sq) {
+        return squares[sq];
+    }
+
+    long pieces(int color, int type) {
+        return pieces[color * 6 + type];
+    }
+
+    int kingSquare(int color) {
+        return Long.numberOfTrailingZeros(pieces[color * 6 + KING]);
+    }
+
+    boolean inCheck() {
+        return attackersTo(kingSquare(side), occupied, side ^ 1) != 0;
+    }
+
+    // anything besides pawns and king, e.g. to rule out zugzwang for null moves
+    boolean hasPieces(int color) {
+
+        int base = color * 6;
+
+        return (pieces[base + KNIGHT] | pieces[base + BISHOP] | pieces[base + ROOK] | pieces[base + QUEEN]) != 0;
+    }
+
+    // pieces of color by that attack sq, given the occupancy
+    long attackersTo(int sq, long occ, int by) {
+
+        int base = by * 6;
+
+        return (Bitboards.PAWN_ATTACKS[by ^ 1][sq] & pieces[base + PAWN])
+                | (Bitboards.KNIGHT[sq] & pieces[base + KNIGHT])
+                | (Bitboards.KING[sq] & pieces[base + KING])
+                | (Bitboards.bishopAttacks(sq, occ) & (pieces[base + BISHOP] | pieces[base + QUEEN]))
+                | (Bitboards.rookAttacks(sq, occ) & (pieces[base + ROOK] | pieces[base + QUEEN]));
+    }
+
+    // ---------------------------------------------------------
+    // Legal move generation
+    // ---------------------------------------------------------
+
+    /*
+    Writes the legal moves of the side to move into moves[start..]
+    and returns the index after the last one.
+    */
+    int generateMoves(int[] moves, int start) {
+
+        int n = start;
+
+        int us = side, them = us ^ 1;
+        long ours = colors[us], theirs = colors[them];
+        long occ = occupied;
+
+        int king = kingSquare(us);
+        long checkers = attackersTo(king, occ, them);
+
+        // king steps, tested with the king lifted so it cannot hide behind itself
+        long occWithoutKing = occ ^ Bitboards.bit(king);
+
+        for (long t = Bitboards.KING[king] & ~ours; t != 0; t &= t - 1) {
+
+            int to = Long.numberOfTrailingZeros(t);
+
+            if (attackersTo(to, occWithoutKing, them) == 0)
+                moves[n++] = move(king, to, (theirs & Bitboards.bit(to)) != 0 ? CAPTURE : QUIET);
+        }
+
+        if (Long.bitCount(checkers) > 1)
+            return n;
+
+        // squares non-king moves may land on
+        long target = ~ours;
+
+        if (checkers != 0)
+            target = checkers | Bitboards.BETWEEN[king][Long.numberOfTrailingZeros(checkers)];
+
+        // our pieces alone between the king and an enemy slider
+        long pinned = 0;
+
+        int base = them * 6;
+        long diagonal = pieces[base + BISHOP] | pieces[base + QUEEN];
+        long straight = pieces[base + ROOK] | pieces[base + QUEEN];
+
+        long snipers = (Bitboards.bishopAttacks(king, theirs) & diagonal)
+                | (Bitboards.rookAttacks(king, theirs) & straight);
+
+        for (; snipers != 0; snipers &= snipers - 1) {
+
+            long between = Bitboards.BETWEEN[king][Long.numberOfTrailingZeros(snipers)] & occ;
+
+            if ((between & (between - 1)) == 0)
+                pinned |= between & ours;
+        }
+
+        int own = us * 6;
+
+        // a pinned knight can never stay on its pin line
+        for (long b = pieces[own + KNIGHT] & ~pinned; b != 0; b &= b - 1) {
+
+            int from = Long.numberOfTrailingZeros(b);
+
+            n = addMoves(moves, n, from, Bitboards.KNIGHT[from] & target, theirs);
+        }
+
+        for (long b = pieces[own + BISHOP] | pieces[own + QUEEN]; b != 0; b &= b - 1) {
+
+            int from = Long.numberOfTrailingZeros(b);
+
+            long t = Bitboards.bishopAttacks(from, occ) & target;
+
+            if ((pinned & Bitboards.bit(from)) != 0)
+                t &= Bitboards.LINE[king][from];
+
+            n = addMoves(moves, n, from, t, theirs);
+        }
+
+        for (long b = pieces[own + ROOK] | pieces[own + QUEEN]; b != 0; b &= b - 1) {
+
+            int from = Long.numberOfTrailingZeros(b);
+
+            long t = Bitboards.rookAttacks(from, occ) & target;
+
+            if ((pinned & Bitboards.bit(from)) != 0)
+                t &= Bitboards.LINE[king][from];
+
+            n = addMoves(moves, n, from, t, theirs);
+        }
+
+        n = generatePawnMoves(moves, n, king, checkers, target, pinned);
+
+        if (checkers == 0)
+            n = generateCastling(moves, n);
+
+        return n;
+    }
+
+    private int generatePawnMoves(int[] moves, int n, int king, long checkers, long target, long pinned) {
+
+        int us = side, them = us ^ 1;
+        long theirs = colors[them];
+        long empty = ~occupied;
+
+        int forward = us == WHITE ? 8 : -8;
+        long startRank = us == WHITE ? 0xFF00L : 0xFF000000000000L;
+        long lastRank = us == WHITE ? Bitboards.RANK_8 : Bitboards.RANK_1;
+
+        for (long b = pieces[us * 6 + PAWN]; b != 0; b &= b - 1) {
+
+            int from = Long.numberOfTrailingZeros(b);
+            long fromBit = Bitboards.bit(from);
+
+            long t = Bitboards.PAWN_ATTACKS[us][from] & theirs;
+
+            long one = Bitboards.bit(from + forward) & empty;
+
+            if (one != 0) {
+
+                t |= one;
+
+                if ((fromBit & startRank) != 0)
+                    t |= Bitboards.bit(from + 2 * forward) & empty;
+            }
+
+            t &= target;
+
+            if ((pinned & fromBit) != 0)
+                t &= Bitboards.LINE[king][from];
+
+            for (; t != 0; t &= t - 1) {
+
+                int to = Long.numberOfTrailingZeros(t);
+                int capture = (theirs & Bitboards.bit(to)) != 0 ? CAPTURE : QUIET;
+
+                if ((Bitboards.bit(to) & lastRank) != 0) {
+                    for (int promo = QUEEN; promo >= KNIGHT; promo--)
+                        moves[n++] = move(from, to, PROMOTION | capture | (promo - KNIGHT));
+                }
+                else if (to - from == 2 * forward) {
+                    moves[n++] = move(from, to, DOUBLE_PUSH);
+                }
+                else {
+                    moves[n++] = move(from, to, capture);
+                }
+            }
+
+            if (epSquare >= 0 && (Bitboards.PAWN_ATTACKS[us][from] & Bitboards.bit(epSquare)) != 0) {
+
+                int captured = epSquare - forward;
+
+                // must resolve a check: take the checker or block on the ep square
+                if (checkers != 0 && (checkers & Bitboards.bit(captured)) == 0
+                        && (target & Bitboards.bit(epSquare)) == 0)
+                    continue;
+
+                long occ = occupied ^ fromBit ^ Bitboards.bit(captured) | Bitboards.bit(epSquare);
+
+                int base = them * 6;
+
+                if ((Bitboards.rookAttacks(king, occ) & (pieces[base + ROOK] | pieces[base + QUEEN])) == 0
+                        && (Bitboards.bishopAttacks(king, occ) & (pieces[base + BISHOP] | pieces[base + QUEEN])) == 0)
+                    moves[n++] = move(from, epSquare, EN_PASSANT);
+            }
+        }
+
+        return n;
+    }
+
+    private int generateCastling(int[] moves, int n) {
+
+        int us = side, them = us ^ 1;
+        int kingSide = us == WHITE ? WHITE_KING_SIDE : BLACK_KING_SIDE;
+        int queenSide = us == WHITE ? WHITE_QUEEN_SIDE : BLACK_QUEEN_SIDE;
+        int e = us == WHITE ? 4 : 60;
+
+        if ((castling & kingSide) != 0
+                && (occupied & (Bitboards.bit(e + 1) | Bitboards.bit(e + 2))) == 0
+                && attackersTo(e + 1, occupied, them) == 0
+                && attackersTo(e + 2, occupied, them) == 0)
+            moves[n++] = move(e, e + 2, KING_CASTLE);
+
+        if ((castling & queenSide) != 0
+                && (occupied & (Bitboards.bit(e - 1) | Bitboards.bit(e - 2) | Bitboards.bit(e - 3))) == 0
+                && attackersTo(e - 1, occupied, them) == 0
+                && attackersTo(e - 2, occupied, them) == 0)
+            moves[n++] = move(e, e - 2, QUEEN_CASTLE);
+
+        return n;
+    }
+
+    private static int addMoves(int[] moves, int n, int from, long targets, long theirs) {
+
+        for (; targets != 0; targets &= targets - 1) {
+
+            int to = Long.numberOfTrailingZeros(targets);
+
+            moves[n++] = move(from, to, (theirs & Bitboards.bit(to)) != 0 ? CAPTURE : QUIET);
+        }
+
+        return n;
+    }
+
+    // ---------------------------------------------------------
+    // Make / unmake
+    // ---------------------------------------------------------
+
+    /*
+    Plays a move produced by generateMoves() for this position.
+    */
+    void make(int move) {
+
+        int from = from(move), to = to(move), flags = flags(move);
+        int us = side, them = us ^ 1;
+        int piece = squares[from];
+
+        int captured = NO_PIECE;
+        int capturedSquare = to;
+
+        if (flags == EN_PASSANT) {
+            capturedSquare = us == WHITE ? to - 8 : to + 8;
+            captured = them * 6 + PAWN;
+        }
+        else if (isCapture(move)) {
+            captured = squares[to];
+        }
+
+        push();
+
+        if (captured != NO_PIECE)
+            remove(captured, capturedSquare);
+
+        remove(piece, from);
+        put(isPromotion(move) ? us * 6 + promotionType(move) : piece, to);
+
+        if (flags == KING_CASTLE) {
+            remove(us * 6 + ROOK, to + 1);
+            put(us * 6 + ROOK, to - 1);
+        }
+        else if (flags == QUEEN_CASTLE) {
+            remove(us * 6 + ROOK, to - 2);
+            put(us * 6 + ROOK, to + 1);
+        }
+
+        // captured goes into the undo entry pushed above
+        undo[ply - 1] |= captured + 1;
+
+        key ^= CASTLING_KEYS[castling];
+        castling &= CASTLING_KEPT[from] & CASTLING_KEPT[to];
+        key ^= CASTLING_KEYS[castling];
+
+        // only a square an enemy pawn could take on, so repetitions match
+        int passed = (from + to) / 2;
+
+        setEpSquare(flags == DOUBLE_PUSH
+                && (Bitboards.PAWN_ATTACKS[us][passed] & pieces[them * 6 + PAWN]) != 0 ? passed : -1);
+
+        halfmoveClock = piece % 6 == PAWN || captured != NO_PIECE ? 0 : halfmoveClock + 1;
+
+        if (us == BLACK)
+            fullmoveNumber++;
+
+        side = them;
+        key ^= SIDE_KEY;
+    }
+
+    /*
+    Takes back the last made move, which must be move.
+    */
+    void unmake(int move) {
+
+        int from = from(move), to = to(move), flags = flags(move);
+        int them = side, us = them ^ 1;
+
+        int state = undo[--ply];
+        int captured = (state & 15) - 1;
+
+        side = us;
+
+        if (us == BLACK)
+            fullmoveNumber--;
+
+        castling = state >>> 4 & 15;
+        epSquare = (state >>> 8 & 127) - 1;
+        halfmoveClock = state >>> 15;
+
+        if (flags == KING_CASTLE) {
+            remove(us * 6 + ROOK, to - 1);
+            put(us * 6 + ROOK, to + 1);
+        }
+        else if (flags == QUEEN_CASTLE) {
+            remove(us * 6 + ROOK, to + 1);
+            put(us * 6 + ROOK, to - 2);
+        }
+
+        int piece = squares[to];
+
+        remove(piece, to);
+        put(isPromotion(move) ? us * 6 + PAWN : piece, from);
+
+        if (captured != NO_PIECE)
+            put(captured, flags == EN_PASSANT ? (us == WHITE ? to - 8 : to + 8) : to);
+
+        key = keys[ply];
+    }
+
+    /*
+    Passes the turn (null move pruning in search). Never legal in
+    a game; only valid when the side to move is not in check.
+    */
+    void makeNullMove() {
+
+        push();
+
+        setEpSquare(-1);
+
+        // positions before a null move are no real repetition
+        halfmoveClock = 0;
+
+        side ^= 1;
+        key ^= SIDE_KEY;
+    }
+
+    void unmakeNullMove() {
+
+        int state = undo[--ply];
+
+        side ^= 1;
+        epSquare = (state >>> 8 & 127) - 1;
+        halfmoveClock = state >>> 15;
+        key = keys[ply];
+    }
+
+    // number of moves made and not taken back
+    int getPly() {
+        return ply;
+    }
+
+    // the position occurred before, since the last irreversible move
+    boolean isRepetition() {
+
+        for (int i = ply - 2; i >= Math.max(0, ply - halfmoveClock); i -= 2)
+            if (keys[i] == key)
+                return true;
+
+        return false;
+    }
+
+    // times the position occurred, this one included
+    int repetitions() {
+
+        int count = 1;
+
+        for (int i = ply - 2; i >= Math.max(0, ply - halfmoveClock); i -= 2)
+            if (keys[i] == key)
+                count++;
+
+        return count;
+    }
+
+    // saves what unmake needs; the captured piece is or-ed in by make
+    private void push() {
+
+        if (ply == undo.length) {
+            undo = Arrays.copyOf(undo, ply * 2);
+            keys = Arrays.copyOf(keys, ply * 2);
+        }
+
+        keys[ply] = key;
+        undo[ply++] = castling << 4 | (epSquare + 1) << 8 | halfmoveClock << 15;
+    }
+
+    private void setEpSquare(int sq) {
+
+        if (epSquare >= 0)
+            key ^= EP_FILE_KEYS[epSquare & 7];
+
+        epSquare = sq;
+
+        if (epSquare >= 0)
+            key ^= EP_FILE_KEYS[epSquare & 7];
+    }
+
+    // from scratch; make() keeps key equal to this
+    long computeKey() {
+
+        long k = CASTLING_KEYS[castling];
+
+        for (int sq = 0; sq < 64; sq++)
+            if (squares[sq] != NO_PIECE)
+                k ^= PIECE_KEYS[squares[sq] * 64 + sq];
+
+        if (epSquare >= 0)
+            k ^= EP_FILE_KEYS[epSquare & 7];
+
+        if (side == BLACK)
+            k ^= SIDE_KEY;
+
+        return k;
+    }
+
+    private void put(int piece, int sq) {
+
+        long b = Bitboards.bit(sq);
+
+        pieces[piece] |= b;
+        colors[piece / 6] |= b;
+        occupied |= b;
+        squares[sq] = (byte) piece;
+        key ^= PIECE_KEYS[piece * 64 + sq];
+    }
+
+    private void remove(int piece, int sq) {
+
+        long b = ~Bitboards.bit(sq);
+
+        pieces[piece] &= b;
+        colors[piece / 6] &= b;
+        occupied &= b;
+        squares[sq] = NO_PIECE;
+        key ^= PIECE_KEYS[piece * 64 + sq];
+    }
+
+    // ---------------------------------------------------------
+    // FEN
+    // ---------------------------------------------------------
+
+    void setFen(String fen) {
+
+        String[] parts = fen.trim().split("\\s+");
+
+        Arrays.fill(pieces, 0);
+        Arrays.fill(colors, 0);
+        Arrays.fill(squares, (byte) NO_PIECE);
+        occupied = 0;
+        ply = 0;
+
+        int row = 7, col = 0;
+
+        for (char c : parts[0].toCharArray()) {
+
+            if (c == '/') {
+                row--;
+                col = 0;
+            }
+            else if (Character.isDigit(c)) {
+                col += c - '0';
+            }
+            else {
+
+                int piece = PIECE_CHARS.indexOf(c);
+
+                if (piece < 0)
+                    throw new IllegalArgumentException("Bad FEN piece '" + c + "': " + fen);
+
+                put(piece, row * 8 + col++);
+            }
+        }
+
+        side = parts.length > 1 && parts[1].equals("b") ? BLACK : WHITE;
+
+        castling = 0;
+
+        if (parts.length > 2) {
+            for (char c : parts[2].toCharArray()) {
+                switch (c) {
+                    case 'K': castling |= WHITE_KING_SIDE; break;
+                    case 'Q': castling |= WHITE_QUEEN_SIDE; break;
+                    case 'k': castling |= BLACK_KING_SIDE; break;
+                    case 'q': castling |= BLACK_QUEEN_SIDE; break;
+                    default: break;
+                }
+            }
+        }
+
+        epSquare = parts.length > 3 && !parts[3].equals("-")
+                ? (parts[3].charAt(0) - 'a') + 8 * (parts[3].charAt(1) - '1')
+                : -1;
+
+        halfmoveClock = parts.length > 4 ? Integer.parseInt(parts[4]) : 0;
+        fullmoveNumber = parts.length > 5 ? Integer.parseInt(parts[5]) : 1;
+
+        key = computeKey();
+    }
+
+    String toFen() {
+
+        StringBuilder sb = new StringBuilder();
+
+        for (int row = 7; row >= 0; row--) {
+
+            int empty = 0;
+
+            for (int col = 0; col < 8; col++) {
+
+                int piece = squares[row * 8 + col];
+
+                if (piece == NO_PIECE) {
+                    empty++;
+                    continue;
+                }
+
+                if (empty > 0) {
+                    sb.append(empty);
+                    empty = 0;
+                }
+
+                sb.append(PIECE_CHARS.charAt(piece));
+            }
+
+            if (empty > 0)
+                sb.append(empty);
+
+            if (row > 0)
+                sb.append('/');
+        }
+
+        sb.append(side == WHITE ? " w " : " b ");
+
+        if (castling == 0)
+            sb.append('-');
+
+        if ((castling & WHITE_KING_SIDE) != 0) sb.append('K');
+        if ((castling & WHITE_QUEEN_SIDE) != 0) sb.append('Q');
+        if ((castling & BLACK_KING_SIDE) != 0) sb.append('k');
+        if ((castling & BLACK_QUEEN_SIDE) != 0) sb.append('q');
+
+        sb.append(' ').append(epSquare < 0 ? "-" : squareName(epSquare));
+        sb.append(' ').append(halfmoveClock).append(' ').append(fullmoveNumber);
+
+        return sb.toString();
+    }
+}
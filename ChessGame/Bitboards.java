@@ -0,0 +1,262 @@
+/*
+===========================
+BITBOARD ATTACK TABLES
+===========================
+
+A bitboard is a long with one bit per square.
+Square index = row * 8 + col, the same row / col as Position:
+
+    a1 = 0, b1 = 1, ... h1 = 7, a2 = 8, ... h8 = 63
+
+Leapers (knight, king, pawn captures) use one precomputed
+attack set per square.
+
+Sliders (rook, bishop, queen) use magic bitboards:
+1. mask the occupancy down to the squares that can block the
+   piece (its rays without the board edge)
+2. multiply by a per-square magic number and keep the top bits
+   -> a perfect hash of every possible blocker set
+3. look the attack set up in a table filled at startup
+
+The magics are found at class load by a seeded random search,
+so they are the same on every run.
+
+BETWEEN[a][b] - squares strictly between two aligned squares
+LINE[a][b]    - the whole rank / file / diagonal through both
+Both are 0 when a and b are not aligned.
+===========================
+*/
+
+import java.util.Random;
+
+final class Bitboards {
+
+    static final long FILE_A = 0x0101010101010101L;
+    static final long FILE_H = FILE_A << 7;
+    static final long RANK_1 = 0xFFL;
+    static final long RANK_8 = RANK_1 << 56;
+
+    static final long[] KNIGHT = new long[64];
+    static final long[] KING = new long[64];
+
+    // [color][square]: squares a pawn of that color on square attacks
+    static final long[][] PAWN_ATTACKS = new long[2][64];
+
+    static final long[][] BETWEEN = new long[64][64];
+    static final long[][] LINE = new long[64][64];
+
+    private static final int[][] ROOK_DIRECTIONS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+    private static final int[][] BISHOP_DIRECTIONS = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+    private static final long[] ROOK_MASK = new long[64];
+    private static final long[] ROOK_MAGIC = new long[64];
+    private static final int[] ROOK_SHIFT = new int[64];
+    private static final int[] ROOK_OFFSET = new int[64];
+
+    private static final long[] BISHOP_MASK = new long[64];
+    private static final long[] BISHOP_MAGIC = new long[64];
+    private static final int[] BISHOP_SHIFT = new int[64];
+    private static final int[] BISHOP_OFFSET = new int[64];
+
+    // rook tables for all squares, then bishop tables
+    private static final long[] ATTACKS;
+
+    static {
+
+        for (int sq = 0; sq < 64; sq++) {
+            KNIGHT[sq] = leaper(sq, new int[][]{{1, 2}, {2, 1}, {2, -1}, {1, -2},
+                    {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}});
+            KING[sq] = leaper(sq, new int[][]{{1, 0}, {1, 1}, {0, 1}, {-1, 1},
+                    {-1, 0}, {-1, -1}, {0, -1}, {1, -1}});
+            PAWN_ATTACKS[0][sq] = leaper(sq, new int[][]{{1, -1}, {1, 1}});
+            PAWN_ATTACKS[1][sq] = leaper(sq, new int[][]{{-1, -1}, {-1, 1}});
+        }
+
+        int size = 0;
+
+        for (int sq = 0; sq < 64; sq++) {
+
+            ROOK_MASK[sq] = blockerMask(sq, ROOK_DIRECTIONS);
+            ROOK_SHIFT[sq] = 64 - Long.bitCount(ROOK_MASK[sq]);
+            ROOK_OFFSET[sq] = size;
+            size += 1 << Long.bitCount(ROOK_MASK[sq]);
+        }
+
+        for (int sq = 0; sq < 64; sq++) {
+
+            BISHOP_MASK[sq] = blockerMask(sq, BISHOP_DIRECTIONS);
+            BISHOP_SHIFT[sq] = 64 - Long.bitCount(BISHOP_MASK[sq]);
+            BISHOP_OFFSET[sq] = size;
+            size += 1 << Long.bitCount(BISHOP_MASK[sq]);
+        }
+
+        ATTACKS = new long[size];
+
+        Random random = new Random(2024);
+
+        for (int sq = 0; sq < 64; sq++) {
+            ROOK_MAGIC[sq] = findMagic(sq, ROOK_MASK[sq], ROOK_DIRECTIONS, ROOK_OFFSET[sq], random);
+            BISHOP_MAGIC[sq] = findMagic(sq, BISHOP_MASK[sq], BISHOP_DIRECTIONS, BISHOP_OFFSET[sq], random);
+        }
+
+        for (int a = 0; a < 64; a++) {
+            for (int b = 0; b < 64; b++) {
+
+                if (a == b)
+                    continue;
+
+                long ends = bit(a) | bit(b);
+
+                if ((rookAttacks(a, 0) & bit(b)) != 0) {
+                    LINE[a][b] = (rookAttacks(a, 0) & rookAttacks(b, 0)) | ends;
+                    BETWEEN[a][b] = rookAttacks(a, bit(b)) & rookAttacks(b, bit(a));
+                }
+                else if ((bishopAttacks(a, 0) & bit(b)) != 0) {
+                    LINE[a][b] = (bishopAttacks(a, 0) & bishopAttacks(b, 0)) | ends;
+                    BETWEEN[a][b] = bishopAttacks(a, bit(b)) & bishopAttacks(b, bit(a));
+                }
+            }
+        }
+    }
+
+    private Bitboards() {
+    }
+
+    static long bit(int square) {
+        return 1L << square;
+    }
+
+    static long rookAttacks(int sq, long occupied) {
+        return ATTACKS[ROOK_OFFSET[sq]
+                + (int) (((occupied & ROOK_MASK[sq]) * ROOK_MAGIC[sq]) >>> ROOK_SHIFT[sq])];
+    }
+
+    static long bishopAttacks(int sq, long occupied) {
+        return ATTACKS[BISHOP_OFFSET[sq]
+                + (int) (((occupied & BISHOP_MASK[sq]) * BISHOP_MAGIC[sq]) >>> BISHOP_SHIFT[sq])];
+    }
+
+    static long queenAttacks(int sq, long occupied) {
+        return rookAttacks(sq, occupied) | bishopAttacks(sq, occupied);
+    }
+
+    // ---------------------------------------------------------
+    // Table construction
+    // ---------------------------------------------------------
+
+    private static long leaper(int sq, int[][] steps) {
+
+        long attacks = 0;
+
+        for (int[] step : steps) {
+
+            int row = sq / 8 + step[0];
+            int col = sq % 8 + step[1];
+
+            if (row >= 0 && row < 8 && col >= 0 && col < 8)
+                attacks |= bit(row * 8 + col);
+        }
+
+        return attacks;
+    }
+
+    /*
+    Squares whose occupancy changes the slider's attacks: every ray
+    square except the last one before the edge.
+    */
+    private static long blockerMask(int sq, int[][] directions) {
+
+        long mask = 0;
+
+        for (int[] d : directions) {
+
+            int row = sq / 8 + d[0];
+            int col = sq % 8 + d[1];
+
+            while (row + d[0] >= 0 && row + d[0] < 8 && col + d[1] >= 0 && col + d[1] < 8) {
+                mask |= bit(row * 8 + col);
+                row += d[0];
+                col += d[1];
+            }
+        }
+
+        return mask;
+    }
+
+    // ray walk, used only to fill the tables
+    private static long slowAttacks(int sq, long occupied, int[][] directions) {
+
+        long attacks = 0;
+
+        for (int[] d : directions) {
+
+            int row = sq / 8 + d[0];
+            int col = sq % 8 + d[1];
+
+            while (row >= 0 && row < 8 && col >= 0 && col < 8) {
+
+                attacks |= bit(row * 8 + col);
+
+                if ((occupied & bit(row * 8 + col)) != 0)
+                    break;
+
+                row += d[0];
+                col += d[1];
+            }
+        }
+
+        return attacks;
+    }
+
+    /*
+    Tries sparse random numbers until one maps every blocker subset
+    of mask to a table slot without a conflicting attack set, then
+    leaves that table filled.
+    */
+    private static long findMagic(int sq, long mask, int[][] directions, int offset, Random random) {
+
+        int bits = Long.bitCount(mask);
+        int count = 1 << bits;
+
+        long[] blockers = new long[count];
+        long[] attacks = new long[count];
+
+        // every subset of mask (carry-rippler)
+        long subset = 0;
+
+        for (int i = 0; i < count; i++) {
+            blockers[i] = subset;
+            attacks[i] = slowAttacks(sq, subset, directions);
+            subset = (subset - mask) & mask;
+        }
+
+        // which attempt last wrote each slot, so the table needs no clearing
+        int[] writtenBy = new int[count];
+
+        for (int attempt = 1; ; attempt++) {
+
+            long magic = random.nextLong() & random.nextLong() & random.nextLong();
+
+            if (Long.bitCount((mask * magic) & 0xFF00000000000000L) < 6)
+                continue;
+
+            boolean ok = true;
+
+            for (int i = 0; i < count && ok; i++) {
+
+                int index = (int) ((blockers[i] * magic) >>> (64 - bits));
+
+                if (writtenBy[index] != attempt) {
+                    writtenBy[index] = attempt;
+                    ATTACKS[offset + index] = attacks[i];
+                }
+                else if (ATTACKS[offset + index] != attacks[i]) {
+                    ok = false;
+                }
+            }
+
+            if (ok)
+                return magic;
+        }
+    }
+}
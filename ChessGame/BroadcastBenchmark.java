@@ -0,0 +1,215 @@
+/*
+===========================================================
+BROADCAST BENCHMARK
+===========================================================
+
+Publishes moves to 100k simulated spectators through the
+SpectatorBroadcaster and reports:
+
+- publish cost on the game thread (what playMove pays)
+- delivery latency from publish to onMoves, p50 / p99 / max
+  (sampled on every 100th spectator)
+- moves delivered and moves per batch
+- moves skipped, mostly for the slow spectators
+
+A few spectators sleep in every callback. After their first
+call they are moved to the slow lane, their queues fill up and
+the policy skips moves for them; the fast spectators, and the
+publisher, should not notice.
+
+Moves are published one every interval; with many spectators
+per core the shards fall behind and catch up with bigger batches.
+
+Usage:
+    java BroadcastBenchmark [spectators] [moves] [interval millis] [policy]
+        defaults 100000 1000 2 DROP_OLDEST
+===========================================================
+*/
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BroadcastBenchmark {
+
+    static final int SAMPLE_EVERY = 100;
+    static final int SLOW_SPECTATORS = 8;
+    static final long SLOW_CALL_MILLIS = 20;
+
+    /*
+    A move stamped when it is published
+    */
+    static class TimedMove extends Move {
+
+        final int seq;
+        long publishedAt;
+
+        TimedMove(int seq, Position from, Position to) {
+            super(from, to, null, null);
+            this.seq = seq;
+        }
+    }
+
+    static class CountingSpectator implements Spectator {
+
+        final boolean sampled;
+        final boolean slow;
+
+        // one shard thread calls a spectator at a time; read after caughtUp
+        long batches;
+        long moves;
+
+        final AtomicLong caughtUp;
+        final int lastSeq;
+        final long[] latencies;
+        int recorded;
+
+        CountingSpectator(boolean sampled, boolean slow, AtomicLong caughtUp, int moveCount) {
+            this.sampled = sampled;
+            this.slow = slow;
+            this.caughtUp = caughtUp;
+            this.lastSeq = moveCount - 1;
+            this.latencies = sampled ? new long[moveCount] : null;
+        }
+
+        public void onMove(Move move) {
+        }
+
+        public void onMoves(List<Move> delivered) {
+
+            batches++;
+            moves += delivered.size();
+
+            if (sampled) {
+
+                long now = System.nanoTime();
+
+                for (Move m : delivered)
+                    if (recorded < latencies.length)
+                        latencies[recorded++] = now - ((TimedMove) m).publishedAt;
+            }
+
+            if (((TimedMove) delivered.get(delivered.size() - 1)).seq == lastSeq)
+                caughtUp.incrementAndGet();
+
+            if (slow) {
+                try {
+                    Thread.sleep(SLOW_CALL_MILLIS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+
+        int spectatorCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int moveCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long intervalMillis = args.length > 2 ? Long.parseLong(args[2]) : 2;
+
+        SpectatorBroadcaster.SlowConsumerPolicy policy = args.length > 3
+                ? SpectatorBroadcaster.SlowConsumerPolicy.valueOf(args[3])
+                : SpectatorBroadcaster.SlowConsumerPolicy.DROP_OLDEST;
+
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread t = new Thread(runnable, "spectator-delivery");
+            t.setDaemon(true);
+            return t;
+        });
+
+        SpectatorBroadcaster broadcaster = new SpectatorBroadcaster(pool, SpectatorBroadcaster.DEFAULT_CAPACITY, policy);
+
+        AtomicLong caughtUp = new AtomicLong();
+
+        CountingSpectator[] spectators = new CountingSpectator[spectatorCount];
+
+        // slow spectators spread over different shards
+        int slowStride = Math.max(1, spectatorCount / SLOW_SPECTATORS);
+
+        for (int i = 0; i < spectatorCount; i++) {
+
+            boolean slow = i % slowStride == slowStride / 2;
+
+            spectators[i] = new CountingSpectator(!slow && i % SAMPLE_EVERY == 0, slow,
+                    slow ? new AtomicLong() : caughtUp, moveCount);
+
+            broadcaster.registerSpectator(spectators[i]);
+        }
+
+        long slowCount = Arrays.stream(spectators).filter(s -> s.slow).count();
+        long fastCount = spectatorCount - slowCount;
+
+        System.out.printf("%d spectators (%d slow, %d ms per call), %d moves every %d ms, %d delivery threads, %s%n",
+                spectatorCount, slowCount, SLOW_CALL_MILLIS, moveCount, intervalMillis, threads, policy);
+
+        long[] publishNanos = new long[moveCount];
+
+        long started = System.nanoTime();
+
+        for (int i = 0; i < moveCount; i++) {
+
+            TimedMove move = new TimedMove(i, new Position(i % 8, 0), new Position(i % 8, 1));
+
+            long t0 = System.nanoTime();
+
+            move.publishedAt = t0;
+            broadcaster.notifySpectators(move);
+
+            publishNanos[i] = System.nanoTime() - t0;
+
+            Thread.sleep(intervalMillis);
+        }
+
+        long publishMillis = (System.nanoTime() - started) / 1_000_000;
+
+        // wait for every fast spectator to get the last move
+        while (caughtUp.get() < fastCount && System.nanoTime() - started < 120_000_000_000L)
+            Thread.sleep(1);
+
+        long totalMillis = (System.nanoTime() - started) / 1_000_000;
+
+        long fastMoves = 0;
+        long fastBatches = 0;
+        long slowMoves = 0;
+
+        for (CountingSpectator s : spectators) {
+            if (s.slow) {
+                slowMoves += s.moves;
+            }
+            else {
+                fastMoves += s.moves;
+                fastBatches += s.batches;
+            }
+        }
+
+        Arrays.sort(publishNanos);
+
+        long[] latencies = Arrays.stream(spectators)
+                .filter(s -> s.sampled)
+                .flatMapToLong(s -> Arrays.stream(s.latencies, 0, s.recorded))
+                .sorted()
+                .toArray();
+
+        System.out.printf("publish:   p50 %6.1f us   p99 %6.1f us   max %8.1f us   (%d ms for all moves)%n",
+                publishNanos[moveCount / 2] / 1e3, publishNanos[moveCount * 99 / 100] / 1e3,
+                publishNanos[moveCount - 1] / 1e3, publishMillis);
+
+        if (latencies.length > 0)
+            System.out.printf("delivery:  p50 %6.1f ms   p99 %6.1f ms   max %8.1f ms   (%d samples)%n",
+                    latencies[latencies.length / 2] / 1e6, latencies[latencies.length * 99 / 100] / 1e6,
+                    latencies[latencies.length - 1] / 1e6, latencies.length);
+
+        System.out.printf("fast:      %d / %d caught up, %d / %d moves, %.1f moves per batch, %.1f M moves/s%n",
+                caughtUp.get(), fastCount, fastMoves, fastCount * moveCount,
+                fastMoves / (double) Math.max(1, fastBatches), fastMoves / 1e3 / Math.max(1, totalMillis));
+
+        System.out.printf("slow:      %d in the slow lane, %d moves delivered; %d skipped in all by %s%n",
+                broadcaster.getSlowSpectators(), slowMoves, broadcaster.getSkipped(), policy);
+    }
+}
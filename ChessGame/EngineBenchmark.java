@@ -0,0 +1,73 @@
+/*
+===========================================================
+ENGINE BENCHMARK
+===========================================================
+
+Runs the bot's search on a fixed set of middlegame positions
+with 1, 2, 4, ... threads up to the core count, and reports per
+thread count:
+
+- nodes per second (all threads together)
+- average depth finished within the think time
+
+With Lazy SMP, nodes/sec should grow with the threads until the
+cores run out, and the depth reached with it. On a single core,
+extra threads only share the same CPU.
+
+A fresh engine (empty transposition table) is used per position,
+so positions do not help each other.
+
+Usage:
+    java EngineBenchmark [think millis]       default 2000
+===========================================================
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class EngineBenchmark {
+
+    static final String[] POSITIONS = {
+            BitBoard.START_FEN,
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+            "r1bq1rk1/pp2bppp/2n1pn2/2pp4/3P4/2PBPN2/PP1N1PPP/R2QK2R w KQ - 0 8",
+            "2rq1rk1/pb1nbppp/1p2pn2/2pp4/2PP4/1PNBPN2/PB3PPP/2RQ1RK1 w - - 0 11",
+    };
+
+    public static void main(String[] args) {
+
+        long thinkMillis = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        List<Integer> threadCounts = new ArrayList<>();
+
+        for (int t = 1; t < cores; t *= 2)
+            threadCounts.add(t);
+
+        threadCounts.add(cores);
+
+        System.out.printf("%d cores, %d ms per position%n", cores, thinkMillis);
+        System.out.printf("%-8s %12s %10s%n", "threads", "knodes/s", "avgDepth");
+
+        for (int threads : threadCounts) {
+
+            long nodes = 0;
+            long millis = 0;
+            int depth = 0;
+
+            for (String fen : POSITIONS) {
+
+                SearchResult r = new SearchEngine().search(new BitBoard(fen), thinkMillis, threads);
+
+                nodes += r.nodes;
+                millis += r.millis;
+                depth += r.depth;
+            }
+
+            System.out.printf("%-8d %12d %10.1f%n", threads,
+                    nodes / Math.max(1, millis), depth / (double) POSITIONS.length);
+        }
+    }
+}
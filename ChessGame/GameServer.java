@@ -0,0 +1,528 @@
+/*
+===========================
+GAME SERVER
+===========================
+
+Hosts thousands of Games in one JVM.
+
+Game, MoveService and BitBoard are single threaded, so every
+hosted game has exactly one writer: the shard that owns it. No
+game is ever locked, and no game has a thread of its own.
+
+---------------------------
+Shards
+---------------------------
+Games are spread over a fixed number of shards (one per core by
+default) by id. A shard is one thread with an inbox. It owns the
+registry of its games (a plain HashMap only it touches), runs the
+requests for them in arrival order and completes the caller's
+CompletableFuture.
+
+Callers never block. createGame returns the id at once (the
+creation is queued ahead of any move for that id), submitMove
+returns a future. Callbacks added to the future without an
+executor run on the shard thread and must be short.
+
+---------------------------
+Validation
+---------------------------
+A move is checked on the shard: the game is still on, it is the
+sender's turn, and MoveService finds it among the legal moves.
+After it is played the shard looks for the end of the game:
+checkmate, stalemate, threefold repetition, fifty-move rule.
+
+---------------------------
+Clocks
+---------------------------
+Each side has a remaining time and a Fischer increment. The
+time of a move is charged when the shard processes it, and the
+white clock starts when the game is created.
+
+A shard keeps its running games in a min-heap by the time the
+side to move runs out, fixed up in O(log n) after each move. The
+shard waits on its inbox only until the earliest of them, and a
+game whose time is up is lost on time. No timer thread and no
+scheduled task per game.
+
+Finished games drop their Game (board, position, move stacks)
+and keep only the result until closeGame(id).
+===========================
+*/
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+
+enum GameStatus {
+    ACTIVE,
+    CHECKMATE,
+    STALEMATE,
+    TIMEOUT,
+    REPETITION,
+    FIFTY_MOVES
+}
+
+/*
+Server's answer to a move, with the game's state after it
+*/
+class MoveReply {
+
+    enum Result { ACCEPTED, ILLEGAL, NOT_YOUR_TURN, GAME_OVER, NO_SUCH_GAME }
+
+    final Result result;
+    final GameStatus status;
+    final Color winner;        // null while the game is on, or drawn
+    final long whiteMillis;
+    final long blackMillis;
+
+    MoveReply(Result result, GameStatus status, Color winner, long whiteMillis, long blackMillis) {
+        this.result = result;
+        this.status = status;
+        this.winner = winner;
+        this.whiteMillis = whiteMillis;
+        this.blackMillis = blackMillis;
+    }
+
+    public String toString() {
+        return result + " " + status + (winner != null ? " " + winner : "")
+                + " white " + whiteMillis + " ms, black " + blackMillis + " ms";
+    }
+}
+
+class GameServer {
+
+    // requests a shard runs before it checks the clocks again
+    static final int TASKS_PER_TURN = 256;
+
+    private static final long IDLE_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final MoveReply NO_SUCH_GAME =
+            new MoveReply(MoveReply.Result.NO_SUCH_GAME, null, null, 0, 0);
+
+    private final Shard[] shards;
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    private volatile boolean running = true;
+
+    GameServer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    GameServer(int shardCount) {
+
+        shards = new Shard[shardCount];
+
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+            shards[i].thread.start();
+        }
+    }
+
+    /*
+    Starts a game; moves for the returned id may be sent right away.
+    */
+    long createGame(long baseMillis, long incrementMillis) {
+
+        long id = nextId.getAndIncrement();
+
+        shardOf(id).execute(shard -> shard.create(id, baseMillis, incrementMillis));
+
+        return id;
+    }
+
+    /*
+    Plays move for color in game id. The future completes on the
+    game's shard thread.
+    */
+    CompletableFuture<MoveReply> submitMove(long id, Color color, Move move) {
+        return shardOf(id).call(shard -> shard.play(id, color, move));
+    }
+
+    CompletableFuture<GameStatus> getStatus(long id) {
+
+        return shardOf(id).call(shard -> {
+            GameSession s = shard.games.get(id);
+            return s == null ? null : s.status;
+        });
+    }
+
+    /*
+    Completes with false if the game does not exist or is over.
+    */
+    CompletableFuture<Boolean> registerSpectator(long id, Spectator spectator) {
+
+        return shardOf(id).call(shard -> {
+
+            GameSession s = shard.games.get(id);
+
+            if (s == null || s.game == null)
+                return false;
+
+            s.game.registerSpectator(spectator);
+
+            return true;
+        });
+    }
+
+    // forgets the game, finished or not
+    void closeGame(long id) {
+        shardOf(id).execute(shard -> shard.close(id));
+    }
+
+    int getActiveGames() {
+
+        int active = 0;
+
+        for (Shard shard : shards)
+            active += shard.activeGames;
+
+        return active;
+    }
+
+    int getShardCount() {
+        return shards.length;
+    }
+
+    void shutdown() {
+
+        running = false;
+
+        for (Shard shard : shards)
+            shard.thread.interrupt();
+    }
+
+    private Shard shardOf(long id) {
+        return shards[(int) (id % shards.length)];
+    }
+
+    /*
+    A hosted game. Only its shard's thread touches it.
+    */
+    private static class GameSession {
+
+        final long id;
+        Game game;             // null once finished
+
+        final long[] remainingNanos = new long[2];
+        final long incrementNanos;
+        long turnStarted;
+        long deadline;         // when the side to move runs out
+
+        GameStatus status = GameStatus.ACTIVE;
+        Color winner;
+
+        int heapIndex = -1;
+
+        GameSession(long id, Game game, long baseNanos, long incrementNanos, long now) {
+
+            this.id = id;
+            this.game = game;
+            this.incrementNanos = incrementNanos;
+
+            remainingNanos[0] = remainingNanos[1] = baseNanos;
+            turnStarted = now;
+            deadline = now + baseNanos;
+        }
+
+        int sideToMove() {
+            return game.position.side;
+        }
+
+        MoveReply reply(MoveReply.Result result, long now) {
+
+            long white = remainingNanos[0];
+            long black = remainingNanos[1];
+
+            // the running clock, as of now
+            if (status == GameStatus.ACTIVE) {
+                if (sideToMove() == BitBoard.WHITE)
+                    white -= now - turnStarted;
+                else
+                    black -= now - turnStarted;
+            }
+
+            return new MoveReply(result, status, winner,
+                    TimeUnit.NANOSECONDS.toMillis(Math.max(0, white)),
+                    TimeUnit.NANOSECONDS.toMillis(Math.max(0, black)));
+        }
+    }
+
+    /*
+    One thread, its inbox, its games and their clocks
+    */
+    private final class Shard implements Runnable {
+
+        final Thread thread;
+
+        private final LinkedBlockingQueue<Runnable> inbox = new LinkedBlockingQueue<>();
+
+        private final Map<Long, GameSession> games = new HashMap<>();
+
+        // running games, min-heap by deadline
+        private GameSession[] clocks = new GameSession[64];
+        private int clockCount;
+
+        // written by the shard thread only
+        volatile int activeGames;
+
+        Shard(int index) {
+            thread = new Thread(this, "game-shard-" + index);
+            thread.setDaemon(true);
+        }
+
+        void execute(Consumer<Shard> request) {
+            inbox.add(() -> request.accept(this));
+        }
+
+        <T> CompletableFuture<T> call(Function<Shard, T> request) {
+
+            CompletableFuture<T> future = new CompletableFuture<>();
+
+            inbox.add(() -> {
+                try {
+                    future.complete(request.apply(this));
+                }
+                catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+
+            return future;
+        }
+
+        public void run() {
+
+            while (running) {
+
+                try {
+
+                    long wait = clockCount == 0 ? IDLE_WAIT_NANOS : clocks[0].deadline - System.nanoTime();
+
+                    Runnable task = wait > 0 ? inbox.poll(wait, TimeUnit.NANOSECONDS) : inbox.poll();
+
+                    int done = 0;
+
+                    while (task != null) {
+
+                        runTask(task);
+
+                        task = ++done < TASKS_PER_TURN ? inbox.poll() : null;
+                    }
+
+                    flagExpired(System.nanoTime());
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void runTask(Runnable task) {
+
+            try {
+                task.run();
+            }
+            catch (RuntimeException e) {
+                // one bad request must not stop the shard's other games
+            }
+        }
+
+        void create(long id, long baseMillis, long incrementMillis) {
+
+            Game game = new Game(new HumanPlayer(Color.WHITE), new HumanPlayer(Color.BLACK));
+
+            GameSession s = new GameSession(id, game, TimeUnit.MILLISECONDS.toNanos(baseMillis),
+                    TimeUnit.MILLISECONDS.toNanos(incrementMillis), System.nanoTime());
+
+            games.put(id, s);
+            addClock(s);
+
+            activeGames++;
+        }
+
+        void close(long id) {
+
+            GameSession s = games.remove(id);
+
+            if (s != null && s.status == GameStatus.ACTIVE) {
+                removeClock(s);
+                activeGames--;
+            }
+        }
+
+        MoveReply play(long id, Color color, Move move) {
+
+            long now = System.nanoTime();
+
+            GameSession s = games.get(id);
+
+            if (s == null)
+                return NO_SUCH_GAME;
+
+            // out of time, but the shard has not got round to flagging it yet
+            if (s.status == GameStatus.ACTIVE && s.deadline <= now)
+                flag(s);
+
+            if (s.status != GameStatus.ACTIVE)
+                return s.reply(MoveReply.Result.GAME_OVER, now);
+
+            int mover = s.sideToMove();
+
+            if (color.ordinal() != mover)
+                return s.reply(MoveReply.Result.NOT_YOUR_TURN, now);
+
+            if (move == null || !onBoard(move.from) || !onBoard(move.to))
+                return s.reply(MoveReply.Result.ILLEGAL, now);
+
+            try {
+                s.game.playMove(move);
+            }
+            catch (IllegalArgumentException e) {
+                return s.reply(MoveReply.Result.ILLEGAL, now);
+            }
+
+            s.remainingNanos[mover] += s.incrementNanos - (now - s.turnStarted);
+            s.turnStarted = now;
+            s.deadline = now + s.remainingNanos[mover ^ 1];
+
+            MoveService moves = s.game.moveService;
+
+            if (!moves.hasLegalMoves()) {
+
+                if (s.game.position.inCheck())
+                    finish(s, GameStatus.CHECKMATE, color);
+                else
+                    finish(s, GameStatus.STALEMATE, null);
+            }
+            else if (moves.isRepetition(3))
+                finish(s, GameStatus.REPETITION, null);
+            else if (s.game.position.halfmoveClock >= 100)
+                finish(s, GameStatus.FIFTY_MOVES, null);
+            else
+                fixClock(s.heapIndex);
+
+            return s.reply(MoveReply.Result.ACCEPTED, now);
+        }
+
+        private boolean onBoard(Position p) {
+            return p != null && p.row >= 0 && p.row < 8 && p.col >= 0 && p.col < 8;
+        }
+
+        private void flagExpired(long now) {
+
+            while (clockCount > 0 && clocks[0].deadline <= now)
+                flag(clocks[0]);
+        }
+
+        // the side to move lost on time
+        private void flag(GameSession s) {
+
+            int loser = s.sideToMove();
+
+            s.remainingNanos[loser] = 0;
+
+            finish(s, GameStatus.TIMEOUT, loser == BitBoard.WHITE ? Color.BLACK : Color.WHITE);
+        }
+
+        private void finish(GameSession s, GameStatus status, Color winner) {
+
+            s.status = status;
+            s.winner = winner;
+
+            removeClock(s);
+
+            s.game = null;
+
+            activeGames--;
+        }
+
+        // ---------------- deadline heap ----------------
+
+        private void addClock(GameSession s) {
+
+            if (clockCount == clocks.length)
+                clocks = Arrays.copyOf(clocks, clockCount * 2);
+
+            place(s, clockCount++);
+            siftUp(s.heapIndex);
+        }
+
+        private void removeClock(GameSession s) {
+
+            int i = s.heapIndex;
+
+            GameSession last = clocks[--clockCount];
+
+            clocks[clockCount] = null;
+            s.heapIndex = -1;
+
+            if (i < clockCount) {
+                place(last, i);
+                fixClock(i);
+            }
+        }
+
+        // deadline at i moved either way
+        private void fixClock(int i) {
+
+            if (siftUp(i) == i)
+                siftDown(i);
+        }
+
+        private int siftUp(int i) {
+
+            GameSession s = clocks[i];
+
+            while (i > 0) {
+
+                int parent = (i - 1) / 2;
+
+                if (clocks[parent].deadline <= s.deadline)
+                    break;
+
+                place(clocks[parent], i);
+                i = parent;
+            }
+
+            place(s, i);
+
+            return i;
+        }
+
+        private void siftDown(int i) {
+
+            GameSession s = clocks[i];
+
+            while (true) {
+
+                int child = 2 * i + 1;
+
+                if (child >= clockCount)
+                    break;
+
+                if (child + 1 < clockCount && clocks[child + 1].deadline < clocks[child].deadline)
+                    child++;
+
+                if (s.deadline <= clocks[child].deadline)
+                    break;
+
+                place(clocks[child], i);
+                i = child;
+            }
+
+            place(s, i);
+        }
+
+        private void place(GameSession s, int i) {
+            clocks[i] = s;
+            s.heapIndex = i;
+        }
+    }
+}
@@ -48,11 +48,28 @@ Piece (Abstract)
 
 MoveStrategy (Interface)
 
+BitBoard
+  - 64-bit bitboard position next to Board / Cell
+  - legal move generation into a reusable int[] buffer
+  - make / unmake, verified by the Perft suite
+
+Bitboards
+  - knight / king / pawn attack tables
+  - magic bitboard rook and bishop attacks
+
+SearchEngine (BotPlayer's brain)
+  - iterative-deepening alpha-beta, time bounded
+  - Zobrist-keyed TranspositionTable in a flat long[]
+  - Lazy SMP across threads, reports nodes/sec
+
 Player (Abstract)
   - HumanPlayer
   - BotPlayer
 
 MoveService
+  - validates moves against the BitBoard legal move list
+  - incremental make / unmake, Zobrist key, repetition detection
+  - undo / redo on int stacks, no objects per move
 
 Move
 Action
@@ -94,11 +111,16 @@ class Cell {
 
 /*
 Board maintains 8x8 grid of cells
+
+Also keeps one occupancy bitboard per color, so move strategies
+can use the Bitboards attack tables. Square = row * 8 + col.
 */
 class Board {
 
     private Cell[][] grid;
 
+    private long[] occupied = new long[2];
+
     Board() {
         grid = new Cell[8][8];
 
@@ -113,8 +135,67 @@ class Board {
         return grid[pos.row][pos.col];
     }
 
+    /*
+    Puts piece on pos (null empties it), replacing whatever was there.
+    */
     void placePiece(Piece piece, Position pos) {
-        grid[pos.row][pos.col].piece = piece;
+        placePiece(piece, square(pos));
+    }
+
+    void placePiece(Piece piece, int square) {
+
+        Cell cell = grid[square / 8][square % 8];
+        long bit = Bitboards.bit(square);
+
+        if (cell.piece != null)
+            occupied[cell.piece.color.ordinal()] &= ~bit;
+
+        if (piece != null)
+            occupied[piece.color.ordinal()] |= bit;
+
+        cell.piece = piece;
+    }
+
+    long getOccupied(Color color) {
+        return occupied[color.ordinal()];
+    }
+
+    long getOccupied() {
+        return occupied[0] | occupied[1];
+    }
+
+    Piece getPiece(int square) {
+        return grid[square / 8][square % 8].piece;
+    }
+
+    /*
+    Makes the cells match position. Pieces have no per-game state,
+    so the cells share one instance per color and type.
+    */
+    void setup(BitBoard position) {
+
+        for (int sq = 0; sq < 64; sq++)
+            placePiece(pieceFor(position.pieceAt(sq)), sq);
+    }
+
+    private static final Piece[] PIECES = {
+            new Pawn(Color.WHITE), new Knight(Color.WHITE), new Bishop(Color.WHITE),
+            new Rook(Color.WHITE), new Queen(Color.WHITE), new King(Color.WHITE),
+            new Pawn(Color.BLACK), new Knight(Color.BLACK), new Bishop(Color.BLACK),
+            new Rook(Color.BLACK), new Queen(Color.BLACK), new King(Color.BLACK),
+    };
+
+    // BitBoard piece code -> shared Piece, null for NO_PIECE
+    static Piece pieceFor(int code) {
+        return code == BitBoard.NO_PIECE ? null : PIECES[code];
+    }
+
+    static int square(Position pos) {
+        return pos.row * 8 + pos.col;
+    }
+
+    static Position position(int square) {
+        return new Position(square / 8, square % 8);
     }
 }
 
@@ -130,9 +211,12 @@ enum Color {
 MoveStrategy interface – Strategy Pattern
 
 Each strategy defines how a piece moves.
+Returns the target squares as a bitboard, so strategies combine
+with | and no list is built per strategy. Squares holding own
+pieces are removed once, by Piece.
 */
 interface MoveStrategy {
-    List<Position> getValidMoves(Position start, Board board);
+    long getTargets(int square, Color color, Board board);
 }
 
 /*
@@ -142,18 +226,33 @@ Each piece uses MoveStrategy
 abstract class Piece {
 
     Color color;
+    int type; // BitBoard.PAWN .. BitBoard.KING
     List<MoveStrategy> strategies = new ArrayList<>();
 
-    Piece(Color color) {
+    Piece(Color color, int type) {
         this.color = color;
+        this.type = type;
     }
 
+    /*
+    Pseudo-legal moves: follows the piece's movement rules but does
+    not check whether the own king is left in check. BitBoard
+    generates fully legal moves.
+    */
     List<Position> getValidMoves(Position start, Board board) {
 
-        List<Position> moves = new ArrayList<>();
+        long targets = 0;
 
         for (MoveStrategy strategy : strategies) {
-            moves.addAll(strategy.getValidMoves(start, board));
+            targets |= strategy.getTargets(Board.square(start), color, board);
+        }
+
+        targets &= ~board.getOccupied(color);
+
+        List<Position> moves = new ArrayList<>(Long.bitCount(targets));
+
+        for (; targets != 0; targets &= targets - 1) {
+            moves.add(Board.position(Long.numberOfTrailingZeros(targets)));
         }
 
         return moves;
@@ -166,7 +265,7 @@ Concrete Piece Implementations
 class Rook extends Piece {
 
     Rook(Color color) {
-        super(color);
+        super(color, BitBoard.ROOK);
         strategies.add(new HorizontalMoveStrategy());
         strategies.add(new VerticalMoveStrategy());
     }
@@ -175,7 +274,7 @@ class Rook extends Piece {
 class Bishop extends Piece {
 
     Bishop(Color color) {
-        super(color);
+        super(color, BitBoard.BISHOP);
         strategies.add(new DiagonalMoveStrategy());
     }
 }
@@ -183,7 +282,7 @@ class Bishop extends Piece {
 class Queen extends Piece {
 
     Queen(Color color) {
-        super(color);
+        super(color, BitBoard.QUEEN);
         strategies.add(new HorizontalMoveStrategy());
         strategies.add(new VerticalMoveStrategy());
         strategies.add(new DiagonalMoveStrategy());
@@ -193,7 +292,7 @@ class Queen extends Piece {
 class Knight extends Piece {
 
     Knight(Color color) {
-        super(color);
+        super(color, BitBoard.KNIGHT);
         strategies.add(new KnightMoveStrategy());
     }
 }
@@ -201,7 +300,7 @@ class Knight extends Piece {
 class King extends Piece {
 
     King(Color color) {
-        super(color);
+        super(color, BitBoard.KING);
         strategies.add(new KingMoveStrategy());
     }
 }
@@ -209,60 +308,85 @@ class King extends Piece {
 class Pawn extends Piece {
 
     Pawn(Color color) {
-        super(color);
+        super(color, BitBoard.PAWN);
         strategies.add(new PawnMoveStrategy());
     }
 }
 
 /*
-Example Move Strategies
+Move Strategies backed by the Bitboards attack tables
 */
 
 class HorizontalMoveStrategy implements MoveStrategy {
 
-    public List<Position> getValidMoves(Position start, Board board) {
-        return new ArrayList<>(); // simplified
+    public long getTargets(int square, Color color, Board board) {
+        return Bitboards.rookAttacks(square, board.getOccupied()) & (Bitboards.RANK_1 << (square & 56));
     }
 }
 
 class VerticalMoveStrategy implements MoveStrategy {
 
-    public List<Position> getValidMoves(Position start, Board board) {
-        return new ArrayList<>();
+    public long getTargets(int square, Color color, Board board) {
+        return Bitboards.rookAttacks(square, board.getOccupied()) & (Bitboards.FILE_A << (square & 7));
     }
 }
 
 class DiagonalMoveStrategy implements MoveStrategy {
 
-    public List<Position> getValidMoves(Position start, Board board) {
-        return new ArrayList<>();
+    public long getTargets(int square, Color color, Board board) {
+        return Bitboards.bishopAttacks(square, board.getOccupied());
     }
 }
 
 class KnightMoveStrategy implements MoveStrategy {
 
-    public List<Position> getValidMoves(Position start, Board board) {
-        return new ArrayList<>();
+    public long getTargets(int square, Color color, Board board) {
+        return Bitboards.KNIGHT[square];
     }
 }
 
 class KingMoveStrategy implements MoveStrategy {
 
-    public List<Position> getValidMoves(Position start, Board board) {
-        return new ArrayList<>();
+    public long getTargets(int square, Color color, Board board) {
+        return Bitboards.KING[square]; // castling: see BitBoard
     }
 }
 
+/*
+Pushes onto empty squares (two from the start row) and diagonal
+captures. En passant needs the last move: see BitBoard.
+*/
 class PawnMoveStrategy implements MoveStrategy {
 
-    public List<Position> getValidMoves(Position start, Board board) {
-        return new ArrayList<>();
+    public long getTargets(int square, Color color, Board board) {
+
+        Color enemy = color == Color.WHITE ? Color.BLACK : Color.WHITE;
+        long empty = ~board.getOccupied();
+        int forward = color == Color.WHITE ? 8 : -8;
+        int row = square / 8;
+
+        long targets = Bitboards.PAWN_ATTACKS[color.ordinal()][square] & board.getOccupied(enemy);
+
+        if (row == 0 || row == 7)
+            return targets;
+
+        long one = Bitboards.bit(square + forward) & empty;
+
+        targets |= one;
+
+        if (one != 0 && row == (color == Color.WHITE ? 1 : 6))
+            targets |= Bitboards.bit(square + 2 * forward) & empty;
+
+        return targets;
     }
 }
 
 /*
 Move class represents a single move
 Used for undo/redo functionality
+
+Players fill in from / to (and promotion for a pawn reaching the
+last row); MoveService fills in the rest when it plays the move.
 */
 class Move {
 
@@ -271,6 +395,9 @@ class Move {
     Piece movedPiece;
     Piece capturedPiece;
 
+    int promotion = BitBoard.QUEEN; // piece type a promoting pawn becomes
+    int code;                       // BitBoard move, set once played
+
     Move(Position f, Position t, Piece p, Piece captured) {
         from = f;
         to = t;
@@ -286,55 +413,157 @@ Responsible for:
 1. Validating moves
 2. Executing moves
 3. Undo / Redo functionality
+
+The BitBoard position is the game state; the Board cells follow
+it. Every move goes through BitBoard.make / unmake, which keep
+the Zobrist key, castling rights and en passant square up to
+date incrementally. Undo and redo stacks hold int moves, so
+undo / redo cost O(1) and allocate nothing.
 */
 class MoveService {
 
     Board board;
+    BitBoard position;
 
-    Stack<Move> undoStack = new Stack<>();
-    Stack<Move> redoStack = new Stack<>();
+    private int[] undoStack = new int[256];
+    private int undoCount;
+
+    private int[] redoStack = new int[256];
+    private int redoCount;
+
+    private final int[] legal = new int[BitBoard.MAX_MOVES];
 
     MoveService(Board board) {
+        this(board, new BitBoard());
+    }
+
+    MoveService(Board board, BitBoard position) {
         this.board = board;
+        this.position = position;
+
+        board.setup(position);
     }
 
+    /*
+    Plays move if it is legal in the current position, otherwise
+    throws IllegalArgumentException. Clears the redo stack.
+    */
     void executeMove(Move move) {
 
-        Cell from = board.getCell(move.from);
-        Cell to = board.getCell(move.to);
+        int code = find(Board.square(move.from), Board.square(move.to), move.promotion);
+
+        if (code == 0)
+            throw new IllegalArgumentException("Illegal move " + BitBoard.squareName(Board.square(move.from))
+                    + BitBoard.squareName(Board.square(move.to)));
 
-        move.capturedPiece = to.piece;
+        move.code = code;
+        move.movedPiece = board.getPiece(BitBoard.from(code));
+        move.capturedPiece = BitBoard.flags(code) == BitBoard.EN_PASSANT
+                ? board.getPiece((BitBoard.from(code) & 56) | (BitBoard.to(code) & 7))
+                : board.getPiece(BitBoard.to(code));
 
-        to.piece = from.piece;
-        from.piece = null;
+        make(code);
 
-        undoStack.push(move);
-        redoStack.clear();
+        redoCount = 0;
     }
 
     void undo() {
 
-        if (undoStack.isEmpty())
+        if (undoCount == 0)
             return;
 
-        Move move = undoStack.pop();
+        int code = undoStack[--undoCount];
 
-        Cell from = board.getCell(move.from);
-        Cell to = board.getCell(move.to);
+        position.unmake(code);
+        syncCells(code);
 
-        from.piece = move.movedPiece;
-        to.piece = move.capturedPiece;
+        if (redoCount == redoStack.length)
+            redoStack = Arrays.copyOf(redoStack, redoCount * 2);
 
-        redoStack.push(move);
+        redoStack[redoCount++] = code;
     }
 
     void redo() {
 
-        if (redoStack.isEmpty())
+        if (redoCount == 0)
             return;
 
-        Move move = redoStack.pop();
-        executeMove(move);
+        make(redoStack[--redoCount]);
+    }
+
+    long getPositionKey() {
+        return position.key;
+    }
+
+    // current position occurred at least times times (3 = threefold repetition)
+    boolean isRepetition(int times) {
+        return position.repetitions() >= times;
+    }
+
+    // no legal move: checkmate if in check, otherwise stalemate
+    boolean hasLegalMoves() {
+        return position.generateMoves(legal, 0) > 0;
+    }
+
+    private void make(int code) {
+
+        position.make(code);
+        syncCells(code);
+
+        if (undoCount == undoStack.length)
+            undoStack = Arrays.copyOf(undoStack, undoCount * 2);
+
+        undoStack[undoCount++] = code;
+    }
+
+    // legal move with these squares, 0 if none
+    private int find(int from, int to, int promotion) {
+
+        int end = position.generateMoves(legal, 0);
+
+        for (int i = 0; i < end; i++) {
+
+            int code = legal[i];
+
+            if (BitBoard.from(code) == from && BitBoard.to(code) == to
+                    && (!BitBoard.isPromotion(code) || BitBoard.promotionType(code) == promotion))
+                return code;
+        }
+
+        return 0;
+    }
+
+    /*
+    Copies the squares a move touches (either direction) from the
+    position to the cells: from, to, the castling rook, the pawn
+    taken en passant.
+    */
+    private void syncCells(int code) {
+
+        int from = BitBoard.from(code), to = BitBoard.to(code);
+
+        updateCell(from);
+        updateCell(to);
+
+        switch (BitBoard.flags(code)) {
+            case BitBoard.KING_CASTLE:
+                updateCell(to + 1);
+                updateCell(to - 1);
+                break;
+            case BitBoard.QUEEN_CASTLE:
+                updateCell(to - 2);
+                updateCell(to + 1);
+                break;
+            case BitBoard.EN_PASSANT:
+                updateCell((from & 56) | (to & 7));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void updateCell(int square) {
+        board.placePiece(Board.pieceFor(position.pieceAt(square)), square);
     }
 }
 
@@ -344,6 +573,12 @@ Spectator interface – Observer Pattern
 interface Spectator {
 
     void onMove(Move move);
+
+    // moves delivered together, oldest first; the list is only valid during the call
+    default void onMoves(List<Move> moves) {
+        for (Move move : moves)
+            onMove(move);
+    }
 }
 
 /*
@@ -367,6 +602,10 @@ abstract class Player {
         this.color = color;
     }
 
+    // called once by the game the player joins
+    void joinGame(Game game) {
+    }
+
     abstract Move makeMove();
 }
 
@@ -385,16 +624,70 @@ class HumanPlayer extends Player {
 }
 
 /*
-Bot player for future extensibility
+Bot player backed by SearchEngine
+
+Searches the game's BitBoard position for thinkMillis on the
+given number of threads (Lazy SMP); by default one per core, so
+more hardware means deeper search in the same time.
 */
 class BotPlayer extends Player {
 
+    static final long DEFAULT_THINK_MILLIS = 1000;
+
+    private BitBoard position;
+    private final SearchEngine engine = new SearchEngine();
+
+    private long thinkMillis;
+    private int threads;
+
+    private SearchResult lastSearch;
+
     BotPlayer(Color color) {
+        this(color, DEFAULT_THINK_MILLIS, Runtime.getRuntime().availableProcessors());
+    }
+
+    BotPlayer(Color color, long thinkMillis, int threads) {
         super(color);
+        this.thinkMillis = thinkMillis;
+        this.threads = threads;
+    }
+
+    // searches the game's live position, with its move history for repetitions
+    void joinGame(Game game) {
+        position = game.position;
     }
 
+    void setThinkMillis(long thinkMillis) {
+        this.thinkMillis = thinkMillis;
+    }
+
+    void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    // depth, score and nodes/sec of the last makeMove()
+    SearchResult getLastSearch() {
+        return lastSearch;
+    }
+
+    /*
+    Returns null when there is no legal move (mate or stalemate).
+    */
     Move makeMove() {
-        return null; // random / AI
+
+        lastSearch = engine.search(position, thinkMillis, threads);
+
+        int best = lastSearch.bestMove;
+
+        if (best == 0)
+            return null;
+
+        Move move = new Move(Board.position(BitBoard.from(best)), Board.position(BitBoard.to(best)), null, null);
+
+        if (BitBoard.isPromotion(best))
+            move.promotion = BitBoard.promotionType(best);
+
+        return move;
     }
 }
 
@@ -410,12 +703,15 @@ Responsibilities:
 class Game implements GameBroadcaster {
 
     Board board;
+    BitBoard position;
     MoveService moveService;
 
     Player white;
     Player black;
 
-    List<Spectator> spectators = new ArrayList<>();
+    // delivers moves on its own threads so playMove never waits for a spectator;
+    // created with the first spectator, most hosted games have none
+    private volatile SpectatorBroadcaster broadcaster;
 
     Game(Player white, Player black) {
 
@@ -423,17 +719,27 @@ class Game implements GameBroadcaster {
         this.black = black;
 
         board = new Board();
-        moveService = new MoveService(board);
+        position = new BitBoard();
+        moveService = new MoveService(board, position);
+
+        white.joinGame(this);
+        black.joinGame(this);
     }
 
-    public void registerSpectator(Spectator spectator) {
-        spectators.add(spectator);
+    public synchronized void registerSpectator(Spectator spectator) {
+
+        if (broadcaster == null)
+            broadcaster = new SpectatorBroadcaster();
+
+        broadcaster.registerSpectator(spectator);
     }
 
     public void notifySpectators(Move move) {
-        for (Spectator s : spectators) {
-            s.onMove(move);
-        }
+
+        SpectatorBroadcaster b = broadcaster;
+
+        if (b != null)
+            b.notifySpectators(move);
     }
 
     void playMove(Move move) {
@@ -462,8 +768,37 @@ public class ChessGame {
         Position from = new Position(1,0);
         Position to = new Position(3,0);
 
+        System.out.println("Pawn a2 can go to " + game.board.getCell(from).piece.getValidMoves(from, game.board).size() + " squares");
+
         Move move = new Move(from,to,null,null);
 
         game.playMove(move);
+
+        // undo / redo walk the int stacks; the Zobrist key comes back with the position
+        long key = game.moveService.getPositionKey();
+
+        game.moveService.undo();
+        game.moveService.redo();
+
+        System.out.println("Key restored after undo/redo: " + (game.moveService.getPositionKey() == key));
+
+        // knights out and back twice: the start position (black to move after a4) repeats
+        int[][] shuffle = {{7, 1, 5, 2}, {0, 6, 2, 5}, {5, 2, 7, 1}, {2, 5, 0, 6}};
+
+        for (int round = 0; round < 2; round++)
+            for (int[] m : shuffle)
+                game.playMove(new Move(new Position(m[0], m[1]), new Position(m[2], m[3]), null, null));
+
+        System.out.println("Threefold repetition: " + game.moveService.isRepetition(3));
+
+        // bot to move in a bot-vs-bot game
+        Game botGame = new Game(new BotPlayer(Color.WHITE, 500, Runtime.getRuntime().availableProcessors()),
+                new BotPlayer(Color.BLACK, 500, Runtime.getRuntime().availableProcessors()));
+
+        BotPlayer bot = (BotPlayer) botGame.white;
+
+        botGame.playMove(bot.makeMove());
+
+        System.out.println("Bot: " + bot.getLastSearch());
     }
 }
\ No newline at end of file
@@ -0,0 +1,162 @@
+/*
+===========================================================
+PERFT TEST SUITE
+===========================================================
+
+Counts the leaf nodes of the legal move tree to a fixed depth
+and compares them with published counts for positions chosen to
+hit the hard rules: castling through / out of check, en passant
+pins and discovered checks, promotions with capture, double check.
+
+A wrong count at any depth means a move generation or make /
+unmake bug. "divide" prints the count per root move, to compare
+against another engine and find the wrong branch.
+
+Leaves are counted in bulk: at depth 1 the number of generated
+moves is added without playing them. Nodes per second is the
+usual perft figure and includes that shortcut.
+
+Usage:
+    java Perft                      suite at default depths
+    java Perft deep                 suite at full depths (slow)
+    java Perft divide <depth> <fen>
+
+Exits with status 1 if a count is wrong.
+===========================================================
+*/
+
+public class Perft {
+
+    // fen, expected counts for depth 1, 2, ...
+    static final Object[][] SUITE = {
+            {BitBoard.START_FEN,
+                    new long[]{20, 400, 8_902, 197_281, 4_865_609, 119_060_324}},
+            {"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                    new long[]{48, 2_039, 97_862, 4_085_603, 193_690_690}},
+            {"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+                    new long[]{14, 191, 2_812, 43_238, 674_624, 11_030_083}},
+            {"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+                    new long[]{6, 264, 9_467, 422_333, 15_833_292}},
+            {"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+                    new long[]{44, 1_486, 62_379, 2_103_487, 89_941_194}},
+            {"r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+                    new long[]{46, 2_079, 89_890, 3_894_594, 164_075_551}},
+    };
+
+    // suite depths without "deep"
+    static final int[] DEFAULT_DEPTH = {5, 4, 5, 4, 4, 4};
+
+    static final int MAX_DEPTH = 16;
+
+    // one move buffer for the whole tree, MAX_MOVES per ply
+    private final int[] moves = new int[MAX_DEPTH * BitBoard.MAX_MOVES];
+
+    private final BitBoard board;
+
+    Perft(BitBoard board) {
+        this.board = board;
+    }
+
+    long perft(int depth) {
+        return perft(depth, 0);
+    }
+
+    private long perft(int depth, int start) {
+
+        int end = board.generateMoves(moves, start);
+
+        if (depth == 1)
+            return end - start;
+
+        long nodes = 0;
+
+        for (int i = start; i < end; i++) {
+
+            int move = moves[i];
+
+            board.make(move);
+            nodes += perft(depth - 1, end);
+            board.unmake(move);
+        }
+
+        return nodes;
+    }
+
+    void divide(int depth) {
+
+        int end = board.generateMoves(moves, 0);
+
+        long total = 0;
+
+        for (int i = 0; i < end; i++) {
+
+            int move = moves[i];
+
+            board.make(move);
+
+            long nodes = depth == 1 ? 1 : perft(depth - 1, end);
+
+            board.unmake(move);
+
+            System.out.println(BitBoard.toUci(move) + ": " + nodes);
+
+            total += nodes;
+        }
+
+        System.out.println("total: " + total);
+    }
+
+    public static void main(String[] args) {
+
+        if (args.length >= 3 && args[0].equals("divide")) {
+
+            StringBuilder fen = new StringBuilder();
+
+            for (int i = 2; i < args.length; i++)
+                fen.append(args[i]).append(' ');
+
+            new Perft(new BitBoard(fen.toString())).divide(Integer.parseInt(args[1]));
+            return;
+        }
+
+        boolean deep = args.length > 0 && args[0].equals("deep");
+        boolean ok = true;
+
+        long totalNodes = 0;
+        long totalNanos = 0;
+
+        System.out.printf("%-4s %-6s %14s %14s %10s%n", "pos", "depth", "nodes", "expected", "Mnps");
+
+        for (int p = 0; p < SUITE.length; p++) {
+
+            String fen = (String) SUITE[p][0];
+            long[] expected = (long[]) SUITE[p][1];
+
+            int depth = deep ? expected.length : DEFAULT_DEPTH[p];
+
+            BitBoard board = new BitBoard(fen);
+            Perft perft = new Perft(board);
+
+            long start = System.nanoTime();
+            long nodes = perft.perft(depth);
+            long nanos = System.nanoTime() - start;
+
+            totalNodes += nodes;
+            totalNanos += nanos;
+
+            boolean match = nodes == expected[depth - 1] && board.toFen().equals(new BitBoard(fen).toFen());
+
+            System.out.printf("%-4d %-6d %14d %14d %10.1f %s%n",
+                    p + 1, depth, nodes, expected[depth - 1], nodes * 1e3 / nanos, match ? "" : "MISMATCH");
+
+            ok &= match;
+        }
+
+        System.out.printf("total %d nodes, %.1f Mnps%n", totalNodes, totalNodes * 1e3 / totalNanos);
+
+        System.out.println(ok ? "PASSED" : "FAILED");
+
+        if (!ok)
+            System.exit(1);
+    }
+}
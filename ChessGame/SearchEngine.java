@@ -0,0 +1,708 @@
+/*
+===========================
+SEARCH ENGINE
+===========================
+
+Chooses BotPlayer's moves.
+
+Search
+------
+- iterative deepening: depth 1, 2, 3, ... until the think
+  time is used; each finished depth seeds the next through
+  the transposition table
+- negamax alpha-beta with principal variation search: the first
+  move gets the full window, the rest a null window and are only
+  re-searched if they beat it
+- quiescence search on captures and promotions at the leaves, so
+  the evaluation never stops in the middle of an exchange
+- null move pruning and a one-ply reduction for late quiet moves
+- check extension
+- a repeated position or the fifty-move rule scores as a draw
+
+Move ordering (cheap moves that cut first save the most)
+--------------------------------------------------------
+1. the move the transposition table remembers for this position
+2. captures, most valuable victim / least valuable attacker
+3. two killer moves per ply (quiet moves that cut elsewhere)
+4. the rest by history score (how often the move cut before)
+
+Transposition table
+-------------------
+Flat long[] with two longs per entry (key ^ data, data) indexed
+by the Zobrist key. No locks: a torn write from two threads makes
+key ^ data mismatch and the entry is treated as empty.
+
+Lazy SMP
+--------
+N threads search the same root, each on its own BitBoard copy
+with its own killers and history, sharing only the table and a
+stop flag. Half of them start one ply deeper. Threads that get
+ahead fill the table with results the others then reuse, so
+more cores reach greater depth in the same time. The main
+thread's last finished depth is the answer.
+===========================
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/*
+Outcome of one search.
+*/
+class SearchResult {
+
+    final int bestMove; // BitBoard move, 0 if there is no legal move
+    final int score;    // centipawns for the side to move, or a mate score
+    final int depth;
+    final long nodes;
+    final long millis;
+
+    SearchResult(int bestMove, int score, int depth, long nodes, long millis) {
+        this.bestMove = bestMove;
+        this.score = score;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.millis = millis;
+    }
+
+    long nodesPerSecond() {
+        return nodes * 1000 / Math.max(1, millis);
+    }
+
+    boolean isMate() {
+        return Math.abs(score) >= SearchEngine.MATE - SearchEngine.MAX_PLY;
+    }
+
+    // moves to mate, negative if the side to move gets mated
+    int mateIn() {
+        int plies = SearchEngine.MATE - Math.abs(score);
+        return (score > 0 ? 1 : -1) * (plies + 1) / 2;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("bestmove %s %s depth %d nodes %d nps %d",
+                bestMove == 0 ? "(none)" : BitBoard.toUci(bestMove),
+                isMate() ? "mate " + mateIn() : "cp " + score,
+                depth, nodes, nodesPerSecond());
+    }
+}
+
+
+/*
+Lock-free transposition table shared by all search threads.
+*/
+class TranspositionTable {
+
+    static final int EXACT = 1;
+    static final int LOWER = 2; // score is at least this (beta cutoff)
+    static final int UPPER = 3; // score is at most this (no move beat alpha)
+
+    // key ^ data, data per entry
+    private final long[] table;
+    private final int mask;
+
+    private volatile int age;
+
+    TranspositionTable(int megabytes) {
+
+        long entries = Long.highestOneBit(megabytes * 1024L * 1024L / 16);
+
+        table = new long[(int) entries * 2];
+        mask = (int) entries - 1;
+    }
+
+    // data layout: move 16 | score 16 | depth 8 | bound 2 | age 6
+    static int move(long data) {
+        return (int) (data & 0xFFFF);
+    }
+
+    static int score(long data) {
+        return (short) (data >>> 16);
+    }
+
+    static int depth(long data) {
+        return (int) (data >>> 32 & 0xFF);
+    }
+
+    static int bound(long data) {
+        return (int) (data >>> 40 & 3);
+    }
+
+    /*
+    Returns the entry's data, or 0 if the position is not stored.
+    */
+    long probe(long key) {
+
+        int i = ((int) key & mask) << 1;
+
+        long data = table[i + 1];
+
+        return (table[i] ^ data) == key ? data : 0;
+    }
+
+    void store(long key, int move, int score, int depth, int bound) {
+
+        int i = ((int) key & mask) << 1;
+
+        long oldData = table[i + 1];
+        boolean sameKey = (table[i] ^ oldData) == key;
+
+        // keep a deeper entry of this search for another position
+        if (!sameKey && (int) (oldData >>> 42) == age && depth(oldData) > depth)
+            return;
+
+        // a shallower store must not lose the remembered best move
+        if (sameKey && move == 0)
+            move = move(oldData);
+
+        long data = (move & 0xFFFFL)
+                | (score & 0xFFFFL) << 16
+                | (long) depth << 32
+                | (long) bound << 40
+                | (long) age << 42;
+
+        table[i] = key ^ data;
+        table[i + 1] = data;
+    }
+
+    // entries of earlier searches become replaceable
+    void newSearch() {
+        age = (age + 1) & 63;
+    }
+}
+
+
+class SearchEngine {
+
+    static final int INFINITY = 32000;
+    static final int MATE = 31000;
+    static final int MAX_PLY = 64;
+
+    static final int DEFAULT_TABLE_MB = 64;
+
+    private static final int[] PIECE_VALUE = {100, 320, 330, 500, 900, 0};
+
+    private final TranspositionTable table;
+
+    SearchEngine() {
+        this(DEFAULT_TABLE_MB);
+    }
+
+    SearchEngine(int tableMegabytes) {
+        table = new TranspositionTable(tableMegabytes);
+    }
+
+    /*
+    Searches position for at most thinkMillis with the given number
+    of threads. position itself is not modified.
+    */
+    SearchResult search(BitBoard position, long thinkMillis, int threads) {
+
+        table.newSearch();
+
+        long start = System.currentTimeMillis();
+        long deadline = start + thinkMillis;
+
+        AtomicBoolean stop = new AtomicBoolean();
+
+        List<Worker> workers = new ArrayList<>();
+
+        for (int t = 0; t < Math.max(1, threads); t++)
+            workers.add(new Worker(new BitBoard(position), t, start, deadline, stop));
+
+        List<Thread> helpers = new ArrayList<>();
+
+        for (Worker w : workers.subList(1, workers.size())) {
+
+            Thread thread = new Thread(w::iterate, "search-helper-" + w.id);
+            thread.setDaemon(true);
+            thread.start();
+
+            helpers.add(thread);
+        }
+
+        Worker main = workers.get(0);
+
+        main.iterate();
+
+        stop.set(true);
+
+        for (Thread t : helpers) {
+            try {
+                t.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        long nodes = 0;
+
+        for (Worker w : workers)
+            nodes += w.nodes;
+
+        return new SearchResult(main.bestMove, main.bestScore, main.completedDepth,
+                nodes, System.currentTimeMillis() - start);
+    }
+
+    /*
+    One search thread.
+    */
+    private class Worker {
+
+        final BitBoard board;
+        final int id;
+        final long started;
+        final long deadline;
+        final AtomicBoolean stop;
+
+        // MAX_MOVES per ply; scores parallel to moves
+        final int[] moves = new int[MAX_PLY * BitBoard.MAX_MOVES];
+        final int[] scores = new int[MAX_PLY * BitBoard.MAX_MOVES];
+
+        final int[][] killers = new int[MAX_PLY][2];
+        final int[] history = new int[12 * 64];
+
+        long nodes;
+
+        int bestMove;
+        int bestScore;
+        int completedDepth;
+
+        // best root move of the depth being searched
+        int rootMove;
+
+        Worker(BitBoard board, int id, long started, long deadline, AtomicBoolean stop) {
+            this.board = board;
+            this.id = id;
+            this.started = started;
+            this.deadline = deadline;
+            this.stop = stop;
+        }
+
+        void iterate() {
+
+            int end = board.generateMoves(moves, 0);
+
+            if (end == 0)
+                return; // mate or stalemate: nothing to choose
+
+            bestMove = moves[0];
+
+            // helpers alternate depth offsets so they do not all search the same tree
+            for (int depth = 1 + (id & 1); depth < MAX_PLY; depth++) {
+
+                int score = negamax(depth, -INFINITY, INFINITY, 0);
+
+                if (stop.get())
+                    break;
+
+                bestMove = rootMove;
+                bestScore = score;
+                completedDepth = depth;
+
+                // a deeper iteration takes longer than all before it: it would not finish
+                long now = System.currentTimeMillis();
+
+                if (id == 0 && now - started > (deadline - started) / 2)
+                    break;
+
+                if (Math.abs(score) >= MATE - depth)
+                    break; // forced mate found within the horizon
+            }
+
+            if (id == 0)
+                stop.set(true);
+        }
+
+        private int negamax(int depth, int alpha, int beta, int ply) {
+
+            if ((++nodes & 1023) == 0 && System.currentTimeMillis() >= deadline)
+                stop.set(true);
+
+            if (stop.get())
+                return 0;
+
+            // fifty-move rule, or back to a position seen before: a draw
+            if (ply > 0 && (board.halfmoveClock >= 100 || board.isRepetition()))
+                return 0;
+
+            boolean inCheck = board.inCheck();
+
+            if (inCheck)
+                depth++;
+
+            if (depth <= 0 || ply >= MAX_PLY - 1)
+                return quiescence(alpha, beta, ply);
+
+            int originalAlpha = alpha;
+
+            long entry = table.probe(board.key);
+            int ttMove = 0;
+
+            if (entry != 0) {
+
+                ttMove = TranspositionTable.move(entry);
+
+                int ttScore = fromTable(TranspositionTable.score(entry), ply);
+                int bound = TranspositionTable.bound(entry);
+
+                if (ply > 0 && TranspositionTable.depth(entry) >= depth
+                        && (bound == TranspositionTable.EXACT
+                        || (bound == TranspositionTable.LOWER && ttScore >= beta)
+                        || (bound == TranspositionTable.UPPER && ttScore <= alpha)))
+                    return ttScore;
+            }
+
+            // give the opponent a free move: if we still beat beta, this node will too
+            if (!inCheck && ply > 0 && depth >= 3 && beta - alpha == 1
+                    && board.hasPieces(board.side) && evaluate() >= beta) {
+
+                board.makeNullMove();
+                int score = -negamax(depth - 3, -beta, -beta + 1, ply + 1);
+                board.unmakeNullMove();
+
+                if (stop.get())
+                    return 0;
+
+                if (score >= beta)
+                    return beta;
+            }
+
+            int start = ply * BitBoard.MAX_MOVES;
+            int end = board.generateMoves(moves, start);
+
+            if (end == start)
+                return inCheck ? -MATE + ply : 0;
+
+            scoreMoves(start, end, ttMove, ply);
+
+            int best = -INFINITY;
+            int bestHere = 0;
+
+            for (int i = start; i < end; i++) {
+
+                int move = pickNext(i, end);
+                boolean quiet = !BitBoard.isCapture(move) && !BitBoard.isPromotion(move);
+
+                board.make(move);
+
+                int score;
+
+                if (i == start) {
+                    score = -negamax(depth - 1, -beta, -alpha, ply + 1);
+                }
+                else {
+
+                    // late quiet moves rarely matter: look one ply shallower first
+                    int reduction = quiet && !inCheck && depth >= 3 && i - start >= 4 ? 1 : 0;
+
+                    score = -negamax(depth - 1 - reduction, -alpha - 1, -alpha, ply + 1);
+
+                    if (score > alpha && (reduction > 0 || score < beta))
+                        score = -negamax(depth - 1, -beta, -alpha, ply + 1);
+                }
+
+                board.unmake(move);
+
+                if (stop.get())
+                    return 0;
+
+                if (score > best) {
+
+                    best = score;
+                    bestHere = move;
+
+                    if (ply == 0)
+                        rootMove = move;
+
+                    if (score > alpha)
+                        alpha = score;
+
+                    if (alpha >= beta) {
+
+                        if (quiet) {
+
+                            if (killers[ply][0] != move) {
+                                killers[ply][1] = killers[ply][0];
+                                killers[ply][0] = move;
+                            }
+
+                            history[board.pieceAt(BitBoard.from(move)) * 64 + BitBoard.to(move)] += depth * depth;
+                        }
+
+                        break;
+                    }
+                }
+            }
+
+            int bound = best >= beta ? TranspositionTable.LOWER
+                    : best > originalAlpha ? TranspositionTable.EXACT
+                    : TranspositionTable.UPPER;
+
+            table.store(board.key, bestHere & 0xFFFF, toTable(best, ply), depth, bound);
+
+            return best;
+        }
+
+        /*
+        Captures and promotions only, until the position is quiet.
+        The side to move may also stand pat on the static evaluation.
+        */
+        private int quiescence(int alpha, int beta, int ply) {
+
+            if ((++nodes & 1023) == 0 && System.currentTimeMillis() >= deadline)
+                stop.set(true);
+
+            if (stop.get())
+                return 0;
+
+            int standPat = evaluate();
+
+            if (standPat >= beta || ply >= MAX_PLY - 1)
+                return standPat;
+
+            if (standPat > alpha)
+                alpha = standPat;
+
+            int start = ply * BitBoard.MAX_MOVES;
+            int all = board.generateMoves(moves, start);
+
+            // keep only the noisy moves
+            int end = start;
+
+            for (int i = start; i < all; i++)
+                if (BitBoard.isCapture(moves[i]) || BitBoard.isPromotion(moves[i]))
+                    moves[end++] = moves[i];
+
+            scoreMoves(start, end, 0, ply);
+
+            for (int i = start; i < end; i++) {
+
+                int move = pickNext(i, end);
+
+                board.make(move);
+                int score = -quiescence(-beta, -alpha, ply + 1);
+                board.unmake(move);
+
+                if (stop.get())
+                    return 0;
+
+                if (score >= beta)
+                    return score;
+
+                if (score > alpha)
+                    alpha = score;
+            }
+
+            return alpha;
+        }
+
+        private void scoreMoves(int start, int end, int ttMove, int ply) {
+
+            for (int i = start; i < end; i++) {
+
+                int move = moves[i];
+                int piece = board.pieceAt(BitBoard.from(move));
+
+                if ((move & 0xFFFF) == ttMove && ttMove != 0) {
+                    scores[i] = 1 << 30;
+                }
+                else if (BitBoard.isCapture(move) || BitBoard.isPromotion(move)) {
+
+                    int victim = BitBoard.flags(move) == BitBoard.EN_PASSANT
+                            ? BitBoard.PAWN
+                            : board.pieceAt(BitBoard.to(move)) % 6;
+
+                    int value = BitBoard.isCapture(move) ? PIECE_VALUE[victim] * 10 : 0;
+
+                    if (BitBoard.isPromotion(move))
+                        value += PIECE_VALUE[BitBoard.promotionType(move)] * 10;
+
+                    scores[i] = (1 << 24) + value - PIECE_VALUE[piece % 6] / 10;
+                }
+                else if (move == killers[ply][0]) {
+                    scores[i] = (1 << 23) + 1;
+                }
+                else if (move == killers[ply][1]) {
+                    scores[i] = 1 << 23;
+                }
+                else {
+                    scores[i] = Math.min(history[piece * 64 + BitBoard.to(move)], (1 << 23) - 1);
+                }
+            }
+        }
+
+        // selection sort step: moves the best remaining move to i
+        private int pickNext(int i, int end) {
+
+            int best = i;
+
+            for (int j = i + 1; j < end; j++)
+                if (scores[j] > scores[best])
+                    best = j;
+
+            int move = moves[best];
+
+            moves[best] = moves[i];
+            moves[i] = move;
+
+            int score = scores[best];
+
+            scores[best] = scores[i];
+            scores[i] = score;
+
+            return move;
+        }
+
+        private int evaluate() {
+            return Evaluation.evaluate(board);
+        }
+    }
+
+    // mate scores are stored relative to the node, not the root
+    private static int toTable(int score, int ply) {
+
+        if (score >= MATE - MAX_PLY)
+            return score + ply;
+
+        if (score <= -MATE + MAX_PLY)
+            return score - ply;
+
+        return score;
+    }
+
+    private static int fromTable(int score, int ply) {
+
+        if (score >= MATE - MAX_PLY)
+            return score - ply;
+
+        if (score <= -MATE + MAX_PLY)
+            return score + ply;
+
+        return score;
+    }
+}
+
+
+/*
+Static evaluation: material plus piece-square tables, with the
+king table blended from middlegame to endgame as pieces come off.
+Score is for the side to move.
+*/
+final class Evaluation {
+
+    private static final int[] VALUE = {100, 320, 330, 500, 900, 0};
+
+    // phase weight of each piece type; 24 = all pieces on the board
+    private static final int[] PHASE = {0, 1, 1, 2, 4, 0};
+
+    // White's view, rank 8 first (as printed); index with square ^ 56
+    private static final int[][] TABLES = {
+            { // pawn
+                    0, 0, 0, 0, 0, 0, 0, 0,
+                    50, 50, 50, 50, 50, 50, 50, 50,
+                    10, 10, 20, 30, 30, 20, 10, 10,
+                    5, 5, 10, 25, 25, 10, 5, 5,
+                    0, 0, 0, 20, 20, 0, 0, 0,
+                    5, -5, -10, 0, 0, -10, -5, 5,
+                    5, 10, 10, -20, -20, 10, 10, 5,
+                    0, 0, 0, 0, 0, 0, 0, 0},
+            { // knight
+                    -50, -40, -30, -30, -30, -30, -40, -50,
+                    -40, -20, 0, 0, 0, 0, -20, -40,
+                    -30, 0, 10, 15, 15, 10, 0, -30,
+                    -30, 5, 15, 20, 20, 15, 5, -30,
+                    -30, 0, 15, 20, 20, 15, 0, -30,
+                    -30, 5, 10, 15, 15, 10, 5, -30,
+                    -40, -20, 0, 5, 5, 0, -20, -40,
+                    -50, -40, -30, -30, -30, -30, -40, -50},
+            { // bishop
+                    -20, -10, -10, -10, -10, -10, -10, -20,
+                    -10, 0, 0, 0, 0, 0, 0, -10,
+                    -10, 0, 5, 10, 10, 5, 0, -10,
+                    -10, 5, 5, 10, 10, 5, 5, -10,
+                    -10, 0, 10, 10, 10, 10, 0, -10,
+                    -10, 10, 10, 10, 10, 10, 10, -10,
+                    -10, 5, 0, 0, 0, 0, 5, -10,
+                    -20, -10, -10, -10, -10, -10, -10, -20},
+            { // rook
+                    0, 0, 0, 0, 0, 0, 0, 0,
+                    5, 10, 10, 10, 10, 10, 10, 5,
+                    -5, 0, 0, 0, 0, 0, 0, -5,
+                    -5, 0, 0, 0, 0, 0, 0, -5,
+                    -5, 0, 0, 0, 0, 0, 0, -5,
+                    -5, 0, 0, 0, 0, 0, 0, -5,
+                    -5, 0, 0, 0, 0, 0, 0, -5,
+                    0, 0, 0, 5, 5, 0, 0, 0},
+            { // queen
+                    -20, -10, -10, -5, -5, -10, -10, -20,
+                    -10, 0, 0, 0, 0, 0, 0, -10,
+                    -10, 0, 5, 5, 5, 5, 0, -10,
+                    -5, 0, 5, 5, 5, 5, 0, -5,
+                    0, 0, 5, 5, 5, 5, 0, -5,
+                    -10, 5, 5, 5, 5, 5, 0, -10,
+                    -10, 0, 5, 0, 0, 0, 0, -10,
+                    -20, -10, -10, -5, -5, -10, -10, -20},
+            { // king, middlegame
+                    -30, -40, -40, -50, -50, -40, -40, -30,
+                    -30, -40, -40, -50, -50, -40, -40, -30,
+                    -30, -40, -40, -50, -50, -40, -40, -30,
+                    -30, -40, -40, -50, -50, -40, -40, -30,
+                    -20, -30, -30, -40, -40, -30, -30, -20,
+                    -10, -20, -20, -20, -20, -20, -20, -10,
+                    20, 20, 0, 0, 0, 0, 20, 20,
+                    20, 30, 10, 0, 0, 10, 30, 20},
+    };
+
+    private static final int[] KING_ENDGAME = {
+            -50, -40, -30, -20, -20, -30, -40, -50,
+            -30, -20, -10, 0, 0, -10, -20, -30,
+            -30, -10, 20, 30, 30, 20, -10, -30,
+            -30, -10, 30, 40, 40, 30, -10, -30,
+            -30, -10, 30, 40, 40, 30, -10, -30,
+            -30, -10, 20, 30, 30, 20, -10, -30,
+            -30, -30, 0, 0, 0, 0, -30, -30,
+            -50, -30, -30, -30, -30, -30, -30, -50};
+
+    private Evaluation() {
+    }
+
+    static int evaluate(BitBoard board) {
+
+        int score = 0;
+        int phase = 0;
+        int kingMiddle = 0, kingEnd = 0;
+
+        for (int color = BitBoard.WHITE; color <= BitBoard.BLACK; color++) {
+
+            int sign = color == BitBoard.WHITE ? 1 : -1;
+            int flip = color == BitBoard.WHITE ? 56 : 0;
+
+            for (int type = BitBoard.PAWN; type < BitBoard.KING; type++) {
+
+                for (long b = board.pieces(color, type); b != 0; b &= b - 1) {
+
+                    int sq = Long.numberOfTrailingZeros(b) ^ flip;
+
+                    score += sign * (VALUE[type] + TABLES[type][sq]);
+                    phase += PHASE[type];
+                }
+            }
+
+            int king = board.kingSquare(color) ^ flip;
+
+            kingMiddle += sign * TABLES[BitBoard.KING][king];
+            kingEnd += sign * KING_ENDGAME[king];
+        }
+
+        phase = Math.min(phase, 24);
+
+        score += (kingMiddle * phase + kingEnd * (24 - phase)) / 24;
+
+        return board.side == BitBoard.WHITE ? score : -score;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+===========================================================
+SERVER LOAD GENERATOR
+===========================================================
+
+Drives a GameServer with many simultaneous games (10k by
+default) and reports the move-processing latency: from
+submitMove to the reply, through the shard's inbox, validation,
+clocks and end-of-game checks.
+
+Each game has two simulated players. A player waits a random
+think time (0 to 2x the mean), then plays a random legal move.
+It picks the move on its own copy of the position, the way a
+client would. A finished game (mate, draw, flag) is closed and a
+new one started in its place, so the game count stays constant.
+
+Driver threads only choose and submit moves; replies are handled
+in the future's callback on the shard thread.
+
+Reports, after a warm-up:
+- moves per second
+- latency p50 / p90 / p99 / p99.9 / max
+- heap per hosted game
+- games finished, by how they ended
+
+Usage:
+    java ServerBenchmark [games] [seconds] [think millis] [shards]
+        defaults 10000 20 200 <cores>
+===========================================================
+*/
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class ServerBenchmark {
+
+    static final long BASE_MILLIS = 5 * 60_000;
+    static final long INCREMENT_MILLIS = 2_000;
+
+    static final int DRIVERS = 2;
+    static final long WARMUP_MILLIS = 5_000;
+
+    /*
+    Log-linear histogram of nanoseconds: 8 buckets per power of
+    two, so a percentile is off by at most 12.5%.
+    */
+    static class LatencyHistogram {
+
+        static final int SUB_BITS = 3;
+
+        final AtomicLongArray counts = new AtomicLongArray(64 << SUB_BITS);
+        final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+
+            nanos = Math.max(1, nanos);
+
+            counts.incrementAndGet(bucket(nanos));
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        static int bucket(long nanos) {
+
+            int log = 63 - Long.numberOfLeadingZeros(nanos);
+
+            if (log < SUB_BITS)
+                return (int) nanos;
+
+            return (log - SUB_BITS + 1) << SUB_BITS | (int) (nanos >>> (log - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+        }
+
+        // upper end of bucket b
+        static long bucketLimit(int b) {
+
+            if (b < 1 << SUB_BITS)
+                return b;
+
+            int log = (b >>> SUB_BITS) + SUB_BITS - 1;
+            long sub = b & ((1 << SUB_BITS) - 1);
+
+            return ((1L << SUB_BITS | sub) + 1 << (log - SUB_BITS)) - 1;
+        }
+
+        long total() {
+
+            long n = 0;
+
+            for (int b = 0; b < counts.length(); b++)
+                n += counts.get(b);
+
+            return n;
+        }
+
+        long percentile(double p) {
+
+            long rank = (long) Math.ceil(total() * p);
+            long seen = 0;
+
+            for (int b = 0; b < counts.length(); b++) {
+
+                seen += counts.get(b);
+
+                if (seen >= rank && seen > 0)
+                    return Math.min(bucketLimit(b), max.get());
+            }
+
+            return max.get();
+        }
+    }
+
+    /*
+    Both players of one hosted game, as seen by the driver
+    */
+    static class ClientGame {
+
+        long id;
+        BitBoard position = new BitBoard();
+
+        volatile boolean inFlight;
+        volatile GameStatus finished;
+
+        long nextMoveAt;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+
+        int gameCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        long thinkMillis = args.length > 2 ? Long.parseLong(args[2]) : 200;
+        int shardCount = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        GameServer server = new GameServer(shardCount);
+
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong moves = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+
+        Map<GameStatus, AtomicLong> endings = new EnumMap<>(GameStatus.class);
+
+        for (GameStatus status : GameStatus.values())
+            endings.put(status, new AtomicLong());
+
+        long heapBefore = usedHeap();
+
+        ClientGame[] games = new ClientGame[gameCount];
+
+        for (int i = 0; i < gameCount; i++) {
+            games[i] = new ClientGame();
+            games[i].id = server.createGame(BASE_MILLIS, INCREMENT_MILLIS);
+        }
+
+        while (server.getActiveGames() < gameCount)
+            Thread.sleep(10);
+
+        long heapPerGame = (usedHeap() - heapBefore) / gameCount;
+
+        System.out.printf("%d games on %d shards, %d drivers, mean think %d ms, %d s%n",
+                gameCount, server.getShardCount(), DRIVERS, thinkMillis, seconds);
+
+        long started = System.nanoTime();
+        long warmupEnd = started + WARMUP_MILLIS * 1_000_000;
+        long end = warmupEnd + seconds * 1_000_000_000;
+
+        Thread[] drivers = new Thread[DRIVERS];
+
+        for (int d = 0; d < DRIVERS; d++) {
+
+            int first = d;
+
+            drivers[d] = new Thread(() -> {
+
+                SplittableRandom random = new SplittableRandom(first);
+                int[] legal = new int[BitBoard.MAX_MOVES];
+
+                while (true) {
+
+                    long now = System.nanoTime();
+
+                    if (now >= end)
+                        return;
+
+                    for (int i = first; i < gameCount; i += DRIVERS) {
+
+                        ClientGame g = games[i];
+
+                        if (g.inFlight || now < g.nextMoveAt)
+                            continue;
+
+                        if (g.finished != null) {
+
+                            endings.get(g.finished).incrementAndGet();
+
+                            server.closeGame(g.id);
+
+                            g.id = server.createGame(BASE_MILLIS, INCREMENT_MILLIS);
+                            g.position = new BitBoard();
+                            g.finished = null;
+                        }
+
+                        int count = g.position.generateMoves(legal, 0);
+                        int code = legal[random.nextInt(count)];
+
+                        Color color = g.position.side == BitBoard.WHITE ? Color.WHITE : Color.BLACK;
+
+                        Move move = new Move(Board.position(BitBoard.from(code)), Board.position(BitBoard.to(code)),
+                                null, null);
+
+                        if (BitBoard.isPromotion(code))
+                            move.promotion = BitBoard.promotionType(code);
+
+                        // only this driver moves in this game, so the copy can run ahead of the reply
+                        g.position.make(code);
+                        g.inFlight = true;
+                        g.nextMoveAt = now + (long) (random.nextDouble() * 2 * thinkMillis * 1_000_000);
+
+                        long submitted = System.nanoTime();
+
+                        server.submitMove(g.id, color, move).thenAccept(reply -> {
+
+                            if (submitted >= warmupEnd) {
+                                latency.record(System.nanoTime() - submitted);
+                                moves.incrementAndGet();
+                            }
+
+                            if (reply.result != MoveReply.Result.ACCEPTED)
+                                rejected.incrementAndGet();
+
+                            if (reply.status != GameStatus.ACTIVE)
+                                g.finished = reply.status;
+
+                            g.inFlight = false;
+                        });
+                    }
+
+                    try {
+                        Thread.sleep(1);
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "driver-" + d);
+
+            drivers[d].start();
+        }
+
+        for (Thread driver : drivers)
+            driver.join();
+
+        server.shutdown();
+
+        System.out.printf("moves:     %d in %d s, %.0f moves/s, %d rejected%n",
+                moves.get(), seconds, moves.get() / (double) seconds, rejected.get());
+
+        System.out.printf("latency:   p50 %s   p90 %s   p99 %s   p99.9 %s   max %s%n",
+                micros(latency.percentile(0.5)), micros(latency.percentile(0.9)),
+                micros(latency.percentile(0.99)), micros(latency.percentile(0.999)), micros(latency.max.get()));
+
+        System.out.printf("memory:    %.1f KB per game%n", heapPerGame / 1024.0);
+
+        StringBuilder finished = new StringBuilder();
+
+        for (Map.Entry<GameStatus, AtomicLong> e : endings.entrySet())
+            if (e.getValue().get() > 0)
+                finished.append(' ').append(e.getKey()).append(' ').append(e.getValue().get());
+
+        System.out.println("finished: " + finished);
+    }
+
+    static String micros(long nanos) {
+        return String.format("%.1f us", nanos / 1e3);
+    }
+
+    static long usedHeap() {
+
+        Runtime rt = Runtime.getRuntime();
+
+        System.gc();
+
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
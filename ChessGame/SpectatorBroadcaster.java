@@ -0,0 +1,526 @@
+/*
+===========================
+SPECTATOR BROADCASTER
+===========================
+
+Delivers a game's moves to its spectators off the player's
+thread. notifySpectators() only appends the move to a ring and
+wakes the delivery shards; it never calls a spectator, so a slow
+or stuck spectator cannot hold up the game.
+
+---------------------------
+Per-spectator queues
+---------------------------
+Every spectator sees the same moves in the same order, so the
+moves are stored once, in a ring of the last RING_SIZE moves.
+A spectator's queue is its cursor into that ring: the moves from
+its cursor up to the newest one. Memory per spectator is one
+cursor, whatever the viewer count.
+
+Each queue is bounded by capacity. A spectator that falls
+further behind is handled by the policy:
+
+    DROP_OLDEST - skips the oldest moves, keeps the newest
+                  capacity moves
+    COALESCE    - skips straight to the newest move, for viewers
+                  that only redraw the current position
+
+---------------------------
+Delivery
+---------------------------
+Spectators are split into shards of SHARD_SIZE. A publish
+schedules each shard on the pool at most once (a shard already
+queued or running just picks up the new move on its next pass),
+so publishing costs O(shards), not O(spectators).
+
+A shard walks its spectators and hands each one every move it
+has not seen yet as one batch (Spectator.onMoves), up to
+MAX_BATCH moves.
+
+The pool is a small fixed set of daemon threads shared by every
+game in the JVM, so a spectator that blocks would hold one of
+few threads. SLOW_STRIKES calls in a row that each take longer
+than SLOW_CALL_NANOS (one could just be a GC pause) move the
+spectator to the slow lane: a shard of its own running on a
+separate single thread. Slow spectators then only wait on each
+other, and their policy keeps their queues bounded.
+
+---------------------------
+Stuck spectators
+---------------------------
+Strikes are only counted once a call returns, so a spectator
+that never returns is caught while its call is still running:
+a watchdog thread checks every running pass each
+STUCK_CALL_NANOS / 2. A call running longer than
+STUCK_CALL_NANOS is detached from its pass:
+
+- its spectator moves to the slow lane and is skipped there
+  until the call returns
+- the rest of the pass starts over on another thread, with a
+  fresh batch (the stuck call may still be reading the old one)
+- the pool gets one extra thread while the call is stuck, so
+  stuck calls never use up the delivery threads (pools other
+  than ThreadPoolExecutor are not resized)
+
+Spectators that throw are counted (getFailed) and reported on
+stderr; delivery to the others goes on.
+===========================
+*/
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+class SpectatorBroadcaster implements GameBroadcaster {
+
+    enum SlowConsumerPolicy { DROP_OLDEST, COALESCE }
+
+    static final int RING_SIZE = 1024;
+    static final int SHARD_SIZE = 1024;
+    static final int MAX_BATCH = 64;
+    static final int DEFAULT_CAPACITY = 256;
+    static final long SLOW_CALL_NANOS = 5_000_000;
+    static final int SLOW_STRIKES = 3;
+    static final long STUCK_CALL_NANOS = 50_000_000;
+
+    private static final ExecutorService SHARED_POOL =
+            daemonPool(Math.max(2, Runtime.getRuntime().availableProcessors()), "spectator-delivery");
+
+    private static final ExecutorService SLOW_LANE_POOL = daemonPool(1, "spectator-slow-lane");
+
+    // passes currently running, of every broadcaster; scanned by the watchdog
+    private static final Set<Shard> RUNNING = ConcurrentHashMap.newKeySet();
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread t = new Thread(runnable, "spectator-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        WATCHDOG.scheduleAtFixedRate(SpectatorBroadcaster::detachStuckCalls,
+                STUCK_CALL_NANOS / 2, STUCK_CALL_NANOS / 2, TimeUnit.NANOSECONDS);
+    }
+
+    private static final Object RESIZE_LOCK = new Object();
+
+    private final ExecutorService pool;
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+
+    // moves by sequence number, slot = seq % RING_SIZE
+    private final Move[] ring = new Move[RING_SIZE];
+    private volatile long published;
+
+    private volatile Shard[] shards = new Shard[0];
+    private int registered; // guarded by this
+
+    private final Shard slowLane = new Shard(SLOW_LANE_POOL);
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    SpectatorBroadcaster() {
+        this(SHARED_POOL, DEFAULT_CAPACITY, SlowConsumerPolicy.DROP_OLDEST);
+    }
+
+    SpectatorBroadcaster(ExecutorService pool, int capacity, SlowConsumerPolicy policy) {
+
+        if (capacity < 1 || capacity > RING_SIZE / 2)
+            throw new IllegalArgumentException("capacity must be 1.." + RING_SIZE / 2);
+
+        this.pool = pool;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /*
+    The spectator gets moves published from now on.
+    */
+    public synchronized void registerSpectator(Spectator spectator) {
+
+        Shard[] current = shards;
+
+        if (registered == current.length * SHARD_SIZE) {
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = new Shard(pool);
+            shards = current;
+        }
+
+        current[registered / SHARD_SIZE].add(new Subscription(spectator, published));
+
+        registered++;
+    }
+
+    /*
+    Publishes move to every spectator without waiting for any of
+    them. Called by one thread at a time (the game's).
+    */
+    public void notifySpectators(Move move) {
+
+        long seq = published;
+
+        ring[(int) (seq % RING_SIZE)] = move;
+
+        // volatile write after the slot: a shard that reads published sees the move
+        published = seq + 1;
+
+        for (Shard shard : shards)
+            shard.schedule();
+
+        if (slowLane.subscriptions.length > 0)
+            slowLane.schedule();
+    }
+
+    long getDelivered() {
+        return delivered.sum();
+    }
+
+    // moves a slow spectator never got, dropped or coalesced away
+    long getSkipped() {
+        return skipped.sum();
+    }
+
+    long getPublished() {
+        return published;
+    }
+
+    int getSlowSpectators() {
+        return slowLane.subscriptions.length;
+    }
+
+    // onMoves calls that threw
+    long getFailed() {
+        return failed.sum();
+    }
+
+    /*
+    Moves s from its shard to the slow lane. The old shard's
+    running pass must not touch s afterwards.
+    */
+    private synchronized void demote(Shard from, Subscription s) {
+
+        from.remove(s);
+        slowLane.add(s);
+
+        slowLane.schedule();
+    }
+
+    /*
+    Watchdog tick: detaches every call that has been running
+    longer than STUCK_CALL_NANOS.
+    */
+    private static void detachStuckCalls() {
+
+        long now = System.nanoTime();
+
+        for (Shard shard : RUNNING) {
+
+            try {
+                shard.detachIfStuck(now);
+            }
+            catch (RuntimeException e) {
+                // a failed tick must not cancel the watchdog
+                System.err.println("Spectator watchdog failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /*
+    Adds (delta = 1) or removes (delta = -1) one thread of pool,
+    standing in for a thread held by a stuck call.
+    */
+    private static void resize(ExecutorService pool, int delta) {
+
+        if (!(pool instanceof ThreadPoolExecutor))
+            return;
+
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) pool;
+
+        synchronized (RESIZE_LOCK) {
+
+            // core may never exceed max
+            if (delta > 0) {
+                executor.setMaximumPoolSize(executor.getMaximumPoolSize() + delta);
+                executor.setCorePoolSize(executor.getCorePoolSize() + delta);
+            }
+            else {
+                executor.setCorePoolSize(executor.getCorePoolSize() + delta);
+                executor.setMaximumPoolSize(executor.getMaximumPoolSize() + delta);
+            }
+        }
+    }
+
+    private static ExecutorService daemonPool(int threads, String name) {
+
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread t = new Thread(runnable, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /*
+    One spectator: its queue is the ring from cursor to published.
+    Only the shard's running pass touches cursor.
+    */
+    private static class Subscription {
+
+        final Spectator spectator;
+        long cursor;
+
+        // slow calls in a row
+        int strikes;
+
+        // a detached call is still running; passes skip the spectator
+        volatile boolean stuck;
+
+        Subscription(Spectator spectator, long cursor) {
+            this.spectator = spectator;
+            this.cursor = cursor;
+        }
+    }
+
+    /*
+    A batch of moves copied out of the ring, reused by its shard.
+    Spectators must not keep the list after onMoves returns.
+    */
+    private static class Batch extends AbstractList<Move> {
+
+        final Move[] moves = new Move[MAX_BATCH];
+        int size;
+
+        public Move get(int index) {
+
+            if (index >= size)
+                throw new IndexOutOfBoundsException(index);
+
+            return moves[index];
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    private class Shard implements Runnable {
+
+        private final ExecutorService executor;
+
+        private volatile Subscription[] subscriptions = new Subscription[0];
+
+        // scheduled publishes not yet drained; > 0 while queued or running
+        private final AtomicInteger pending = new AtomicInteger();
+
+        // replaced when a pass is detached, its stuck call may still read the old one
+        private volatile Batch batch = new Batch();
+
+        // odd while a spectator call runs; the pass and the watchdog race to make it even
+        private final AtomicLong call = new AtomicLong();
+        private volatile long callStarted;
+        private volatile Subscription callee;
+
+        Shard(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        // add / remove under the broadcaster's lock
+        void add(Subscription s) {
+
+            Subscription[] grown = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+
+            grown[grown.length - 1] = s;
+
+            subscriptions = grown;
+        }
+
+        void remove(Subscription s) {
+
+            Subscription[] current = subscriptions;
+            Subscription[] shrunk = new Subscription[current.length - 1];
+
+            int j = 0;
+
+            for (Subscription other : current)
+                if (other != s)
+                    shrunk[j++] = other;
+
+            subscriptions = shrunk;
+        }
+
+        void schedule() {
+
+            if (pending.getAndIncrement() == 0)
+                executor.execute(this);
+        }
+
+        public void run() {
+
+            RUNNING.add(this);
+
+            int missed = pending.get();
+
+            while (true) {
+
+                // detached: the pass has moved to another thread, which owns pending now
+                if (!drain())
+                    return;
+
+                // leave before pending can reach 0 and let the next pass start
+                RUNNING.remove(this);
+
+                // publishes that came in while draining need another pass
+                missed = pending.addAndGet(-missed);
+
+                if (missed == 0)
+                    return;
+
+                RUNNING.add(this);
+            }
+        }
+
+        /*
+        Hands every subscription its missing moves.
+        Returns false if the watchdog detached this pass.
+        */
+        private boolean drain() {
+
+            long moves = 0;
+            Batch batch = this.batch;
+
+            for (Subscription s : subscriptions) {
+
+                if (s.stuck)
+                    continue;
+
+                long head = published;
+                boolean demoted = false;
+
+                while (s.cursor < head && !demoted) {
+
+                    long behind = head - s.cursor;
+
+                    if (behind > capacity) {
+
+                        long skip = policy == SlowConsumerPolicy.COALESCE ? behind - 1 : behind - capacity;
+
+                        s.cursor += skip;
+                        skipped.add(skip);
+                    }
+
+                    int n = (int) Math.min(head - s.cursor, MAX_BATCH);
+
+                    for (int i = 0; i < n; i++)
+                        batch.moves[i] = ring[(int) ((s.cursor + i) % RING_SIZE)];
+
+                    batch.size = n;
+
+                    // the publisher may have lapped the ring while we copied; at
+                    // RING_SIZE behind it may be rewriting the slot at cursor
+                    if (published - s.cursor >= RING_SIZE) {
+                        head = published;
+                        continue;
+                    }
+
+                    s.cursor += n;
+
+                    long started = System.nanoTime();
+
+                    callee = s;
+                    callStarted = started;
+
+                    long token = call.incrementAndGet();
+
+                    try {
+                        s.spectator.onMoves(batch);
+                    }
+                    catch (Throwable e) {
+                        // a failing spectator must not stop delivery to the rest; an
+                        // Error escaping here would leave call odd and pending unpaid,
+                        // and the shard would never run again
+                        failed.increment();
+                        System.err.println("Spectator failed: " + e);
+                    }
+
+                    moves += n;
+
+                    if (!call.compareAndSet(token, token + 1)) {
+                        delivered.add(moves);
+                        unstick(s);
+                        return false;
+                    }
+
+                    if (this == slowLane)
+                        continue;
+
+                    if (System.nanoTime() - started <= SLOW_CALL_NANOS)
+                        s.strikes = 0;
+                    else if (++s.strikes == SLOW_STRIKES) {
+                        demote(this, s);
+                        demoted = true;
+                    }
+                }
+            }
+
+            delivered.add(moves);
+
+            Arrays.fill(batch.moves, null);
+
+            return true;
+        }
+
+        /*
+        Watchdog side: if the running call started more than
+        STUCK_CALL_NANOS before now, take the pass away from it and
+        run the rest of the pass on another thread.
+        */
+        void detachIfStuck(long now) {
+
+            long token = call.get();
+
+            if ((token & 1) == 0)
+                return;
+
+            // read after token: a newer call would have changed it
+            Subscription s = callee;
+
+            if (now - callStarted < STUCK_CALL_NANOS || !call.compareAndSet(token, token + 1))
+                return;
+
+            s.stuck = true;
+
+            if (this != slowLane)
+                demote(this, s);
+
+            batch = new Batch();
+
+            resize(executor, 1);
+
+            executor.execute(this);
+        }
+
+        /*
+        The detached call to s has returned on this (old) thread.
+        */
+        private void unstick(Subscription s) {
+
+            resize(executor, -1);
+
+            s.strikes = 0;
+            s.stuck = false;
+
+            slowLane.schedule();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+===========================================================
+JOURNAL RECOVERY BENCHMARK
+===========================================================
+
+Measures the two costs of the ticket journal:
+
+1. Write path - N gates park and exit vehicles through a lot
+   with the journal open. Every park/exit waits for its
+   record to be forced to disk; the ratio of records to
+   force() calls shows how much group commit batches.
+
+2. Restart   - a fresh lot opens the same journal and
+   restores every active ticket (spot occupancy, free pools,
+   entry times). Target: well under a second for 100k
+   tickets.
+
+The lot has 10 floors x 12,000 car spots. The gates park
+120,000 cars and exit every sixth one, leaving 100,000
+active tickets behind.
+
+Usage:
+    java JournalRecoveryBenchmark [gates] [journal dir]
+===========================================================
+*/
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+public class JournalRecoveryBenchmark {
+
+    static final int FLOORS = 10;
+    static final int CAR_SPOTS_PER_FLOOR = 12_000;
+    static final int VEHICLES = 120_000;
+
+    public static void main(String[] args) throws Exception {
+
+        int gates = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+
+        Path dir = args.length > 1
+                ? Paths.get(args[1])
+                : Files.createTempDirectory("journal-bench");
+
+        // write path
+        MultiFloorParkingLot lot = newLot();
+        lot.openJournal(dir);
+
+        AtomicLong next = new AtomicLong();
+        AtomicLong records = new AtomicLong();
+
+        List<Thread> threads = new ArrayList<>();
+
+        long writeStart = System.nanoTime();
+
+        for (int g = 0; g < gates; g++) {
+
+            threads.add(new Thread(() -> {
+
+                long n;
+
+                while ((n = next.incrementAndGet()) <= VEHICLES) {
+
+                    String id = "C" + n;
+
+                    if (lot.park(new Car(id)) == null)
+                        continue;
+
+                    records.incrementAndGet();
+
+                    if (n % 6 == 0) {
+                        lot.exit(id);
+                        records.incrementAndGet();
+                    }
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        double writeSeconds = (System.nanoTime() - writeStart) / 1e9;
+
+        System.out.printf("write:   %d gates, %d records in %.2f s (%.0f records/s)%n",
+                gates, records.get(), writeSeconds, records.get() / writeSeconds);
+
+        System.out.printf("commit:  %d force() calls, %.1f records per force%n",
+                lot.getJournalSyncCount(),
+                records.get() / (double) Math.max(1, lot.getJournalSyncCount()));
+
+        lot.closeJournal();
+
+        System.out.printf("journal: %d bytes on disk%n", size(dir));
+
+        // restart
+        MultiFloorParkingLot restarted = newLot();
+
+        long recoverStart = System.nanoTime();
+
+        int restored = restarted.openJournal(dir);
+
+        long recoverMillis = (System.nanoTime() - recoverStart) / 1_000_000;
+
+        System.out.printf("recover: %d tickets in %d ms, %d car spots free%n",
+                restored, recoverMillis, restarted.getFreeCount("Car"));
+
+        restarted.closeJournal();
+    }
+
+    static MultiFloorParkingLot newLot() {
+
+        MultiFloorParkingLot lot = new MultiFloorParkingLot(FLOORS, CAR_SPOTS_PER_FLOOR, 0);
+
+        lot.setFeeStrategy(new HourlyFee());
+        lot.setPayStrategy(amount -> { });
+        lot.setConsoleLogging(false);
+
+        return lot;
+    }
+
+    static long size(Path dir) throws IOException {
+
+        try (Stream<Path> files = Files.list(dir)) {
+
+            long total = 0;
+
+            for (Path p : (Iterable<Path>) files::iterator)
+                total += Files.size(p);
+
+            return total;
+        }
+    }
+}
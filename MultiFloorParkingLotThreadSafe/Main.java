@@ -17,6 +17,11 @@ Functional Requirements
    - The user should pay using a payment method.
    - The parking spot should become available again.
 6. The system should support multiple vehicles trying to park concurrently.
+7. Spots can be reserved ahead of time:
+   - Reserve N spots of a type on a floor for a time window.
+   - Walk-in parking must not take spots held for an active reservation.
+8. Active tickets must survive a restart so parked vehicles can
+   still be billed from their original entry time.
 
 ---------------------------
 Non Functional Requirements
@@ -47,11 +52,15 @@ Stores vehicle, spot, floor number and entry time.
 ParkingFloor
 Represents one floor in the parking lot.
 Contains multiple parking spots.
+Keeps a free-spot pool and a free counter per vehicle type,
+so allocation never scans spots and full floors are skipped.
 
 MultiFloorParkingLot
 Main system managing all floors.
 Responsible for parking vehicles, exiting vehicles,
 tracking active tickets, calculating fees and processing payment.
+Holds no lot-wide lock: entry and exit gates only meet on the
+per-floor free counters and the ticket map.
 
 ParkingFeeStrategy
 Strategy pattern used to calculate parking fees.
@@ -59,13 +68,41 @@ Strategy pattern used to calculate parking fees.
 PaymentStrategy
 Strategy pattern used to support multiple payment methods.
 
+SpotSelectionStrategy
+Strategy pattern deciding which free spot of a floor is handed
+out next (first free, nearest to gate, nearest to elevator).
+
+Reservation / ReservationTimeline
+Pre-booked capacity per floor and vehicle type, kept in a
+time-slotted segment tree so capacity checks are O(log n).
+
+TicketJournal
+Append-only memory-mapped log of park/exit events with group
+commit. Replayed at startup to restore tickets and occupancy.
+
+ParkingMetrics
+Lock-free counters, latency histograms and revenue, read
+together with per-floor occupancy as a MetricsSnapshot.
+
 ===========================================================
 */
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongSupplier;
 
 
 // ---------------------------------------------------------
@@ -88,6 +125,20 @@ abstract class Vehicle {
 
     public String getId() { return id; }
     public String getType() { return type; }
+
+    /*
+    Creates a vehicle from its stored type, e.g. when tickets
+    are restored from the journal.
+    */
+    static Vehicle of(String id, String type) {
+
+        switch (type) {
+            case "Car": return new Car(id);
+            case "Bike": return new Bike(id);
+            default:
+                throw new IllegalArgumentException("Unknown vehicle type " + type);
+        }
+    }
 }
 
 /*
@@ -122,23 +173,35 @@ Responsibilities:
 2. Store spot type (Car or Bike).
 3. Track whether the spot is occupied.
 4. Ensure thread-safe allocation using locks.
+5. Store walking/driving distance to the floor's entry
+   gate and elevator, used by spot selection strategies.
 */
 class Spot {
 
     private final int id;
     private final String type;
+    private final int distanceToGate;
+    private final int distanceToElevator;
     private boolean isOccupied;
 
     private final ReentrantLock lock = new ReentrantLock();
 
     Spot(int id, String type) {
+        this(id, type, 0, 0);
+    }
+
+    Spot(int id, String type, int distanceToGate, int distanceToElevator) {
         this.id = id;
         this.type = type;
+        this.distanceToGate = distanceToGate;
+        this.distanceToElevator = distanceToElevator;
         this.isOccupied = false;
     }
 
     public int getId() { return id; }
     public String getType() { return type; }
+    public int getDistanceToGate() { return distanceToGate; }
+    public int getDistanceToElevator() { return distanceToElevator; }
 
     /*
     Thread-safe method to occupy the spot.
@@ -159,6 +222,17 @@ class Spot {
         }
     }
 
+    public boolean isOccupied() {
+
+        lock.lock();
+        try {
+            return isOccupied;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
     /*
     Frees the parking spot when the vehicle exits.
     */
@@ -197,10 +271,14 @@ class Ticket {
     private final LocalDateTime entryTime;
 
     Ticket(Vehicle vehicle, Spot spot, int floorNumber) {
+        this(vehicle, spot, floorNumber, LocalDateTime.now());
+    }
+
+    Ticket(Vehicle vehicle, Spot spot, int floorNumber, LocalDateTime entryTime) {
         this.vehicle = vehicle;
         this.spot = spot;
         this.floorNumber = floorNumber;
-        this.entryTime = LocalDateTime.now();
+        this.entryTime = entryTime;
     }
 
     public Vehicle getVehicle() { return vehicle; }
@@ -260,9 +338,16 @@ PaymentStrategy defines a payment interface.
 
 Different payment types like UPI, Card or Cash can
 implement this interface.
+
+Strategies do not print; the lot logs the payment with
+getName() when its console logging is on.
 */
 interface PaymentStrategy {
     void pay(double amount);
+
+    default String getName() {
+        return getClass().getSimpleName();
+    }
 }
 
 
@@ -272,239 +357,1557 @@ UPI payment implementation.
 class UpiPay implements PaymentStrategy {
 
     public void pay(double amount) {
-        System.out.println("Paid ₹" + amount + " via UPI");
+        // hand the amount to the UPI gateway
+    }
+
+    public String getName() {
+        return "UPI";
     }
 }
 
 
 // ---------------------------------------------------------
-// Parking Floor
+// Strategy Pattern for Spot Selection
 // ---------------------------------------------------------
 
 /*
-ParkingFloor represents a single floor of the parking lot.
+FreeSpotPool holds the free spots of one vehicle type on one
+floor. poll() hands out the next spot according to the pool's
+order, offer() returns a spot when a vehicle exits.
 
-Responsibilities:
-1. Maintain list of parking spots.
-2. Provide a free spot for a given vehicle type.
+Both operations must be safe to call from many gates at once.
 */
-class ParkingFloor {
+interface FreeSpotPool {
 
-    private final int floorNumber;
-    private final List<Spot> spots;
+    Spot poll();
 
-    ParkingFloor(int floorNumber, int carSpots, int bikeSpots) {
+    void offer(Spot s);
+}
 
-        this.floorNumber = floorNumber;
-        this.spots = new ArrayList<>();
 
-        int id = 1;
+/*
+SpotSelectionStrategy decides in which order a floor hands out
+its free spots by creating the floor's pools.
+*/
+interface SpotSelectionStrategy {
+
+    FreeSpotPool createPool();
+}
+
+
+/*
+Hands out spots in the order they were freed.
+Lock-free queue, O(1) per park and exit.
+*/
+class FirstFreeSpotSelection implements SpotSelectionStrategy {
+
+    public FreeSpotPool createPool() {
 
-        for (int i = 0; i < carSpots; i++)
-            spots.add(new Spot(id++, "Car"));
+        ConcurrentLinkedQueue<Spot> queue = new ConcurrentLinkedQueue<>();
 
-        for (int i = 0; i < bikeSpots; i++)
-            spots.add(new Spot(id++, "Bike"));
+        return new FreeSpotPool() {
+            public Spot poll() { return queue.poll(); }
+            public void offer(Spot s) { queue.offer(s); }
+        };
     }
+}
 
-    public int getFloorNumber() { return floorNumber; }
 
-    /*
-    Find a free spot for the given vehicle type.
-    */
-    public Spot getFreeSpot(String type) {
+/*
+Hands out the free spot with the smallest distance first.
+Backed by a lock-free skip list ordered by (distance, spot id),
+so park and exit are O(log n) and never block other gates.
+*/
+class NearestSpotSelection implements SpotSelectionStrategy {
 
-        for (Spot s : spots) {
+    private final Comparator<Spot> order;
 
-            if (s.getType().equals(type) && s.tryOccupy())
-                return s;
-        }
+    NearestSpotSelection(Comparator<Spot> distance) {
+        this.order = distance.thenComparingInt(Spot::getId);
+    }
 
-        return null;
+    public FreeSpotPool createPool() {
+
+        ConcurrentSkipListSet<Spot> set = new ConcurrentSkipListSet<>(order);
+
+        return new FreeSpotPool() {
+            public Spot poll() { return set.pollFirst(); }
+            public void offer(Spot s) { set.add(s); }
+        };
+    }
+
+    static NearestSpotSelection toGate() {
+        return new NearestSpotSelection(
+                Comparator.comparingInt(Spot::getDistanceToGate));
+    }
+
+    static NearestSpotSelection toElevator() {
+        return new NearestSpotSelection(
+                Comparator.comparingInt(Spot::getDistanceToElevator));
     }
 }
 
 
 // ---------------------------------------------------------
-// Multi Floor Parking Lot (Main System)
+// Reservations
 // ---------------------------------------------------------
 
 /*
-This class represents the entire parking lot.
+Reservation holds capacity for count spots of one vehicle
+type on one floor between from and to (epoch millis).
 
-Responsibilities:
-1. Manage multiple parking floors.
-2. Allocate spots when vehicles enter.
-3. Maintain active parking tickets.
-4. Handle vehicle exit.
-5. Calculate parking fee.
-6. Process payment.
+Holders arrive with parkWithReservation; every arrival claims
+one of the held spots. claimed and cancelled are only changed
+under the floor's ReservationTimeline write lock.
 */
-class MultiFloorParkingLot {
+class Reservation {
 
-    private final List<ParkingFloor> floors = new ArrayList<>();
+    private final String id;
+    private final int floorNumber;
+    private final String type;
+    private final int count;
+    private final long from;
+    private final long to;
 
-    // active tickets stored using vehicle id
-    private final Map<String, Ticket> activeTickets =
-            new ConcurrentHashMap<>();
+    int claimed;
+    boolean cancelled;
 
-    // coarse-grain lock for parking operations
-    private final ReentrantLock lotLock = new ReentrantLock();
+    Reservation(String id, int floorNumber, String type,
+                int count, long from, long to) {
+        this.id = id;
+        this.floorNumber = floorNumber;
+        this.type = type;
+        this.count = count;
+        this.from = from;
+        this.to = to;
+    }
 
-    private ParkingFeeStrategy feeStrategy;
-    private PaymentStrategy payStrategy;
+    public String getId() { return id; }
+    public int getFloorNumber() { return floorNumber; }
+    public String getType() { return type; }
+    public int getCount() { return count; }
+    public long getFrom() { return from; }
+    public long getTo() { return to; }
+}
 
-    MultiFloorParkingLot(int numFloors,
-                         int carSpotsPerFloor,
-                         int bikeSpotsPerFloor) {
 
-        for (int i = 1; i <= numFloors; i++)
-            floors.add(new ParkingFloor(i,
-                    carSpotsPerFloor,
-                    bikeSpotsPerFloor));
+/*
+ReservationTimeline tracks how many spots of one type on one
+floor are held by reservations, per time slot.
+
+Structure:
+- Time is cut into slots of SLOT_MILLIS (15 minutes).
+- SLOTS consecutive slots (~10 days ahead) live in a ring,
+  backed by a segment tree with lazy propagation.
+- A reservation adds its count to every slot it overlaps
+  (range add), "how many are held between T1 and T2" is a
+  range max. Both are O(log n).
+- Slots that fall into the past are zeroed as time moves on,
+  so the ring can be reused for future slots.
+
+Concurrency:
+- Reservations, claims and cancellations take the write lock.
+- Walk-in parking reads the current slot under an optimistic
+  StampedLock read and never blocks (see ParkingFloor).
+*/
+class ReservationTimeline {
+
+    static final long SLOT_MILLIS = 15 * 60 * 1000L;
+    static final int SLOTS = 1024;
+
+    final StampedLock lock = new StampedLock();
+
+    private final long[] max = new long[2 * SLOTS];
+    private final long[] lazy = new long[2 * SLOTS];
+
+    // every slot before this one has been zeroed
+    private long clearedUpTo;
+
+    ReservationTimeline(long nowMillis) {
+        this.clearedUpTo = slotOf(nowMillis);
     }
 
-    public void setFeeStrategy(ParkingFeeStrategy strategy) {
-        this.feeStrategy = strategy;
+    static long slotOf(long millis) {
+        return Math.floorDiv(millis, SLOT_MILLIS);
     }
 
-    public void setPayStrategy(PaymentStrategy strategy) {
-        this.payStrategy = strategy;
+    static long endSlotOf(long millis) {
+        return Math.floorDiv(millis + SLOT_MILLIS - 1, SLOT_MILLIS);
     }
 
     /*
-    Handles vehicle parking.
-    Finds the first available spot across floors.
+    True if slots before nowSlot still hold old values.
     */
-    public Ticket park(Vehicle v) {
-
-        lotLock.lock();
+    boolean isStale(long nowSlot) {
+        return nowSlot > clearedUpTo;
+    }
 
-        try {
+    /*
+    Zeroes every slot before nowSlot. Caller holds the write lock.
+    Runs once per slot boundary, so its cost is amortized away.
+    */
+    void advanceTo(long nowSlot) {
 
-            for (ParkingFloor f : floors) {
+        long end = Math.min(nowSlot, clearedUpTo + SLOTS);
 
-                Spot s = f.getFreeSpot(v.getType());
+        for (long slot = clearedUpTo; slot < end; slot++) {
 
-                if (s != null) {
+            long held = max(slot, slot + 1);
 
-                    Ticket t = new Ticket(v, s, f.getFloorNumber());
+            if (held != 0)
+                add(slot, slot + 1, -held);
+        }
 
-                    activeTickets.put(v.getId(), t);
+        clearedUpTo = Math.max(clearedUpTo, nowSlot);
+    }
 
-                    System.out.println(v.getType() + " "
-                            + v.getId()
-                            + " parked at Floor "
-                            + f.getFloorNumber()
-                            + ", Spot "
-                            + s.getId());
+    /*
+    Adds delta to slots [fromSlot, toSlot). The range must be
+    within SLOTS slots of the current time.
+    */
+    void add(long fromSlot, long toSlot, long delta) {
 
-                    return t;
-                }
-            }
+        if (fromSlot >= toSlot)
+            return;
 
-            System.out.println("No available spot for "
-                    + v.getType());
+        int from = ring(fromSlot);
+        int to = ring(toSlot - 1);
 
-            return null;
+        if (from <= to) {
+            update(1, 0, SLOTS - 1, from, to, delta);
         }
-
-        finally {
-            lotLock.unlock();
+        else {
+            update(1, 0, SLOTS - 1, from, SLOTS - 1, delta);
+            update(1, 0, SLOTS - 1, 0, to, delta);
         }
     }
 
     /*
-    Handles vehicle exit.
-
-    Steps:
-    1. Fetch ticket
-    2. Calculate fee
-    3. Process payment
-    4. Free parking spot
+    Largest number of held spots in any slot of [fromSlot, toSlot).
     */
-    public void exit(String vehicleId) {
+    long max(long fromSlot, long toSlot) {
 
-        Ticket t = activeTickets.remove(vehicleId);
+        if (fromSlot >= toSlot)
+            return 0;
 
-        if (t == null) {
+        int from = ring(fromSlot);
+        int to = ring(toSlot - 1);
 
-            System.out.println("Vehicle "
-                    + vehicleId
-                    + " not found.");
+        if (from <= to)
+            return query(1, 0, SLOTS - 1, from, to);
+
+        return Math.max(query(1, 0, SLOTS - 1, from, SLOTS - 1),
+                query(1, 0, SLOTS - 1, 0, to));
+    }
+
+    private static int ring(long slot) {
+        return (int) Math.floorMod(slot, (long) SLOTS);
+    }
+
+    private void update(int node, int lo, int hi, int from, int to, long delta) {
+
+        if (to < lo || hi < from)
+            return;
 
+        if (from <= lo && hi <= to) {
+            max[node] += delta;
+            lazy[node] += delta;
             return;
         }
 
-        LocalDateTime exitTime = LocalDateTime.now();
+        int mid = (lo + hi) >>> 1;
 
-        double fee =
-                feeStrategy.calcFee(
-                        t.getVehicle().getType(),
-                        t.getEntryTime(),
-                        exitTime);
+        update(2 * node, lo, mid, from, to, delta);
+        update(2 * node + 1, mid + 1, hi, from, to, delta);
 
-        System.out.println("Parking fee for vehicle "
-                + vehicleId
-                + ": ₹"
-                + fee);
+        max[node] = lazy[node] + Math.max(max[2 * node], max[2 * node + 1]);
+    }
 
-        payStrategy.pay(fee);
+    private long query(int node, int lo, int hi, int from, int to) {
 
-        // free spot
-        t.getSpot().free();
+        if (to < lo || hi < from)
+            return Long.MIN_VALUE;
+
+        if (from <= lo && hi <= to)
+            return max[node];
 
-        System.out.println("Spot "
-                + t.getSpot().getId()
-                + " on Floor "
-                + t.getFloorNumber()
-                + " is now free.");
+        int mid = (lo + hi) >>> 1;
+
+        return lazy[node] + Math.max(
+                query(2 * node, lo, mid, from, to),
+                query(2 * node + 1, mid + 1, hi, from, to));
     }
 }
 
 
 // ---------------------------------------------------------
-// Main Driver
+// Parking Floor
 // ---------------------------------------------------------
 
 /*
-Main class simulates concurrent parking using threads.
+ParkingFloor represents a single floor of the parking lot.
+
+Responsibilities:
+1. Maintain list of parking spots.
+2. Provide a free spot for a given vehicle type.
+3. Take spots back when vehicles exit.
+
+Allocation is O(1) for first-free selection and O(log n) for
+nearest-spot selection:
+- Every vehicle type has its own pool of free spots, created by
+  the lot's SpotSelectionStrategy.
+- Every vehicle type has a free counter. A caller first reserves
+  one unit of the counter (CAS, never below zero) and only then
+  polls the queue. Spots are offered back before the counter is
+  incremented, so a successful reservation always finds a spot.
+- A full floor answers with a single counter read and none of its
+  spots are touched.
+
+Layout: spots are laid out in one row in id order, with the entry
+gate before spot 1 and the elevator in the middle of the row.
+
+Reservations: each vehicle type has a ReservationTimeline.
+- Walk-ins may only take a spot while more spots are free than
+  are held for reservations in the current slot. The free
+  counter CAS runs inside an optimistic read of the timeline and
+  is undone if a reservation changed it meanwhile, so walk-ins
+  and reservations never overbook each other and walk-ins
+  never block.
+- A reservation is accepted if the peak of held spots over its
+  window plus its count fits the floor's capacity, and, if the
+  window has already started, the spots are free right now.
+- Held capacity is only guaranteed once a window has started:
+  cars that walked in earlier are not moved out when it begins.
+  A holder arriving while they still fill the floor gets no spot
+  and keeps its claim; the held spot goes to it once one frees up.
+
+Time comes from a clock (System.currentTimeMillis by default),
+so tests can move a reservation window forward.
 */
-public class Main {
+class ParkingFloor {
 
-    public static void main(String[] args) {
+    private final int floorNumber;
+    private final List<Spot> spots;
 
-        MultiFloorParkingLot lot =
-                new MultiFloorParkingLot(2, 2, 2);
+    private final Map<String, FreeSpotPool> freeSpots =
+            new HashMap<>();
 
-        lot.setFeeStrategy(new HourlyFee());
-        lot.setPayStrategy(new UpiPay());
+    private final Map<String, AtomicInteger> freeCounts =
+            new HashMap<>();
 
-        Runnable carTask = () -> {
+    private final Map<String, Integer> capacities =
+            new HashMap<>();
 
-            Vehicle car =
-                    new Car(UUID.randomUUID().toString());
+    private final Map<String, ReservationTimeline> timelines =
+            new HashMap<>();
 
-            Ticket t = lot.park(car);
+    private final LongSupplier clock;
 
-            if (t != null) {
+    ParkingFloor(int floorNumber, int carSpots, int bikeSpots) {
+        this(floorNumber, carSpots, bikeSpots, new FirstFreeSpotSelection());
+    }
 
-                try {
-                    Thread.sleep(500);
-                }
-                catch (InterruptedException ignored) {}
+    ParkingFloor(int floorNumber, int carSpots, int bikeSpots,
+                 SpotSelectionStrategy selection) {
+        this(floorNumber, carSpots, bikeSpots, selection, System::currentTimeMillis);
+    }
 
-                lot.exit(car.getId());
-            }
-        };
+    ParkingFloor(int floorNumber, int carSpots, int bikeSpots,
+                 SpotSelectionStrategy selection, LongSupplier clock) {
 
-        // simulate concurrent parking
-        Thread t1 = new Thread(carTask);
-        Thread t2 = new Thread(carTask);
-        Thread t3 = new Thread(carTask);
+        this.floorNumber = floorNumber;
+        this.spots = new ArrayList<>();
+        this.clock = clock;
 
-        t1.start();
-        t2.start();
-        t3.start();
+        int total = carSpots + bikeSpots;
+        int elevator = total / 2;
+        int id = 1;
+
+        for (int i = 0; i < carSpots; i++, id++)
+            spots.add(new Spot(id, "Car", id, Math.abs(id - elevator)));
+
+        for (int i = 0; i < bikeSpots; i++, id++)
+            spots.add(new Spot(id, "Bike", id, Math.abs(id - elevator)));
+
+        // pools are built once here and only read afterwards
+        for (Spot s : spots) {
+
+            freeSpots.computeIfAbsent(s.getType(),
+                    t -> selection.createPool()).offer(s);
+
+            freeCounts.computeIfAbsent(s.getType(),
+                    t -> new AtomicInteger()).incrementAndGet();
+
+            capacities.merge(s.getType(), 1, Integer::sum);
+
+            timelines.computeIfAbsent(s.getType(),
+                    t -> new ReservationTimeline(clock.getAsLong()));
+        }
+    }
+
+    /*
+    Total number of spots for the given vehicle type.
+    */
+    public int getCapacity(String type) {
+
+        return capacities.getOrDefault(type, 0);
+    }
+
+    public Set<String> getSpotTypes() {
+        return capacities.keySet();
+    }
+
+    public int getFloorNumber() { return floorNumber; }
+
+    /*
+    Number of free spots for the given vehicle type.
+    */
+    public int getFreeCount(String type) {
+
+        AtomicInteger count = freeCounts.get(type);
+
+        return count == null ? 0 : count.get();
+    }
+
+    /*
+    Find a free spot for the given vehicle type (walk-in).
+    Returns null if the floor has no free spot of that type
+    that is not held for an active reservation.
+    */
+    public Spot getFreeSpot(String type) {
+
+        AtomicInteger count = freeCounts.get(type);
+
+        if (count == null || !tryReserveWalkIn(type, count))
+            return null;
+
+        return takeSpot(type);
+    }
+
+    /*
+    Accepts the reservation if the floor has room for it.
+    Returns false if the capacity is not available.
+    */
+    public boolean reserve(Reservation r) {
+
+        ReservationTimeline timeline = timelineFor(r.getType());
+
+        long stamp = timeline.lock.writeLock();
+
+        try {
+
+            long nowSlot = currentSlot(timeline);
+
+            if (!fits(timeline, r.getType(), r.getCount(), r.getFrom(), r.getTo(), nowSlot))
+                return false;
+
+            timeline.add(Math.max(ReservationTimeline.slotOf(r.getFrom()), nowSlot),
+                    ReservationTimeline.endSlotOf(r.getTo()), r.getCount());
+
+            return true;
+        }
+        finally {
+            timeline.lock.unlockWrite(stamp);
+        }
+    }
+
+    /*
+    Answers "can I reserve count spots from T1 to T2" without
+    reserving. O(log n) in the number of time slots.
+    */
+    public boolean canReserve(String type, int count, long from, long to) {
+
+        ReservationTimeline timeline = timelineFor(type);
+
+        long stamp = timeline.lock.writeLock();
+
+        try {
+            return fits(timeline, type, count, from, to, currentSlot(timeline));
+        }
+        finally {
+            timeline.lock.unlockWrite(stamp);
+        }
+    }
+
+    /*
+    Hands a spot to an arriving reservation holder.
+    Returns null if the reservation is not active or fully used,
+    or if no spot is free because walk-ins filled the floor
+    before the window opened. The reservation is then left as
+    it was, still holding its spots.
+    */
+    public Spot claimReservedSpot(Reservation r) {
+
+        ReservationTimeline timeline = timelineFor(r.getType());
+
+        long stamp = timeline.lock.writeLock();
+
+        try {
+
+            long now = clock.getAsLong();
+            long nowSlot = currentSlot(timeline);
+
+            if (r.cancelled || r.claimed >= r.getCount()
+                    || now < r.getFrom() || now >= r.getTo())
+                return null;
+
+            // walk-ins leave the held spots free once a window has started,
+            // but may have filled the floor before it did
+            if (!tryReserve(freeCounts.get(r.getType())))
+                return null;
+
+            // the car now occupies a real spot; stop holding one for it
+            timeline.add(nowSlot, ReservationTimeline.endSlotOf(r.getTo()), -1);
+            r.claimed++;
+
+            return takeSpot(r.getType());
+        }
+        finally {
+            timeline.lock.unlockWrite(stamp);
+        }
+    }
+
+    /*
+    Releases the capacity still held by a reservation.
+    */
+    public void cancelReservation(Reservation r) {
+
+        ReservationTimeline timeline = timelineFor(r.getType());
+
+        long stamp = timeline.lock.writeLock();
+
+        try {
+
+            if (r.cancelled)
+                return;
+
+            long nowSlot = currentSlot(timeline);
+            long endSlot = ReservationTimeline.endSlotOf(r.getTo());
+
+            if (endSlot > nowSlot)
+                timeline.add(Math.max(ReservationTimeline.slotOf(r.getFrom()), nowSlot),
+                        endSlot, -(r.getCount() - r.claimed));
+
+            r.cancelled = true;
+        }
+        finally {
+            timeline.lock.unlockWrite(stamp);
+        }
+    }
+
+    /*
+    Frees the spot and makes it available for the next vehicle.
+    */
+    public void releaseSpot(Spot s) {
+
+        s.free();
+
+        freeSpots.get(s.getType()).offer(s);
+
+        freeCounts.get(s.getType()).incrementAndGet();
+    }
+
+    /*
+    Marks a spot taken by a ticket restored from the journal.
+    Returns null if the floor has no such spot of that type or
+    it is already taken. Only called during recovery, before
+    any gate is open; rebuildFreePools() must follow.
+    */
+    Spot restoreOccupied(int spotId, String type) {
+
+        if (spotId < 1 || spotId > spots.size())
+            return null;
+
+        Spot s = spots.get(spotId - 1);
+
+        if (!s.getType().equals(type) || !s.tryOccupy())
+            return null;
+
+        return s;
+    }
+
+    /*
+    Refills the free pools and counters from the spots'
+    occupied flags after recovery.
+    */
+    void rebuildFreePools() {
+
+        for (String type : freeSpots.keySet()) {
+
+            FreeSpotPool pool = freeSpots.get(type);
+
+            while (pool.poll() != null) { }
+
+            int free = 0;
+
+            for (Spot s : spots) {
+
+                if (s.getType().equals(type) && !s.isOccupied()) {
+                    pool.offer(s);
+                    free++;
+                }
+            }
+
+            freeCounts.get(type).set(free);
+        }
+    }
+
+    private Spot takeSpot(String type) {
+
+        Spot s = freeSpots.get(type).poll();
+
+        s.tryOccupy();
+
+        return s;
+    }
+
+    private ReservationTimeline timelineFor(String type) {
+
+        ReservationTimeline timeline = timelines.get(type);
+
+        if (timeline == null)
+            throw new IllegalArgumentException("Floor " + floorNumber
+                    + " has no " + type + " spots");
+
+        return timeline;
+    }
+
+    /*
+    Current slot, zeroing past slots first. Caller holds the write lock.
+    */
+    private long currentSlot(ReservationTimeline timeline) {
+
+        long nowSlot = ReservationTimeline.slotOf(clock.getAsLong());
+
+        timeline.advanceTo(nowSlot);
+
+        return nowSlot;
+    }
+
+    private boolean fits(ReservationTimeline timeline, String type,
+                         int count, long from, long to, long nowSlot) {
+
+        long fromSlot = Math.max(ReservationTimeline.slotOf(from), nowSlot);
+        long toSlot = ReservationTimeline.endSlotOf(to);
+
+        if (count <= 0 || to <= from || toSlot <= nowSlot)
+            throw new IllegalArgumentException("Invalid reservation window or count");
+
+        if (toSlot - nowSlot > ReservationTimeline.SLOTS)
+            throw new IllegalArgumentException("Reservation ends beyond the booking horizon");
+
+        if (timeline.max(fromSlot, toSlot) + count > getCapacity(type))
+            return false;
+
+        // a window that is already running needs the spots free now
+        if (fromSlot == nowSlot)
+            return timeline.max(nowSlot, nowSlot + 1) + count <= getFreeCount(type);
+
+        return true;
+    }
+
+    /*
+    Walk-in reservation of one unit of the free counter.
+    Succeeds only while free > spots held for the current slot.
+    */
+    private boolean tryReserveWalkIn(String type, AtomicInteger count) {
+
+        ReservationTimeline timeline = timelines.get(type);
+
+        while (true) {
+
+            long nowSlot = ReservationTimeline.slotOf(clock.getAsLong());
+            long stamp = timeline.lock.tryOptimisticRead();
+
+            if (stamp == 0 || timeline.isStale(nowSlot)) {
+                refresh(timeline);
+                continue;
+            }
+
+            long held = timeline.max(nowSlot, nowSlot + 1);
+
+            if (!timeline.lock.validate(stamp))
+                continue;
+
+            int free = count.get();
+
+            if (free <= held)
+                return false;
+
+            if (!count.compareAndSet(free, free - 1))
+                continue;
+
+            if (timeline.lock.validate(stamp))
+                return true;
+
+            // a reservation changed the timeline meanwhile; undo and re-check
+            count.incrementAndGet();
+        }
+    }
+
+    private void refresh(ReservationTimeline timeline) {
+
+        long stamp = timeline.lock.writeLock();
+
+        try {
+            currentSlot(timeline);
+        }
+        finally {
+            timeline.lock.unlockWrite(stamp);
+        }
+    }
+
+    private static boolean tryReserve(AtomicInteger count) {
+
+        while (true) {
+
+            int free = count.get();
+
+            if (free <= 0)
+                return false;
+
+            if (count.compareAndSet(free, free - 1))
+                return true;
+        }
+    }
+}
+
+
+// ---------------------------------------------------------
+// Metrics
+// ---------------------------------------------------------
+
+/*
+LatencyHistogram records durations into power-of-two buckets
+(bucket i holds durations below 2^i nanoseconds).
+
+Each bucket is a LongAdder, so gates recording at the same
+time update different cells instead of contending on one
+counter. Percentiles are estimated as the upper bound of the
+bucket they fall into (at most 2x off, enough for dashboards).
+*/
+class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    LatencyHistogram() {
+
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    public void record(long nanos) {
+
+        int bucket = nanos <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(nanos);
+
+        buckets[Math.min(bucket, BUCKETS - 1)].increment();
+    }
+
+    /*
+    Copies the bucket counts; the copy is what percentiles run on.
+    */
+    public long[] snapshot() {
+
+        long[] counts = new long[BUCKETS];
+
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = buckets[i].sum();
+
+        return counts;
+    }
+
+    static long percentile(long[] counts, double p) {
+
+        long total = 0;
+
+        for (long c : counts)
+            total += c;
+
+        if (total == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+
+            seen += counts[i];
+
+            if (seen >= rank)
+                return 1L << i;
+        }
+
+        return Long.MAX_VALUE;
+    }
+}
+
+
+/*
+ParkingMetrics is the instrumentation surface of the lot.
+
+Everything is written with striped adders (LongAdder,
+DoubleAdder) so recording never takes a lock and gates do not
+contend on a shared counter. Reading is equally lock-free, so a
+snapshot can be taken at any time without pausing the lot; its
+values are each exact but not taken at one single instant.
+*/
+class ParkingMetrics {
+
+    final LongAdder parked = new LongAdder();
+    final LongAdder exited = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    final DoubleAdder revenue = new DoubleAdder();
+
+    final LatencyHistogram parkLatency = new LatencyHistogram();
+    final LatencyHistogram exitLatency = new LatencyHistogram();
+}
+
+
+/*
+MetricsSnapshot is a point-in-time copy of the lot's metrics.
+
+occupancy.get(type)[floorNumber - 1] is the number of occupied
+spots of that type on that floor.
+*/
+class MetricsSnapshot {
+
+    final long parked;
+    final long exited;
+    final long rejected;
+    final double revenue;
+    final long[] parkLatency;
+    final long[] exitLatency;
+    final Map<String, int[]> occupancy;
+    final Map<String, Integer> capacity;
+
+    MetricsSnapshot(ParkingMetrics m, List<ParkingFloor> floors) {
+
+        parked = m.parked.sum();
+        exited = m.exited.sum();
+        rejected = m.rejected.sum();
+        revenue = m.revenue.sum();
+        parkLatency = m.parkLatency.snapshot();
+        exitLatency = m.exitLatency.snapshot();
+
+        occupancy = new TreeMap<>();
+        capacity = new TreeMap<>();
+
+        for (ParkingFloor f : floors) {
+
+            for (String type : f.getSpotTypes()) {
+
+                int cap = f.getCapacity(type);
+
+                occupancy.computeIfAbsent(type, k -> new int[floors.size()])
+                        [f.getFloorNumber() - 1] = cap - f.getFreeCount(type);
+
+                capacity.merge(type, cap, Integer::sum);
+            }
+        }
+    }
+
+    public long parkLatencyNanos(double percentile) {
+        return LatencyHistogram.percentile(parkLatency, percentile);
+    }
+
+    public long exitLatencyNanos(double percentile) {
+        return LatencyHistogram.percentile(exitLatency, percentile);
+    }
+
+    public String toString() {
+
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("parked=").append(parked)
+                .append(" exited=").append(exited)
+                .append(" rejected=").append(rejected)
+                .append(" revenue=").append(revenue)
+                .append(" parkP99<=").append(parkLatencyNanos(0.99) / 1000).append("us")
+                .append(" exitP99<=").append(exitLatencyNanos(0.99) / 1000).append("us");
+
+        for (Map.Entry<String, int[]> e : occupancy.entrySet()) {
+
+            int used = 0;
+
+            for (int floorUsed : e.getValue())
+                used += floorUsed;
+
+            sb.append("\n  ").append(e.getKey())
+                    .append(" occupied ").append(used)
+                    .append("/").append(capacity.get(e.getKey()))
+                    .append(" per floor ").append(Arrays.toString(e.getValue()));
+        }
+
+        return sb.toString();
+    }
+}
+
+
+// ---------------------------------------------------------
+// Multi Floor Parking Lot (Main System)
+// ---------------------------------------------------------
+
+/*
+This class represents the entire parking lot.
+
+Responsibilities:
+1. Manage multiple parking floors.
+2. Allocate spots when vehicles enter.
+3. Maintain active parking tickets.
+4. Handle vehicle exit.
+5. Calculate parking fee.
+6. Process payment.
+*/
+class MultiFloorParkingLot {
+
+    private final List<ParkingFloor> floors = new ArrayList<>();
+
+    // active tickets stored using vehicle id
+    private final Map<String, Ticket> activeTickets =
+            new ConcurrentHashMap<>();
+
+    private ParkingFeeStrategy feeStrategy;
+    private PaymentStrategy payStrategy;
+
+    private final ParkingMetrics metrics = new ParkingMetrics();
+
+    // reservations by id
+    private final Map<String, Reservation> reservations =
+            new ConcurrentHashMap<>();
+
+    private final AtomicLong nextReservationId = new AtomicLong();
+
+    // per-event console output; turn off for real traffic
+    private volatile boolean consoleLogging = true;
+
+    // null until openJournal(); tickets then survive restarts
+    private volatile TicketJournal journal;
+
+    // orders the PARK and EXIT records of one vehicle; striped by vehicle id
+    private static final int JOURNAL_STRIPES = 64;
+
+    private final ReentrantLock[] journalLocks = new ReentrantLock[JOURNAL_STRIPES];
+
+    MultiFloorParkingLot(int numFloors,
+                         int carSpotsPerFloor,
+                         int bikeSpotsPerFloor) {
+
+        this(numFloors, carSpotsPerFloor, bikeSpotsPerFloor,
+                new FirstFreeSpotSelection());
+    }
+
+    MultiFloorParkingLot(int numFloors,
+                         int carSpotsPerFloor,
+                         int bikeSpotsPerFloor,
+                         SpotSelectionStrategy selection) {
+
+        this(numFloors, carSpotsPerFloor, bikeSpotsPerFloor,
+                selection, System::currentTimeMillis);
+    }
+
+    /*
+    clock (epoch millis) drives reservation windows; tests pass
+    their own to open a window without waiting for it.
+    */
+    MultiFloorParkingLot(int numFloors,
+                         int carSpotsPerFloor,
+                         int bikeSpotsPerFloor,
+                         SpotSelectionStrategy selection,
+                         LongSupplier clock) {
+
+        for (int i = 1; i <= numFloors; i++)
+            floors.add(new ParkingFloor(i,
+                    carSpotsPerFloor,
+                    bikeSpotsPerFloor,
+                    selection,
+                    clock));
+
+        for (int i = 0; i < JOURNAL_STRIPES; i++)
+            journalLocks[i] = new ReentrantLock();
+    }
+
+    public void setFeeStrategy(ParkingFeeStrategy strategy) {
+        this.feeStrategy = strategy;
+    }
+
+    public void setPayStrategy(PaymentStrategy strategy) {
+        this.payStrategy = strategy;
+    }
+
+    public void setConsoleLogging(boolean enabled) {
+        this.consoleLogging = enabled;
+    }
+
+    /*
+    Opens the ticket journal in dir and restores the tickets it
+    holds: their spots are marked occupied, the floor pools are
+    rebuilt, and the tickets keep their original entry times.
+
+    Must be called before any vehicle parks.
+    Returns the number of restored tickets.
+    */
+    public int openJournal(Path dir) throws IOException {
+
+        if (journal != null || !activeTickets.isEmpty())
+            throw new IllegalStateException("Journal must be opened before parking starts");
+
+        TicketJournal j = TicketJournal.open(dir);
+
+        int restored = 0;
+
+        ZoneId zone = ZoneId.systemDefault();
+
+        for (TicketRecord r : j.getRecoveredTickets()) {
+
+            Spot s = r.floorNumber >= 1 && r.floorNumber <= floors.size()
+                    ? floors.get(r.floorNumber - 1).restoreOccupied(r.spotId, r.vehicleType)
+                    : null;
+
+            if (s == null) {
+
+                if (consoleLogging)
+                    System.out.println("Skipping journal ticket for "
+                            + r.vehicleId + ": no spot " + r.spotId
+                            + " on Floor " + r.floorNumber);
+
+                continue;
+            }
+
+            LocalDateTime entryTime = LocalDateTime.ofInstant(
+                    Instant.ofEpochMilli(r.entryMillis), zone);
+
+            activeTickets.put(r.vehicleId, new Ticket(
+                    Vehicle.of(r.vehicleId, r.vehicleType), s, r.floorNumber, entryTime));
+
+            restored++;
+        }
+
+        for (ParkingFloor f : floors)
+            f.rebuildFreePools();
+
+        journal = j;
+
+        return restored;
+    }
+
+    /*
+    Journal force() calls so far; 0 without a journal.
+    */
+    public long getJournalSyncCount() {
+
+        TicketJournal j = journal;
+
+        return j == null ? 0 : j.getSyncCount();
+    }
+
+    public void closeJournal() throws IOException {
+
+        TicketJournal j = journal;
+
+        journal = null;
+
+        if (j != null)
+            j.close();
+    }
+
+    /*
+    Adds the ticket unless the vehicle already has one and
+    journals its PARK record. Returns false for a duplicate
+    vehicle.
+
+    The record is appended under the vehicle's journal stripe
+    lock, not inside a map update, so journal I/O never holds a
+    ConcurrentHashMap bin. The same lock orders it before any
+    EXIT of that vehicle.
+
+    If journaling fails, the ticket is removed and its spot
+    released before the exception is rethrown.
+    */
+    private boolean registerTicket(Ticket t) {
+
+        TicketJournal j = journal;
+        String id = t.getVehicle().getId();
+
+        if (j == null)
+            return activeTickets.putIfAbsent(id, t) == null;
+
+        ReentrantLock lock = journalLockFor(id);
+        long position;
+
+        lock.lock();
+
+        try {
+
+            if (activeTickets.putIfAbsent(id, t) != null)
+                return false;
+
+            try {
+                position = j.appendPark(id,
+                        t.getVehicle().getType(),
+                        t.getFloorNumber(),
+                        t.getSpot().getId(),
+                        toMillis(t.getEntryTime()));
+            }
+            catch (RuntimeException e) {
+                activeTickets.remove(id, t);
+                floors.get(t.getFloorNumber() - 1).releaseSpot(t.getSpot());
+                throw e;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        // group commit: wait outside the stripe lock
+        try {
+            j.awaitDurable(position);
+        }
+        catch (RuntimeException e) {
+            undoPark(j, t, e);
+            throw e;
+        }
+
+        return true;
+    }
+
+    /*
+    Takes back a ticket whose PARK record was written but never
+    became durable. An EXIT is appended on a best-effort basis so
+    a later sync cannot bring the ticket back on restart.
+    Nothing is undone if the vehicle has exited meanwhile.
+    */
+    private void undoPark(TicketJournal j, Ticket t, RuntimeException cause) {
+
+        String id = t.getVehicle().getId();
+        ReentrantLock lock = journalLockFor(id);
+
+        lock.lock();
+
+        try {
+
+            if (!activeTickets.remove(id, t))
+                return;
+
+            try {
+                j.appendExit(id);
+            }
+            catch (RuntimeException e) {
+                cause.addSuppressed(e);
+            }
+
+            floors.get(t.getFloorNumber() - 1).releaseSpot(t.getSpot());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+    Removes the vehicle's ticket, journaling its EXIT.
+    Returns null if the vehicle is not parked.
+
+    If journaling fails, the ticket is put back before the
+    exception is rethrown, so the exit can be retried.
+    */
+    private Ticket removeTicket(String vehicleId) {
+
+        TicketJournal j = journal;
+
+        if (j == null)
+            return activeTickets.remove(vehicleId);
+
+        ReentrantLock lock = journalLockFor(vehicleId);
+        Ticket removed;
+        long position;
+
+        lock.lock();
+
+        try {
+
+            removed = activeTickets.remove(vehicleId);
+
+            if (removed == null)
+                return null;
+
+            try {
+                position = j.appendExit(vehicleId);
+            }
+            catch (RuntimeException e) {
+                activeTickets.put(vehicleId, removed);
+                throw e;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        try {
+            j.awaitDurable(position);
+        }
+        catch (RuntimeException e) {
+            activeTickets.putIfAbsent(vehicleId, removed);
+            throw e;
+        }
+
+        return removed;
+    }
+
+    private ReentrantLock journalLockFor(String vehicleId) {
+        return journalLocks[Math.floorMod(vehicleId.hashCode(), JOURNAL_STRIPES)];
+    }
+
+    /*
+    Reserves count spots of the given type on a floor for the
+    window [from, to). Returns null if the floor cannot hold
+    that many spots for the whole window.
+    */
+    public Reservation reserve(int floorNumber, String type, int count,
+                               LocalDateTime from, LocalDateTime to) {
+
+        Reservation r = new Reservation(
+                "R" + nextReservationId.incrementAndGet(),
+                floorNumber, type, count, toMillis(from), toMillis(to));
+
+        if (!floors.get(floorNumber - 1).reserve(r)) {
+
+            if (consoleLogging)
+                System.out.println("Cannot reserve " + count + " " + type
+                        + " spots on Floor " + floorNumber
+                        + " from " + from + " to " + to);
+
+            return null;
+        }
+
+        reservations.put(r.getId(), r);
+
+        if (consoleLogging)
+            System.out.println("Reservation " + r.getId() + ": " + count + " "
+                    + type + " spots on Floor " + floorNumber
+                    + " from " + from + " to " + to);
+
+        return r;
+    }
+
+    public boolean canReserve(int floorNumber, String type, int count,
+                              LocalDateTime from, LocalDateTime to) {
+
+        return floors.get(floorNumber - 1)
+                .canReserve(type, count, toMillis(from), toMillis(to));
+    }
+
+    public void cancelReservation(String reservationId) {
+
+        Reservation r = reservations.remove(reservationId);
+
+        if (r != null)
+            floors.get(r.getFloorNumber() - 1).cancelReservation(r);
+    }
+
+    /*
+    Parks a vehicle on a spot held by its reservation.
+    Returns null if the reservation is unknown, not active,
+    already fully used or for another vehicle type, or if
+    walk-ins parked before its window still fill the floor.
+    */
+    public Ticket parkWithReservation(Vehicle v, String reservationId) {
+
+        long start = System.nanoTime();
+
+        Reservation r = reservations.get(reservationId);
+
+        if (r == null || !r.getType().equals(v.getType())) {
+
+            metrics.rejected.increment();
+
+            if (consoleLogging)
+                System.out.println("Reservation " + reservationId
+                        + " is not valid for " + v.getId());
+
+            return null;
+        }
+
+        ParkingFloor f = floors.get(r.getFloorNumber() - 1);
+
+        Spot s = f.claimReservedSpot(r);
+
+        if (s == null) {
+
+            metrics.rejected.increment();
+
+            if (consoleLogging)
+                System.out.println("Reservation " + reservationId
+                        + " is not active, fully used or has no free spot yet");
+
+            return null;
+        }
+
+        Ticket t = new Ticket(v, s, f.getFloorNumber());
+
+        if (!registerTicket(t)) {
+
+            f.releaseSpot(s);
+
+            metrics.rejected.increment();
+
+            if (consoleLogging)
+                System.out.println("Vehicle " + v.getId() + " is already parked.");
+
+            return null;
+        }
+
+        metrics.parked.increment();
+        metrics.parkLatency.record(System.nanoTime() - start);
+
+        if (consoleLogging)
+            System.out.println(v.getType() + " " + v.getId()
+                    + " parked at Floor " + f.getFloorNumber()
+                    + ", Spot " + s.getId()
+                    + " with reservation " + reservationId);
+
+        return t;
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /*
+    Current counters, latencies, revenue and per-floor occupancy.
+    Lock-free; safe to call while gates are running.
+    */
+    public MetricsSnapshot getMetricsSnapshot() {
+        return new MetricsSnapshot(metrics, floors);
+    }
+
+    /*
+    Free spots of the given vehicle type across all floors.
+    Reads the floor counters only, no spot is touched.
+    */
+    public int getFreeCount(String type) {
+
+        int free = 0;
+
+        for (ParkingFloor f : floors)
+            free += f.getFreeCount(type);
+
+        return free;
+    }
+
+    /*
+    Handles vehicle parking.
+    Finds the first available spot across floors.
+    Floors without a free spot of the vehicle's type are
+    skipped by their free counter.
+
+    No lot-wide lock is taken. Each spot is handed out by
+    exactly one successful reservation on its floor's free
+    counter, so concurrent gates can never receive the same
+    spot and never wait for each other.
+    */
+    public Ticket park(Vehicle v) {
+
+        long start = System.nanoTime();
+
+        for (ParkingFloor f : floors) {
+
+            Spot s = f.getFreeSpot(v.getType());
+
+            if (s != null) {
+
+                Ticket t = new Ticket(v, s, f.getFloorNumber());
+
+                // the same vehicle entering twice keeps its first ticket
+                if (!registerTicket(t)) {
+
+                    f.releaseSpot(s);
+
+                    metrics.rejected.increment();
+
+                    if (consoleLogging)
+                        System.out.println("Vehicle "
+                                + v.getId()
+                                + " is already parked.");
+
+                    return null;
+                }
+
+                metrics.parked.increment();
+                metrics.parkLatency.record(System.nanoTime() - start);
+
+                if (consoleLogging)
+                    System.out.println(v.getType() + " "
+                            + v.getId()
+                            + " parked at Floor "
+                            + f.getFloorNumber()
+                            + ", Spot "
+                            + s.getId());
+
+                return t;
+            }
+        }
+
+        metrics.rejected.increment();
+
+        if (consoleLogging)
+            System.out.println("No available spot for "
+                    + v.getType());
+
+        return null;
+    }
+
+    /*
+    Handles vehicle exit.
+
+    Steps:
+    1. Fetch ticket
+    2. Calculate fee
+    3. Process payment
+    4. Free parking spot
+    */
+    public void exit(String vehicleId) {
+
+        long start = System.nanoTime();
+
+        Ticket t = removeTicket(vehicleId);
+
+        if (t == null) {
+
+            if (consoleLogging)
+                System.out.println("Vehicle "
+                        + vehicleId
+                        + " not found.");
+
+            return;
+        }
+
+        LocalDateTime exitTime = LocalDateTime.now();
+
+        double fee =
+                feeStrategy.calcFee(
+                        t.getVehicle().getType(),
+                        t.getEntryTime(),
+                        exitTime);
+
+        if (consoleLogging)
+            System.out.println("Parking fee for vehicle "
+                    + vehicleId
+                    + ": ₹"
+                    + fee);
+
+        payStrategy.pay(fee);
+
+        if (consoleLogging)
+            System.out.println("Paid ₹" + fee + " via " + payStrategy.getName());
+
+        metrics.revenue.add(fee);
+
+        // free spot
+        floors.get(t.getFloorNumber() - 1).releaseSpot(t.getSpot());
+
+        metrics.exited.increment();
+        metrics.exitLatency.record(System.nanoTime() - start);
+
+        if (consoleLogging)
+            System.out.println("Spot "
+                    + t.getSpot().getId()
+                    + " on Floor "
+                    + t.getFloorNumber()
+                    + " is now free.");
+    }
+}
+
+
+// ---------------------------------------------------------
+// Main Driver
+// ---------------------------------------------------------
+
+/*
+Main class simulates concurrent parking using threads.
+*/
+public class Main {
+
+    public static void main(String[] args) {
+
+        MultiFloorParkingLot lot =
+                new MultiFloorParkingLot(2, 2, 2,
+                        NearestSpotSelection.toElevator());
+
+        lot.setFeeStrategy(new HourlyFee());
+        lot.setPayStrategy(new UpiPay());
+
+        Runnable carTask = () -> {
+
+            Vehicle car =
+                    new Car(UUID.randomUUID().toString());
+
+            Ticket t = lot.park(car);
+
+            if (t != null) {
+
+                try {
+                    Thread.sleep(500);
+                }
+                catch (InterruptedException ignored) {}
+
+                lot.exit(car.getId());
+            }
+        };
+
+        // simulate concurrent parking
+        Thread t1 = new Thread(carTask);
+        Thread t2 = new Thread(carTask);
+        Thread t3 = new Thread(carTask);
+
+        t1.start();
+        t2.start();
+        t3.start();
+
+        try {
+            t1.join();
+            t2.join();
+            t3.join();
+        }
+        catch (InterruptedException ignored) {}
+
+        System.out.println("Metrics: " + lot.getMetricsSnapshot());
+
+        // event parking: hold one of the two car spots for the next hour
+        MultiFloorParkingLot eventLot =
+                new MultiFloorParkingLot(1, 2, 0);
+
+        LocalDateTime now = LocalDateTime.now();
+
+        Reservation r = eventLot.reserve(1, "Car", 1, now, now.plusHours(1));
+
+        eventLot.park(new Car("WALKIN-1"));
+        eventLot.park(new Car("WALKIN-2")); // rejected, the last spot is held
+
+        eventLot.parkWithReservation(new Car("GUEST-1"), r.getId());
+
+        // restart: tickets come back from the journal with their entry times
+        try {
+
+            Path dir = Files.createTempDirectory("parking-journal");
+
+            MultiFloorParkingLot before = new MultiFloorParkingLot(1, 2, 2);
+            before.openJournal(dir);
+            before.park(new Car("KA-01-1234"));
+            before.park(new Bike("KA-02-5678"));
+            before.closeJournal();
+
+            MultiFloorParkingLot after = new MultiFloorParkingLot(1, 2, 2);
+            after.setFeeStrategy(new HourlyFee());
+            after.setPayStrategy(new UpiPay());
+
+            System.out.println("Restored " + after.openJournal(dir) + " tickets");
+
+            after.exit("KA-01-1234");
+            after.closeJournal();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,181 @@
+/*
+===========================================================
+PARKING LOT GATE STRESS TEST
+===========================================================
+
+Drives MultiFloorParkingLot with N entry gates and N exit
+gates running concurrently and checks two things:
+
+1. Correctness
+   - No spot is ever handed to two vehicles at the same time.
+   - Every parked vehicle exits exactly once.
+   - When all gates stop, every spot is free again.
+
+2. Scaling
+   - Throughput (park + exit per second) for 1, 2, 4, 8
+     and 12 gate pairs. With no lot-wide lock the numbers
+     should grow with the gate count until the machine runs
+     out of cores.
+
+Entry gates park new cars and hand their tickets to exit
+gates through a queue, like cars driving through the lot.
+
+Per-event console logging is switched off on the lot, so
+no console I/O is measured.
+
+Usage:
+    java ParkingLotStressTest            5 s per gate count
+    java ParkingLotStressTest 1000       1 s per gate count
+
+Exits with status 1 if a correctness check fails.
+===========================================================
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ParkingLotStressTest {
+
+    static final int FLOORS = 10;
+    static final int CAR_SPOTS_PER_FLOOR = 400;
+    static final int BIKE_SPOTS_PER_FLOOR = 100;
+
+    public static void main(String[] args) throws InterruptedException {
+
+        long millisPerRun = args.length > 0 ? Long.parseLong(args[0]) : 5000;
+
+        boolean ok = true;
+
+        System.out.printf("%-6s %14s %12s %14s %14s%n",
+                "gates", "cycles/s", "doubleAssign", "leakedSpots", "parkP99(us)");
+
+        for (int gates : new int[]{1, 2, 4, 8, 12}) {
+
+            long[] result = run(gates, millisPerRun);
+
+            System.out.printf("%-6d %14.0f %12d %14d %14s%n",
+                    gates,
+                    result[0] * 1000.0 / millisPerRun,
+                    result[1],
+                    result[2],
+                    "<=" + result[3] / 1000);
+
+            ok &= result[1] == 0 && result[2] == 0;
+        }
+
+        System.out.println(ok ? "PASSED" : "FAILED");
+
+        if (!ok)
+            System.exit(1);
+    }
+
+    /*
+    Runs one gate configuration.
+    Returns {completed cycles, double assignments, leaked spots,
+    p99 park latency in ns}.
+    */
+    static long[] run(int gates, long millis) throws InterruptedException {
+
+        MultiFloorParkingLot lot = new MultiFloorParkingLot(
+                FLOORS, CAR_SPOTS_PER_FLOOR, BIKE_SPOTS_PER_FLOOR);
+
+        lot.setFeeStrategy(new HourlyFee());
+        lot.setPayStrategy(amount -> { });
+        lot.setConsoleLogging(false);
+
+        // which vehicle currently holds which spot
+        ConcurrentHashMap<Spot, String> holders = new ConcurrentHashMap<>();
+
+        LinkedBlockingQueue<Ticket> driving = new LinkedBlockingQueue<>();
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicBoolean entriesDone = new AtomicBoolean(false);
+        AtomicLong cycles = new AtomicLong();
+        AtomicLong doubleAssigned = new AtomicLong();
+        AtomicLong nextVehicle = new AtomicLong();
+
+        List<Thread> entries = new ArrayList<>();
+        List<Thread> exits = new ArrayList<>();
+
+        for (int g = 0; g < gates; g++) {
+
+            entries.add(new Thread(() -> {
+
+                while (running.get()) {
+
+                    long n = nextVehicle.incrementAndGet();
+
+                    Vehicle v = n % 5 == 0
+                            ? new Bike("B" + n)
+                            : new Car("C" + n);
+
+                    Ticket t = lot.park(v);
+
+                    if (t == null)
+                        continue; // lot full, exit gates will catch up
+
+                    if (holders.putIfAbsent(t.getSpot(), v.getId()) != null)
+                        doubleAssigned.incrementAndGet();
+
+                    driving.add(t);
+                }
+            }, "entry-" + g));
+
+            exits.add(new Thread(() -> {
+
+                // an entry gate may still be handing over its last ticket
+                while (!entriesDone.get() || !driving.isEmpty()) {
+
+                    Ticket t;
+
+                    try {
+                        t = driving.poll(10, TimeUnit.MILLISECONDS);
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+
+                    if (t == null)
+                        continue;
+
+                    // release our claim before the spot can be handed out again
+                    holders.remove(t.getSpot(), t.getVehicle().getId());
+
+                    lot.exit(t.getVehicle().getId());
+
+                    cycles.incrementAndGet();
+                }
+            }, "exit-" + g));
+        }
+
+        for (Thread t : entries)
+            t.start();
+
+        for (Thread t : exits)
+            t.start();
+
+        Thread.sleep(millis);
+
+        running.set(false);
+
+        for (Thread t : entries)
+            t.join();
+
+        entriesDone.set(true);
+
+        for (Thread t : exits)
+            t.join();
+
+        long leaked = (long) FLOORS * (CAR_SPOTS_PER_FLOOR + BIKE_SPOTS_PER_FLOOR)
+                - lot.getFreeCount("Car")
+                - lot.getFreeCount("Bike");
+
+        return new long[]{cycles.get(), doubleAssigned.get(), leaked,
+                lot.getMetricsSnapshot().parkLatencyNanos(0.99)};
+    }
+}
@@ -0,0 +1,89 @@
+/*
+===========================================================
+PARKING RESERVATION TEST
+===========================================================
+
+Checks that a reservation holder arriving at a floor that
+walk-ins filled before the reservation window opened:
+
+1. Gets no spot, instead of failing with an exception.
+2. Keeps the reservation: it is not counted as claimed and
+   its held spot is not given to walk-ins.
+3. Gets the first spot that frees up.
+
+The lot runs on a test clock, so the window is opened by
+moving the clock instead of waiting for it.
+
+Usage:
+    java ParkingReservationTest
+
+Exits with status 1 if a check fails.
+===========================================================
+*/
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ParkingReservationTest {
+
+    static boolean ok = true;
+
+    public static void main(String[] args) {
+
+        floorFullOfWalkInsWhenWindowOpens();
+
+        System.out.println(ok ? "PASSED" : "FAILED");
+
+        if (!ok)
+            System.exit(1);
+    }
+
+    static void floorFullOfWalkInsWhenWindowOpens() {
+
+        LocalDateTime now = LocalDateTime.now();
+        AtomicLong clock = new AtomicLong(
+                now.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+
+        MultiFloorParkingLot lot = new MultiFloorParkingLot(
+                1, 2, 0, new FirstFreeSpotSelection(), clock::get);
+
+        lot.setFeeStrategy(new HourlyFee());
+        lot.setPayStrategy(amount -> { });
+        lot.setConsoleLogging(false);
+
+        Reservation r = lot.reserve(1, "Car", 1, now.plusHours(1), now.plusHours(2));
+
+        check("reservation accepted", r != null);
+
+        // the window has not started, so walk-ins may take every spot
+        check("walk-in 1 parks", lot.park(new Car("WALKIN-1")) != null);
+        check("walk-in 2 parks", lot.park(new Car("WALKIN-2")) != null);
+
+        clock.addAndGet(61 * 60 * 1000L);
+
+        check("guest gets no spot on a full floor",
+                lot.parkWithReservation(new Car("GUEST-1"), r.getId()) == null);
+
+        check("reservation not claimed", r.claimed == 0);
+
+        lot.exit("WALKIN-1");
+
+        check("freed spot stays held from walk-ins",
+                lot.park(new Car("WALKIN-3")) == null);
+
+        check("guest parks once a spot is free",
+                lot.parkWithReservation(new Car("GUEST-1"), r.getId()) != null);
+
+        check("reservation claimed once", r.claimed == 1);
+
+        check("floor is full again", lot.getFreeCount("Car") == 0);
+    }
+
+    static void check(String name, boolean passed) {
+
+        System.out.println((passed ? "ok      " : "FAILED  ") + name);
+
+        ok &= passed;
+    }
+}
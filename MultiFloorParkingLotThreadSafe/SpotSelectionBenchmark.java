@@ -0,0 +1,169 @@
+/*
+===========================================================
+SPOT SELECTION BENCHMARK
+===========================================================
+
+Compares the cost of handing out one spot (and returning it)
+on a nearly full floor:
+
+1. linear scan      - the original ParkingFloor.getFreeSpot:
+                      walk every spot, compare the type string,
+                      tryOccupy() each candidate
+2. first free       - FirstFreeSpotSelection pool (O(1))
+3. nearest to gate  - NearestSpotSelection.toGate() (O(log n))
+4. nearest elevator - NearestSpotSelection.toElevator() (O(log n))
+
+Floor: 5000 spots (4000 cars, 1000 bikes), filled to 99%,
+so the scan has to walk almost the whole floor, as it does in
+a near-full garage.
+
+Usage:
+    java SpotSelectionBenchmark [threads]
+===========================================================
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SpotSelectionBenchmark {
+
+    static final int CAR_SPOTS = 4000;
+    static final int BIKE_SPOTS = 1000;
+    static final double FILL = 0.99;
+    static final long WARMUP_MS = 1000;
+    static final long MEASURE_MS = 2000;
+
+    interface Allocator {
+        Spot allocate();
+        void release(Spot s);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+
+        System.out.printf("%-18s %8s %16s %12s%n",
+                "selection", "threads", "park+exit/s", "ns/op");
+
+        report("linear scan", threads, linearScan());
+        report("first free", threads, pooled(new FirstFreeSpotSelection()));
+        report("nearest to gate", threads, pooled(NearestSpotSelection.toGate()));
+        report("nearest elevator", threads, pooled(NearestSpotSelection.toElevator()));
+    }
+
+    /*
+    The pre-pool ParkingFloor.getFreeSpot, kept here as the baseline.
+    */
+    static Allocator linearScan() {
+
+        List<Spot> spots = new ArrayList<>();
+
+        int id = 1;
+
+        for (int i = 0; i < CAR_SPOTS; i++)
+            spots.add(new Spot(id++, "Car"));
+
+        for (int i = 0; i < BIKE_SPOTS; i++)
+            spots.add(new Spot(id++, "Bike"));
+
+        Allocator allocator = new Allocator() {
+
+            public Spot allocate() {
+
+                for (Spot s : spots) {
+
+                    if (s.getType().equals("Car") && s.tryOccupy())
+                        return s;
+                }
+
+                return null;
+            }
+
+            public void release(Spot s) {
+                s.free();
+            }
+        };
+
+        fill(allocator);
+
+        return allocator;
+    }
+
+    static Allocator pooled(SpotSelectionStrategy selection) {
+
+        ParkingFloor floor = new ParkingFloor(1, CAR_SPOTS, BIKE_SPOTS, selection);
+
+        Allocator allocator = new Allocator() {
+
+            public Spot allocate() {
+                return floor.getFreeSpot("Car");
+            }
+
+            public void release(Spot s) {
+                floor.releaseSpot(s);
+            }
+        };
+
+        fill(allocator);
+
+        return allocator;
+    }
+
+    static void fill(Allocator allocator) {
+
+        for (int i = 0; i < (int) (CAR_SPOTS * FILL); i++)
+            allocator.allocate();
+    }
+
+    static void report(String name, int threads, Allocator allocator)
+            throws InterruptedException {
+
+        long ops = run(threads, allocator, WARMUP_MS);
+
+        ops = run(threads, allocator, MEASURE_MS);
+
+        double perSecond = ops * 1000.0 / MEASURE_MS;
+
+        System.out.printf("%-18s %8d %16.0f %12.0f%n",
+                name, threads, perSecond, threads * 1e9 / perSecond);
+    }
+
+    static long run(int threads, Allocator allocator, long millis)
+            throws InterruptedException {
+
+        AtomicLong ops = new AtomicLong();
+
+        long deadline = System.currentTimeMillis() + millis;
+
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+
+            Thread worker = new Thread(() -> {
+
+                long local = 0;
+
+                while (System.currentTimeMillis() < deadline) {
+
+                    Spot s = allocator.allocate();
+
+                    if (s != null) {
+                        allocator.release(s);
+                        local++;
+                    }
+                }
+
+                ops.addAndGet(local);
+            });
+
+            workers.add(worker);
+            worker.start();
+        }
+
+        for (Thread worker : workers)
+            worker.join();
+
+        return ops.get();
+    }
+}
@@ -0,0 +1,504 @@
+/*
+===========================================================
+TICKET JOURNAL
+===========================================================
+
+Append-only, memory-mapped log of park and exit events, so
+active tickets (and their entry times) survive a restart.
+
+---------------------------
+File Layout
+---------------------------
+The journal directory holds segments named
+tickets-00000001.journal, tickets-00000002.journal, ...
+Each segment is a fixed-size mapped file filled with records:
+
+    int    body length
+    int    CRC32 of body
+    byte[] body
+
+    PARK body:  1, vehicleId, vehicleType, floor, spot, entry millis
+    EXIT body:  2, vehicleId
+
+Unused space is zero, so a zero length marks the end of a
+segment. A record with a bad length or CRC is a write torn
+by a crash; replay stops there.
+
+---------------------------
+Group Commit
+---------------------------
+Writers copy their record into the mapped segment under a
+short lock and get back its end position. They then wait
+until a single flusher thread has forced the segment to disk
+past that position. One force() covers every record written
+while the previous one was running, so N concurrent gates
+pay for about one fsync, not N.
+
+---------------------------
+Recovery
+---------------------------
+open() replays every segment in order, keeping the last PARK
+of every vehicle that has no later EXIT. New records go to a
+fresh segment.
+
+If most replayed records are dead (exited vehicles), the live
+tickets are first rewritten to the fresh segment and the old
+segments deleted, so a restart reads at most about twice as
+many records as there are parked vehicles.
+===========================================================
+*/
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+
+/*
+One recovered ticket as stored in the journal.
+*/
+class TicketRecord {
+
+    final String vehicleId;
+    final String vehicleType;
+    final int floorNumber;
+    final int spotId;
+    final long entryMillis;
+
+    TicketRecord(String vehicleId, String vehicleType,
+                 int floorNumber, int spotId, long entryMillis) {
+        this.vehicleId = vehicleId;
+        this.vehicleType = vehicleType;
+        this.floorNumber = floorNumber;
+        this.spotId = spotId;
+        this.entryMillis = entryMillis;
+    }
+}
+
+
+class TicketJournal implements Closeable {
+
+    static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private static final byte PARK = 1;
+    private static final byte EXIT = 2;
+    private static final int HEADER_BYTES = 8;
+
+    private final Path dir;
+    private final int segmentBytes;
+
+    // appenders
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private FileChannel channel;
+    private volatile MappedByteBuffer segment;
+    private int segmentNumber;
+
+    // bytes appended / bytes forced to disk, over all segments
+    private volatile long written;
+    private volatile long durable;
+
+    private final Object syncMonitor = new Object();
+    private final Thread flusher;
+    private volatile boolean closed;
+    private volatile IOException syncError;
+
+    private final AtomicLong syncs = new AtomicLong();
+
+    private final Map<String, TicketRecord> recovered = new LinkedHashMap<>();
+    private final List<Path> emptySegments = new ArrayList<>();
+    private long replayedRecords;
+
+    // a handful of vehicle types, shared by every replayed record
+    private final Map<String, String> types = new HashMap<>();
+
+    private TicketJournal(Path dir, int segmentBytes) throws IOException {
+
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+
+        Files.createDirectories(dir);
+
+        List<Path> old = listSegments();
+
+        replay(old);
+
+        if (!old.isEmpty()) {
+            String last = old.get(old.size() - 1).getFileName().toString();
+            segmentNumber = Integer.parseInt(last.substring(8, 16));
+        }
+
+        rollSegment();
+
+        if (replayedRecords > 2L * recovered.size()) {
+
+            // compact: live tickets go to the fresh segment, then the old ones are dropped
+            CRC32 crc = new CRC32();
+
+            for (TicketRecord r : recovered.values())
+                put(encodePark(r), crc);
+
+            segment.force();
+            durable = written;
+
+            for (Path p : old)
+                Files.delete(p);
+        }
+        else {
+
+            // left behind by restarts with no traffic in between
+            for (Path p : emptySegments)
+                Files.delete(p);
+        }
+
+        flusher = new Thread(this::flushLoop, "ticket-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    static TicketJournal open(Path dir) throws IOException {
+        return new TicketJournal(dir, DEFAULT_SEGMENT_BYTES);
+    }
+
+    static TicketJournal open(Path dir, int segmentBytes) throws IOException {
+        return new TicketJournal(dir, segmentBytes);
+    }
+
+    /*
+    Tickets that were active when the journal was last closed
+    or the process died, in the order they were parked.
+    */
+    public Collection<TicketRecord> getRecoveredTickets() {
+        return recovered.values();
+    }
+
+    /*
+    Number of force() calls so far. Divided into the number of
+    records it shows how well group commit batches.
+    */
+    public long getSyncCount() {
+        return syncs.get();
+    }
+
+    /*
+    Appends a PARK record. Returns the position to pass to
+    awaitDurable().
+    */
+    public long appendPark(String vehicleId, String vehicleType,
+                           int floorNumber, int spotId, long entryMillis) {
+
+        return append(encodePark(new TicketRecord(
+                vehicleId, vehicleType, floorNumber, spotId, entryMillis)));
+    }
+
+    /*
+    Appends an EXIT record. Returns the position to pass to
+    awaitDurable().
+    */
+    public long appendExit(String vehicleId) {
+
+        byte[] id = vehicleId.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer body = ByteBuffer.allocate(1 + 2 + id.length);
+
+        body.put(EXIT);
+        body.putShort((short) id.length);
+        body.put(id);
+
+        return append(body.array());
+    }
+
+    /*
+    Blocks until every record up to position is on disk.
+    */
+    public void awaitDurable(long position) {
+
+        if (durable >= position)
+            return;
+
+        synchronized (syncMonitor) {
+
+            syncMonitor.notifyAll(); // wake the flusher
+
+            while (durable < position) {
+
+                if (syncError != null)
+                    throw new UncheckedIOException(syncError);
+
+                if (closed)
+                    throw new IllegalStateException("Ticket journal is closed");
+
+                try {
+                    syncMonitor.wait();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for journal sync", e);
+                }
+            }
+        }
+    }
+
+    public void close() throws IOException {
+
+        synchronized (syncMonitor) {
+            closed = true;
+            syncMonitor.notifyAll();
+        }
+
+        try {
+            flusher.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        appendLock.lock();
+        try {
+            segment.force();
+            channel.close();
+        }
+        finally {
+            appendLock.unlock();
+        }
+    }
+
+    // ---------------------------------------------------------
+    // Writing
+    // ---------------------------------------------------------
+
+    private long append(byte[] body) {
+
+        if (HEADER_BYTES + body.length > segmentBytes)
+            throw new IllegalArgumentException("Journal record larger than a segment");
+
+        CRC32 crc = new CRC32();
+
+        appendLock.lock();
+        try {
+
+            if (closed)
+                throw new IllegalStateException("Ticket journal is closed");
+
+            return put(body, crc);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            appendLock.unlock();
+        }
+    }
+
+    /*
+    Writes one record. Caller holds appendLock (or is the constructor).
+    */
+    private long put(byte[] body, CRC32 crc) throws IOException {
+
+        int size = HEADER_BYTES + body.length;
+
+        if (segment.remaining() < size)
+            rollSegment();
+
+        crc.reset();
+        crc.update(body);
+
+        segment.putInt(body.length);
+        segment.putInt((int) crc.getValue());
+        segment.put(body);
+
+        written += size;
+
+        return written;
+    }
+
+    /*
+    Starts the next segment. The full one is forced first, so
+    the flusher only ever has to force the current segment.
+    Caller holds appendLock (or is the constructor).
+    */
+    private void rollSegment() throws IOException {
+
+        if (segment != null) {
+            segment.force();
+            channel.close();
+        }
+
+        segmentNumber++;
+
+        Path path = dir.resolve(String.format("tickets-%08d.journal", segmentNumber));
+
+        channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+    }
+
+    private void flushLoop() {
+
+        while (true) {
+
+            synchronized (syncMonitor) {
+
+                while (durable >= written && !closed) {
+                    try {
+                        syncMonitor.wait();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                if (durable >= written)
+                    return; // closed and nothing left to force
+            }
+
+            // read the target before the segment: records up to target
+            // are either in this segment or in one forced by rollSegment()
+            long target = written;
+            MappedByteBuffer current = segment;
+
+            try {
+                current.force();
+                syncs.incrementAndGet();
+            }
+            catch (UncheckedIOException e) {
+                syncError = e.getCause();
+            }
+
+            synchronized (syncMonitor) {
+
+                if (syncError == null)
+                    durable = Math.max(durable, target);
+
+                syncMonitor.notifyAll();
+
+                if (syncError != null)
+                    return;
+            }
+        }
+    }
+
+    private static byte[] encodePark(TicketRecord r) {
+
+        byte[] id = r.vehicleId.getBytes(StandardCharsets.UTF_8);
+        byte[] type = r.vehicleType.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer body = ByteBuffer.allocate(1 + 2 + id.length + 1 + type.length + 4 + 4 + 8);
+
+        body.put(PARK);
+        body.putShort((short) id.length);
+        body.put(id);
+        body.put((byte) type.length);
+        body.put(type);
+        body.putInt(r.floorNumber);
+        body.putInt(r.spotId);
+        body.putLong(r.entryMillis);
+
+        return body.array();
+    }
+
+    // ---------------------------------------------------------
+    // Replay
+    // ---------------------------------------------------------
+
+    private List<Path> listSegments() throws IOException {
+
+        try (Stream<Path> files = Files.list(dir)) {
+
+            List<Path> segments = new ArrayList<>();
+
+            files.filter(p -> p.getFileName().toString().matches("tickets-\\d{8}\\.journal"))
+                    .sorted()
+                    .forEach(segments::add);
+
+            return segments;
+        }
+    }
+
+    private void replay(List<Path> segments) throws IOException {
+
+        CRC32 crc = new CRC32();
+
+        for (Path p : segments) {
+
+            try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+
+                long before = replayedRecords;
+
+                while (buf.remaining() >= HEADER_BYTES) {
+
+                    int length = buf.getInt();
+                    int checksum = buf.getInt();
+
+                    if (length <= 0 || length > buf.remaining())
+                        break; // end of segment or torn write
+
+                    // checksum straight off the mapping, no copy
+                    int start = buf.position();
+
+                    crc.reset();
+                    crc.update(buf.limit(start + length));
+                    buf.limit(buf.capacity()).position(start);
+
+                    if ((int) crc.getValue() != checksum)
+                        break; // torn write
+
+                    apply(buf, recovered);
+                    replayedRecords++;
+
+                    buf.position(start + length);
+                }
+
+                if (replayedRecords == before)
+                    emptySegments.add(p);
+            }
+        }
+    }
+
+    private void apply(ByteBuffer body, Map<String, TicketRecord> active) {
+
+        byte kind = body.get();
+        String vehicleId = readString(body, body.getShort());
+
+        if (kind == EXIT) {
+            active.remove(vehicleId);
+            return;
+        }
+
+        String vehicleType = readString(body, body.get());
+
+        vehicleType = types.computeIfAbsent(vehicleType, t -> t);
+
+        active.put(vehicleId, new TicketRecord(vehicleId, vehicleType,
+                body.getInt(), body.getInt(), body.getLong()));
+    }
+
+    private static String readString(ByteBuffer body, int length) {
+
+        byte[] bytes = new byte[length];
+
+        body.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+=====================================================================
+CHARTS BENCHMARK
+Ingest rate, chart accuracy and query latency of TrendingCharts
+=====================================================================
+
+Plays a Zipf distributed stream (a few hits, a long tail) over a
+catalog of SONGS songs, with play times spread over the last two
+days, so both windows see expiry:
+
+1. ingest    - plays/s through recordPlay() into the pipeline,
+               waiting whenever the bounded queue is full, so no
+               play is dropped
+2. accuracy  - top-20 of each window vs. exact counts kept by the
+               benchmark: recall and worst overcount
+3. query     - top(window, 10) latency, p50 / p99
+
+Memory of the charts is fixed by TrendingCharts' constants,
+whatever SONGS and plays are set to.
+
+Usage:
+    java ChartsBenchmark [plays] [songs]      default 5,000,000 1,000,000
+=====================================================================
+*/
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class ChartsBenchmark {
+
+    static final int QUERIES = 100_000;
+    static final int TOP = 20;
+
+    public static void main(String[] args) throws Exception {
+
+        int plays = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int songCount = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+        Artist artist = new Artist("A", "Bench");
+        Album album = new Album("AL", "Bench", artist);
+
+        Song[] songs = new Song[songCount];
+
+        for(int i = 0; i < songCount; i++)
+            songs[i] = new Song("C" + i, "Track " + i, artist, album, 180);
+
+        TrendingCharts charts = TrendingCharts.getInstance();
+
+        Random random = new Random(3);
+
+        long now = System.currentTimeMillis();
+
+        // exact counts, by the windows' bucket boundaries
+        int[] hour = new int[songCount];
+        int[] day = new int[songCount];
+
+        long hourFrom = now / 60_000 - 59;
+        long dayFrom = now / 3_600_000 - 23;
+
+        long start = System.nanoTime();
+
+        for(int i = 0; i < plays; i++) {
+
+            int song = (int) Math.min(songCount - 1, Math.pow(random.nextDouble(), 4) * songCount);
+            long time = now - (long) (random.nextDouble() * 2 * 86_400_000L);
+
+            long dropped = charts.getDroppedPlays();
+
+            charts.recordPlay(songs[song], time);
+
+            // queue full: back off and offer the play again
+            while(charts.getDroppedPlays() != dropped) {
+
+                Thread.sleep(1);
+
+                dropped = charts.getDroppedPlays();
+                charts.recordPlay(songs[song], time);
+            }
+
+            if(time / 60_000 >= hourFrom)
+                hour[song]++;
+
+            if(time / 3_600_000 >= dayFrom)
+                day[song]++;
+        }
+
+        charts.awaitRefresh();
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("ingest: %d plays over %d songs in %.2f s (%.0f plays/s)%n",
+                plays, songCount, seconds, plays / seconds);
+
+        accuracy("last hour", charts.top(TrendingCharts.ChartWindow.LAST_HOUR, TOP), hour);
+        accuracy("last day", charts.top(TrendingCharts.ChartWindow.LAST_DAY, TOP), day);
+
+        long[] latencies = new long[QUERIES];
+
+        for(int i = 0; i < QUERIES; i++) {
+
+            TrendingCharts.ChartWindow window = i % 2 == 0
+                    ? TrendingCharts.ChartWindow.LAST_HOUR
+                    : TrendingCharts.ChartWindow.LAST_DAY;
+
+            long t0 = System.nanoTime();
+
+            charts.top(window, 10);
+
+            latencies[i] = System.nanoTime() - t0;
+        }
+
+        Arrays.sort(latencies);
+
+        System.out.printf("top(10): p50 %.2f us, p99 %.2f us%n",
+                latencies[QUERIES / 2] / 1e3, latencies[(int) (QUERIES * 0.99)] / 1e3);
+    }
+
+    static void accuracy(String name, List<ChartEntry> chart, int[] exact) {
+
+        int[] sorted = exact.clone();
+
+        Arrays.sort(sorted);
+
+        // a song belongs to the true top-N if it reaches the N-th count
+        int threshold = sorted[sorted.length - TOP];
+
+        int hits = 0;
+        int worstOvercount = 0;
+        long total = 0;
+
+        for(int count : exact)
+            total += count;
+
+        for(ChartEntry e : chart) {
+
+            int song = Integer.parseInt(e.getSong().getId().substring(1));
+
+            if(exact[song] >= threshold)
+                hits++;
+
+            worstOvercount = Math.max(worstOvercount, e.getPlays() - exact[song]);
+        }
+
+        System.out.printf("%-10s recall %d/%d, worst overcount %d (%.3f%% of %d plays)%n",
+                name + ":", hits, TOP, worstOvercount, 100.0 * worstOvercount / total, total);
+    }
+}
@@ -69,18 +69,36 @@ User
  - username
  - password
  - playlists
- - listeningHistory
+ - listeningHistory (ListeningHistory)
  - followedArtists
 
+ListeningHistory
+ - bounded ring of (song index, timestamp) per user
+ - older plays spill to the shared HistoryLog on disk
+ - streaming cursor over the full history
+
+HistoryLog (Singleton)
+ - append-only, segmented play log for long-term analytics
+
+SongRegistry
+ - dense int index per song
+
 Playlist
  - id
  - name
- - songs
+ - songs (persistent tree, O(log n) edits by position)
+ - copy-on-write snapshots + version for concurrent editors
 
 MusicLibrary (Singleton)
  - stores songs
  - stores albums
  - stores artists
+ - keeps a SongSearchIndex for search & autocomplete
+
+SongSearchIndex
+ - inverted index: token / token prefix -> songs
+ - ranked, paginated top-K search
+ - autocomplete of the word being typed
 
 UserManager (Singleton)
  - manages registration/login
@@ -91,9 +109,22 @@ MusicPlayer
  - pause
  - skip
  - seek
+ - queue (up next, played gapless)
+ - prefetch pipeline: file -> mapped chunks -> AudioSink
+ - reports every play to TrendingCharts
+
+AudioStore / AudioSink
+ - where a song's audio file lives / where decoded chunks go
 
 MusicRecommender (Singleton)
  - generates recommendations
+ - item-item co-occurrence model, refreshed in the background
+ - serves precomputed top-K similar songs
+
+TrendingCharts (Singleton)
+ - global play-event stream fed by MusicPlayer
+ - top songs of the last hour / day
+ - count-min sketch + space-saving per time bucket, fixed memory
 
 MusicStreamingService
  - entry point
@@ -103,8 +134,37 @@ MusicStreamingService
 */
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 
 /* ================================================================
@@ -160,6 +220,10 @@ class Album {
         songs.add(song);
     }
 
+    public String getName() {
+        return name;
+    }
+
     public List<Song> getSongs() {
         return songs;
     }
@@ -194,35 +258,342 @@ class Artist {
     public String getName() {
         return name;
     }
+
+    public List<Song> getSongs() {
+        return songs;
+    }
+}
+
+
+/* ================================================================
+   PLAYLIST VERSION CONFLICT
+   Thrown when an edit was based on an outdated playlist version
+   ================================================================ */
+class PlaylistVersionConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long currentVersion;
+
+    public PlaylistVersionConflictException(long expectedVersion, long currentVersion) {
+        super("Playlist changed: edit based on version " + expectedVersion
+                + ", current version " + currentVersion);
+        this.currentVersion = currentVersion;
+    }
+
+    public long getCurrentVersion() {
+        return currentVersion;
+    }
 }
 
 
 /* ================================================================
    PLAYLIST
    Represents user playlist
+
+   Songs are kept in a persistent (immutable) implicit treap:
+   - every node stores the size of its subtree, so position i is
+     found by walking down, O(log n)
+   - insert / remove / move by position are split + merge,
+     O(log n), copying only the O(log n) nodes on the path
+
+   Every edit builds a new PlaylistSnapshot (root + version) and
+   publishes it with a CAS:
+   - readers take snapshot() and never lock or see a half edit
+   - editors that pass the version they read get a
+     PlaylistVersionConflictException if another device edited
+     the playlist in between, and can re-read and retry
    ================================================================ */
 class Playlist {
 
     private String id;
     private String name;
 
-    private List<Song> songs = new ArrayList<>();
+    private final AtomicReference<PlaylistSnapshot> current =
+            new AtomicReference<>(new PlaylistSnapshot(null, 0));
 
     public Playlist(String id, String name) {
         this.id = id;
         this.name = name;
     }
 
+    public PlaylistSnapshot snapshot() {
+        return current.get();
+    }
+
+    public long getVersion() {
+        return current.get().getVersion();
+    }
+
+    public int size() {
+        return current.get().size();
+    }
+
+    // append
     public void addSong(Song song) {
-        songs.add(song);
+        edit(-1, s -> PlaylistSnapshot.insert(s.root, s.size(), song));
     }
 
+    // first occurrence; finding it is O(n), the removal O(log n)
     public void removeSong(Song song) {
-        songs.remove(song);
+
+        edit(-1, s -> {
+
+            int index = s.indexOf(song);
+
+            return index < 0 ? s.root : PlaylistSnapshot.remove(s.root, index);
+        });
+    }
+
+    /*
+     Versioned edits: expectedVersion is the version the editor saw.
+     Return the new version.
+     */
+    public long insert(long expectedVersion, int index, Song song) {
+
+        return edit(expectedVersion, s -> {
+            checkIndex(index, s.size() + 1);
+            return PlaylistSnapshot.insert(s.root, index, song);
+        });
+    }
+
+    public long remove(long expectedVersion, int index) {
+
+        return edit(expectedVersion, s -> {
+            checkIndex(index, s.size());
+            return PlaylistSnapshot.remove(s.root, index);
+        });
+    }
+
+    public long move(long expectedVersion, int from, int to) {
+
+        return edit(expectedVersion, s -> {
+
+            checkIndex(from, s.size());
+            checkIndex(to, s.size());
+
+            Song song = s.get(from);
+
+            return PlaylistSnapshot.insert(PlaylistSnapshot.remove(s.root, from), to, song);
+        });
     }
 
+    // read-only view of the current snapshot
     public List<Song> getSongs() {
-        return songs;
+        return current.get().asList();
+    }
+
+    private long edit(long expectedVersion, Function<PlaylistSnapshot, PlaylistSnapshot.Node> change) {
+
+        while(true) {
+
+            PlaylistSnapshot before = current.get();
+
+            if(expectedVersion >= 0 && before.getVersion() != expectedVersion)
+                throw new PlaylistVersionConflictException(expectedVersion, before.getVersion());
+
+            PlaylistSnapshot after = new PlaylistSnapshot(change.apply(before), before.getVersion() + 1);
+
+            if(current.compareAndSet(before, after))
+                return after.getVersion();
+
+            // another editor won the race; unversioned edits simply retry
+        }
+    }
+
+    private static void checkIndex(int index, int bound) {
+
+        if(index < 0 || index >= bound)
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + bound);
+    }
+}
+
+
+/* ================================================================
+   PLAYLIST SNAPSHOT
+   Immutable state of a playlist at one version
+   ================================================================ */
+class PlaylistSnapshot {
+
+    final Node root;
+    private final long version;
+
+    PlaylistSnapshot(Node root, long version) {
+        this.root = root;
+        this.version = version;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    // O(log n)
+    public Song get(int index) {
+
+        if(index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+
+        Node node = root;
+
+        while(true) {
+
+            int left = size(node.left);
+
+            if(index < left) {
+                node = node.left;
+            }
+            else if(index == left) {
+                return node.song;
+            }
+            else {
+                index -= left + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    // O(n)
+    public int indexOf(Song song) {
+
+        int index = 0;
+
+        for(Song s : asList()) {
+
+            if(s.equals(song))
+                return index;
+
+            index++;
+        }
+
+        return -1;
+    }
+
+    public List<Song> asList() {
+
+        return new AbstractList<Song>() {
+
+            public Song get(int index) {
+                return PlaylistSnapshot.this.get(index);
+            }
+
+            public int size() {
+                return PlaylistSnapshot.this.size();
+            }
+
+            // in-order walk, O(1) amortized per song
+            public Iterator<Song> iterator() {
+
+                Deque<Node> path = new ArrayDeque<>();
+
+                for(Node n = root; n != null; n = n.left)
+                    path.push(n);
+
+                return new Iterator<Song>() {
+
+                    public boolean hasNext() {
+                        return !path.isEmpty();
+                    }
+
+                    public Song next() {
+
+                        if(path.isEmpty())
+                            throw new NoSuchElementException();
+
+                        Node node = path.pop();
+
+                        for(Node n = node.right; n != null; n = n.left)
+                            path.push(n);
+
+                        return node.song;
+                    }
+                };
+            }
+        };
+    }
+
+    // ---------------------------------------------------------
+    // Persistent implicit treap
+    // ---------------------------------------------------------
+
+    static final class Node {
+
+        final Song song;
+        final int priority;
+        final Node left, right;
+        final int size;
+
+        Node(Song song, int priority, Node left, Node right) {
+            this.song = song;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + size(left) + size(right);
+        }
+
+        Node with(Node left, Node right) {
+            return new Node(song, priority, left, right);
+        }
+    }
+
+    static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    static Node insert(Node root, int index, Song song) {
+
+        Node[] parts = split(root, index);
+
+        Node single = new Node(song, ThreadLocalRandom.current().nextInt(), null, null);
+
+        return merge(merge(parts[0], single), parts[1]);
+    }
+
+    static Node remove(Node root, int index) {
+
+        Node[] parts = split(root, index);
+        Node[] rest = split(parts[1], 1);
+
+        return merge(parts[0], rest[1]);
+    }
+
+    /*
+     Splits into the first count songs and the rest. Only nodes on
+     the search path are copied; both inputs stay valid.
+     */
+    static Node[] split(Node node, int count) {
+
+        if(node == null)
+            return new Node[]{null, null};
+
+        int left = size(node.left);
+
+        if(count <= left) {
+            Node[] parts = split(node.left, count);
+            return new Node[]{parts[0], node.with(parts[1], node.right)};
+        }
+
+        Node[] parts = split(node.right, count - left - 1);
+
+        return new Node[]{node.with(node.left, parts[0]), parts[1]};
+    }
+
+    // every song of a comes before every song of b
+    static Node merge(Node a, Node b) {
+
+        if(a == null)
+            return b;
+
+        if(b == null)
+            return a;
+
+        if(a.priority > b.priority)
+            return a.with(a.left, merge(a.right, b));
+
+        return b.with(merge(a, b.left), b.right);
     }
 }
 
@@ -238,13 +609,18 @@ class User {
     private String password;
 
     private List<Playlist> playlists = new ArrayList<>();
-    private List<Song> listeningHistory = new ArrayList<>();
+    private ListeningHistory listeningHistory;
     private Set<Artist> followedArtists = new HashSet<>();
 
     public User(String id, String username, String password) {
         this.id = id;
         this.username = username;
         this.password = password;
+        this.listeningHistory = new ListeningHistory(id);
+    }
+
+    public String getId() {
+        return id;
     }
 
     public String getUsername() {
@@ -259,12 +635,22 @@ class User {
         playlists.add(playlist);
     }
 
+    // most recent plays still in memory, oldest first
     public List<Song> getListeningHistory() {
-        return listeningHistory;
+        return listeningHistory.recentSongs();
+    }
+
+    public Song getLastPlayed() {
+        return listeningHistory.lastSong();
+    }
+
+    // full history, spilled plays included, oldest first
+    public HistoryCursor streamHistory() {
+        return listeningHistory.stream();
     }
 
     public void addToHistory(Song song) {
-        listeningHistory.add(song);
+        listeningHistory.add(song, System.currentTimeMillis());
     }
 
     public void followArtist(Artist artist) {
@@ -274,186 +660,2627 @@ class User {
 
 
 /* ================================================================
-   MUSIC LIBRARY (SINGLETON)
-   Central storage for songs/albums/artists
+   SONG REGISTRY
+   Dense int index per song, so per-play records can hold an int
+   instead of a Song reference. Indexes live only in this process;
+   anything written to disk uses the song id.
    ================================================================ */
-class MusicLibrary {
+class SongRegistry {
 
-    private static MusicLibrary instance = new MusicLibrary();
+    private final Map<String, Integer> indexes = new ConcurrentHashMap<>();
+    private volatile Song[] songs = new Song[1024];
 
-    private Map<String, Song> songs = new ConcurrentHashMap<>();
-    private Map<String, Album> albums = new ConcurrentHashMap<>();
-    private Map<String, Artist> artists = new ConcurrentHashMap<>();
+    public int indexOf(Song song) {
 
-    private MusicLibrary() {}
+        Integer index = indexes.get(song.getId());
 
-    public static MusicLibrary getInstance() {
-        return instance;
+        return index != null ? index : intern(song);
     }
 
-    public void addSong(Song song) {
-        songs.put(song.getId(), song);
+    public Song get(int index) {
+        return songs[index];
     }
 
-    public void addAlbum(String id, Album album) {
-        albums.put(id, album);
-    }
+    private synchronized int intern(Song song) {
 
-    public void addArtist(String id, Artist artist) {
-        artists.put(id, artist);
-    }
+        Integer index = indexes.get(song.getId());
 
-    public Song getSong(String id) {
-        return songs.get(id);
-    }
+        if(index != null)
+            return index;
 
-    public List<Song> searchSong(String keyword) {
+        int next = indexes.size();
 
-        List<Song> result = new ArrayList<>();
+        if(next == songs.length)
+            songs = Arrays.copyOf(songs, next * 2);
 
-        for (Song s : songs.values()) {
-            if (s.getTitle().toLowerCase().contains(keyword.toLowerCase())) {
-                result.add(s);
-            }
-        }
+        songs[next] = song;
 
-        return result;
+        // publish the index last, readers then find the song in place
+        indexes.put(song.getId(), next);
+
+        return next;
     }
 }
 
 
 /* ================================================================
-   USER MANAGER (SINGLETON)
-   Handles registration & login
+   PLAY RECORD
+   One play as returned by history cursors
    ================================================================ */
-class UserManager {
-
-    private static UserManager instance = new UserManager();
-
-    private Map<String, User> users = new ConcurrentHashMap<>();
+class PlayRecord {
 
-    private UserManager(){}
+    private final String songId;
+    private final long timestamp;
 
-    public static UserManager getInstance() {
-        return instance;
+    public PlayRecord(String songId, long timestamp) {
+        this.songId = songId;
+        this.timestamp = timestamp;
     }
 
-    public void register(String id, String username, String password) {
-        users.put(username, new User(id, username, password));
-    }
+    public String getSongId() { return songId; }
+    public long getTimestamp() { return timestamp; }
 
-    public User login(String username, String password) {
+    // null if the song is no longer in the library
+    public Song getSong() {
+        return MusicLibrary.getInstance().getSong(songId);
+    }
+}
 
-        User user = users.get(username);
 
-        if(user != null && user.validatePassword(password))
-            return user;
+/* ================================================================
+   HISTORY CURSOR
+   Streaming, oldest-first iterator over a listening history.
+   Close it when done; it may hold an open log segment.
+   ================================================================ */
+interface HistoryCursor extends Iterator<PlayRecord>, Closeable {
 
-        return null;
-    }
+    void close();
 }
 
 
 /* ================================================================
-   MUSIC PLAYER
-   Responsible for playback controls
+   LISTENING HISTORY
+   Bounded per-user play history
+
+   - The last CAPACITY plays live in two primitive rings
+     (song index, timestamp): 12 bytes per play and no Song
+     references. Rings start small and double up to CAPACITY,
+     so light users stay light.
+   - When the ring is full the oldest SPILL_BATCH plays are
+     written to the shared HistoryLog in one append, so per-user
+     memory is capped at CAPACITY plays.
+   - stream() returns the logged plays (this and earlier runs)
+     followed by the ring, snapshotted under the user's lock so no
+     play is missed or seen twice.
    ================================================================ */
-class MusicPlayer {
+class ListeningHistory {
 
-    private Song currentSong;
-    private boolean isPlaying;
-    private int currentPosition;
+    static final int CAPACITY = 1024;
+    static final int SPILL_BATCH = 256;
 
-    public void play(Song song) {
+    private final String userId;
 
-        currentSong = song;
-        isPlaying = true;
-        currentPosition = 0;
+    private int[] songIndexes = new int[16];
+    private long[] timestamps = new long[16];
+    private int head; // oldest entry
+    private int size;
 
-        System.out.println("Playing: " + song);
+    public ListeningHistory(String userId) {
+        this.userId = userId;
     }
 
-    public void pause() {
+    public synchronized void add(Song song, long timestamp) {
 
-        isPlaying = false;
-        System.out.println("Paused");
-    }
+        int index = MusicLibrary.getInstance().getSongRegistry().indexOf(song);
 
-    public void seek(int seconds) {
+        if(size == songIndexes.length) {
 
-        currentPosition = seconds;
-        System.out.println("Seek to: " + seconds);
-    }
+            if(size < CAPACITY)
+                grow();
+            else
+                spillOldest();
+        }
 
-    public void skip(Song nextSong) {
+        int slot = (head + size) % songIndexes.length;
 
-        play(nextSong);
+        songIndexes[slot] = index;
+        timestamps[slot] = timestamp;
+        size++;
     }
-}
 
+    public synchronized Song lastSong() {
 
-/* ================================================================
-   MUSIC RECOMMENDER (SINGLETON)
-   Simple recommendation based on listening history
-   ================================================================ */
-class MusicRecommender {
-
-    private static MusicRecommender instance = new MusicRecommender();
+        if(size == 0)
+            return null;
 
-    private MusicRecommender(){}
+        int slot = (head + size - 1) % songIndexes.length;
 
-    public static MusicRecommender getInstance() {
-        return instance;
+        return MusicLibrary.getInstance().getSongRegistry().get(songIndexes[slot]);
     }
 
-    public List<Song> recommend(User user) {
-
-        List<Song> history = user.getListeningHistory();
+    public synchronized List<Song> recentSongs() {
 
-        if(history.isEmpty())
-            return new ArrayList<>();
+        SongRegistry registry = MusicLibrary.getInstance().getSongRegistry();
 
-        Song lastSong = history.get(history.size()-1);
+        List<Song> result = new ArrayList<>(size);
 
-        // recommend songs from same artist
-        Artist artist = lastSong.getArtist();
+        for(int i = 0; i < size; i++)
+            result.add(registry.get(songIndexes[(head + i) % songIndexes.length]));
 
-        return new ArrayList<>(artist.songs);
+        return result;
     }
-}
 
+    public synchronized HistoryCursor stream() {
 
-/* ================================================================
-   MUSIC STREAMING SERVICE
-   Main entry point
-   ================================================================ */
-public class MusicStreamingService {
+        SongRegistry registry = MusicLibrary.getInstance().getSongRegistry();
 
-    public static void main(String[] args) {
+        // the ring is small; copying it keeps the cursor lock-free afterwards
+        List<PlayRecord> recent = new ArrayList<>(size);
 
-        MusicLibrary library = MusicLibrary.getInstance();
-        UserManager userManager = UserManager.getInstance();
-        MusicPlayer player = new MusicPlayer();
-        MusicRecommender recommender = MusicRecommender.getInstance();
+        for(int i = 0; i < size; i++) {
 
+            int slot = (head + i) % songIndexes.length;
 
-        /* Create Sample Data */
+            recent.add(new PlayRecord(registry.get(songIndexes[slot]).getId(), timestamps[slot]));
+        }
 
-        Artist arijit = new Artist("A1","Arijit Singh");
+        HistoryCursor older = HistoryLog.getInstance().scan(userId);
 
-        Album album = new Album("AL1","Hits",arijit);
+        Iterator<PlayRecord> inMemory = recent.iterator();
 
-        Song s1 = new Song("S1","Tum Hi Ho",arijit,album,200);
-        Song s2 = new Song("S2","Channa Mereya",arijit,album,220);
+        return new HistoryCursor() {
 
-        album.addSong(s1);
-        album.addSong(s2);
+            public boolean hasNext() {
+                return older.hasNext() || inMemory.hasNext();
+            }
 
-        arijit.addSong(s1);
-        arijit.addSong(s2);
+            public PlayRecord next() {
+                return older.hasNext() ? older.next() : inMemory.next();
+            }
 
-        library.addSong(s1);
-        library.addSong(s2);
+            public void close() {
+                older.close();
+            }
+        };
+    }
+
+    private void grow() {
+
+        int capacity = Math.min(CAPACITY, songIndexes.length * 2);
+
+        int[] indexes = new int[capacity];
+        long[] times = new long[capacity];
+
+        for(int i = 0; i < size; i++) {
+            indexes[i] = songIndexes[(head + i) % songIndexes.length];
+            times[i] = timestamps[(head + i) % songIndexes.length];
+        }
+
+        songIndexes = indexes;
+        timestamps = times;
+        head = 0;
+    }
+
+    private void spillOldest() {
+
+        SongRegistry registry = MusicLibrary.getInstance().getSongRegistry();
+
+        String[] songIds = new String[SPILL_BATCH];
+        long[] times = new long[SPILL_BATCH];
+
+        for(int i = 0; i < SPILL_BATCH; i++) {
+
+            int slot = (head + i) % songIndexes.length;
+
+            songIds[i] = registry.get(songIndexes[slot]).getId();
+            times[i] = timestamps[slot];
+        }
+
+        HistoryLog.getInstance().append(userId, songIds, times);
+
+        head = (head + SPILL_BATCH) % songIndexes.length;
+        size -= SPILL_BATCH;
+    }
+}
+
+
+/* ================================================================
+   HISTORY LOG (SINGLETON)
+   Append-only, segmented play log on disk
+
+   - Records: userId (UTF), songId (UTF), timestamp (long)
+   - Segments history-00000001.log, history-00000002.log, ...
+     roll at SEGMENT_BYTES so old segments can be shipped to
+     analytics or deleted independently.
+   - Appends are buffered; readers flush first and stop at the
+     segment lengths seen then, so a scan sees exactly the spills
+     that happened before it started.
+   - Directory: system property spotify.history.dir, which keeps
+     the log (and appends to it) across runs. Without it every
+     process gets a fresh temp directory, so plays of an earlier
+     run never show up under a reused user id.
+   - A shutdown hook flushes and closes the log, so buffered
+     spills are not lost at exit.
+
+   scan(userId) reads all segments and filters by user: fine for
+   analytics, not meant for the serving path.
+   ================================================================ */
+class HistoryLog {
+
+    static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    private static HistoryLog instance;
+
+    private final Path dir;
+
+    private DataOutputStream out;
+    private int segmentNumber;
+    private long segmentSize;
+
+    private HistoryLog(Path dir) {
+
+        this.dir = dir;
+
+        try {
+            Files.createDirectories(dir);
+
+            // continue after the segments of earlier runs
+            for(Path segment : segments())
+                segmentNumber = Math.max(segmentNumber,
+                        Integer.parseInt(segment.getFileName().toString().substring(8, 16)));
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static synchronized HistoryLog getInstance() {
+
+        if(instance == null) {
+
+            String configured = System.getProperty("spotify.history.dir");
+
+            try {
+                instance = new HistoryLog(configured != null
+                        ? Paths.get(configured)
+                        : Files.createTempDirectory("spotify-history"));
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            Runtime.getRuntime().addShutdownHook(new Thread(instance::close, "history-log-close"));
+        }
+
+        return instance;
+    }
+
+    public synchronized void append(String userId, String[] songIds, long[] timestamps) {
+
+        try {
+
+            if(out == null || segmentSize >= SEGMENT_BYTES)
+                roll();
+
+            for(int i = 0; i < songIds.length; i++) {
+
+                int before = out.size();
+
+                out.writeUTF(userId);
+                out.writeUTF(songIds[i]);
+                out.writeLong(timestamps[i]);
+
+                segmentSize += out.size() - before;
+            }
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+     Streams every logged play of one user, oldest first.
+     */
+    public HistoryCursor scan(String userId) {
+
+        List<Path> segments;
+        long[] lengths;
+
+        synchronized(this) {
+
+            try {
+                if(out != null)
+                    out.flush();
+
+                segments = segments();
+                lengths = new long[segments.size()];
+
+                for(int i = 0; i < lengths.length; i++)
+                    lengths[i] = Files.size(segments.get(i));
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        return new HistoryCursor() {
+
+            private int file;
+            private DataInputStream in;
+            private PlayRecord next;
+
+            public boolean hasNext() {
+
+                if(next == null)
+                    next = advance();
+
+                return next != null;
+            }
+
+            public PlayRecord next() {
+
+                if(!hasNext())
+                    throw new NoSuchElementException();
+
+                PlayRecord record = next;
+                next = null;
+
+                return record;
+            }
+
+            public void close() {
+
+                try {
+                    if(in != null)
+                        in.close();
+                }
+                catch(IOException ignored) {
+                }
+
+                in = null;
+            }
+
+            private PlayRecord advance() {
+
+                try {
+
+                    while(true) {
+
+                        if(in == null) {
+
+                            if(file == lengths.length)
+                                return null;
+
+                            InputStream segment = limit(Files.newInputStream(segments.get(file)), lengths[file]);
+
+                            file++;
+
+                            in = new DataInputStream(new BufferedInputStream(segment, 64 * 1024));
+                        }
+
+                        try {
+                            String user = in.readUTF();
+                            String song = in.readUTF();
+                            long timestamp = in.readLong();
+
+                            if(user.equals(userId))
+                                return new PlayRecord(song, timestamp);
+                        }
+                        catch(EOFException e) {
+                            // end of segment (or a record cut short by a crash)
+                            close();
+                        }
+                    }
+                }
+                catch(IOException e) {
+                    close();
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /*
+     Ends the stream after limit bytes: appends made after the scan
+     started are not read.
+     */
+    private static InputStream limit(InputStream in, long limit) {
+
+        return new FilterInputStream(in) {
+
+            private long remaining = limit;
+
+            public int read() throws IOException {
+
+                if(remaining <= 0)
+                    return -1;
+
+                int b = super.read();
+
+                if(b >= 0)
+                    remaining--;
+
+                return b;
+            }
+
+            public int read(byte[] buf, int off, int len) throws IOException {
+
+                if(remaining <= 0)
+                    return -1;
+
+                int n = super.read(buf, off, (int) Math.min(len, remaining));
+
+                if(n > 0)
+                    remaining -= n;
+
+                return n;
+            }
+        };
+    }
+
+    public synchronized void flush() {
+
+        try {
+            if(out != null)
+                out.flush();
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+     Flushes and closes the current segment. A later append
+     starts a new one.
+     */
+    public synchronized void close() {
+
+        try {
+            if(out != null)
+                out.close();
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            out = null;
+        }
+    }
+
+    private void roll() throws IOException {
+
+        if(out != null)
+            out.close();
+
+        segmentNumber++;
+
+        Path segment = dir.resolve(String.format("history-%08d.log", segmentNumber));
+
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(segment,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), 64 * 1024));
+
+        segmentSize = 0;
+    }
+
+    private List<Path> segments() throws IOException {
+
+        try(Stream<Path> files = Files.list(dir)) {
+
+            List<Path> result = new ArrayList<>();
+
+            files.filter(f -> f.getFileName().toString().matches("history-\\d{8}\\.log"))
+                    .sorted()
+                    .forEach(result::add);
+
+            return result;
+        }
+    }
+}
+
+
+/* ================================================================
+   SONG SEARCH INDEX
+   Inverted index over song title, artist name and album name
+
+   - Every song gets a dense doc id in the order it is added.
+   - terms:    token         -> postings (exact word match)
+   - prefixes: token[0..n)   -> postings, n = 1..MAX_PREFIX
+                                (edge n-grams, for search-as-you-type)
+   - Postings keep one doc id list per field (title, artist, album),
+     each in doc id order. A doc sits in the list of the best field
+     it matched, so lists are "impact ordered" by field weight.
+
+   Ranking: score = sum of the field weights the query words hit
+   (title 3, artist 2, album 1), ties go to the earlier added song.
+   The rarest query word drives the search, the others are checked
+   with forward-only galloping cursors, and the scan stops as soon as no remaining
+   candidate can beat the current top-K. A one-word query therefore
+   costs O(K), not O(matches).
+
+   Autocomplete: every prefix keeps the SUGGESTIONS most frequent
+   words that start with it, updated as songs are added.
+
+   Concurrency: add() is synchronized (catalog ingestion); searches
+   never lock. Lists publish their size through a volatile after the
+   element is written, so readers always see complete entries. A song
+   is stored in docs before its id enters any list, so a search reads
+   its list sizes first and docs after: every id it sees has a song.
+   ================================================================ */
+class SongSearchIndex {
+
+    static final int TITLE = 0, ARTIST = 1, ALBUM = 2;
+    static final int[] WEIGHTS = {3, 2, 1};
+
+    static final int MAX_PREFIX = 10;
+    static final int SUGGESTIONS = 10;
+
+    private final Map<String, Integer> docIds = new ConcurrentHashMap<>();
+    private volatile Song[] docs = new Song[1024];
+
+    private final Map<String, Postings> terms = new ConcurrentHashMap<>();
+    private final Map<String, Postings> prefixes = new ConcurrentHashMap<>();
+    private final Map<String, TopTerms> completions = new ConcurrentHashMap<>();
+
+    public int size() {
+        return docIds.size();
+    }
+
+    /*
+     Indexes the song's title, artist and album name.
+     Songs already indexed (same id) are skipped, names never change.
+     */
+    public synchronized void add(Song song) {
+
+        if(docIds.containsKey(song.getId()))
+            return;
+
+        int doc = docIds.size();
+
+        if(doc == docs.length)
+            docs = Arrays.copyOf(docs, doc * 2);
+
+        docs[doc] = song;
+
+        // best (lowest) field per word and per word prefix
+        Map<String, Integer> words = new HashMap<>();
+
+        collect(song.getTitle(), TITLE, words);
+
+        if(song.getArtist() != null)
+            collect(song.getArtist().getName(), ARTIST, words);
+
+        if(song.getAlbum() != null)
+            collect(song.getAlbum().getName(), ALBUM, words);
+
+        Map<String, Integer> grams = new HashMap<>();
+
+        for(Map.Entry<String, Integer> e : words.entrySet()) {
+
+            String word = e.getKey();
+
+            terms.computeIfAbsent(word, w -> new Postings()).add(doc, e.getValue());
+
+            for(int n = 1; n <= Math.min(MAX_PREFIX, word.length()); n++)
+                grams.merge(word.substring(0, n), e.getValue(), Math::min);
+        }
+
+        for(Map.Entry<String, Integer> e : grams.entrySet())
+            prefixes.computeIfAbsent(e.getKey(), g -> new Postings()).add(doc, e.getValue());
+
+        for(String word : words.keySet()) {
+
+            int frequency = terms.get(word).size();
+
+            for(int n = 1; n <= Math.min(MAX_PREFIX, word.length()); n++)
+                completions.computeIfAbsent(word.substring(0, n), g -> new TopTerms())
+                        .offer(word, frequency);
+        }
+
+        docIds.put(song.getId(), doc);
+    }
+
+    /*
+     Ranked search. Every word must match; the last word also matches
+     as a prefix unless the query ends with a space (still typing).
+     Returns results [offset, offset + limit) of the ranking.
+     */
+    public List<Song> search(String query, int offset, int limit) {
+
+        List<String> words = tokenize(query);
+
+        if(words.isEmpty() || limit <= 0)
+            return new ArrayList<>();
+
+        boolean lastIsPrefix = Character.isLetterOrDigit(query.charAt(query.length() - 1));
+
+        Clause[] clauses = new Clause[words.size()];
+
+        for(int i = 0; i < clauses.length; i++) {
+
+            String word = words.get(i);
+            boolean prefix = lastIsPrefix && i == clauses.length - 1;
+
+            Postings postings = prefix
+                    ? prefixes.get(word.length() > MAX_PREFIX ? word.substring(0, MAX_PREFIX) : word)
+                    : terms.get(word);
+
+            if(postings == null)
+                return new ArrayList<>();
+
+            // prefixes longer than the n-grams are checked against the song itself
+            clauses[i] = new Clause(postings, prefix && word.length() > MAX_PREFIX ? word : null);
+        }
+
+        // the rarest word drives the scan
+        int driver = 0;
+
+        for(int i = 1; i < clauses.length; i++)
+            if(clauses[i].postings.size() < clauses[driver].postings.size())
+                driver = i;
+
+        int want = offset + limit;
+        int othersMax = WEIGHTS[TITLE] * (clauses.length - 1);
+
+        // worst result on top; key = score << 32 | (MAX - doc)
+        PriorityQueue<Long> top = new PriorityQueue<>();
+
+        // sizes before docs: a concurrent add() may grow both in between
+        IntList[] driverLists = clauses[driver].postings.fields;
+        int[] sizes = new int[ALBUM + 1];
+
+        for(int field = TITLE; field <= ALBUM; field++)
+            sizes[field] = driverLists[field].size;
+
+        Song[] snapshot = docs;
+
+        for(int field = TITLE; field <= ALBUM; field++) {
+
+            long bound = WEIGHTS[field] + othersMax;
+
+            int n = sizes[field];
+            int[] ids = driverLists[field].data;
+
+            if(n == 0)
+                continue;
+
+            // the best key left: this list's score bound with its lowest doc id;
+            // later lists score less, so a tie must be decided on the full key
+            if(top.size() == want && top.peek() > (bound << 32 | (Integer.MAX_VALUE - ids[0])))
+                break;
+
+            // driver docs ascend within a field list, so cursors restart per list
+            for(Clause c : clauses)
+                c.resetCursors();
+
+            for(int i = 0; i < n; i++) {
+
+                int doc = ids[i];
+                long score = 0;
+
+                for(int c = 0; c < clauses.length; c++) {
+
+                    int f = c == driver && clauses[c].fullPrefix == null
+                            ? field
+                            : clauses[c].fieldOf(doc, snapshot);
+
+                    if(f < 0) {
+                        score = -1;
+                        break;
+                    }
+
+                    score += WEIGHTS[f];
+                }
+
+                if(score < 0)
+                    continue;
+
+                long key = score << 32 | (Integer.MAX_VALUE - doc);
+
+                if(top.size() < want) {
+                    top.add(key);
+                }
+                else if(key > top.peek()) {
+                    top.poll();
+                    top.add(key);
+                }
+
+                // later docs in this list have higher ids, so their best key is the next one's
+                if(i + 1 < n && top.size() == want
+                        && top.peek() > (bound << 32 | (Integer.MAX_VALUE - ids[i + 1])))
+                    break;
+            }
+        }
+
+        long[] ranked = new long[top.size()];
+
+        for(int i = ranked.length - 1; i >= 0; i--)
+            ranked[i] = top.poll();
+
+        List<Song> result = new ArrayList<>();
+
+        for(int i = offset; i < ranked.length; i++)
+            result.add(snapshot[Integer.MAX_VALUE - (int) ranked[i]]);
+
+        return result;
+    }
+
+    /*
+     Completes the word being typed with the most frequent indexed
+     words, e.g. "arijit si" -> ["arijit singh", ...].
+     */
+    public List<String> autocomplete(String typed, int k) {
+
+        List<String> words = tokenize(typed);
+
+        List<String> result = new ArrayList<>();
+
+        if(words.isEmpty())
+            return result;
+
+        String last = words.get(words.size() - 1);
+
+        TopTerms top = completions.get(last.length() > MAX_PREFIX ? last.substring(0, MAX_PREFIX) : last);
+
+        if(top == null)
+            return result;
+
+        String typedBefore = String.join(" ", words.subList(0, words.size() - 1));
+
+        for(String word : top.top(Math.min(k, SUGGESTIONS), last))
+            result.add(typedBefore.isEmpty() ? word : typedBefore + " " + word);
+
+        return result;
+    }
+
+    /*
+     Lowercase words with accents stripped; anything that is not a
+     letter or digit separates words. "Halo (Live)" -> [halo, live]
+     */
+    static List<String> tokenize(String text) {
+
+        List<String> words = new ArrayList<>();
+
+        if(text == null)
+            return words;
+
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+
+        StringBuilder word = new StringBuilder();
+
+        for(int i = 0; i < decomposed.length(); i++) {
+
+            char c = decomposed.charAt(i);
+
+            if(Character.getType(c) == Character.NON_SPACING_MARK)
+                continue;
+
+            if(Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            }
+            else if(word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+
+        if(word.length() > 0)
+            words.add(word.toString());
+
+        return words;
+    }
+
+    private static void collect(String text, int field, Map<String, Integer> words) {
+
+        for(String word : tokenize(text))
+            words.merge(word, field, Math::min);
+    }
+
+    /*
+     One query word: its postings, plus the full prefix when it is
+     longer than the indexed n-grams and must be verified per song.
+     */
+    private static class Clause {
+
+        final Postings postings;
+        final String fullPrefix;
+
+        Clause(Postings postings, String fullPrefix) {
+            this.postings = postings;
+            this.fullPrefix = fullPrefix;
+        }
+
+        // per field: every entry before it is smaller than the docs still to check
+        private final int[] cursors = new int[3];
+
+        void resetCursors() {
+            Arrays.fill(cursors, 0);
+        }
+
+        /*
+         Best field of doc for this word, -1 if it does not match.
+         Docs must be asked in ascending order between resets.
+         */
+        int fieldOf(int doc, Song[] docs) {
+
+            int field = -1;
+
+            for(int f = TITLE; f <= ALBUM && field < 0; f++) {
+
+                IntList list = postings.fields[f];
+
+                cursors[f] = list.seek(cursors[f], doc);
+
+                if(cursors[f] < list.size && list.data[cursors[f]] == doc)
+                    field = f;
+            }
+
+            if(field < 0 || fullPrefix == null)
+                return field;
+
+            Song song = docs[doc];
+
+            if(startsWith(song.getTitle(), fullPrefix))
+                return TITLE;
+
+            if(song.getArtist() != null && startsWith(song.getArtist().getName(), fullPrefix))
+                return ARTIST;
+
+            if(song.getAlbum() != null && startsWith(song.getAlbum().getName(), fullPrefix))
+                return ALBUM;
+
+            return -1;
+        }
+
+        private static boolean startsWith(String text, String prefix) {
+
+            for(String word : tokenize(text))
+                if(word.startsWith(prefix))
+                    return true;
+
+            return false;
+        }
+    }
+
+    /*
+     Doc ids per field, each list in ascending doc id order.
+     */
+    private static class Postings {
+
+        final IntList[] fields = {new IntList(), new IntList(), new IntList()};
+
+        void add(int doc, int field) {
+            fields[field].add(doc);
+        }
+
+        int size() {
+            return fields[TITLE].size + fields[ARTIST].size + fields[ALBUM].size;
+        }
+    }
+
+    /*
+     Append-only int list for one writer and many lock-free readers.
+     The array is replaced before size grows, so a reader that sees
+     size n also sees an array holding n entries.
+     */
+    private static class IntList {
+
+        volatile int[] data = new int[2];
+        volatile int size;
+
+        void add(int value) {
+
+            int n = size;
+
+            if(n == data.length)
+                data = Arrays.copyOf(data, n * 2);
+
+            data[n] = value;
+            size = n + 1;
+        }
+
+        /*
+         First index >= from holding a value >= target (size if none).
+         Gallops 1, 2, 4, ... entries ahead and binary searches the
+         last step, so walking the list in order costs about
+         O(log gap) per lookup instead of O(log size).
+         */
+        int seek(int from, int target) {
+
+            int n = size;
+            int[] a = data;
+
+            if(from >= n || a[from] >= target)
+                return from;
+
+            int lo = from, step = 1;
+
+            while(lo + step < n && a[lo + step] < target) {
+                lo += step;
+                step <<= 1;
+            }
+
+            int i = Arrays.binarySearch(a, lo + 1, Math.min(n, lo + step + 1), target);
+
+            return i >= 0 ? i : -i - 1;
+        }
+    }
+
+    /*
+     The SUGGESTIONS most frequent words for one prefix.
+     Frequencies only grow and every change is offered, so the list
+     always holds the true top words.
+     */
+    private static class TopTerms {
+
+        private final String[] words = new String[SUGGESTIONS];
+        private final int[] counts = new int[SUGGESTIONS];
+        private int size;
+
+        synchronized void offer(String word, int count) {
+
+            int i = 0;
+
+            while(i < size && !words[i].equals(word))
+                i++;
+
+            if(i == size) {
+
+                if(size < SUGGESTIONS)
+                    size++;
+                else if(count <= counts[size - 1])
+                    return;
+
+                i = size - 1;
+            }
+
+            // move up to keep the list sorted by count, most frequent first
+            while(i > 0 && counts[i - 1] < count) {
+                words[i] = words[i - 1];
+                counts[i] = counts[i - 1];
+                i--;
+            }
+
+            words[i] = word;
+            counts[i] = count;
+        }
+
+        synchronized List<String> top(int k, String prefix) {
+
+            List<String> result = new ArrayList<>();
+
+            for(int i = 0; i < size && result.size() < k; i++)
+                if(words[i].startsWith(prefix))
+                    result.add(words[i]);
+
+            return result;
+        }
+    }
+}
+
+
+/* ================================================================
+   MUSIC LIBRARY (SINGLETON)
+   Central storage for songs/albums/artists
+   ================================================================ */
+class MusicLibrary {
+
+    private static MusicLibrary instance = new MusicLibrary();
+
+    private Map<String, Song> songs = new ConcurrentHashMap<>();
+    private Map<String, Album> albums = new ConcurrentHashMap<>();
+    private Map<String, Artist> artists = new ConcurrentHashMap<>();
+
+    private SongSearchIndex searchIndex = new SongSearchIndex();
+
+    private SongRegistry songRegistry = new SongRegistry();
+
+    static final int DEFAULT_PAGE_SIZE = 20;
+
+    private MusicLibrary() {}
+
+    public static MusicLibrary getInstance() {
+        return instance;
+    }
+
+    public void addSong(Song song) {
+        songs.put(song.getId(), song);
+        songRegistry.indexOf(song);
+        searchIndex.add(song);
+    }
+
+    public SongRegistry getSongRegistry() {
+        return songRegistry;
+    }
+
+    // songs reachable through the album/artist become searchable too
+    public void addAlbum(String id, Album album) {
+        albums.put(id, album);
+        addSongs(album.getSongs());
+    }
+
+    public void addArtist(String id, Artist artist) {
+        artists.put(id, artist);
+        addSongs(artist.getSongs());
+    }
+
+    private void addSongs(List<Song> list) {
+
+        for (Song s : new ArrayList<>(list)) {
+            songs.putIfAbsent(s.getId(), s);
+            searchIndex.add(s);
+        }
+    }
+
+    public Song getSong(String id) {
+        return songs.get(id);
+    }
+
+    /*
+     First page of ranked results over title, artist and album.
+     */
+    public List<Song> searchSong(String keyword) {
+        return searchSong(keyword, 0, DEFAULT_PAGE_SIZE);
+    }
+
+    public List<Song> searchSong(String keyword, int offset, int limit) {
+        return searchIndex.search(keyword, offset, limit);
+    }
+
+    public List<String> autocomplete(String typed, int k) {
+        return searchIndex.autocomplete(typed, k);
+    }
+}
+
+
+/* ================================================================
+   USER MANAGER (SINGLETON)
+   Handles registration & login
+   ================================================================ */
+class UserManager {
+
+    private static UserManager instance = new UserManager();
+
+    private Map<String, User> users = new ConcurrentHashMap<>();
+
+    private UserManager(){}
+
+    public static UserManager getInstance() {
+        return instance;
+    }
+
+    public void register(String id, String username, String password) {
+        users.put(username, new User(id, username, password));
+    }
+
+    public User login(String username, String password) {
+
+        User user = users.get(username);
+
+        if(user != null && user.validatePassword(password))
+            return user;
+
+        return null;
+    }
+}
+
+
+/* ================================================================
+   AUDIO STORE
+   Resolves a song to its audio file
+   ================================================================ */
+interface AudioStore {
+
+    // null if the song has no local audio
+    Path pathFor(Song song);
+}
+
+
+/*
+ Audio files laid out as <dir>/<song id>.pcm
+ */
+class DirectoryAudioStore implements AudioStore {
+
+    private final Path dir;
+
+    public DirectoryAudioStore(Path dir) {
+        this.dir = dir;
+    }
+
+    public Path pathFor(Song song) {
+
+        Path path = dir.resolve(song.getId() + ".pcm");
+
+        return Files.isReadable(path) ? path : null;
+    }
+}
+
+
+/* ================================================================
+   AUDIO SINK
+   Consumes audio chunks in playback order. Chunks are read-only
+   slices of the memory-mapped file: the sink gets the page cache
+   bytes directly, nothing is copied on the way.
+   A real sink blocks while the device buffer is full, which is
+   what paces playback.
+   ================================================================ */
+interface AudioSink {
+
+    void write(Song song, ByteBuffer chunk);
+}
+
+
+/*
+ Discards audio, counting what it was given. For tests and benchmarks.
+ */
+class NullAudioSink implements AudioSink {
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+
+    public void write(Song song, ByteBuffer chunk) {
+        bytes.addAndGet(chunk.remaining());
+        chunks.incrementAndGet();
+    }
+
+    public long getBytes() { return bytes.get(); }
+    public long getChunks() { return chunks.get(); }
+}
+
+
+/* ================================================================
+   MUSIC PLAYER
+   Responsible for playback controls
+
+   Pipeline:
+     prefetch thread            bounded queue          output thread
+     map file, slice chunks --> PREFETCH_CHUNKS --> sink.write(chunk)
+
+   - Files are read through FileChannel.map (read-only), chunks are
+     slices of the mapping: zero copies between page cache and sink.
+   - When a track's last chunk is queued, the prefetch thread goes
+     straight on to the next queued song, so its first chunks are
+     already waiting when the current song ends: gapless playback.
+     A song queued after that is picked up as soon as it is queued;
+     if the last track has already ended, it starts right away.
+   - Songs the prefetch thread has taken from the queue but that have
+     not started yet are kept in order (prefetched). skip() moves to
+     the first of them, and any track change puts the rest back at
+     the head of the queue, so no queued song is lost.
+   - play/skip/seek bump a generation and clear the queue; chunks of
+     an older generation are dropped by the output thread, so a skip
+     only waits for the first chunk of the new song.
+   - Audio is raw PCM, 44.1 kHz, 16 bit stereo (BYTES_PER_SECOND).
+   ================================================================ */
+class MusicPlayer implements Closeable {
+
+    static final int CHUNK_BYTES = 64 * 1024;
+    static final int PREFETCH_CHUNKS = 32;
+    static final int BYTES_PER_SECOND = 44_100 * 2 * 2;
+    static final int FRAME_BYTES = 4;
+
+    private final AudioStore store;
+    private final AudioSink sink;
+    private final TrendingCharts charts = TrendingCharts.getInstance();
+
+    private final BlockingQueue<AudioChunk> buffered = new ArrayBlockingQueue<>(PREFETCH_CHUNKS);
+    private final Deque<Song> upNext = new ArrayDeque<>();
+
+    // taken from upNext by the prefetch thread, not started yet; guarded by this
+    private final Deque<Song> prefetched = new ArrayDeque<>();
+
+    // next track for the prefetch thread, guarded by this
+    private Song requestedSong;
+    private long requestedOffset;
+
+    private volatile long generation;
+    private volatile Song currentSong;
+    private volatile boolean isPlaying;
+    private volatile long currentPosition; // bytes into currentSong
+
+    private final Thread prefetcher;
+    private final Thread output;
+
+    public MusicPlayer() {
+        this(new DirectoryAudioStore(Paths.get("audio")), new NullAudioSink());
+    }
+
+    public MusicPlayer(AudioStore store, AudioSink sink) {
+
+        this.store = store;
+        this.sink = sink;
+
+        prefetcher = new Thread(this::prefetchLoop, "player-prefetch");
+        output = new Thread(this::outputLoop, "player-output");
+
+        prefetcher.setDaemon(true);
+        output.setDaemon(true);
+
+        prefetcher.start();
+        output.start();
+    }
+
+    public void play(Song song) {
+
+        start(song, 0);
+
+        announce(song);
+    }
+
+    public void pause() {
+
+        isPlaying = false;
+        System.out.println("Paused");
+    }
+
+    public synchronized void resume() {
+
+        isPlaying = true;
+        notifyAll();
+    }
+
+    public void seek(int seconds) {
+
+        Song song = currentSong;
+
+        if(song != null)
+            start(song, (long) seconds * BYTES_PER_SECOND);
+
+        System.out.println("Seek to: " + seconds);
+    }
+
+    public void skip(Song nextSong) {
+
+        play(nextSong);
+    }
+
+    // skip to the next queued song, which may already be prefetched
+    public void skip() {
+
+        Song next;
+
+        synchronized(this) {
+
+            next = prefetched.isEmpty() ? upNext.poll() : prefetched.poll();
+
+            if(next != null)
+                start(next, 0);
+        }
+
+        if(next != null)
+            announce(next);
+    }
+
+    // plays after the current song without a gap
+    public synchronized void queue(Song song) {
+        upNext.add(song);
+        notifyAll();
+    }
+
+    public Song getCurrentSong() {
+        return currentSong;
+    }
+
+    public int getCurrentPosition() {
+        return (int) (currentPosition / BYTES_PER_SECOND);
+    }
+
+    public void close() {
+        prefetcher.interrupt();
+        output.interrupt();
+    }
+
+    private synchronized void start(Song song, long offset) {
+
+        generation++;
+        buffered.clear();
+
+        // prefetched songs that never started go back in line
+        while(!prefetched.isEmpty())
+            upNext.addFirst(prefetched.pollLast());
+
+        currentSong = song;
+        currentPosition = offset;
+
+        requestedSong = song;
+        requestedOffset = offset - offset % FRAME_BYTES;
+        isPlaying = true;
+
+        notifyAll();
+    }
+
+    private void announce(Song song) {
+
+        charts.recordPlay(song);
+
+        System.out.println("Playing: " + song);
+    }
+
+    // ---------------------------------------------------------
+    // Prefetch thread
+    // ---------------------------------------------------------
+
+    private void prefetchLoop() {
+
+        // generation whose tracks are all prefetched; its queue may still grow
+        long drained = -1;
+
+        try {
+
+            while(true) {
+
+                Song song;
+                long offset;
+                long gen;
+                boolean fromQueue;
+
+                synchronized(this) {
+
+                    while(requestedSong == null && (upNext.isEmpty() || drained != generation))
+                        wait();
+
+                    gen = generation;
+                    fromQueue = requestedSong == null;
+
+                    if(!fromQueue) {
+                        song = requestedSong;
+                        offset = requestedOffset;
+                        requestedSong = null;
+                    }
+                    else {
+                        song = takeQueued();
+                        offset = 0;
+                    }
+                }
+
+                // this track, then whatever is queued, until skipped
+                while(song != null && gen == generation) {
+
+                    if(!enqueue(song, offset, gen, fromQueue))
+                        break;
+
+                    offset = 0;
+                    fromQueue = true;
+
+                    synchronized(this) {
+                        song = gen == generation ? takeQueued() : null;
+                    }
+                }
+
+                drained = gen;
+            }
+        }
+        catch(InterruptedException e) {
+            // player closed
+        }
+    }
+
+    // guarded by this, for the current generation
+    private Song takeQueued() {
+
+        Song song = upNext.poll();
+
+        if(song != null)
+            prefetched.add(song);
+
+        return song;
+    }
+
+    /*
+     Queues the song's chunks from offset on; the first chunk of a
+     song taken from the queue starts it (see prefetched).
+     Returns false if the player moved to another track meanwhile.
+     */
+    private boolean enqueue(Song song, long offset, long gen, boolean fromQueue) throws InterruptedException {
+
+        Path path = store.pathFor(song);
+
+        if(path == null) {
+            System.out.println("No audio for " + song);
+            unqueue(song, gen, fromQueue);
+            return true;
+        }
+
+        MappedByteBuffer audio;
+
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            audio = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        catch(IOException e) {
+            System.out.println("Cannot read audio for " + song + ": " + e.getMessage());
+            unqueue(song, gen, fromQueue);
+            return true;
+        }
+
+        int size = audio.capacity();
+
+        if(size == 0)
+            unqueue(song, gen, fromQueue);
+
+        for(int pos = (int) Math.min(offset, size); pos < size; pos += CHUNK_BYTES) {
+
+            int length = Math.min(CHUNK_BYTES, size - pos);
+
+            buffered.put(new AudioChunk(gen, song, audio.slice(pos, length).asReadOnlyBuffer(), pos,
+                    fromQueue && pos == 0));
+
+            if(gen != generation)
+                return false;
+        }
+
+        return true;
+    }
+
+    // a queued song without audio never starts; skip() must not land on it
+    private synchronized void unqueue(Song song, long gen, boolean fromQueue) {
+
+        if(fromQueue && gen == generation)
+            prefetched.removeLastOccurrence(song);
+    }
+
+    // ---------------------------------------------------------
+    // Output thread
+    // ---------------------------------------------------------
+
+    private void outputLoop() {
+
+        try {
+
+            while(true) {
+
+                AudioChunk chunk = buffered.take();
+
+                if(chunk.generation != generation)
+                    continue; // skipped or seeked away
+
+                if(!isPlaying) {
+                    synchronized(this) {
+                        while(!isPlaying && chunk.generation == generation)
+                            wait();
+                    }
+
+                    if(chunk.generation != generation)
+                        continue;
+                }
+
+                // a queued song started without a play() call
+                if(chunk.startsQueued) {
+
+                    synchronized(this) {
+
+                        if(chunk.generation != generation)
+                            continue;
+
+                        prefetched.poll();
+                    }
+
+                    charts.recordPlay(chunk.song);
+                }
+
+                currentSong = chunk.song;
+
+                sink.write(chunk.song, chunk.data);
+
+                currentPosition = chunk.offset + chunk.data.capacity();
+            }
+        }
+        catch(InterruptedException e) {
+            // player closed
+        }
+    }
+
+    private static class AudioChunk {
+
+        final long generation;
+        final Song song;
+        final ByteBuffer data;
+        final long offset;
+
+        // first chunk of a song taken from the queue
+        final boolean startsQueued;
+
+        AudioChunk(long generation, Song song, ByteBuffer data, long offset, boolean startsQueued) {
+            this.generation = generation;
+            this.song = song;
+            this.data = data;
+            this.offset = offset;
+            this.startsQueued = startsQueued;
+        }
+    }
+}
+
+
+/* ================================================================
+   MUSIC RECOMMENDER (SINGLETON)
+   Item-item collaborative filtering over listening history
+
+   Model:
+   - Every song gets a dense int id.
+   - Two songs co-occur when one user plays them within WINDOW
+     plays of each other. Counts live in one open-addressing
+     int -> int map per song, so no boxing in the model.
+   - Similarity is cosine over co-occurrence:
+         sim(a, b) = cooc(a, b) / sqrt(plays(a) * plays(b))
+
+   Pipeline:
+   - recordPlay() only enqueues the play.
+   - One background thread applies plays to the model, marks the
+     touched songs dirty and, every REFRESH_MS, recomputes the
+     TOP_K most similar songs of each dirty song.
+   - Neighbor lists are immutable int[] published per song.
+
+   Serving: recommend() looks up the neighbor list of the last
+   played song, O(K) regardless of catalog or user count.
+   ================================================================ */
+class MusicRecommender {
+
+    static final int TOP_K = 10;
+    static final int WINDOW = 20;
+    static final long REFRESH_MS = 200;
+
+    private static MusicRecommender instance = new MusicRecommender();
+
+    // song id -> dense id; written by the pipeline thread only
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile AtomicReferenceArray<Song> songs = new AtomicReferenceArray<>(1024);
+    private volatile AtomicReferenceArray<int[]> neighbors = new AtomicReferenceArray<>(1024);
+
+    // model, owned by the pipeline thread
+    private IntIntMap[] cooccurrence = new IntIntMap[1024];
+    private int[] plays = new int[1024];
+    private final Map<User, RecentPlays> recent = new HashMap<>();
+
+    private boolean[] dirty = new boolean[1024];
+    private int[] dirtyIds = new int[1024];
+    private int dirtyCount;
+
+    private final LinkedBlockingQueue<Object> events = new LinkedBlockingQueue<>();
+
+    private MusicRecommender(){
+
+        Thread pipeline = new Thread(this::runPipeline, "recommender-pipeline");
+        pipeline.setDaemon(true);
+        pipeline.start();
+    }
+
+    public static MusicRecommender getInstance() {
+        return instance;
+    }
+
+    /*
+     Adds the song to the user's history and feeds the model.
+     */
+    public void recordPlay(User user, Song song) {
+
+        user.addToHistory(song);
+
+        events.add(new Play(user, song));
+    }
+
+    /*
+     Feeds an existing listening history (e.g. loaded at startup).
+     */
+    public void recordHistory(User user) {
+
+        for(Song song : new ArrayList<>(user.getListeningHistory()))
+            events.add(new Play(user, song));
+    }
+
+    /*
+     Blocks until every play recorded so far is reflected in the
+     served neighbor lists.
+     */
+    public void awaitRefresh() throws InterruptedException {
+
+        CountDownLatch done = new CountDownLatch(1);
+
+        events.add(done);
+
+        done.await();
+    }
+
+    public List<Song> recommend(User user) {
+
+        Song lastSong = user.getLastPlayed();
+
+        if(lastSong == null)
+            return new ArrayList<>();
+
+        Integer id = ids.get(lastSong.getId());
+
+        AtomicReferenceArray<int[]> served = neighbors;
+
+        int[] similar = id == null || id >= served.length() ? null : served.get(id);
+
+        // not enough listening data yet: recommend songs from same artist
+        if(similar == null || similar.length == 0)
+            return new ArrayList<>(lastSong.getArtist().getSongs());
+
+        AtomicReferenceArray<Song> catalog = songs;
+
+        List<Song> result = new ArrayList<>(similar.length);
+
+        for(int n : similar)
+            result.add(catalog.get(n));
+
+        return result;
+    }
+
+    // ---------------------------------------------------------
+    // Pipeline thread
+    // ---------------------------------------------------------
+
+    private void runPipeline() {
+
+        long nextRefresh = System.currentTimeMillis() + REFRESH_MS;
+
+        while(true) {
+
+            Object event;
+
+            try {
+                event = events.poll(Math.max(1, nextRefresh - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+            }
+            catch(InterruptedException e) {
+                return;
+            }
+
+            if(event instanceof Play) {
+                apply((Play) event);
+            }
+            else if(event instanceof CountDownLatch) {
+                refresh();
+                ((CountDownLatch) event).countDown();
+            }
+
+            if(System.currentTimeMillis() >= nextRefresh) {
+                refresh();
+                nextRefresh = System.currentTimeMillis() + REFRESH_MS;
+            }
+        }
+    }
+
+    private void apply(Play play) {
+
+        int song = idOf(play.song);
+
+        plays[song]++;
+        markDirty(song);
+
+        RecentPlays window = recent.computeIfAbsent(play.user, u -> new RecentPlays());
+
+        for(int i = 0; i < window.size; i++) {
+
+            int other = window.ids[i];
+
+            if(other == song)
+                continue;
+
+            cooccurrence[song].increment(other);
+            cooccurrence[other].increment(song);
+            markDirty(other);
+        }
+
+        window.add(song);
+    }
+
+    /*
+     Recomputes the top-K neighbors of every dirty song.
+     Cost per song is its number of co-occurring songs.
+     */
+    private void refresh() {
+
+        AtomicReferenceArray<int[]> served = neighbors;
+
+        for(int d = 0; d < dirtyCount; d++) {
+
+            int song = dirtyIds[d];
+
+            dirty[song] = false;
+
+            served.set(song, topK(song));
+        }
+
+        dirtyCount = 0;
+    }
+
+    private int[] topK(int song) {
+
+        IntIntMap counts = cooccurrence[song];
+
+        // min-heap of the best K by similarity
+        int[] heapIds = new int[TOP_K];
+        double[] heapScores = new double[TOP_K];
+        int size = 0;
+
+        for(int slot = 0; slot < counts.capacity(); slot++) {
+
+            int other = counts.keyAt(slot);
+
+            if(other < 0)
+                continue;
+
+            double score = counts.valueAt(slot) / Math.sqrt((double) plays[song] * plays[other]);
+
+            if(size < TOP_K) {
+                heapIds[size] = other;
+                heapScores[size] = score;
+                siftUp(heapIds, heapScores, size++);
+            }
+            else if(score > heapScores[0]) {
+                heapIds[0] = other;
+                heapScores[0] = score;
+                siftDown(heapIds, heapScores, size);
+            }
+        }
+
+        // drain the heap: worst first, so fill from the back
+        int[] result = new int[size];
+
+        for(int i = size - 1; i >= 0; i--) {
+            result[i] = heapIds[0];
+            heapIds[0] = heapIds[i];
+            heapScores[0] = heapScores[i];
+            siftDown(heapIds, heapScores, i);
+        }
+
+        return result;
+    }
+
+    private static void siftUp(int[] ids, double[] scores, int i) {
+
+        while(i > 0) {
+
+            int parent = (i - 1) / 2;
+
+            if(scores[parent] <= scores[i])
+                return;
+
+            swap(ids, scores, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] ids, double[] scores, int size) {
+
+        int i = 0;
+
+        while(true) {
+
+            int smallest = i, l = 2 * i + 1, r = l + 1;
+
+            if(l < size && scores[l] < scores[smallest])
+                smallest = l;
+
+            if(r < size && scores[r] < scores[smallest])
+                smallest = r;
+
+            if(smallest == i)
+                return;
+
+            swap(ids, scores, i, smallest);
+            i = smallest;
+        }
+    }
+
+    private static void swap(int[] ids, double[] scores, int a, int b) {
+
+        int id = ids[a]; ids[a] = ids[b]; ids[b] = id;
+        double score = scores[a]; scores[a] = scores[b]; scores[b] = score;
+    }
+
+    private int idOf(Song song) {
+
+        Integer known = ids.get(song.getId());
+
+        if(known != null)
+            return known;
+
+        int id = ids.size();
+
+        if(id == plays.length) {
+
+            int capacity = id * 2;
+
+            plays = Arrays.copyOf(plays, capacity);
+            cooccurrence = Arrays.copyOf(cooccurrence, capacity);
+            dirty = Arrays.copyOf(dirty, capacity);
+
+            songs = grow(songs, capacity);
+            neighbors = grow(neighbors, capacity);
+        }
+
+        cooccurrence[id] = new IntIntMap();
+        songs.set(id, song);
+
+        // publish the id last, readers then find the song in place
+        ids.put(song.getId(), id);
+
+        return id;
+    }
+
+    private static <T> AtomicReferenceArray<T> grow(AtomicReferenceArray<T> old, int capacity) {
+
+        AtomicReferenceArray<T> grown = new AtomicReferenceArray<>(capacity);
+
+        for(int i = 0; i < old.length(); i++)
+            grown.set(i, old.get(i));
+
+        return grown;
+    }
+
+    private void markDirty(int song) {
+
+        if(dirty[song])
+            return;
+
+        dirty[song] = true;
+
+        if(dirtyCount == dirtyIds.length)
+            dirtyIds = Arrays.copyOf(dirtyIds, dirtyCount * 2);
+
+        dirtyIds[dirtyCount++] = song;
+    }
+
+    private static class Play {
+
+        final User user;
+        final Song song;
+
+        Play(User user, Song song) {
+            this.user = user;
+            this.song = song;
+        }
+    }
+
+    /*
+     Ring of a user's last WINDOW song ids.
+     */
+    private static class RecentPlays {
+
+        final int[] ids = new int[WINDOW];
+        int size;
+        int next;
+
+        void add(int id) {
+
+            ids[next] = id;
+            next = (next + 1) % WINDOW;
+
+            if(size < WINDOW)
+                size++;
+        }
+    }
+}
+
+
+/* ================================================================
+   TRENDING CHARTS (SINGLETON)
+   Top songs of the last hour / last day over all users
+
+   Pipeline:
+   - recordPlay() only offers (song, time) to a bounded queue;
+     when the pipeline falls behind, plays are dropped and
+     counted rather than buffered without limit.
+   - One background thread applies plays to every window and,
+     every REFRESH_MS, rebuilds each chart.
+
+   Window (sliding, in fixed buckets, e.g. 60 x 1 minute):
+   - per bucket a count-min sketch (DEPTH x WIDTH counters) and a
+     SpaceSaving summary of its CANDIDATES heaviest songs
+   - a running sum of the live buckets' sketches, so a song's
+     plays in the whole window cost DEPTH lookups; an expiring
+     bucket is subtracted from the sum and cleared
+   - chart = union of the live buckets' candidates, ranked by
+     window estimate, best CHART_SIZE kept
+
+   Memory is fixed by the constants, not by catalog size or play
+   count. Estimates only overcount, by at most e / WIDTH of the
+   window's plays with probability 1 - e^-DEPTH.
+
+   Serving: top() slices the published chart, O(K).
+   ================================================================ */
+class TrendingCharts {
+
+    static final int CHART_SIZE = 100;
+    static final int CANDIDATES = 256;
+    static final int DEPTH = 4;
+    static final int WIDTH_BITS = 11; // 2048 counters per row
+    static final int QUEUE_CAPACITY = 1 << 16;
+    static final long REFRESH_MS = 1000;
+
+    public enum ChartWindow {
+
+        LAST_HOUR(60_000, 60),
+        LAST_DAY(3_600_000, 24);
+
+        final long bucketMillis;
+        final int buckets;
+
+        ChartWindow(long bucketMillis, int buckets) {
+            this.bucketMillis = bucketMillis;
+            this.buckets = buckets;
+        }
+    }
+
+    private static TrendingCharts instance = new TrendingCharts();
+
+    private final SongRegistry registry = MusicLibrary.getInstance().getSongRegistry();
+
+    private final BlockingQueue<Object> events = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+
+    // owned by the pipeline thread
+    private final Window[] windows = new Window[ChartWindow.values().length];
+
+    private final AtomicReferenceArray<List<ChartEntry>> published =
+            new AtomicReferenceArray<>(ChartWindow.values().length);
+
+    private TrendingCharts() {
+
+        for(ChartWindow w : ChartWindow.values()) {
+            windows[w.ordinal()] = new Window(w);
+            published.set(w.ordinal(), List.of());
+        }
+
+        Thread pipeline = new Thread(this::runPipeline, "charts-pipeline");
+        pipeline.setDaemon(true);
+        pipeline.start();
+    }
+
+    public static TrendingCharts getInstance() {
+        return instance;
+    }
+
+    public void recordPlay(Song song) {
+        recordPlay(song, System.currentTimeMillis());
+    }
+
+    // time of the play, e.g. when replaying a log
+    public void recordPlay(Song song, long timeMillis) {
+
+        if(!events.offer(new PlayEvent(registry.indexOf(song), timeMillis)))
+            dropped.incrementAndGet();
+    }
+
+    // best k songs of the window as of the last refresh, O(k)
+    public List<ChartEntry> top(ChartWindow window, int k) {
+
+        List<ChartEntry> chart = published.get(window.ordinal());
+
+        return chart.subList(0, Math.min(k, chart.size()));
+    }
+
+    // plays lost because the pipeline fell behind
+    public long getDroppedPlays() {
+        return dropped.get();
+    }
+
+    /*
+     Blocks until every play recorded so far is reflected in the
+     served charts.
+     */
+    public void awaitRefresh() throws InterruptedException {
+
+        CountDownLatch done = new CountDownLatch(1);
+
+        events.put(done);
+
+        done.await();
+    }
+
+    // ---------------------------------------------------------
+    // Pipeline thread
+    // ---------------------------------------------------------
+
+    private void runPipeline() {
+
+        long nextRefresh = System.currentTimeMillis() + REFRESH_MS;
+
+        while(true) {
+
+            Object event;
+
+            try {
+                event = events.poll(Math.max(1, nextRefresh - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+            }
+            catch(InterruptedException e) {
+                return;
+            }
+
+            if(event instanceof PlayEvent) {
+
+                PlayEvent play = (PlayEvent) event;
+
+                for(Window w : windows)
+                    w.add(play.song, play.timeMillis);
+            }
+            else if(event instanceof CountDownLatch) {
+                refresh();
+                ((CountDownLatch) event).countDown();
+            }
+
+            if(System.currentTimeMillis() >= nextRefresh) {
+                refresh();
+                nextRefresh = System.currentTimeMillis() + REFRESH_MS;
+            }
+        }
+    }
+
+    private void refresh() {
+
+        long now = System.currentTimeMillis();
+
+        for(Window w : windows)
+            published.set(w.window.ordinal(), w.chart(now));
+    }
+
+    /*
+     One sliding window: a ring of buckets plus the running sum of
+     their sketches.
+     */
+    private class Window {
+
+        final ChartWindow window;
+
+        final int[][] sketches;
+        final SpaceSaving[] candidates;
+        final long[] epochs; // bucket start / bucketMillis, -1 if empty
+
+        final int[] total = new int[DEPTH << WIDTH_BITS];
+        long latestEpoch = -1;
+
+        Window(ChartWindow window) {
+
+            this.window = window;
+
+            sketches = new int[window.buckets][DEPTH << WIDTH_BITS];
+            candidates = new SpaceSaving[window.buckets];
+            epochs = new long[window.buckets];
+
+            for(int b = 0; b < window.buckets; b++)
+                candidates[b] = new SpaceSaving(CANDIDATES);
+
+            Arrays.fill(epochs, -1);
+        }
+
+        void add(int song, long timeMillis) {
+
+            long epoch = timeMillis / window.bucketMillis;
+
+            advance(epoch);
+
+            if(epoch <= latestEpoch - window.buckets)
+                return; // older than the window
+
+            int b = (int) (epoch % window.buckets);
+
+            if(epochs[b] != epoch) {
+                expire(b);
+                epochs[b] = epoch;
+            }
+
+            int[] sketch = sketches[b];
+
+            for(int row = 0; row < DEPTH; row++) {
+
+                int cell = cell(row, song);
+
+                sketch[cell]++;
+                total[cell]++;
+            }
+
+            candidates[b].add(song);
+        }
+
+        List<ChartEntry> chart(long now) {
+
+            advance(now / window.bucketMillis);
+
+            // candidates of every live bucket, each ranked once
+            IntIntMap seen = new IntIntMap();
+
+            int[] heapSongs = new int[CHART_SIZE];
+            int[] heapPlays = new int[CHART_SIZE];
+            int size = 0;
+
+            for(int b = 0; b < window.buckets; b++) {
+
+                if(epochs[b] < 0)
+                    continue;
+
+                SpaceSaving summary = candidates[b];
+
+                for(int i = 0; i < summary.size(); i++) {
+
+                    int song = summary.keyAt(i);
+
+                    if(seen.get(song) != 0)
+                        continue;
+
+                    seen.put(song, 1);
+
+                    int plays = estimate(song);
+
+                    if(size < CHART_SIZE) {
+                        heapSongs[size] = song;
+                        heapPlays[size] = plays;
+                        siftUp(heapSongs, heapPlays, size++);
+                    }
+                    else if(plays > heapPlays[0]) {
+                        heapSongs[0] = song;
+                        heapPlays[0] = plays;
+                        siftDown(heapSongs, heapPlays, size);
+                    }
+                }
+            }
+
+            // drain the heap: fewest plays first, so fill from the back
+            ChartEntry[] chart = new ChartEntry[size];
+
+            for(int i = size - 1; i >= 0; i--) {
+                chart[i] = new ChartEntry(registry.get(heapSongs[0]), heapPlays[0]);
+                heapSongs[0] = heapSongs[i];
+                heapPlays[0] = heapPlays[i];
+                siftDown(heapSongs, heapPlays, i);
+            }
+
+            return List.of(chart);
+        }
+
+        // upper bound of the song's plays in the window
+        int estimate(int song) {
+
+            int min = Integer.MAX_VALUE;
+
+            for(int row = 0; row < DEPTH; row++)
+                min = Math.min(min, total[cell(row, song)]);
+
+            return min;
+        }
+
+        // drops buckets that fell out of the window
+        void advance(long epoch) {
+
+            if(epoch <= latestEpoch)
+                return;
+
+            long from = Math.max(latestEpoch + 1, epoch - window.buckets + 1);
+
+            for(long e = from; e <= epoch; e++) {
+
+                int b = (int) (e % window.buckets);
+
+                if(epochs[b] >= 0 && epochs[b] <= epoch - window.buckets)
+                    expire(b);
+            }
+
+            latestEpoch = epoch;
+        }
+
+        void expire(int b) {
+
+            if(epochs[b] < 0)
+                return;
+
+            int[] sketch = sketches[b];
+
+            for(int i = 0; i < sketch.length; i++) {
+                total[i] -= sketch[i];
+                sketch[i] = 0;
+            }
+
+            candidates[b].clear();
+            epochs[b] = -1;
+        }
+    }
+
+    // multiply-shift hash, one odd multiplier per row
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L
+    };
+
+    private static int cell(int row, int song) {
+        return (row << WIDTH_BITS) | (int) (((song + 1L) * SEEDS[row]) >>> (64 - WIDTH_BITS));
+    }
+
+    private static void siftUp(int[] songs, int[] plays, int i) {
+
+        while(i > 0) {
+
+            int parent = (i - 1) / 2;
+
+            if(plays[parent] <= plays[i])
+                return;
+
+            swap(songs, plays, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] songs, int[] plays, int size) {
+
+        int i = 0;
+
+        while(true) {
+
+            int smallest = i, l = 2 * i + 1, r = l + 1;
+
+            if(l < size && plays[l] < plays[smallest])
+                smallest = l;
+
+            if(r < size && plays[r] < plays[smallest])
+                smallest = r;
+
+            if(smallest == i)
+                return;
+
+            swap(songs, plays, i, smallest);
+            i = smallest;
+        }
+    }
+
+    private static void swap(int[] songs, int[] plays, int a, int b) {
+
+        int song = songs[a]; songs[a] = songs[b]; songs[b] = song;
+        int p = plays[a]; plays[a] = plays[b]; plays[b] = p;
+    }
+
+    private static class PlayEvent {
+
+        final int song;
+        final long timeMillis;
+
+        PlayEvent(int song, long timeMillis) {
+            this.song = song;
+            this.timeMillis = timeMillis;
+        }
+    }
+}
+
+
+/* ================================================================
+   CHART ENTRY
+   A song and its estimated plays in a chart window
+   ================================================================ */
+class ChartEntry {
+
+    private final Song song;
+    private final int plays;
+
+    public ChartEntry(Song song, int plays) {
+        this.song = song;
+        this.plays = plays;
+    }
+
+    public Song getSong() {
+        return song;
+    }
+
+    public int getPlays() {
+        return plays;
+    }
+
+    @Override
+    public String toString() {
+        return song.getTitle() + " (" + plays + ")";
+    }
+}
+
+
+/* ================================================================
+   SPACE SAVING
+   Heavy hitters of a stream in fixed space (Metwally et al.)
+
+   Monitors at most capacity keys. A new key, when full, takes
+   over the key with the smallest count and inherits that count
+   plus one. Any key played more than n / capacity times is
+   guaranteed to be monitored.
+
+   Counters sit in a min-heap (smallest count at the root) with
+   an IntIntMap from key to heap slot, so add() is O(log capacity).
+   ================================================================ */
+class SpaceSaving {
+
+    private final int[] keys;
+    private final int[] counts;
+    private final IntIntMap slots = new IntIntMap(); // key -> heap slot + 1
+    private int size;
+
+    public SpaceSaving(int capacity) {
+        keys = new int[capacity];
+        counts = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // monitored keys, in no particular order
+    public int keyAt(int i) {
+        return keys[i];
+    }
+
+    public void add(int key) {
+
+        int slot = slots.get(key) - 1;
+
+        if(slot < 0 && size < keys.length) {
+
+            // new leaf with count 1, may be the smallest
+            slot = size++;
+            keys[slot] = key;
+            counts[slot] = 1;
+            slots.put(key, slot + 1);
+
+            siftUp(slot);
+            return;
+        }
+
+        if(slot < 0) {
+
+            // full: evict the smallest, the newcomer inherits its count
+            slot = 0;
+            slots.remove(keys[0]);
+            keys[0] = key;
+            slots.put(key, 1);
+        }
+
+        counts[slot]++;
+        siftDown(slot);
+    }
+
+    public void clear() {
+
+        for(int i = 0; i < size; i++)
+            slots.remove(keys[i]);
+
+        size = 0;
+    }
+
+    private void siftUp(int i) {
+
+        while(i > 0) {
+
+            int parent = (i - 1) / 2;
+
+            if(counts[parent] <= counts[i])
+                return;
+
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+
+        while(true) {
+
+            int smallest = i, l = 2 * i + 1, r = l + 1;
+
+            if(l < size && counts[l] < counts[smallest])
+                smallest = l;
+
+            if(r < size && counts[r] < counts[smallest])
+                smallest = r;
+
+            if(smallest == i)
+                return;
+
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+
+        int key = keys[a]; keys[a] = keys[b]; keys[b] = key;
+        int count = counts[a]; counts[a] = counts[b]; counts[b] = count;
+
+        slots.put(keys[a], a + 1);
+        slots.put(keys[b], b + 1);
+    }
+}
+
+
+/* ================================================================
+   INT -> INT MAP
+   Open addressing with linear probing, keys >= 0.
+   Used for sparse per-song co-occurrence counts without boxing,
+   and as the song -> counter index of SpaceSaving.
+   ================================================================ */
+class IntIntMap {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys = newKeys(8);
+    private int[] values = new int[8];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    // slot accessors for iteration; keyAt returns -1 for empty slots
+    public int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    public int valueAt(int slot) {
+        return values[slot];
+    }
+
+    public int get(int key) {
+
+        int slot = find(keys, key);
+
+        return keys[slot] == key ? values[slot] : 0;
+    }
+
+    public void put(int key, int value) {
+
+        int slot = find(keys, key);
+
+        values[slot] = value;
+
+        if(keys[slot] == key)
+            return;
+
+        keys[slot] = key;
+
+        if(++size * 2 > keys.length)
+            rehash();
+    }
+
+    public void remove(int key) {
+
+        int slot = find(keys, key);
+
+        if(keys[slot] != key)
+            return;
+
+        keys[slot] = EMPTY;
+        size--;
+
+        // shift later entries of the probe run back into the hole
+        int mask = keys.length - 1;
+        int hole = slot;
+
+        for(int next = (slot + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+
+            int home = home(keys[next], mask);
+
+            // entry may move to the hole only if the hole lies between its home and next
+            if(((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                keys[next] = EMPTY;
+                hole = next;
+            }
+        }
+    }
+
+    public void increment(int key) {
+
+        int slot = find(keys, key);
+
+        if(keys[slot] == key) {
+            values[slot]++;
+            return;
+        }
+
+        keys[slot] = key;
+        values[slot] = 1;
+
+        // keep load factor <= 0.5
+        if(++size * 2 > keys.length)
+            rehash();
+    }
+
+    private void rehash() {
+
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+
+        keys = newKeys(oldKeys.length * 2);
+        values = new int[oldKeys.length * 2];
+
+        for(int i = 0; i < oldKeys.length; i++) {
+
+            if(oldKeys[i] == EMPTY)
+                continue;
+
+            int slot = find(keys, oldKeys[i]);
+
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private static int find(int[] keys, int key) {
+
+        int mask = keys.length - 1;
+        int slot = home(key, mask);
+
+        while(keys[slot] != EMPTY && keys[slot] != key)
+            slot = (slot + 1) & mask;
+
+        return slot;
+    }
+
+    private static int home(int key, int mask) {
+
+        int hash = key * 0x9E3779B9;
+
+        return (hash ^ hash >>> 16) & mask;
+    }
+
+    private static int[] newKeys(int capacity) {
+
+        int[] keys = new int[capacity];
+
+        Arrays.fill(keys, EMPTY);
+
+        return keys;
+    }
+}
+
+
+/* ================================================================
+   MUSIC STREAMING SERVICE
+   Main entry point
+   ================================================================ */
+public class MusicStreamingService {
+
+    public static void main(String[] args) {
+
+        MusicLibrary library = MusicLibrary.getInstance();
+        UserManager userManager = UserManager.getInstance();
+        Path audioDir;
+
+        try {
+            audioDir = Files.createTempDirectory("spotify-audio");
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        NullAudioSink speaker = new NullAudioSink();
+        MusicPlayer player = new MusicPlayer(new DirectoryAudioStore(audioDir), speaker);
+        MusicRecommender recommender = MusicRecommender.getInstance();
+
+
+        /* Create Sample Data */
+
+        Artist arijit = new Artist("A1","Arijit Singh");
+
+        Album album = new Album("AL1","Hits",arijit);
+
+        Song s1 = new Song("S1","Tum Hi Ho",arijit,album,200);
+        Song s2 = new Song("S2","Channa Mereya",arijit,album,220);
+
+        album.addSong(s1);
+        album.addSong(s2);
+
+        arijit.addSong(s1);
+        arijit.addSong(s2);
+
+        library.addSong(s1);
+        library.addSong(s2);
+
+        // 2 seconds of silence each as the songs' audio
+        try {
+            for(Song s : List.of(s1, s2))
+                Files.write(audioDir.resolve(s.getId() + ".pcm"), new byte[2 * MusicPlayer.BYTES_PER_SECOND]);
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
 
 
         /* User Registration */
@@ -474,12 +3301,16 @@ public class MusicStreamingService {
 
         Song songToPlay = results.get(0);
 
+        System.out.println("Autocomplete 'arijit si': " + library.autocomplete("arijit si", 5));
+        System.out.println("Search 'arijit': " + library.searchSong("arijit"));
+
 
         /* Play Song */
 
         player.play(songToPlay);
+        player.queue(s2); // starts right after, no gap
 
-        user.addToHistory(songToPlay);
+        recommender.recordPlay(user, songToPlay);
 
 
         /* Recommendation */
@@ -487,5 +3318,95 @@ public class MusicStreamingService {
         List<Song> rec = recommender.recommend(user);
 
         System.out.println("Recommended songs: " + rec);
+
+
+        /* Other listeners: whoever plays Tum Hi Ho also plays Kesariya */
+
+        Song s3 = new Song("S3","Kesariya",arijit,album,260);
+        album.addSong(s3);
+        arijit.addSong(s3);
+        library.addSong(s3);
+
+        for(int i = 0; i < 3; i++) {
+
+            User listener = new User("L" + i, "listener" + i, "pw");
+
+            recommender.recordPlay(listener, s1);
+            recommender.recordPlay(listener, s3);
+        }
+
+        try {
+            recommender.awaitRefresh();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        System.out.println("Recommended songs: " + recommender.recommend(user));
+
+
+        /* Heavy listener: memory keeps the last plays, the rest spills to disk */
+
+        User heavy = new User("U2", "heavy", "pw");
+
+        for(int i = 0; i < 3000; i++)
+            heavy.addToHistory(i % 2 == 0 ? s1 : s2);
+
+        int total = 0;
+
+        try(HistoryCursor cursor = heavy.streamHistory()) {
+            while(cursor.hasNext()) {
+                cursor.next();
+                total++;
+            }
+        }
+
+        System.out.println("Heavy listener: " + heavy.getListeningHistory().size()
+                + " plays in memory, " + total + " in full history");
+
+
+        /* Shared playlist: two devices edit the same version */
+
+        Playlist roadTrip = new Playlist("P1", "Road Trip");
+        user.addPlaylist(roadTrip);
+
+        roadTrip.addSong(s1);
+        roadTrip.addSong(s2);
+        roadTrip.addSong(s3);
+
+        long seen = roadTrip.getVersion();
+
+        roadTrip.move(seen, 2, 0); // phone: Kesariya first
+
+        try {
+            roadTrip.remove(seen, 1); // laptop, still on the old version
+        }
+        catch(PlaylistVersionConflictException e) {
+            System.out.println("Laptop: " + e.getMessage());
+        }
+
+        System.out.println("Road Trip v" + roadTrip.getVersion() + ": " + roadTrip.getSongs());
+
+
+        /* Trending: every player reports its plays to the charts */
+
+        TrendingCharts charts = TrendingCharts.getInstance();
+
+        player.play(s2);
+        player.play(s1);
+
+        try {
+            charts.awaitRefresh();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        System.out.println("Trending this hour: " + charts.top(TrendingCharts.ChartWindow.LAST_HOUR, 3));
+
+        System.out.println("Player: now on " + player.getCurrentSong()
+                + ", " + speaker.getBytes() + " bytes sent to the sink");
+
+        player.close();
     }
 }
\ No newline at end of file
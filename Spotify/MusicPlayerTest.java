@@ -0,0 +1,163 @@
+/*
+=====================================================================
+MUSIC PLAYER TEST
+skip() with songs the prefetch thread has already taken
+=====================================================================
+
+While a track plays, the prefetch thread takes the next queued
+songs off the queue to buffer them. skip() must still move to the
+song right after the current one, and the songs after that must
+still play in order.
+
+The sink takes SINK_MILLIS per chunk, so a track lasts long enough
+for the prefetch thread to run ahead of it.
+
+1. A playing, B and C queued: skip() plays B, then C follows.
+2. A playing, only B queued: skip() plays B.
+
+Usage:
+    java MusicPlayerTest
+
+Exits with status 1 if a check fails.
+=====================================================================
+*/
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MusicPlayerTest {
+
+    static final int CHUNKS_PER_TRACK = 8;
+    static final long SINK_MILLIS = 50;
+
+    static boolean ok = true;
+
+    /*
+    Plays chunks at a fixed pace and records the order songs
+    started in.
+    */
+    static class SlowSink implements AudioSink {
+
+        final List<Song> started = new ArrayList<>();
+
+        public void write(Song song, ByteBuffer chunk) {
+
+            synchronized(this) {
+                if(started.isEmpty() || started.get(started.size() - 1) != song)
+                    started.add(song);
+            }
+
+            try {
+                Thread.sleep(SINK_MILLIS);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized List<Song> started() {
+            return new ArrayList<>(started);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Path dir = Files.createTempDirectory("player-test");
+
+        Artist artist = new Artist("A", "Test");
+        Album album = new Album("AL", "Test", artist);
+
+        List<Song> songs = new ArrayList<>();
+
+        byte[] pcm = new byte[CHUNKS_PER_TRACK * MusicPlayer.CHUNK_BYTES];
+
+        for(int i = 0; i < 3; i++) {
+
+            Song song = new Song("t" + i, "Track " + i, artist, album, 1);
+
+            Files.write(dir.resolve(song.getId() + ".pcm"), pcm);
+
+            songs.add(song);
+        }
+
+        PrintStream console = System.out;
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        List<String> results = new ArrayList<>();
+
+        try {
+            skipWithTwoQueued(dir, songs, results);
+            skipWithOneQueued(dir, songs, results);
+        }
+        finally {
+            System.setOut(console);
+        }
+
+        results.forEach(console::println);
+
+        console.println(ok ? "PASSED" : "FAILED");
+
+        if(!ok)
+            System.exit(1);
+    }
+
+    static void skipWithTwoQueued(Path dir, List<Song> songs, List<String> results) throws Exception {
+
+        SlowSink sink = new SlowSink();
+        MusicPlayer player = new MusicPlayer(new DirectoryAudioStore(dir), sink);
+
+        player.play(songs.get(0));
+        player.queue(songs.get(1));
+        player.queue(songs.get(2));
+
+        // both queued songs fit in the buffer, so they are prefetched by now
+        Thread.sleep(2 * SINK_MILLIS);
+
+        player.skip();
+
+        // A still has chunks left, so only a skip gets B started this early
+        Thread.sleep(4 * SINK_MILLIS);
+
+        check(results, "skip() with B and C queued plays B",
+                sink.started().equals(songs.subList(0, 2)));
+
+        Thread.sleep((2 * CHUNKS_PER_TRACK + 4) * SINK_MILLIS);
+
+        player.close();
+
+        check(results, "C follows B", sink.started().equals(songs));
+    }
+
+    static void skipWithOneQueued(Path dir, List<Song> songs, List<String> results) throws Exception {
+
+        SlowSink sink = new SlowSink();
+        MusicPlayer player = new MusicPlayer(new DirectoryAudioStore(dir), sink);
+
+        player.play(songs.get(0));
+        player.queue(songs.get(1));
+
+        Thread.sleep(2 * SINK_MILLIS);
+
+        player.skip();
+
+        Thread.sleep(4 * SINK_MILLIS);
+
+        player.close();
+
+        check(results, "skip() with only B queued plays B",
+                sink.started().equals(songs.subList(0, 2)));
+    }
+
+    static void check(List<String> results, String name, boolean passed) {
+
+        results.add((passed ? "ok      " : "FAILED  ") + name);
+
+        ok &= passed;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+=====================================================================
+PLAYBACK BENCHMARK
+Chunk throughput, track-change gap and skip-to-first-byte latency
+of the MusicPlayer pipeline
+=====================================================================
+
+Writes TRACKS raw PCM files of TRACK_SECONDS each to a temp dir and
+plays them through a sink that never blocks (no audio device), so
+the numbers are the pipeline's own cost:
+
+1. throughput  - all tracks queued and played back to back:
+                 MB/s and chunks/s through the sink
+2. track gap   - time between the last chunk of a track and the
+                 first chunk of the next, vs. between chunks of the
+                 same track. Gapless = no bigger than a normal step.
+3. skip        - skip(song) to a random track until its first chunk
+                 reaches the sink, p50 / p99
+
+Files are freshly written, so they are read from the page cache.
+
+Usage:
+    java PlaybackBenchmark [skips]        default 2000
+=====================================================================
+*/
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PlaybackBenchmark {
+
+    static final int TRACKS = 16;
+    static final int TRACK_SECONDS = 60;
+
+    /*
+    Records when chunks arrive; signals the first chunk of the
+    song the benchmark is waiting for.
+    */
+    static class TimingSink implements AudioSink {
+
+        volatile Song awaited;
+        volatile CountDownLatch arrived;
+
+        // written by the output thread only, polled by main
+        volatile long bytes;
+        volatile long chunks;
+
+        Song lastSong;
+        long lastArrival;
+
+        final List<Long> inTrackGaps = new ArrayList<>();
+        final List<Long> trackChangeGaps = new ArrayList<>();
+
+        public void write(Song song, ByteBuffer chunk) {
+
+            long now = System.nanoTime();
+
+            if(lastSong != null)
+                (song == lastSong ? inTrackGaps : trackChangeGaps).add(now - lastArrival);
+
+            lastSong = song;
+            lastArrival = now;
+
+            bytes += chunk.remaining();
+            chunks++;
+
+            CountDownLatch latch = arrived;
+
+            if(latch != null && song == awaited)
+                latch.countDown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        int skips = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        Path dir = Files.createTempDirectory("playback-bench");
+
+        Artist artist = new Artist("A", "Bench");
+        Album album = new Album("AL", "Bench", artist);
+
+        List<Song> songs = new ArrayList<>();
+
+        byte[] pcm = new byte[TRACK_SECONDS * MusicPlayer.BYTES_PER_SECOND];
+
+        new Random(7).nextBytes(pcm);
+
+        for(int i = 0; i < TRACKS; i++) {
+
+            Song song = new Song("T" + i, "Track " + i, artist, album, TRACK_SECONDS);
+
+            Files.write(dir.resolve(song.getId() + ".pcm"), pcm);
+
+            songs.add(song);
+        }
+
+        PrintStream console = System.out;
+
+        // the player prints on every call; keep console I/O out of the numbers
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        TimingSink sink = new TimingSink();
+        MusicPlayer player = new MusicPlayer(new DirectoryAudioStore(dir), sink);
+
+        // 1 + 2: everything back to back
+        long totalBytes = (long) TRACKS * pcm.length;
+
+        for(int i = 1; i < TRACKS; i++)
+            player.queue(songs.get(i));
+
+        long start = System.nanoTime();
+
+        player.play(songs.get(0));
+
+        while(sink.bytes < totalBytes)
+            Thread.sleep(1);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        console.printf("throughput: %.0f MB/s, %.0f chunks/s (%d tracks, %d MB)%n",
+                totalBytes / 1e6 / seconds, sink.chunks / seconds, TRACKS, totalBytes / 1_000_000);
+
+        long[] inTrack = sorted(sink.inTrackGaps);
+        long[] trackChange = sorted(sink.trackChangeGaps);
+
+        console.printf("chunk gap:  in track p50 %.1f us p99 %.1f us | track change p50 %.1f us max %.1f us%n",
+                inTrack[inTrack.length / 2] / 1e3, inTrack[(int) (inTrack.length * 0.99)] / 1e3,
+                trackChange[trackChange.length / 2] / 1e3, trackChange[trackChange.length - 1] / 1e3);
+
+        // 3: skip to a random track, wait for its first chunk
+        Random random = new Random(11);
+        long[] latencies = new long[skips];
+
+        for(int i = 0; i < skips; i++) {
+
+            Song target = songs.get(random.nextInt(TRACKS));
+
+            // never skip to the song already playing
+            if(target == player.getCurrentSong())
+                target = songs.get((songs.indexOf(target) + 1) % TRACKS);
+
+            CountDownLatch latch = new CountDownLatch(1);
+
+            sink.awaited = target;
+            sink.arrived = latch;
+
+            long t0 = System.nanoTime();
+
+            player.skip(target);
+
+            if(!latch.await(5, TimeUnit.SECONDS))
+                throw new IllegalStateException("no audio after skip");
+
+            latencies[i] = System.nanoTime() - t0;
+        }
+
+        Arrays.sort(latencies);
+
+        console.printf("skip->first byte: p50 %.1f us, p99 %.1f us, max %.1f us (%d skips)%n",
+                latencies[skips / 2] / 1e3, latencies[(int) (skips * 0.99)] / 1e3,
+                latencies[skips - 1] / 1e3, skips);
+
+        player.close();
+        System.setOut(console);
+    }
+
+    static long[] sorted(List<Long> values) {
+
+        long[] result = values.stream().mapToLong(Long::longValue).toArray();
+
+        Arrays.sort(result);
+
+        return result;
+    }
+}
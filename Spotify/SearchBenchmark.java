@@ -0,0 +1,189 @@
+/*
+=====================================================================
+SEARCH BENCHMARK
+Latency of SongSearchIndex search / autocomplete vs. the old scan
+=====================================================================
+
+Builds a synthetic catalog (titles of 1-4 words drawn from a Zipf
+distributed vocabulary, so common words like "love" match a large
+share of the catalog, the way real titles do), then measures:
+
+1. linear scan   - the original MusicLibrary.searchSong: lowercase
+                   every title per call and run contains()
+2. search top-10 - one and two word queries, last word as prefix
+3. search page 5 - the same queries, results 40..49
+4. autocomplete  - 1-4 typed characters of a real word
+
+Usage:
+    java SearchBenchmark [songs]          default 1,000,000
+
+10M songs need a large heap:
+    java -Xmx12g SearchBenchmark 10000000
+=====================================================================
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+public class SearchBenchmark {
+
+    static final int VOCABULARY = 50_000;
+    static final int ARTISTS = 100_000;
+    static final int QUERIES = 20_000;
+
+    public static void main(String[] args) {
+
+        int songCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        Random random = new Random(42);
+
+        String[] vocabulary = new String[VOCABULARY];
+
+        for (int i = 0; i < VOCABULARY; i++)
+            vocabulary[i] = word(random);
+
+        double[] zipf = zipf(VOCABULARY);
+
+        Artist[] artists = new Artist[ARTISTS];
+        Album[] albums = new Album[ARTISTS];
+
+        for (int i = 0; i < ARTISTS; i++) {
+            artists[i] = new Artist("A" + i, phrase(random, vocabulary, zipf, 2));
+            albums[i] = new Album("AL" + i, phrase(random, vocabulary, zipf, 2), artists[i]);
+        }
+
+        SongSearchIndex index = new SongSearchIndex();
+        List<Song> songs = new ArrayList<>(songCount);
+
+        long buildStart = System.nanoTime();
+
+        for (int i = 0; i < songCount; i++) {
+
+            int a = random.nextInt(ARTISTS);
+
+            Song song = new Song("S" + i,
+                    phrase(random, vocabulary, zipf, 1 + random.nextInt(4)),
+                    artists[a], albums[a], 180);
+
+            songs.add(song);
+            index.add(song);
+        }
+
+        System.out.printf("indexed %d songs in %.1f s%n",
+                songCount, (System.nanoTime() - buildStart) / 1e9);
+
+        // queries: one or two words, the last one partly typed
+        String[] queries = new String[QUERIES];
+        String[] typed = new String[QUERIES];
+
+        for (int i = 0; i < QUERIES; i++) {
+
+            String last = vocabulary[sample(random, zipf)];
+            String partial = last.substring(0, Math.min(last.length(), 2 + random.nextInt(4)));
+
+            queries[i] = random.nextBoolean()
+                    ? partial
+                    : vocabulary[sample(random, zipf)] + " " + partial;
+
+            typed[i] = last.substring(0, 1 + random.nextInt(Math.min(4, last.length())));
+        }
+
+        System.out.printf("%-16s %10s %10s %10s%n", "operation", "p50(us)", "p99(us)", "max(us)");
+
+        measure("linear scan", Arrays.copyOf(queries, 20), q -> {
+
+            List<Song> result = new ArrayList<>();
+
+            for (Song s : songs)
+                if (s.getTitle().toLowerCase().contains(q.toLowerCase()))
+                    result.add(s);
+        });
+
+        measure("search top-10", queries, q -> index.search(q, 0, 10));
+        measure("search page 5", queries, q -> index.search(q, 40, 10));
+        measure("autocomplete", typed, q -> index.autocomplete(q, 10));
+    }
+
+    static void measure(String name, String[] queries, Consumer<String> op) {
+
+        // warmup
+        for (String q : queries)
+            op.accept(q);
+
+        long[] latencies = new long[queries.length];
+
+        for (int i = 0; i < queries.length; i++) {
+
+            long start = System.nanoTime();
+
+            op.accept(queries[i]);
+
+            latencies[i] = System.nanoTime() - start;
+        }
+
+        Arrays.sort(latencies);
+
+        System.out.printf("%-16s %10.1f %10.1f %10.1f%n", name,
+                latencies[latencies.length / 2] / 1000.0,
+                latencies[(int) (latencies.length * 0.99)] / 1000.0,
+                latencies[latencies.length - 1] / 1000.0);
+    }
+
+    static String word(Random random) {
+
+        int length = 3 + random.nextInt(7);
+
+        StringBuilder sb = new StringBuilder(length);
+
+        for (int i = 0; i < length; i++)
+            sb.append((char) ('a' + random.nextInt(26)));
+
+        return sb.toString();
+    }
+
+    static String phrase(Random random, String[] vocabulary, double[] zipf, int words) {
+
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < words; i++) {
+
+            if (i > 0)
+                sb.append(' ');
+
+            String w = vocabulary[sample(random, zipf)];
+
+            sb.append(Character.toUpperCase(w.charAt(0))).append(w, 1, w.length());
+        }
+
+        return sb.toString();
+    }
+
+    /*
+    Cumulative Zipf(1) distribution over n ranks.
+    */
+    static double[] zipf(int n) {
+
+        double[] cdf = new double[n];
+        double sum = 0;
+
+        for (int i = 0; i < n; i++) {
+            sum += 1.0 / (i + 1);
+            cdf[i] = sum;
+        }
+
+        for (int i = 0; i < n; i++)
+            cdf[i] /= sum;
+
+        return cdf;
+    }
+
+    static int sample(Random random, double[] cdf) {
+
+        int i = Arrays.binarySearch(cdf, random.nextDouble());
+
+        return i >= 0 ? i : Math.min(cdf.length - 1, -i - 1);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+=====================================================================
+SONG SEARCH TEST
+Paging through tied results of SongSearchIndex
+=====================================================================
+
+Results with the same score are ranked by the order the songs were
+added. The search stops early once nothing left to scan can make the
+top-K; a song in a later (lower weighted) field list can still tie
+the worst result and win it on doc id, so that check must compare
+full ranking keys. Otherwise pages repeat one song and skip another.
+
+1. Two songs that tie: "Xenon" by Yellow and "Yellow" by Xenon.
+   Page 1 and page 2 of "yellow xenon " must be different songs, in
+   the order they were added.
+2. The same for a larger catalog: every page of size 1 must match
+   the full ranking at that position.
+
+Usage:
+    java SongSearchTest
+
+Exits with status 1 if a check fails.
+=====================================================================
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SongSearchTest {
+
+    static boolean ok = true;
+
+    public static void main(String[] args) {
+
+        tiedSongsPageInAddOrder();
+        pagesMatchFullRanking();
+
+        System.out.println(ok ? "PASSED" : "FAILED");
+
+        if(!ok)
+            System.exit(1);
+    }
+
+    static void tiedSongsPageInAddOrder() {
+
+        SongSearchIndex index = new SongSearchIndex();
+
+        Song first = song("s1", "Xenon", "Yellow");
+        Song second = song("s2", "Yellow", "Xenon");
+
+        index.add(first);
+        index.add(second);
+
+        List<Song> page1 = index.search("yellow xenon ", 0, 1);
+        List<Song> page2 = index.search("yellow xenon ", 1, 1);
+
+        check("page 1 is the song added first", page1.size() == 1 && page1.get(0) == first);
+        check("page 2 is the song added second", page2.size() == 1 && page2.get(0) == second);
+    }
+
+    static void pagesMatchFullRanking() {
+
+        SongSearchIndex index = new SongSearchIndex();
+
+        String[] words = {"red", "blue", "green"};
+
+        // every mix of the words over title and artist, so many songs tie
+        for(int i = 0; i < 60; i++)
+            index.add(song("s" + i, words[i % 3] + " " + words[(i / 3) % 3], words[(i / 9) % 3]));
+
+        for(String query : new String[]{"red blue ", "green ", "blue re", "red green blue "}) {
+
+            List<Song> all = index.search(query, 0, 100);
+            List<Song> paged = new ArrayList<>();
+
+            for(int page = 0; page < all.size(); page++)
+                paged.addAll(index.search(query, page, 1));
+
+            check("pages of '" + query + "' match the full ranking", paged.equals(all));
+        }
+    }
+
+    static Song song(String id, String title, String artistName) {
+
+        Artist artist = new Artist(id + "-artist", artistName);
+
+        return new Song(id, title, artist, new Album(id + "-album", "Album " + id, artist), 180);
+    }
+
+    static void check(String name, boolean passed) {
+
+        System.out.println((passed ? "ok      " : "FAILED  ") + name);
+
+        ok &= passed;
+    }
+}